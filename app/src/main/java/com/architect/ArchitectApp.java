@@ -4,6 +4,8 @@ import android.app.ActivityManager;
 import android.app.Application;
 import android.content.Context;
 
+import com.architect.base.api.ApiManager;
+
 import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.EventBusException;
 
@@ -28,6 +30,8 @@ public class ArchitectApp extends Application{
                     .installDefaultEventBus();
         } catch (EventBusException e) {
         }
+
+        ApiManager.getInstance().warmUpResponseAdapters();
     }
 
     private void initGlobalConstant() {
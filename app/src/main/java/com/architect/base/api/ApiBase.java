@@ -1,5 +1,6 @@
 package com.architect.base.api;
 
+import com.corelib.volley.OriginalData;
 import com.corelib.volley.Request;
 
 import java.util.HashMap;
@@ -35,6 +36,7 @@ public class ApiBase {
         int REQ_TYPE_CHECK_UPDATE_MANUAL = 28;
         int REQ_TYPE_GET_APPLIST = 24;
         int REQ_TYPE_ADD_APPLIST = 25;
+        /** 结果在后台线程分发，不在主线程，见VolleyApiExecutor */
         int REQ_TYPE_PRELOAD_NEWS = 29;
     }
 
@@ -71,7 +73,7 @@ public class ApiBase {
     // API头信息
     private HashMap<String, String> headers;
     private Map<String, String> responseHeaders;// used for http log upload
-    private String originalData = null;// used for http log upload
+    private OriginalData originalData = null;// used for http log upload，用到时才解码
     private Class<?> responseClass;
     private LinkedHashMap<String, String> params;
     private int statusCode;
@@ -146,10 +148,14 @@ public class ApiBase {
         this.changeServerTimes=changeServerTimes++;
     }
 
-    public void setOriginalData(String originalData) {
+    public void setOriginalData(OriginalData originalData) {
         this.originalData = originalData;
     }
 
+    public String getOriginalData() {
+        return originalData == null ? null : originalData.getString();
+    }
+
     public void setResponseHeaders(Map<String, String> responseHeaders) {
         this.responseHeaders = responseHeaders;
     }
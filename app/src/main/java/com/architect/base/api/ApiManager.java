@@ -4,6 +4,7 @@ import android.text.TextUtils;
 
 import com.architect.base.policy.EventBusDispatcher;
 import com.architect.base.policy.VolleyApiExecutor;
+import com.corelib.volley.toolbox.GsonAdapterRegistry;
 
 
 /**
@@ -13,6 +14,14 @@ import com.architect.base.policy.VolleyApiExecutor;
 public class ApiManager {
 
     private static ApiManager sManager = null;
+
+    /**
+     * 所有Api的响应类，启动时在后台提前解析它们的Gson adapter。新增Api时在这里登记。
+     */
+    private static final Class<?>[] RESPONSE_CLASSES = {
+            TestBean.class,
+    };
+
     private String replaceUri = "";
 
     public static ApiManager getInstance() {
@@ -32,6 +41,13 @@ public class ApiManager {
         this.dispatcher = new EventBusDispatcher();
     }
 
+    /**
+     * 在后台线程为登记的响应类准备Gson adapter，使首个请求的解析不比之后的慢。
+     */
+    public void warmUpResponseAdapters() {
+        GsonAdapterRegistry.warmUp(RESPONSE_CLASSES);
+    }
+
     public String getReplaceUri() {
         return replaceUri;
     }
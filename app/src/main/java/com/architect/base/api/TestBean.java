@@ -1,15 +1,19 @@
 package com.architect.base.api;
 
+import com.corelib.volley.toolbox.GenerateTypeAdapter;
+
 /**
  * Created by kan212 on 17/12/28.
  */
 
+@GenerateTypeAdapter
 public class TestBean {
 
 
     public TestResult result;
 
-    public class TestResult {
+    @GenerateTypeAdapter
+    public static class TestResult {
         public Status status;
 
         public TransforRoom data;
@@ -23,7 +27,8 @@ public class TestBean {
         }
     }
 
-    public class Status{
+    @GenerateTypeAdapter
+    public static class Status {
         public int code;
         public String msg;
 
@@ -45,7 +50,8 @@ public class TestBean {
     }
 
 
-    public class TransforRoom {
+    @GenerateTypeAdapter
+    public static class TransforRoom {
         public String name;
 
         public String room_id;
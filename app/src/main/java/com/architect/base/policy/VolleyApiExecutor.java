@@ -8,6 +8,7 @@ import com.architect.base.volley.VolleyHelper;
 import com.corelib.volley.NetworkError;
 import com.corelib.volley.NetworkResponse;
 import com.corelib.volley.NoConnectionError;
+import com.corelib.volley.OriginalData;
 import com.corelib.volley.ParseError;
 import com.corelib.volley.Request;
 import com.corelib.volley.Request.Method;
@@ -19,7 +20,11 @@ import com.corelib.volley.toolbox.HttpHeaderParser;
 import com.corelib.volley.toolbox.StringRequest;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Created by kan212 on 17/12/18.
@@ -33,6 +38,12 @@ public class VolleyApiExecutor implements ApiBase.IApiExecutor {
     private static final String DNS_REQUEST_HOST = "newsapi.sina.cn";
     private static final String DNS_REQUEST_CONFIG_OPEN = "on";
 
+    //预加载的结果只给后台使用，在单独的线程上分发，不经过主线程。
+    //EventBusDispatcher因此在这个线程上post：预加载的订阅者要用ThreadMode.MAIN
+    //（EventBus切回主线程）或BACKGROUND/ASYNC，默认的POSTING会在这个线程上执行，
+    //不能操作UI
+    private static final Executor BACKGROUND_DELIVERY = createBackgroundDelivery();
+
 
     @Override
     public void execute(ApiBase api, ApiBase.IApiResultDispatcher dispatcher, boolean isMinPriority) {
@@ -51,6 +62,9 @@ public class VolleyApiExecutor implements ApiBase.IApiExecutor {
                 break;
         }
         if (req != null) {
+            if (api.getFlag() == ApiType.REQ_TYPE_PRELOAD_NEWS) {
+                req.setDeliveryExecutor(BACKGROUND_DELIVERY);
+            }
             VolleyHelper.getInstance().add(api, req, isMinPriority);
             api.setReqStartTime(System.currentTimeMillis());
         }
@@ -130,7 +144,7 @@ public class VolleyApiExecutor implements ApiBase.IApiExecutor {
 
     private Request<?> createGetRequest(final ApiBase api, final ApiBase.IApiResultDispatcher dispatcher) {
         @SuppressWarnings("unchecked")
-        Request<?> req = new GsonRequest(api.getUri(), api.getResponseClass(), new Response.Listener() {
+        Request<?> req = new GsonRequest(api.getUri(), api.getResponseClass(), new Response.LazyDataListener() {
             @Override
             public void onResponse(Object response) {
                 api.setReqEndTime(System.currentTimeMillis());
@@ -140,7 +154,14 @@ public class VolleyApiExecutor implements ApiBase.IApiExecutor {
 
             @Override
             public void onResponseHeadersAndData(Map headers, String originalData, int responseCode, boolean isFromNetwork) {
-                // 将HttpCode 设置给API回掉
+                onResponseHeadersAndData(headers,
+                        originalData == null ? null : new OriginalData(originalData.getBytes(), Charset.defaultCharset()),
+                        responseCode, isFromNetwork);
+            }
+
+            @Override
+            public void onResponseHeadersAndData(Map headers, OriginalData originalData, int responseCode, boolean isFromNetwork) {
+                // 将HttpCode 设置给API回掉；原始数据用到时才解码
                 api.setHttpCode(responseCode);
                 api.setOriginalData(originalData);
                 if (headers != null && headers.size() > 0) {
@@ -162,6 +183,8 @@ public class VolleyApiExecutor implements ApiBase.IApiExecutor {
             }
         });
         req.setHeaders(api.getRequestHeader());
+        // 相同的GET请求同时发出时只走一次网络，解析结果分发给每个请求
+        req.setShouldCoalesce(true);
         return req;
     }
 
@@ -270,4 +293,23 @@ public class VolleyApiExecutor implements ApiBase.IApiExecutor {
         api.setStatusCode(ApiStatusCode.Timeout);
         dispatcher.onResponseError(error, api);
     }
+
+    private static Executor createBackgroundDelivery() {
+        //单线程，保证分发顺序与请求完成顺序一致
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        android.os.Process.setThreadPriority(
+                                android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "VolleyBackgroundDelivery");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
 }
@@ -51,6 +51,10 @@ public class FileUtils {
      * Name of uncleanable directory
      */
     private static final String UNCLEANABLE_DIRECTORY = "uncleanable";
+    /**
+     * Name of the file cache directory inside the cache directory
+     */
+    private static final String FILE_CACHE_DIRECTORY = "volley_files";
     /**
      * Download directory
      */
@@ -155,6 +159,20 @@ public class FileUtils {
         return cachePath;
     }
 
+    /**
+     * 获取文件缓存（图片等）的目录，在缓存目录下，只归文件缓存使用
+     *
+     * @return
+     */
+    public static String getFileCacheDirectoryPath() {
+        File cacheDir = getCacheDirectory();
+        String cachePath = null;
+        if (null != cacheDir) {
+            cachePath = new File(cacheDir, FILE_CACHE_DIRECTORY).getAbsolutePath();
+        }
+        return cachePath;
+    }
+
     public static boolean isCacheSpaceLess() {
         try {
             long leftSize = getAvailableCacheSpace();
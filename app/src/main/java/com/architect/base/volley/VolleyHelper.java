@@ -11,7 +11,7 @@ import com.corelib.volley.Request;
 import com.corelib.volley.RequestQueue;
 import com.corelib.volley.RequestQueue.RequestFilter;
 import com.corelib.volley.toolbox.BitmapCache;
-import com.corelib.volley.toolbox.UnlimitedDiskFileCache;
+import com.corelib.volley.toolbox.BoundedDiskFileCache;
 import com.corelib.volley.toolbox.UnlimitedUnCleanableDiskFileCache;
 import com.corelib.volley.toolbox.Volley;
 import com.corelib.volley.toolbox.VolleyConfig;
@@ -45,11 +45,12 @@ public class VolleyHelper {
     }
 
     private VolleyHelper() {
-        VolleyConfig.setLocalImageDirectory(FileUtils.getCacheDirectoryPath());
+        // 文件缓存会索引、淘汰和清空自己目录下的所有文件，不能和别的代码共用缓存根目录
+        VolleyConfig.setLocalImageDirectory(FileUtils.getFileCacheDirectoryPath());
         VolleyConfig.setLocalUncleanableDirectory(FileUtils.getUncleanableDirectoryPath());
         VolleyConfig.setImageCache(new BitmapCache(ArchitectApp.getMemoryCacheSize()));
         VolleyConfig.putFileCache(VolleyConfig.CacheType.NORMAL_CACHE,
-                new UnlimitedDiskFileCache(FileUtils.getCacheDirectoryPath()));
+                new BoundedDiskFileCache(FileUtils.getFileCacheDirectoryPath()));
         VolleyConfig.putFileCache(VolleyConfig.CacheType.UNCLEANABLE_CACHE,
                 new UnlimitedUnCleanableDiskFileCache(FileUtils.getUncleanableDirectoryPath()));
         mRequestQueue = Volley.newRequestQueue(ArchitectApp.getAppContext(),
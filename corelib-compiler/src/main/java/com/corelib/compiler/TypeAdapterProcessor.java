@@ -0,0 +1,427 @@
+package com.corelib.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * 为标记了com.corelib.volley.toolbox.GenerateTypeAdapter的类生成流式Gson TypeAdapter。
+ *
+ * 生成的adapter与Gson默认的反射adapter行为一致：按字段名或@SerializedName（含alternate）
+ * 匹配，跳过static和transient字段，包含父类字段，忽略未知字段，基本类型字段遇到null时保持
+ * 默认值。字段值仍交给对应类型的Gson adapter读写，只是省去了反射创建对象和读写字段。
+ *
+ * 无法直接访问的类（private字段、没有可访问的无参构造函数、非静态内部类、泛型类等）
+ * 只给出警告，不生成adapter，运行时仍使用反射。
+ */
+public class TypeAdapterProcessor extends AbstractProcessor {
+
+    private static final String ANNOTATION = "com.corelib.volley.toolbox.GenerateTypeAdapter";
+    private static final String SERIALIZED_NAME = "com.google.gson.annotations.SerializedName";
+    private static final String ADAPTER_SUFFIX = "_TypeAdapter";
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        Set<String> types = new HashSet<String>();
+        types.add(ANNOTATION);
+        return types;
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() == ElementKind.CLASS) {
+                    generate((TypeElement) element);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void warn(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                "No TypeAdapter generated, falling back to reflection: " + message, element);
+    }
+
+    private void generate(TypeElement type) {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        String packageName = pkg.getQualifiedName().toString();
+        if (!isGeneratable(type, packageName)) {
+            return;
+        }
+        List<FieldInfo> fields = collectFields(type, packageName);
+        if (fields == null) {
+            return;
+        }
+
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String adapterName = (packageName.isEmpty() ? binaryName
+                : binaryName.substring(packageName.length() + 1)) + ADAPTER_SUFFIX;
+        String qualifiedAdapterName = packageName.isEmpty() ? adapterName
+                : packageName + "." + adapterName;
+        try {
+            JavaFileObject file = processingEnv.getFiler()
+                    .createSourceFile(qualifiedAdapterName, type);
+            Writer writer = file.openWriter();
+            try {
+                writer.write(render(packageName, adapterName,
+                        type.getQualifiedName().toString(), fields));
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Could not write " + qualifiedAdapterName + ": " + e, type);
+        }
+    }
+
+    private boolean isGeneratable(TypeElement type, String packageName) {
+        Set<Modifier> modifiers = type.getModifiers();
+        if (modifiers.contains(Modifier.ABSTRACT)) {
+            warn(type, "class is abstract");
+            return false;
+        }
+        if (!type.getTypeParameters().isEmpty()) {
+            warn(type, "class is generic");
+            return false;
+        }
+        for (Element e = type; e.getKind() == ElementKind.CLASS; e = e.getEnclosingElement()) {
+            TypeElement t = (TypeElement) e;
+            if (t.getModifiers().contains(Modifier.PRIVATE)) {
+                warn(type, t.getSimpleName() + " is private");
+                return false;
+            }
+            if (t.getNestingKind() != NestingKind.TOP_LEVEL
+                    && t.getNestingKind() != NestingKind.MEMBER) {
+                warn(type, "class is local or anonymous");
+                return false;
+            }
+            if (t.getNestingKind() == NestingKind.MEMBER
+                    && !t.getModifiers().contains(Modifier.STATIC)) {
+                warn(type, t.getSimpleName() + " is an inner class, make it static");
+                return false;
+            }
+        }
+        List<ExecutableElement> constructors =
+                ElementFilter.constructorsIn(type.getEnclosedElements());
+        for (ExecutableElement constructor : constructors) {
+            if (constructor.getParameters().isEmpty()
+                    && isAccessible(constructor.getModifiers(), true)) {
+                return true;
+            }
+        }
+        warn(type, "no accessible no-arg constructor");
+        return false;
+    }
+
+    /**
+     * Returns true if a member with the given modifiers can be accessed from a class in the
+     * generated adapter's package.
+     */
+    private static boolean isAccessible(Set<Modifier> modifiers, boolean samePackage) {
+        if (modifiers.contains(Modifier.PUBLIC)) {
+            return true;
+        }
+        return samePackage && !modifiers.contains(Modifier.PRIVATE);
+    }
+
+    /**
+     * Returns the fields Gson would bind, in the order it writes them (the class's own fields
+     * first, then those of its superclasses), or null if the class can't be bound without
+     * reflection.
+     */
+    private List<FieldInfo> collectFields(TypeElement type, String packageName) {
+        List<TypeElement> hierarchy = new ArrayList<TypeElement>();
+        for (TypeElement t = type; t != null; t = superclassOf(t)) {
+            if (t.getQualifiedName().contentEquals("java.lang.Object")) {
+                break;
+            }
+            hierarchy.add(t);
+        }
+
+        Map<String, FieldInfo> byJsonName = new LinkedHashMap<String, FieldInfo>();
+        List<FieldInfo> fields = new ArrayList<FieldInfo>();
+        for (TypeElement t : hierarchy) {
+            boolean samePackage = processingEnv.getElementUtils().getPackageOf(t)
+                    .getQualifiedName().contentEquals(packageName);
+            for (VariableElement field : ElementFilter.fieldsIn(t.getEnclosedElements())) {
+                Set<Modifier> modifiers = field.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+                    continue;
+                }
+                if (!isAccessible(modifiers, samePackage)) {
+                    warn(type, "field " + t.getSimpleName() + "." + field.getSimpleName()
+                            + " is not accessible");
+                    return null;
+                }
+                if (modifiers.contains(Modifier.FINAL)) {
+                    warn(type, "field " + field.getSimpleName() + " is final");
+                    return null;
+                }
+                if (hasTypeVariable(field.asType())) {
+                    warn(type, "field " + field.getSimpleName() + " has a type variable");
+                    return null;
+                }
+
+                FieldInfo info = new FieldInfo(field);
+                readSerializedName(field, info);
+                for (String name : info.jsonNames) {
+                    if (byJsonName.put(name, info) != null) {
+                        warn(type, "declares multiple JSON fields named " + name);
+                        return null;
+                    }
+                }
+                fields.add(info);
+            }
+        }
+        return fields;
+    }
+
+    private TypeElement superclassOf(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        return (TypeElement) ((DeclaredType) superclass).asElement();
+    }
+
+    private static boolean hasTypeVariable(TypeMirror type) {
+        switch (type.getKind()) {
+            case TYPEVAR:
+                return true;
+            case ARRAY:
+                return hasTypeVariable(((ArrayType) type).getComponentType());
+            case WILDCARD:
+                WildcardType wildcard = (WildcardType) type;
+                return (wildcard.getExtendsBound() != null
+                        && hasTypeVariable(wildcard.getExtendsBound()))
+                        || (wildcard.getSuperBound() != null
+                        && hasTypeVariable(wildcard.getSuperBound()));
+            case DECLARED:
+                for (TypeMirror argument : ((DeclaredType) type).getTypeArguments()) {
+                    if (hasTypeVariable(argument)) {
+                        return true;
+                    }
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Sets the JSON names of a field from its @SerializedName, if any: value first, then the
+     * alternates accepted when reading.
+     */
+    private static void readSerializedName(VariableElement field, FieldInfo info) {
+        for (AnnotationMirror mirror : field.getAnnotationMirrors()) {
+            TypeElement annotation = (TypeElement) mirror.getAnnotationType().asElement();
+            if (!annotation.getQualifiedName().contentEquals(SERIALIZED_NAME)) {
+                continue;
+            }
+            info.jsonNames.clear();
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                    : mirror.getElementValues().entrySet()) {
+                String key = entry.getKey().getSimpleName().toString();
+                if (key.equals("value")) {
+                    info.jsonNames.add(0, (String) entry.getValue().getValue());
+                } else if (key.equals("alternate")) {
+                    @SuppressWarnings("unchecked")
+                    List<? extends AnnotationValue> alternates =
+                            (List<? extends AnnotationValue>) entry.getValue().getValue();
+                    for (AnnotationValue alternate : alternates) {
+                        info.jsonNames.add((String) alternate.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    /** Returns the boxed name of a primitive type, or the source name of any other type. */
+    private String boxedName(TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return processingEnv.getTypeUtils()
+                    .boxedClass(processingEnv.getTypeUtils().getPrimitiveType(type.getKind()))
+                    .getQualifiedName().toString();
+        }
+        return type.toString();
+    }
+
+    /** Returns the expression that looks up the Gson adapter of a field type. */
+    private static String adapterLookup(TypeMirror type, String boxedName) {
+        if (type.getKind().isPrimitive()) {
+            return "gson.getAdapter(" + type + ".class)";
+        }
+        if (type.getKind() == TypeKind.DECLARED
+                && ((DeclaredType) type).getTypeArguments().isEmpty()) {
+            return "gson.getAdapter(" + type + ".class)";
+        }
+        return "gson.getAdapter(new TypeToken<" + boxedName + ">() {})";
+    }
+
+    private String render(String packageName, String adapterName, String typeName,
+                          List<FieldInfo> fields) {
+        StringBuilder s = new StringBuilder();
+        s.append("// Generated by ").append(TypeAdapterProcessor.class.getName())
+                .append(". Do not edit.\n");
+        if (!packageName.isEmpty()) {
+            s.append("package ").append(packageName).append(";\n\n");
+        }
+        s.append("import com.google.gson.Gson;\n")
+                .append("import com.google.gson.JsonSyntaxException;\n")
+                .append("import com.google.gson.TypeAdapter;\n")
+                .append("import com.google.gson.reflect.TypeToken;\n")
+                .append("import com.google.gson.stream.JsonReader;\n")
+                .append("import com.google.gson.stream.JsonToken;\n")
+                .append("import com.google.gson.stream.JsonWriter;\n\n")
+                .append("import java.io.IOException;\n\n");
+
+        s.append("public final class ").append(adapterName)
+                .append(" extends TypeAdapter<").append(typeName).append("> {\n");
+        for (int i = 0; i < fields.size(); i++) {
+            s.append("    private final TypeAdapter<").append(boxedName(fields.get(i).type()))
+                    .append("> mAdapter").append(i).append(";\n");
+        }
+
+        s.append("\n    public ").append(adapterName).append("(Gson gson) {\n");
+        for (int i = 0; i < fields.size(); i++) {
+            TypeMirror type = fields.get(i).type();
+            s.append("        mAdapter").append(i).append(" = ")
+                    .append(adapterLookup(type, boxedName(type))).append(";\n");
+        }
+        s.append("    }\n\n");
+
+        s.append("    @Override\n")
+                .append("    public void write(JsonWriter out, ").append(typeName)
+                .append(" value) throws IOException {\n")
+                .append("        if (value == null) {\n")
+                .append("            out.nullValue();\n")
+                .append("            return;\n")
+                .append("        }\n")
+                .append("        out.beginObject();\n");
+        for (int i = 0; i < fields.size(); i++) {
+            FieldInfo field = fields.get(i);
+            s.append("        out.name(\"").append(escape(field.jsonNames.get(0))).append("\");\n")
+                    .append("        mAdapter").append(i).append(".write(out, value.")
+                    .append(field.name()).append(");\n");
+        }
+        s.append("        out.endObject();\n")
+                .append("    }\n\n");
+
+        s.append("    @Override\n")
+                .append("    public ").append(typeName)
+                .append(" read(JsonReader in) throws IOException {\n")
+                .append("        if (in.peek() == JsonToken.NULL) {\n")
+                .append("            in.nextNull();\n")
+                .append("            return null;\n")
+                .append("        }\n")
+                .append("        ").append(typeName).append(" value = new ").append(typeName)
+                .append("();\n")
+                .append("        try {\n")
+                .append("            in.beginObject();\n")
+                .append("            while (in.hasNext()) {\n")
+                .append("                switch (in.nextName()) {\n");
+        for (int i = 0; i < fields.size(); i++) {
+            FieldInfo field = fields.get(i);
+            for (String name : field.jsonNames) {
+                s.append("                    case \"").append(escape(name)).append("\":\n");
+            }
+            if (field.type().getKind().isPrimitive()) {
+                // Like Gson, leave primitive fields alone when the value is null.
+                s.append("                    {\n")
+                        .append("                        ").append(boxedName(field.type()))
+                        .append(" v = mAdapter").append(i).append(".read(in);\n")
+                        .append("                        if (v != null) {\n")
+                        .append("                            value.").append(field.name())
+                        .append(" = v;\n")
+                        .append("                        }\n")
+                        .append("                        break;\n")
+                        .append("                    }\n");
+            } else {
+                s.append("                        value.").append(field.name())
+                        .append(" = mAdapter").append(i).append(".read(in);\n")
+                        .append("                        break;\n");
+            }
+        }
+        s.append("                    default:\n")
+                .append("                        in.skipValue();\n")
+                .append("                        break;\n")
+                .append("                }\n")
+                .append("            }\n")
+                .append("            in.endObject();\n")
+                .append("        } catch (IllegalStateException e) {\n")
+                .append("            throw new JsonSyntaxException(e);\n")
+                .append("        }\n")
+                .append("        return value;\n")
+                .append("    }\n")
+                .append("}\n");
+        return s.toString();
+    }
+
+    private static String escape(String s) {
+        StringBuilder result = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < 0x20 || c > 0x7e) {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private static class FieldInfo {
+        final VariableElement element;
+        /** JSON name written, followed by the other names accepted when reading. */
+        final List<String> jsonNames = new ArrayList<String>();
+
+        FieldInfo(VariableElement element) {
+            this.element = element;
+            jsonNames.add(element.getSimpleName().toString());
+        }
+
+        String name() {
+            return element.getSimpleName().toString();
+        }
+
+        TypeMirror type() {
+            return element.asType();
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package com.corelib.compiler;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compiles sample classes with the processor and checks that the generated adapters read
+ * and write JSON exactly like Gson's reflective adapters.
+ */
+public class TypeAdapterProcessorTest {
+
+    private static final String PACKAGE = "sample";
+
+    private static final String FULL_DOCUMENT = "{"
+            + "\"i\":1,\"l\":12345678901,\"d\":1.5,\"b\":true,\"c\":\"x\","
+            + "\"boxed\":7,\"s\":\"text \\u00e9\\\"\",\"renamed\":\"named\","
+            + "\"list\":[\"a\",null,\"b\"],\"map\":{\"one\":1,\"two\":2},"
+            + "\"ints\":[1,2,3],\"strings\":[\"s\"],"
+            + "\"nested\":{\"id\":3,\"name\":\"three\"},"
+            + "\"nestedList\":[{\"id\":4},{\"id\":5,\"name\":null}],"
+            + "\"kind\":\"B\",\"baseField\":\"base\",\"skipped\":\"ignored\"}";
+
+    private static File sOutput;
+    private static ClassLoader sLoader;
+    private static List<Diagnostic<? extends JavaFileObject>> sDiagnostics;
+    private static Gson sReflective;
+    private static Gson sGenerated;
+
+    @BeforeClass
+    public static void compileSamples() throws Exception {
+        Map<String, String> sources = new LinkedHashMap<String, String>();
+        sources.put("com.corelib.volley.toolbox.GenerateTypeAdapter",
+                "package com.corelib.volley.toolbox;\n"
+                        + "import java.lang.annotation.*;\n"
+                        + "@Retention(RetentionPolicy.RUNTIME) @Target(ElementType.TYPE)\n"
+                        + "public @interface GenerateTypeAdapter {}\n");
+        sources.put(PACKAGE + ".Base", "package sample;\n"
+                + "public class Base {\n"
+                + "    public String baseField;\n"
+                + "}\n");
+        sources.put(PACKAGE + ".Kind", "package sample;\n"
+                + "public enum Kind { A, B }\n");
+        sources.put(PACKAGE + ".Nested", "package sample;\n"
+                + "@com.corelib.volley.toolbox.GenerateTypeAdapter\n"
+                + "public class Nested {\n"
+                + "    public int id;\n"
+                + "    public String name;\n"
+                + "}\n");
+        sources.put(PACKAGE + ".Everything", "package sample;\n"
+                + "import com.google.gson.annotations.SerializedName;\n"
+                + "import java.util.List;\n"
+                + "import java.util.Map;\n"
+                + "@com.corelib.volley.toolbox.GenerateTypeAdapter\n"
+                + "public class Everything extends Base {\n"
+                + "    public int i;\n"
+                + "    public long l;\n"
+                + "    public double d;\n"
+                + "    public boolean b;\n"
+                + "    public char c;\n"
+                + "    public Integer boxed;\n"
+                + "    public String s;\n"
+                + "    @SerializedName(value = \"renamed\", alternate = {\"alias1\", \"alias2\"})\n"
+                + "    public String named;\n"
+                + "    public List<String> list;\n"
+                + "    public Map<String, Integer> map;\n"
+                + "    public int[] ints;\n"
+                + "    public String[] strings;\n"
+                + "    public Nested nested;\n"
+                + "    public List<Nested> nestedList;\n"
+                + "    public Kind kind;\n"
+                + "    public transient String skipped;\n"
+                + "    public static String STATIC = \"static\";\n"
+                + "}\n");
+        sources.put(PACKAGE + ".Outer", "package sample;\n"
+                + "public class Outer {\n"
+                + "    @com.corelib.volley.toolbox.GenerateTypeAdapter\n"
+                + "    public static class Member {\n"
+                + "        public int id;\n"
+                + "    }\n"
+                + "    @com.corelib.volley.toolbox.GenerateTypeAdapter\n"
+                + "    public class Inner {\n"
+                + "        public int id;\n"
+                + "    }\n"
+                + "}\n");
+        sources.put(PACKAGE + ".WithPrivateField", "package sample;\n"
+                + "@com.corelib.volley.toolbox.GenerateTypeAdapter\n"
+                + "public class WithPrivateField {\n"
+                + "    private int hidden;\n"
+                + "}\n");
+        sources.put(PACKAGE + ".WithoutDefaultConstructor", "package sample;\n"
+                + "@com.corelib.volley.toolbox.GenerateTypeAdapter\n"
+                + "public class WithoutDefaultConstructor {\n"
+                + "    public int id;\n"
+                + "    public WithoutDefaultConstructor(int id) { this.id = id; }\n"
+                + "}\n");
+
+        sOutput = File.createTempFile("processor", "");
+        sOutput.delete();
+        sOutput.mkdirs();
+        sDiagnostics = compile(sources, sOutput);
+        sLoader = new URLClassLoader(new URL[] { sOutput.toURI().toURL() },
+                TypeAdapterProcessorTest.class.getClassLoader());
+        sReflective = new Gson();
+        sGenerated = new GsonBuilder().registerTypeAdapterFactory(new GeneratedFactory())
+                .create();
+    }
+
+    @AfterClass
+    public static void deleteOutput() {
+        delete(sOutput);
+    }
+
+    @Test
+    public void generatesAdaptersForBindableClasses() throws Exception {
+        assertGenerated("Everything");
+        assertGenerated("Nested");
+        assertGenerated("Outer$Member");
+        assertEquals(0, countErrors());
+    }
+
+    @Test
+    public void warnsAndFallsBackForUnbindableClasses() throws Exception {
+        assertNotGenerated("Outer$Inner", "Inner is an inner class");
+        assertNotGenerated("WithPrivateField", "field WithPrivateField.hidden is not accessible");
+        assertNotGenerated("WithoutDefaultConstructor", "no accessible no-arg constructor");
+    }
+
+    @Test
+    public void readsLikeReflection() throws Exception {
+        String[] documents = {
+                FULL_DOCUMENT,
+                "{}",
+                // Nulls leave primitives at their defaults.
+                "{\"i\":null,\"b\":null,\"s\":null,\"nested\":null}",
+                // Alternate names, the last one read wins.
+                "{\"alias1\":\"first\"}",
+                "{\"alias2\":\"second\",\"renamed\":\"third\"}",
+                // Unknown fields of any shape are skipped.
+                "{\"unknown\":{\"a\":[1,{\"b\":2}]},\"i\":9,\"other\":[null,true]}",
+                // Numbers as strings, as Gson's adapters allow.
+                "{\"i\":\"42\",\"d\":\"2.5\"}",
+        };
+        for (String json : documents) {
+            assertSameObject(json, sReflective.fromJson(json, everything()),
+                    sGenerated.fromJson(json, everything()));
+        }
+        assertNull(sGenerated.fromJson("null", everything()));
+    }
+
+    @Test
+    public void writesLikeReflection() throws Exception {
+        Object value = sReflective.fromJson(FULL_DOCUMENT, everything());
+        assertEquals(sReflective.toJson(value), sGenerated.toJson(value));
+        Object empty = everything().getConstructor().newInstance();
+        assertEquals(sReflective.toJson(empty), sGenerated.toJson(empty));
+
+        Gson serializeNulls = new GsonBuilder().serializeNulls().create();
+        Gson generatedSerializeNulls = new GsonBuilder().serializeNulls()
+                .registerTypeAdapterFactory(new GeneratedFactory()).create();
+        assertEquals(serializeNulls.toJson(empty), generatedSerializeNulls.toJson(empty));
+    }
+
+    @Test
+    public void rejectsMalformedInputLikeReflection() throws Exception {
+        String[] documents = {
+                "{\"i\":\"x\"}",
+                "{\"nested\":[]}",
+                "{\"list\":{}}",
+                "[]",
+        };
+        for (String json : documents) {
+            assertSyntaxError(sReflective, json);
+            assertSyntaxError(sGenerated, json);
+        }
+    }
+
+    /**
+     * Prints how many documents per second Gson parses with the generated adapters and with
+     * reflection, and how long the first parse with a new Gson takes, which includes building
+     * the adapters.
+     */
+    @Test
+    public void benchmarkThroughput() throws Exception {
+        StringBuilder json = new StringBuilder("{\"i\":1,\"s\":\"list\",\"nestedList\":[");
+        for (int i = 0; i < 200; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(i).append(",\"name\":\"item ").append(i)
+                    .append("\"}");
+        }
+        String document = json.append("]}").toString();
+        Class<?> type = everything();
+        for (int round = 0; round < 3; round++) {
+            long reflective = measure(sReflective, document, type);
+            long generated = measure(sGenerated, document, type);
+            long reflectiveFirst = measureFirstParse(new GsonBuilder(), document, type);
+            long generatedFirst = measureFirstParse(
+                    new GsonBuilder().registerTypeAdapterFactory(new GeneratedFactory()),
+                    document, type);
+            System.out.println(String.format(
+                    "TypeAdapterProcessor 200 items: reflection %6d docs/s, first parse %4dus; "
+                            + "generated %6d docs/s, first parse %4dus",
+                    reflective, reflectiveFirst, generated, generatedFirst));
+        }
+    }
+
+    /** Returns the microseconds of the first parse with a new Gson, averaged. */
+    private static long measureFirstParse(GsonBuilder builder, String json, Class<?> type) {
+        int count = 500;
+        long elapsed = 0;
+        for (int i = 0; i < count; i++) {
+            Gson gson = builder.create();
+            long start = System.nanoTime();
+            assertNotNull(gson.fromJson(json, type));
+            elapsed += System.nanoTime() - start;
+        }
+        return elapsed / 1000 / count;
+    }
+
+    private static long measure(Gson gson, String json, Class<?> type) {
+        int count = 5000;
+        // Warm up.
+        for (int i = 0; i < count; i++) {
+            gson.fromJson(json, type);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            assertNotNull(gson.fromJson(json, type));
+        }
+        return count * 1000000000L / (System.nanoTime() - start);
+    }
+
+    private static Class<?> everything() throws ClassNotFoundException {
+        return sLoader.loadClass(PACKAGE + ".Everything");
+    }
+
+    private static void assertSameObject(String json, Object expected, Object actual) {
+        assertEquals(json, sReflective.toJson(expected), sReflective.toJson(actual));
+    }
+
+    private static void assertSyntaxError(Gson gson, String json) throws Exception {
+        try {
+            gson.fromJson(json, everything());
+            fail("Expected a JsonSyntaxException for " + json);
+        } catch (JsonSyntaxException e) {
+            // Expected.
+        }
+    }
+
+    private static void assertGenerated(String name) throws Exception {
+        assertNotNull(sLoader.loadClass(PACKAGE + "." + name + "_TypeAdapter"));
+    }
+
+    private static void assertNotGenerated(String name, String message) {
+        try {
+            sLoader.loadClass(PACKAGE + "." + name + "_TypeAdapter");
+            fail("Generated an adapter for " + name);
+        } catch (ClassNotFoundException e) {
+            // Expected.
+        }
+        for (Diagnostic<? extends JavaFileObject> diagnostic : sDiagnostics) {
+            if (diagnostic.getKind() == Diagnostic.Kind.WARNING
+                    && diagnostic.getMessage(null).contains(message)) {
+                return;
+            }
+        }
+        fail("No warning containing \"" + message + "\" in " + sDiagnostics);
+    }
+
+    private static int countErrors() {
+        int errors = 0;
+        for (Diagnostic<? extends JavaFileObject> diagnostic : sDiagnostics) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                errors++;
+            }
+        }
+        return errors;
+    }
+
+    private static List<Diagnostic<? extends JavaFileObject>> compile(
+            Map<String, String> sources, File output) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertNotNull("Tests need a JDK", compiler);
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics,
+                null, null);
+        try {
+            fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Arrays.asList(output));
+            fileManager.setLocation(StandardLocation.SOURCE_OUTPUT, Arrays.asList(output));
+            List<JavaFileObject> units = new ArrayList<JavaFileObject>();
+            for (Map.Entry<String, String> source : sources.entrySet()) {
+                units.add(new SourceFile(source.getKey(), source.getValue()));
+            }
+            String gson = new File(Gson.class.getProtectionDomain().getCodeSource().getLocation()
+                    .getPath()).getAbsolutePath();
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics,
+                    Arrays.asList("-classpath", gson), null, units);
+            task.setProcessors(Collections.singletonList(new TypeAdapterProcessor()));
+            boolean success = task.call();
+            assertTrue("Compilation failed: " + diagnostics.getDiagnostics(), success);
+        } finally {
+            fileManager.close();
+        }
+        return diagnostics.getDiagnostics();
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static class SourceFile extends SimpleJavaFileObject {
+        private final String mSource;
+
+        SourceFile(String className, String source) {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension),
+                    Kind.SOURCE);
+            mSource = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return mSource;
+        }
+    }
+
+    /** Loads generated adapters the way corelib's GsonAdapterRegistry does. */
+    private static class GeneratedFactory implements TypeAdapterFactory {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            Class<? super T> rawType = type.getRawType();
+            if (!isAnnotated(rawType)) {
+                return null;
+            }
+            try {
+                Class<?> adapterClass = Class.forName(rawType.getName() + "_TypeAdapter", true,
+                        rawType.getClassLoader());
+                return (TypeAdapter<T>) adapterClass.getConstructor(Gson.class).newInstance(gson);
+            } catch (ClassNotFoundException e) {
+                return null;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private static boolean isAnnotated(Class<?> type) {
+            for (Annotation annotation : type.getDeclaredAnnotations()) {
+                if (annotation.annotationType().getName()
+                        .equals("com.corelib.volley.toolbox.GenerateTypeAdapter")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.corelib.volley.toolbox;
+
+import android.graphics.Bitmap;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayDeque;
+
+import static org.junit.Assert.*;
+
+/**
+ * Needs real bitmaps, so it runs on a device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BitmapPoolTest {
+    private static final int SIZE = 256;
+
+    private BitmapPool mPool;
+
+    @Before
+    public void setUp() {
+        mPool = new BitmapPool(4 * 1024 * 1024);
+        VolleyConfig.setBitmapPool(mPool);
+    }
+
+    @After
+    public void tearDown() {
+        VolleyConfig.setBitmapPool(null);
+    }
+
+    @Test
+    public void neverDisplayedBitmapIsNotPooled() {
+        // Whoever got it from the cache may still hold it.
+        assertFalse(mPool.offerEvicted(newBitmap()));
+        assertEquals(0, mPool.getSize());
+    }
+
+    @Test
+    public void evictedWhileDisplayedIsPooledOnRelease() {
+        Bitmap bitmap = newBitmap();
+        mPool.acquire(bitmap);
+        mPool.acquire(bitmap);
+        assertTrue(mPool.offerEvicted(bitmap));
+        assertNull(mPool.get(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+
+        mPool.release(bitmap);
+        assertEquals(0, mPool.getSize());
+        mPool.release(bitmap);
+        assertSame(bitmap, mPool.get(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void releasedBitmapIsPooledOnEviction() {
+        Bitmap bitmap = newBitmap();
+        mPool.acquire(bitmap);
+        mPool.release(bitmap);
+        assertEquals(0, mPool.getSize());
+
+        assertTrue(mPool.offerEvicted(bitmap));
+        assertSame(bitmap, mPool.get(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void displayedAgainLeavesThePool() {
+        Bitmap bitmap = newBitmap();
+        mPool.acquire(bitmap);
+        mPool.release(bitmap);
+        mPool.offerEvicted(bitmap);
+
+        mPool.acquire(bitmap);
+        assertEquals(0, mPool.getSize());
+        assertNull(mPool.get(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void bitmapCachePoolsOnlyWhenAsked() {
+        for (boolean pooling : new boolean[] { false, true }) {
+            BitmapCache cache = new BitmapCache(4 * 1024 * 1024, pooling);
+            Bitmap displayed = newBitmap();
+            Bitmap released = newBitmap();
+            mPool.acquire(displayed);
+            mPool.acquire(released);
+            mPool.release(released);
+            cache.putBitmap("displayed", displayed);
+            cache.putBitmap("released", released);
+            // Evict both.
+            for (int i = 0; i < 16; i++) {
+                cache.putBitmap("filler" + i, newBitmap());
+            }
+            assertEquals(pooling ? SIZE * SIZE * 4 : 0, mPool.getSize());
+            mPool.release(displayed);
+            assertEquals(pooling ? 2 * SIZE * SIZE * 4 : 0, mPool.getSize());
+            mPool.clear();
+        }
+    }
+
+    @Test
+    public void tinyLfuCachePoolsOnlyWhenAsked() {
+        for (boolean pooling : new boolean[] { false, true }) {
+            TinyLfuBitmapCache cache = new TinyLfuBitmapCache(2 * SIZE * SIZE * 4, pooling);
+            Bitmap released = newBitmap();
+            mPool.acquire(released);
+            mPool.release(released);
+            cache.putBitmap("released", released);
+            cache.putBitmap("other", newBitmap());
+            // Asked for more often than the others, so it gets in and evicts the oldest.
+            cache.getBitmap("popular");
+            cache.getBitmap("popular");
+            cache.putBitmap("popular", newBitmap());
+
+            assertNull(cache.getBitmap("released"));
+            assertEquals(pooling ? SIZE * SIZE * 4 : 0, mPool.getSize());
+            mPool.clear();
+        }
+    }
+
+    /**
+     * Prints the bitmap bytes allocated while scrolling down and back up a list of 200 images
+     * of 256KB, six on screen, through a 4MB BitmapCache, without pooling and with pooling
+     * of released bitmaps, followed by the pool's report.
+     */
+    @Ignore("Benchmark; run by hand")
+    @Test
+    public void benchmarkScrollAllocation() {
+        for (boolean pooling : new boolean[] { false, true }) {
+            BitmapPool pool = new BitmapPool();
+            VolleyConfig.setBitmapPool(pool);
+            BitmapCache cache = new BitmapCache(4 * 1024 * 1024, pooling);
+            ArrayDeque<Bitmap> onScreen = new ArrayDeque<Bitmap>();
+            int images = 200;
+            for (int step = 0; step < 2 * images; step++) {
+                String key = "image" + (step < images ? step : 2 * images - 1 - step);
+                Bitmap bitmap = cache.getBitmap(key);
+                if (bitmap == null) {
+                    bitmap = decode(pool);
+                    cache.putBitmap(key, bitmap);
+                }
+                pool.acquire(bitmap);
+                onScreen.add(bitmap);
+                if (onScreen.size() > 6) {
+                    pool.release(onScreen.poll());
+                }
+            }
+            System.out.println(String.format("Scroll %s pooling: %dKB allocated, %dKB reused; %s",
+                    pooling ? "with" : "without", pool.getAllocatedBytes() / 1024,
+                    pool.getReusedBytes() / 1024, pool));
+        }
+    }
+
+    /** Stands in for a decode through ImageRequest, which reuses pooled bitmaps the same way. */
+    private static Bitmap decode(BitmapPool pool) {
+        Bitmap reusable = pool.get(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        if (reusable != null) {
+            // Same size; a decode would overwrite the pixels.
+            reusable.eraseColor(0);
+            return reusable;
+        }
+        Bitmap bitmap = newBitmap();
+        pool.recordAllocation(bitmap);
+        return bitmap;
+    }
+
+    private static Bitmap newBitmap() {
+        return Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+    }
+}
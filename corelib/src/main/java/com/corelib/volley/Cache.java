@@ -16,6 +16,7 @@
 
 package com.corelib.volley;
 
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.Map;
 
@@ -65,9 +66,12 @@ public interface Cache {
      * Data and metadata for an entry returned by the cache.
      */
     public static class Entry {
-        /** The data returned from cache. */
+        /** The data returned from cache, or null if the cache handed out {@link #buffer}. */
         public byte[] data;
 
+        /** Read-only view of the data, set instead of data by caches that map their files. */
+        public ByteBuffer buffer;
+
         /** ETag for cache coherency. */
         public String etag;
 
@@ -83,6 +87,19 @@ public interface Cache {
         /** Immutable response headers as received from server; must be non-null. */
         public Map<String, String> responseHeaders = Collections.emptyMap();
 
+        /**
+         * Returns the data, copying it out of {@link #buffer} first if this entry was mapped
+         * rather than read.
+         */
+        public byte[] getData() {
+            if (data == null && buffer != null) {
+                ByteBuffer src = buffer.duplicate();
+                data = new byte[src.remaining()];
+                src.get(data);
+            }
+            return data;
+        }
+
         /** True if the entry is expired. */
         public boolean isExpired() {
             return this.ttl < System.currentTimeMillis();
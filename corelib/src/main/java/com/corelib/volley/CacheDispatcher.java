@@ -92,7 +92,7 @@ public class CacheDispatcher extends Thread {
                 request.addMarker("cache-queue-take");
 
                 // If the request has been canceled, don't bother dispatching it.
-                if (request.isCanceled()) {
+                if (request.isAbandoned()) {
                     VolleyLog.d("CacheDispatcher cancel: %s", request.getUrl());
                     request.finish("cache-discard-canceled");
                     continue;
@@ -117,8 +117,14 @@ public class CacheDispatcher extends Thread {
 
                 // We have a cache hit; parse its data for delivery back to the request.
                 request.addMarker("cache-hit");
-                Response<?> response = request.parseNetworkResponse(
-                        new NetworkResponse(entry.data, entry.responseHeaders));
+                NetworkResponse cached;
+                if (entry.data == null && entry.buffer != null
+                        && request.acceptsBufferResponse()) {
+                    cached = new NetworkResponse(entry.buffer.duplicate(), entry.responseHeaders);
+                } else {
+                    cached = new NetworkResponse(entry.getData(), entry.responseHeaders);
+                }
+                Response<?> response = request.parseNetworkResponse(cached);
                 request.addMarker("cache-hit-parsed");
 
                 if (!entry.refreshNeeded()) {
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.corelib.volley;
+
+import android.os.Process;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A network dispatcher that runs each request on its own pooled worker thread, up to a
+ * maximum number of concurrent requests.
+ *
+ * Unlike a fixed set of {@link NetworkDispatcher}s, the number of threads grows with the
+ * number of requests waiting on I/O and shrinks again when they go idle, so one slow server
+ * doesn't stall every other request. This thread only feeds the workers: it takes the next
+ * request from the queue once a slot is free, so requests still leave the queue in priority
+ * order, and cancelled requests are dropped as they would be by a {@link NetworkDispatcher}.
+ */
+public class ElasticNetworkDispatcher extends NetworkDispatcher {
+    /** How long an idle worker thread is kept before it exits. */
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 30;
+
+    /** The queue of requests to service. */
+    private final BlockingQueue<Request<?>> mQueue;
+    /** Bounds the number of requests in flight. */
+    private final Semaphore mSlots;
+    /** Runs the requests. */
+    private final ThreadPoolExecutor mExecutor;
+    /** Priority of the worker threads. */
+    private volatile int mWorkerPriority = Process.THREAD_PRIORITY_BACKGROUND;
+    /** Used for telling us to die. */
+    private volatile boolean mQuit = false;
+
+    /**
+     * Creates a new elastic dispatcher.  You must call {@link #start()} in order to begin
+     * processing.
+     *
+     * @param queue Queue of incoming requests for triage
+     * @param network Network interface to use for performing requests
+     * @param cache Cache interface to use for writing responses to cache
+     * @param delivery Delivery interface to use for posting responses
+     * @param maxConcurrentRequests Maximum number of requests performed at the same time
+     */
+    public ElasticNetworkDispatcher(BlockingQueue<Request<?>> queue, Network network,
+            Cache cache, ResponseDelivery delivery, int maxConcurrentRequests) {
+        super(queue, network, cache, delivery);
+        setName("ElasticNetworkDispatcher");
+        mQueue = queue;
+        mSlots = new Semaphore(maxConcurrentRequests);
+        // The semaphore bounds concurrency. The pool itself is unbounded because a worker
+        // releases its slot slightly before it is idle again, and a bounded pool could then
+        // reject the next request.
+        mExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new WorkerThreadFactory());
+    }
+
+    @Override
+    public void setThreadPriority(int priority) {
+        super.setThreadPriority(priority);
+        mWorkerPriority = priority;
+    }
+
+    /**
+     * Stops feeding requests. Requests already handed to a worker are allowed to complete.
+     */
+    @Override
+    public void quit() {
+        mQuit = true;
+        super.quit();
+        mExecutor.shutdown();
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(mWorkerPriority);
+        while (true) {
+            final Request<?> request;
+            try {
+                // Wait for a free slot before taking, so that a request arriving meanwhile
+                // with a higher priority still goes first.
+                mSlots.acquire();
+                try {
+                    request = mQueue.take();
+                } catch (InterruptedException e) {
+                    mSlots.release();
+                    throw e;
+                }
+            } catch (InterruptedException e) {
+                // We may have been interrupted because it was time to quit.
+                if (mQuit) {
+                    return;
+                }
+                continue;
+            }
+
+            try {
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            processRequest(request);
+                        } finally {
+                            mSlots.release();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Only happens once we have been told to quit; run what we took ourselves.
+                try {
+                    processRequest(request);
+                } finally {
+                    mSlots.release();
+                }
+                return;
+            }
+        }
+    }
+
+    private class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(mWorkerPriority);
+                    runnable.run();
+                }
+            }, "NetworkWorker-" + mCount.incrementAndGet());
+        }
+    }
+}
@@ -18,12 +18,21 @@ package com.corelib.volley;
 
 import android.os.Handler;
 
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Delivers responses and errors.
  */
 public class ExecutorDelivery implements ResponseDelivery {
+    /**
+     * A batch window of one frame at 60fps. Delays every response by up to a frame, so only
+     * for queues whose responses arrive in bursts of many small ones.
+     */
+    public static final long FRAME_BATCH_WINDOW_MS = 16;
+
     /** Used for posting responses, typically to the main thread. */
     private final Executor mResponsePoster;
 
@@ -32,13 +41,22 @@ public class ExecutorDelivery implements ResponseDelivery {
      * @param handler {@link Handler} to post responses on
      */
     public ExecutorDelivery(final Handler handler) {
-        // Make an Executor that just wraps the handler.
-        mResponsePoster = new Executor() {
-            @Override
-            public void execute(Runnable command) {
-                handler.post(command);
-            }
-        };
+        mResponsePoster = wrap(handler);
+    }
+
+    /**
+     * Creates a new response delivery interface that coalesces deliveries: a response or error
+     * is posted right away, and responses and errors posted before that message runs are
+     * delivered from it too, in the order they were posted. Each one is still checked for
+     * cancellation just before it is delivered.
+     *
+     * @param handler {@link Handler} to post responses on
+     * @param batchWindowMs How long to wait for more deliveries before posting; 0, which
+     *     adds no delay, unless responses come in bursts that are worth holding back for, see
+     *     {@link #FRAME_BATCH_WINDOW_MS}
+     */
+    public ExecutorDelivery(Handler handler, long batchWindowMs) {
+        mResponsePoster = new BatchingExecutor(wrap(handler), handler, batchWindowMs);
     }
 
     /**
@@ -50,6 +68,26 @@ public class ExecutorDelivery implements ResponseDelivery {
         mResponsePoster = executor;
     }
 
+    /**
+     * Creates a new response delivery interface, coalescing deliveries if asked, mockable
+     * version for testing.
+     * @param executor For running the messages that deliver
+     * @param coalesce Whether to deliver like {@link #ExecutorDelivery(Handler, long)} with 0
+     */
+    ExecutorDelivery(Executor executor, boolean coalesce) {
+        mResponsePoster = coalesce ? new BatchingExecutor(executor, null, 0) : executor;
+    }
+
+    /** Makes an Executor that just wraps the handler. */
+    private static Executor wrap(final Handler handler) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        };
+    }
+
     @Override
     public void postResponse(Request<?> request, Response<?> response) {
         postResponse(request, response, null);
@@ -59,14 +97,22 @@ public class ExecutorDelivery implements ResponseDelivery {
     public void postResponse(Request<?> request, Response<?> response, Runnable runnable) {
         request.markDelivered();
         request.addMarker("post-response");
-        mResponsePoster.execute(new ResponseDeliveryRunnable(request, response, runnable));
+        getPoster(request).execute(new ResponseDeliveryRunnable(request, response, runnable));
     }
 
     @Override
     public void postError(Request<?> request, VolleyError error) {
         request.addMarker("post-error");
         Response<?> response = Response.error(error);
-        mResponsePoster.execute(new ResponseDeliveryRunnable(request, response, null));
+        getPoster(request).execute(new ResponseDeliveryRunnable(request, response, null));
+    }
+
+    /**
+     * Returns the executor to deliver the given request's response on: its own, if it has one.
+     */
+    private Executor getPoster(Request<?> request) {
+        Executor executor = request.getDeliveryExecutor();
+        return executor != null ? executor : mResponsePoster;
     }
 
     /**
@@ -116,4 +162,63 @@ public class ExecutorDelivery implements ResponseDelivery {
             }
        }
     }
+
+    /**
+     * Runs the tasks given to it in batches, each batch from one message.
+     */
+    private static class BatchingExecutor implements Executor, Runnable {
+        /** Maximum number of tasks run from one message, so a burst can't stall a frame. */
+        private static final int MAX_BATCH_SIZE = 64;
+        /** Longest a batch runs before it lets a waiting frame go first. */
+        private static final long MAX_BATCH_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+        private final Executor mPoster;
+        private final Handler mHandler;
+        private final long mWindowMs;
+        private final ConcurrentLinkedQueue<Runnable> mTasks = new ConcurrentLinkedQueue<Runnable>();
+        /** True while a batch is posted and has not started running. */
+        private final AtomicBoolean mScheduled = new AtomicBoolean();
+
+        BatchingExecutor(Executor poster, Handler handler, long windowMs) {
+            mPoster = poster;
+            mHandler = handler;
+            mWindowMs = windowMs;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+            if (mScheduled.compareAndSet(false, true)) {
+                schedule(mWindowMs);
+            }
+        }
+
+        private void schedule(long delayMs) {
+            if (delayMs > 0) {
+                mHandler.postDelayed(this, delayMs);
+            } else {
+                mPoster.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            // Clear the flag first: a task added while the batch runs either gets run below or
+            // schedules the next batch.
+            mScheduled.set(false);
+            Runnable task;
+            int count = 0;
+            long start = System.nanoTime();
+            while ((task = mTasks.poll()) != null) {
+                task.run();
+                if (++count == MAX_BATCH_SIZE || System.nanoTime() - start > MAX_BATCH_NANOS) {
+                    if (!mTasks.isEmpty() && mScheduled.compareAndSet(false, true)) {
+                        // Let the frame go on; run the rest from the next message.
+                        schedule(0);
+                    }
+                    return;
+                }
+            }
+        }
+    }
 }
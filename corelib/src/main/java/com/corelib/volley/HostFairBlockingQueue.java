@@ -0,0 +1,440 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.corelib.volley;
+
+import android.net.Uri;
+import android.text.TextUtils;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The network queue of a {@link RequestQueue}. Requests leave it in priority order, but within
+ * a priority the hosts with waiting requests take turns, and no host gets more than a
+ * configurable number of requests in flight. A burst of requests to one host therefore can't
+ * hold up requests of the same priority to another host.
+ *
+ * A request counts as in flight from the moment a dispatcher takes it until its network
+ * exchange is over. A request answered by {@link Request#parseCache()} gives its slot back
+ * as soon as the cache has answered, without waiting for the response to be delivered.
+ */
+public class HostFairBlockingQueue extends AbstractQueue<Request<?>>
+        implements BlockingQueue<Request<?>> {
+
+    /** Default maximum number of requests in flight per host. */
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 5;
+
+    /** Host key for requests whose URL has no host. */
+    private static final String NO_HOST = "";
+
+    private static final Request.Priority[] PRIORITIES = Request.Priority.values();
+
+    private final ReentrantLock mLock = new ReentrantLock();
+
+    /** Signalled whenever a request may have become available to take. */
+    private final Condition mAvailable = mLock.newCondition();
+
+    /** Waiting requests per priority band (by ordinal), per host, in FIFO order. */
+    private final Band[] mBands = new Band[PRIORITIES.length];
+
+    /** Number of requests in flight per host. */
+    private final Map<String, Integer> mInFlightByHost = new HashMap<String, Integer>();
+
+    /** The host each in flight request was counted against. */
+    private final Map<Request<?>, String> mInFlight = new IdentityHashMap<Request<?>, String>();
+
+    /** Per-host overrides of {@link #mMaxRequestsPerHost}. */
+    private final Map<String, Integer> mHostLimits = new HashMap<String, Integer>();
+
+    private int mMaxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+
+    private int mSize = 0;
+
+    public HostFairBlockingQueue() {
+        for (int i = 0; i < mBands.length; i++) {
+            mBands[i] = new Band();
+        }
+    }
+
+    /**
+     * Sets the maximum number of requests in flight for hosts without their own limit.
+     */
+    public void setMaxRequestsPerHost(int maxRequests) {
+        if (maxRequests < 1) {
+            throw new IllegalArgumentException("maxRequests < 1: " + maxRequests);
+        }
+        mLock.lock();
+        try {
+            mMaxRequestsPerHost = maxRequests;
+            mAvailable.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Sets the maximum number of requests in flight for one host.
+     */
+    public void setMaxRequestsForHost(String host, int maxRequests) {
+        if (maxRequests < 1) {
+            throw new IllegalArgumentException("maxRequests < 1: " + maxRequests);
+        }
+        mLock.lock();
+        try {
+            mHostLimits.put(host, maxRequests);
+            mAvailable.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of requests waiting in this queue for each host that has any.
+     */
+    public Map<String, Integer> getQueueDepthByHost() {
+        mLock.lock();
+        try {
+            Map<String, Integer> result = new HashMap<String, Integer>();
+            for (Band band : mBands) {
+                for (Map.Entry<String, ArrayDeque<Request<?>>> entry : band.requests.entrySet()) {
+                    Integer depth = result.get(entry.getKey());
+                    result.put(entry.getKey(),
+                            (depth == null ? 0 : depth) + entry.getValue().size());
+                }
+            }
+            return result;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of requests to the given host that have been taken from this queue
+     * and have not finished yet.
+     */
+    public int getInFlightCount(String host) {
+        mLock.lock();
+        try {
+            Integer count = mInFlightByHost.get(host);
+            return count == null ? 0 : count;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Frees the host slot of a request taken from this queue. Called by
+     * {@link NetworkDispatcher} once the request no longer needs the network, and by
+     * {@link RequestQueue} when it finishes; only the first call has an effect.
+     */
+    void onFinished(Request<?> request) {
+        mLock.lock();
+        try {
+            String host = mInFlight.remove(request);
+            if (host == null) {
+                return;
+            }
+            int count = mInFlightByHost.get(host) - 1;
+            if (count == 0) {
+                mInFlightByHost.remove(host);
+            } else {
+                mInFlightByHost.put(host, count);
+            }
+            mAvailable.signal();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the host a request is scheduled under: the host it asked to be sent as, if
+     * any, otherwise the host of its URL. The URL is parsed only the first time, a retried
+     * or re-prioritized request reuses the result.
+     */
+    private static String getHost(Request<?> request) {
+        String host = request.getSchedulingHost();
+        if (host == null) {
+            host = parseHost(request);
+            request.setSchedulingHost(host);
+        }
+        return host;
+    }
+
+    private static String parseHost(Request<?> request) {
+        if (!TextUtils.isEmpty(request.getDnsRequestHost())) {
+            return request.getDnsRequestHost();
+        }
+        String url = request.getUrl();
+        if (!TextUtils.isEmpty(url)) {
+            Uri uri = Uri.parse(url);
+            String host = uri != null ? uri.getHost() : null;
+            if (host != null) {
+                return host;
+            }
+        }
+        return NO_HOST;
+    }
+
+    private int getLimit(String host) {
+        Integer limit = mHostLimits.get(host);
+        return limit == null ? mMaxRequestsPerHost : limit;
+    }
+
+    /**
+     * Removes and returns the next request that may be sent, or null if every waiting
+     * request is for a host at its limit. Must hold the lock.
+     */
+    private Request<?> dequeue() {
+        for (int i = mBands.length - 1; i >= 0; i--) {
+            Band band = mBands[i];
+            int hosts = band.turns.size();
+            for (int j = 0; j < hosts; j++) {
+                String host = band.turns.poll();
+                Integer inFlight = mInFlightByHost.get(host);
+                if (inFlight != null && inFlight >= getLimit(host)) {
+                    band.turns.add(host);
+                    continue;
+                }
+
+                ArrayDeque<Request<?>> requests = band.requests.get(host);
+                Request<?> request = requests.poll();
+                if (requests.isEmpty()) {
+                    band.requests.remove(host);
+                } else {
+                    // Go to the back of the line.
+                    band.turns.add(host);
+                }
+                mSize--;
+                mInFlight.put(request, host);
+                mInFlightByHost.put(host, inFlight == null ? 1 : inFlight + 1);
+                return request;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean offer(Request<?> request) {
+        if (request == null) {
+            throw new NullPointerException();
+        }
+        String host = getHost(request);
+        mLock.lock();
+        try {
+            Band band = mBands[request.getPriority().ordinal()];
+            ArrayDeque<Request<?>> requests = band.requests.get(host);
+            if (requests == null) {
+                requests = new ArrayDeque<Request<?>>();
+                band.requests.put(host, requests);
+                band.turns.add(host);
+            }
+            requests.add(request);
+            mSize++;
+            mAvailable.signal();
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Request<?> request) {
+        offer(request);
+    }
+
+    @Override
+    public boolean offer(Request<?> request, long timeout, TimeUnit unit) {
+        return offer(request);
+    }
+
+    @Override
+    public Request<?> take() throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            Request<?> request;
+            while ((request = dequeue()) == null) {
+                mAvailable.await();
+            }
+            // Others may be able to take as well.
+            if (mSize > 0) {
+                mAvailable.signal();
+            }
+            return request;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public Request<?> poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        mLock.lockInterruptibly();
+        try {
+            Request<?> request;
+            while ((request = dequeue()) == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = mAvailable.awaitNanos(nanos);
+            }
+            return request;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public Request<?> poll() {
+        mLock.lock();
+        try {
+            return dequeue();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the request {@link #poll()} would return, without removing it.
+     */
+    @Override
+    public Request<?> peek() {
+        mLock.lock();
+        try {
+            for (int i = mBands.length - 1; i >= 0; i--) {
+                Band band = mBands[i];
+                for (String host : band.turns) {
+                    Integer inFlight = mInFlightByHost.get(host);
+                    if (inFlight == null || inFlight < getLimit(host)) {
+                        return band.requests.get(host).peek();
+                    }
+                }
+            }
+            return null;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        mLock.lock();
+        try {
+            for (Band band : mBands) {
+                Iterator<Map.Entry<String, ArrayDeque<Request<?>>>> iterator =
+                        band.requests.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<String, ArrayDeque<Request<?>>> entry = iterator.next();
+                    if (entry.getValue().remove(o)) {
+                        if (entry.getValue().isEmpty()) {
+                            iterator.remove();
+                            band.turns.remove(entry.getKey());
+                        }
+                        mSize--;
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        mLock.lock();
+        try {
+            return mSize;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the waiting requests. It does not support
+     * removal.
+     */
+    @Override
+    public Iterator<Request<?>> iterator() {
+        mLock.lock();
+        try {
+            List<Request<?>> snapshot = new ArrayList<Request<?>>(mSize);
+            for (int i = mBands.length - 1; i >= 0; i--) {
+                for (ArrayDeque<Request<?>> requests : mBands[i].requests.values()) {
+                    snapshot.addAll(requests);
+                }
+            }
+            return Collections.unmodifiableList(snapshot).iterator();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Moves the requests that may be sent now into the given collection, counting them as
+     * in flight.
+     */
+    @Override
+    public int drainTo(Collection<? super Request<?>> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Request<?>> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        mLock.lock();
+        try {
+            int count = 0;
+            Request<?> request;
+            while (count < maxElements && (request = dequeue()) != null) {
+                c.add(request);
+                count++;
+            }
+            return count;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /** The waiting requests of one priority. */
+    private static class Band {
+        /** Waiting requests per host. */
+        final Map<String, ArrayDeque<Request<?>>> requests =
+                new HashMap<String, ArrayDeque<Request<?>>>();
+        /** Hosts with waiting requests, in the order they get their next turn. */
+        final ArrayDeque<String> turns = new ArrayDeque<String>();
+    }
+}
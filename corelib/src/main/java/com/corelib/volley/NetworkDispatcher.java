@@ -21,6 +21,8 @@ import android.net.TrafficStats;
 import android.os.Build;
 import android.os.Process;
 
+import java.io.IOException;
+import java.net.SocketTimeoutException;
 import java.util.concurrent.BlockingQueue;
 
 /**
@@ -101,34 +103,47 @@ public class NetworkDispatcher extends Thread {
                 continue;
             }
 
-            try {
-                request.addMarker("network-queue-take");
-
-                // If the request was cancelled already, do not perform the
-                // network request.
-                if (request.isCanceled()) {
-                    VolleyLog.d("NetworkDispatcher cancel: %s", request.getUrl());
-                    request.finish("network-discard-cancelled");
-                    continue;
-                }
+            processRequest(request);
+        }
+    }
 
-                addTrafficStatsTag(request);
+    /**
+     * Performs one request taken from the queue and posts its response or error. Safe to call
+     * from several threads at once, which is how {@link ElasticNetworkDispatcher} uses it.
+     */
+    void processRequest(Request<?> request) {
+        NetworkResponse networkResponse = null;
+        try {
+            request.addMarker("network-queue-take");
+
+            // If the request was cancelled already, do not perform the
+            // network request, unless requests coalesced onto it still need it.
+            if (request.isAbandoned()) {
+                VolleyLog.d("NetworkDispatcher cancel: %s", request.getUrl());
+                request.finish("network-discard-cancelled");
+                return;
+            }
 
-                Response<?> response = request.parseCache();
-                if (response.isSuccess()) {
-                    mDelivery.postResponse(request, response);
-                    continue;
-                }
+            addTrafficStatsTag(request);
 
-                /* If request is limited to process from cache, then continue */
-                if (request.getOnlyCache()) {
-                    response = Response.error(new VolleyError("only cache"));
-                    mDelivery.postResponse(request, response);
-                    continue;
-                }
+            Response<?> response = request.parseCache();
+            if (response.isSuccess()) {
+                // Served without the network; let the next request to this host go.
+                releaseHostSlot(request);
+                mDelivery.postResponse(request, response);
+                return;
+            }
+
+            /* If request is limited to process from cache, then continue */
+            if (request.getOnlyCache()) {
+                response = Response.error(new VolleyError("only cache"));
+                mDelivery.postResponse(request, response);
+                return;
+            }
 
+            while (true) {
                 // Perform the network request.
-                NetworkResponse networkResponse = mNetwork.performRequest(request);
+                networkResponse = mNetwork.performRequest(request);
                 networkResponse.setIsFromNetwork(true);
                 request.addMarker("network-http-complete");
 
@@ -136,30 +151,90 @@ public class NetworkDispatcher extends Thread {
                 // we're done -- don't deliver a second identical response.
                 if (networkResponse.notModified && request.hasHadResponseDelivered()) {
                     request.finish("not-modified");
-                    continue;
+                    return;
                 }
 
                 // Parse the response here on the worker thread.
-                response = request.parseNetworkResponse(networkResponse);
-                request.addMarker("network-parse-complete");
-
-                // Write to cache if applicable.
-                // TODO: Only update cache metadata instead of entire record for 304s.
-                if (request.shouldCache() && response.cacheEntry != null) {
-                    mCache.put(request.getCacheKey(), response.cacheEntry);
-                    request.addMarker("network-cache-written");
+                if (networkResponse.stream == null) {
+                    response = request.parseNetworkResponse(networkResponse);
+                    break;
+                }
+                // A streamed body is read here, after BasicNetwork's retry loop has returned,
+                // so timeouts reading it are retried here under the same policy.
+                try {
+                    response = request.parseNetworkResponse(networkResponse,
+                            networkResponse.stream);
+                    break;
+                } catch (SocketTimeoutException e) {
+                    attemptRetryOnBodyTimeout(request);
+                } catch (IOException e) {
+                    throw new NetworkError(e);
+                } finally {
+                    networkResponse.close();
                 }
+            }
+            // The body has been read; the host's slot isn't needed for the delivery.
+            releaseHostSlot(request);
+            request.addMarker("network-parse-complete");
+
+            // Write to cache if applicable. A streamed body was not kept, so there is
+            // nothing to write.
+            // TODO: Only update cache metadata instead of entire record for 304s.
+            if (request.shouldCache() && response.cacheEntry != null
+                    && networkResponse.stream == null) {
+                mCache.put(request.getCacheKey(), response.cacheEntry);
+                request.addMarker("network-cache-written");
+            }
 
-                // Post the response back.
-                mDelivery.postResponse(request, response);
-            } catch (VolleyError volleyError) {
-                volleyError.printStackTrace();
-                parseAndDeliverNetworkError(request, volleyError);
-            } catch (Exception e) {
-                e.printStackTrace();
-                mDelivery.postError(request, new VolleyError(e));
+            // Hand the same response to the requests coalesced onto this one.
+            for (Request<?> coalesced : request.takeCoalescedRequests()) {
+                coalesced.addMarker("network-coalesced-response");
+                coalesced.onCoalescedNetworkResponse(networkResponse);
+                mDelivery.postResponse(coalesced, response);
+            }
+
+            // Post the response back.
+            mDelivery.postResponse(request, response);
+        } catch (VolleyError volleyError) {
+            volleyError.printStackTrace();
+            parseAndDeliverNetworkError(request, volleyError);
+            for (Request<?> coalesced : request.takeCoalescedRequests()) {
+                parseAndDeliverNetworkError(coalesced, volleyError);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            VolleyError error = new VolleyError(e);
+            mDelivery.postError(request, error);
+            for (Request<?> coalesced : request.takeCoalescedRequests()) {
+                mDelivery.postError(coalesced, error);
             }
+        } finally {
+            // The response has been parsed and cached; give back any pooled body buffer.
+            if (networkResponse != null) {
+                networkResponse.close();
+            }
+            releaseHostSlot(request);
+        }
+    }
+
+    /**
+     * Frees the request's host slot in the network queue, if the queue has them.
+     */
+    private void releaseHostSlot(Request<?> request) {
+        if (mQueue instanceof HostFairBlockingQueue) {
+            ((HostFairBlockingQueue) mQueue).onFinished(request);
+        }
+    }
+
+    private static void attemptRetryOnBodyTimeout(Request<?> request) throws VolleyError {
+        int oldTimeout = request.getTimeoutMs();
+        try {
+            request.getRetryPolicy().retry(new TimeoutError());
+        } catch (VolleyError e) {
+            request.addMarker(String.format("body-timeout-giveup [timeout=%s]", oldTimeout));
+            throw e;
         }
+        request.addMarker(String.format("body-retry [timeout=%s]", oldTimeout));
     }
 
     private void parseAndDeliverNetworkError(Request<?> request, VolleyError error) {
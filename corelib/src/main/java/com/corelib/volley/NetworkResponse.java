@@ -18,6 +18,9 @@ package com.corelib.volley;
 
 import org.apache.http.HttpStatus;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.Map;
 
@@ -37,9 +40,97 @@ public class NetworkResponse {
             boolean notModified) {
         this.statusCode = statusCode;
         this.data = data;
+        this.buffer = null;
+        this.stream = null;
         this.headers = headers;
         this.notModified = notModified;
     }
+
+    /**
+     * Creates a response whose body is only available as a read-only buffer. Only handed to
+     * requests that return true from {@link Request#acceptsBufferResponse()}.
+     *
+     * @param buffer Response body
+     * @param headers Headers returned with this response
+     */
+    public NetworkResponse(ByteBuffer buffer, Map<String, String> headers) {
+        this(HttpStatus.SC_OK, buffer, headers, null);
+    }
+
+    /**
+     * Creates a response whose body is only available as a read-only buffer that is borrowed
+     * from a pool. Only handed to requests that return true from
+     * {@link Request#acceptsBufferResponse()}; the buffer must not be used after
+     * {@link #close()}, which gives it back.
+     *
+     * @param statusCode the HTTP status code
+     * @param buffer Response body
+     * @param headers Headers returned with this response
+     * @param release Gives the buffer back on {@link #close()}, or null
+     */
+    public NetworkResponse(int statusCode, ByteBuffer buffer, Map<String, String> headers,
+            Runnable release) {
+        this.statusCode = statusCode;
+        this.data = null;
+        this.buffer = buffer;
+        this.stream = null;
+        this.headers = headers;
+        this.notModified = false;
+        mRelease = release;
+    }
+
+    /**
+     * Creates a response whose body has not been read yet. Only handed to requests that
+     * return true from {@link Request#shouldStreamResponse()}; the stream stays open until
+     * {@link #close()}.
+     *
+     * @param statusCode the HTTP status code
+     * @param stream Unread response body
+     * @param headers Headers returned with this response
+     */
+    public NetworkResponse(int statusCode, InputStream stream, Map<String, String> headers) {
+        this.statusCode = statusCode;
+        this.data = null;
+        this.buffer = null;
+        this.stream = stream;
+        this.headers = headers;
+        this.notModified = false;
+    }
+
+    /**
+     * Closes {@link #stream}, if any, releasing the underlying connection, and gives a pooled
+     * {@link #buffer} back. Called by {@link NetworkDispatcher} once the response has been
+     * parsed and cached.
+     */
+    public void close() {
+        Runnable release;
+        synchronized (this) {
+            release = mRelease;
+            mRelease = null;
+        }
+        if (release != null) {
+            release.run();
+        }
+        if (stream == null) {
+            return;
+        }
+        try {
+            stream.close();
+        } catch (IOException e) {
+            VolleyLog.v("Error occurred when closing response stream");
+        }
+    }
+
+    /**
+     * Returns true if {@link #buffer} is borrowed from a pool and becomes invalid on
+     * {@link #close()}.
+     */
+    public synchronized boolean hasPooledBuffer() {
+        return buffer != null && mRelease != null;
+    }
+
+    /** Gives a pooled {@link #buffer} back; run once, by {@link #close()}. */
+    private Runnable mRelease;
     //新浪新闻app系统监控加参数，区分response来源 是从cache来的还是network来的V5.4
 
     private boolean  isFromNetwork;
@@ -63,9 +154,18 @@ public class NetworkResponse {
     /** The HTTP status code. */
     public final int statusCode;
 
-    /** Raw data from this response. */
+    /** Raw data from this response, or null if the body is in {@link #buffer}. */
     public final byte[] data;
 
+    /**
+     * Read-only view of the body when it was not copied into {@link #data}. If it was
+     * borrowed from a pool it is only valid until {@link #close()}.
+     */
+    public final ByteBuffer buffer;
+
+    /** Unread body of a streamed response, otherwise null. */
+    public final InputStream stream;
+
     /** Response headers. */
     public final Map<String, String> headers;
 
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.corelib.volley;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * The raw body of a response, decoded into a String only when {@link #getString()} is first
+ * called. Handed to a {@link Response.LazyDataListener} so that the text of a large body isn't
+ * built when nobody looks at it.
+ */
+public class OriginalData {
+    private final byte[] mData;
+    private final ByteBuffer mBuffer;
+    private final Charset mCharset;
+    private String mString;
+
+    /**
+     * @param data Raw body
+     * @param charset Charset to decode it with
+     */
+    public OriginalData(byte[] data, Charset charset) {
+        mData = data;
+        mBuffer = null;
+        mCharset = charset;
+    }
+
+    /**
+     * @param buffer Raw body; must stay valid as long as this object is used
+     * @param charset Charset to decode it with
+     */
+    public OriginalData(ByteBuffer buffer, Charset charset) {
+        mData = null;
+        mBuffer = buffer.duplicate();
+        mCharset = charset;
+    }
+
+    /**
+     * Returns the body of a network response, or null if it was streamed. A body in a buffer
+     * borrowed from a pool is copied, since the buffer is given back once parsing is done.
+     */
+    public static OriginalData of(NetworkResponse response, Charset charset) {
+        if (response.data != null) {
+            return new OriginalData(response.data, charset);
+        }
+        if (response.buffer == null) {
+            return null;
+        }
+        if (response.hasPooledBuffer()) {
+            ByteBuffer src = response.buffer.duplicate();
+            byte[] data = new byte[src.remaining()];
+            src.get(data);
+            return new OriginalData(data, charset);
+        }
+        return new OriginalData(response.buffer, charset);
+    }
+
+    /**
+     * Returns the body length in bytes.
+     */
+    public int length() {
+        return mData != null ? mData.length : mBuffer.remaining();
+    }
+
+    /**
+     * Returns the body as a String, decoding it on the first call.
+     */
+    public synchronized String getString() {
+        if (mString == null) {
+            mString = mData != null ? new String(mData, mCharset)
+                    : mCharset.decode(mBuffer.duplicate()).toString();
+        }
+        return mString;
+    }
+
+    @Override
+    public String toString() {
+        return getString();
+    }
+}
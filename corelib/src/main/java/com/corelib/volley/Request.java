@@ -25,10 +25,16 @@ import android.text.TextUtils;
 
 import com.corelib.volley.VolleyLog.MarkerLog;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
 
 /**
  * Base class for all network requests.
@@ -84,8 +90,26 @@ public abstract class Request<T> implements Comparable<Request<T>> {
     /** Whether or not responses to this request should be cached. */
     private boolean mShouldCache = true;
 
-    /** Whether or not this request has been canceled. */
-    private boolean mCanceled = false;
+    /** Whether or not this request may share the network call of an identical request. */
+    private boolean mShouldCoalesce = false;
+
+    /**
+     * The coalescing key this request is in flight for, set by {@link RequestQueue} while
+     * identical requests may wait on it.
+     */
+    private String mCoalescedKey;
+
+    /**
+     * The host {@link HostFairBlockingQueue} schedules this request under, worked out the
+     * first time it is queued.
+     */
+    private String mSchedulingHost;
+
+    /**
+     * Whether or not this request has been canceled. Volatile so that cancel() from any
+     * thread is seen by the dispatchers without taking a lock.
+     */
+    private volatile boolean mCanceled = false;
 
     /** Whether or not a response has been delivered for this request yet. */
     private boolean mResponseDelivered = false;
@@ -109,6 +133,12 @@ public abstract class Request<T> implements Comparable<Request<T>> {
     /** An opaque token tagging this request; used for bulk cancellation. */
     private Object mTag;
 
+    /** Runs the delivery of this request's response, or null to use the queue's delivery. */
+    private Executor mDeliveryExecutor;
+
+    /** Priority set with {@link #setPriority(Priority)}, or null for the default. */
+    private volatile Priority mPriority;
+
     private boolean mOnlyCache;
 
     /** List of extra HTTP headers */
@@ -171,6 +201,25 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         return this;
     }
 
+    /**
+     * Set the executor that delivers this request's response and errors, instead of the one
+     * its {@link ResponseDelivery} posts to (usually the main thread). Useful for results that
+     * only feed background work.
+     *
+     * @return This Request object to allow for chaining.
+     */
+    public Request<?> setDeliveryExecutor(Executor executor) {
+        mDeliveryExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Returns the executor that delivers this request's response, or null for the default.
+     */
+    public Executor getDeliveryExecutor() {
+        return mDeliveryExecutor;
+    }
+
     /**
      * Returns this request's tag.
      * 
@@ -345,6 +394,19 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         return mCanceled;
     }
 
+    /**
+     * Returns true if no one is waiting for this request anymore: it has been canceled and
+     * no request coalesced onto it is still live. Dispatchers use this instead of
+     * {@link #isCanceled()} to decide whether to drop the request, so cancelling the request
+     * that is in flight doesn't cancel the fetch for the others.
+     */
+    boolean isAbandoned() {
+        if (!mCanceled) {
+            return false;
+        }
+        return mRequestQueue == null || !mRequestQueue.hasLiveCoalescedRequests(this);
+    }
+
     public void setHeaders(Map<String, String> headers) {
         mHeaders = headers;
     }
@@ -510,10 +572,78 @@ public abstract class Request<T> implements Comparable<Request<T>> {
     }
 
     /**
-     * Returns true if responses to this request should be cached.
+     * Returns true if responses to this request should be cached. Only GET responses are: the
+     * cache key is the URL alone, so requests with a body would get each other's responses.
      */
     public final boolean shouldCache() {
-        return mShouldCache;
+        return mShouldCache && mMethod == Method.GET;
+    }
+
+    /**
+     * Set whether or not this GET may share the network call of an identical request that is
+     * already in flight, as told by {@link #getCoalescingKey()}. The parsed response is then
+     * handed to both, so listeners must not modify it. Works whether or not the response is
+     * cached. Ignored for other methods.
+     *
+     * @return This Request object to allow for chaining.
+     */
+    public final Request<?> setShouldCoalesce(boolean shouldCoalesce) {
+        mShouldCoalesce = shouldCoalesce;
+        return this;
+    }
+
+    /**
+     * Returns true if this request may share the network call of an identical request.
+     */
+    public final boolean shouldCoalesce() {
+        return mShouldCoalesce && mMethod == Method.GET;
+    }
+
+    /**
+     * Returns the key identifying requests that can share one network call and one parsed
+     * response, or null if this request should not be coalesced. By default made of the
+     * request class, method, URL and extra headers.
+     */
+    public String getCoalescingKey() {
+        Map<String, String> headers;
+        try {
+            headers = getHeaders();
+        } catch (AuthFailureError e) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder(getClass().getName())
+                .append(' ').append(mMethod).append(' ').append(getUrl());
+        for (Map.Entry<String, String> header : new TreeMap<String, String>(headers).entrySet()) {
+            key.append('\n').append(header.getKey()).append(':').append(header.getValue());
+        }
+        return key.toString();
+    }
+
+    void setCoalescedKey(String coalescedKey) {
+        mCoalescedKey = coalescedKey;
+    }
+
+    String getCoalescedKey() {
+        return mCoalescedKey;
+    }
+
+    void setSchedulingHost(String host) {
+        mSchedulingHost = host;
+    }
+
+    String getSchedulingHost() {
+        return mSchedulingHost;
+    }
+
+    /**
+     * Takes the requests coalesced onto this one that are still waiting for a response. Later
+     * identical requests no longer wait on this one.
+     */
+    List<Request<?>> takeCoalescedRequests() {
+        if (mRequestQueue == null) {
+            return Collections.emptyList();
+        }
+        return mRequestQueue.takeCoalescedRequests(this);
     }
 
     /**
@@ -525,10 +655,38 @@ public abstract class Request<T> implements Comparable<Request<T>> {
     }
 
     /**
-     * Returns the {@link Priority} of this request; {@link Priority#NORMAL} by default.
+     * Returns the {@link Priority} of this request: the one set with
+     * {@link #setPriority(Priority)}, otherwise {@link Priority#NORMAL}.
      */
     public Priority getPriority() {
-        return Priority.NORMAL;
+        Priority priority = mPriority;
+        return priority != null ? priority : Priority.NORMAL;
+    }
+
+    /**
+     * Sets the priority of this request. A request that is already waiting in the cache or
+     * network queue of its {@link RequestQueue} moves to its new place; one already being
+     * dispatched is not affected. Has no effect on subclasses that override
+     * {@link #getPriority()}.
+     *
+     * @return This Request object to allow for chaining.
+     */
+    public Request<?> setPriority(Priority priority) {
+        RequestQueue queue = mRequestQueue;
+        if (queue != null) {
+            queue.changePriority(this, priority);
+        } else {
+            mPriority = priority;
+        }
+        return this;
+    }
+
+    /**
+     * Sets the priority field only. Used by {@link RequestQueue} while the request is out of
+     * its queues.
+     */
+    /* package */ void setPriorityInternal(Priority priority) {
+        mPriority = priority;
     }
 
     /**
@@ -582,6 +740,15 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         return Response.error(new VolleyError("No Cache"));
     }
 
+    /**
+     * Returns true if {@link #parseNetworkResponse(NetworkResponse)} can read the body from
+     * {@link NetworkResponse#buffer} when {@link NetworkResponse#data} is null. Lets a cache
+     * that maps its files hand the body over without copying it onto the heap.
+     */
+    public boolean acceptsBufferResponse() {
+        return false;
+    }
+
     /**
      * Subclasses must implement this to parse the raw network response
      * and return an appropriate response type. This method will be
@@ -593,6 +760,55 @@ public abstract class Request<T> implements Comparable<Request<T>> {
      */
     abstract protected Response<T> parseNetworkResponse(NetworkResponse response);
 
+    /**
+     * Returns true if successful network responses should be handed to
+     * {@link #parseNetworkResponse(NetworkResponse, InputStream)} without reading the body
+     * into memory first. Streamed responses are never written to the {@link Cache}.
+     */
+    public boolean shouldStreamResponse() {
+        return false;
+    }
+
+    /**
+     * Streaming counterpart of {@link #parseNetworkResponse(NetworkResponse)}, used for 2xx
+     * responses when {@link #shouldStreamResponse()} returns true. The body must be consumed
+     * from the given stream while this method runs; it is closed as soon as it returns.
+     * This method will be called from a worker thread.
+     * <p>
+     * The default implementation reads the whole body into memory and parses it with
+     * {@link #parseNetworkResponse(NetworkResponse)}, as if it hadn't been streamed.
+     * Requests that stream their response override it to parse while reading.
+     *
+     * @param response Status code and headers of the response; its data is null
+     * @param body Unread response body
+     * @return The parsed response, or null in the case of an error
+     * @throws IOException if reading the body fails
+     */
+    protected Response<T> parseNetworkResponse(NetworkResponse response, InputStream body)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = body.read(buffer)) != -1) {
+            bytes.write(buffer, 0, count);
+        }
+        NetworkResponse buffered = new NetworkResponse(response.statusCode, bytes.toByteArray(),
+                response.headers, false);
+        buffered.setIsFromNetwork(response.isFroNetwork());
+        return parseNetworkResponse(buffered);
+    }
+
+    /**
+     * Called on a worker thread when this request was coalesced onto an identical one, with
+     * the network response that request got, instead of parsing it again. The parsed response
+     * of the other request is delivered to this one afterwards. Subclasses that look at
+     * headers or raw data while parsing can override this to do the same here.
+     *
+     * @param response Response from the network; its body may have been streamed already
+     */
+    protected void onCoalescedNetworkResponse(NetworkResponse response) {
+    }
+
     /**
      * Subclasses can override this method to parse 'networkError' and return a more specific error.
      *
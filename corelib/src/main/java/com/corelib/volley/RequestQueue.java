@@ -20,14 +20,15 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Process;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.Queue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A request dispatch queue with a thread pool of dispatchers.
@@ -47,31 +48,63 @@ public class RequestQueue {
      * <ul>
      *     <li>containsKey(cacheKey) indicates that there is a request in flight for the given cache
      *          key.</li>
-     *     <li>get(cacheKey) returns waiting requests for the given cache key. The in flight request
-     *          is <em>not</em> contained in that list. Is null if no requests are staged.</li>
+     *     <li>get(cacheKey) returns the {@link WaitingList} of that request, holding the requests
+     *          waiting for it. The in flight request is <em>not</em> contained in that list.</li>
      * </ul>
      */
-    private final Map<String, Queue<Request<?>>> mWaitingRequests =
-            new HashMap<>();
+    private final ConcurrentMap<String, WaitingList> mWaitingRequests =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Staging area for requests coalesced onto an identical request in flight, keyed by
+     * {@link Request#getCoalescingKey()}. Works like {@link #mWaitingRequests}, except that the
+     * waiting requests get the response of the request they wait on instead of going through
+     * the cache, so it also works with caching off.
+     */
+    private final ConcurrentMap<String, WaitingList> mCoalescedRequests =
+            new ConcurrentHashMap<>();
 
     /**
      * The set of all requests currently being processed by this RequestQueue. A Request
      * will be in this set if it is waiting in any queue or currently being processed by
      * any dispatcher.
      */
-    private final Set<Request<?>> mCurrentRequests = new HashSet<>();
+    private final Set<Request<?>> mCurrentRequests =
+            Collections.newSetFromMap(new ConcurrentHashMap<Request<?>, Boolean>());
 
     /** The cache triage queue. */
     private final PriorityBlockingQueue<Request<?>> mCacheQueue =
             new PriorityBlockingQueue<>();
 
-    /** The queue of requests that are actually going out to the network. */
-    private final PriorityBlockingQueue<Request<?>> mNetworkQueue =
-            new PriorityBlockingQueue<>();
+    /**
+     * The queue of requests that are actually going out to the network. Takes turns between
+     * hosts and limits the requests in flight per host.
+     */
+    private final HostFairBlockingQueue mNetworkQueue = new HostFairBlockingQueue();
 
     /** Number of network request dispatcher threads to start. */
     private static final int DEFAULT_NETWORK_THREAD_POOL_SIZE = 4;
 
+    /**
+     * Default maximum number of concurrent requests in {@link DispatchMode#ELASTIC} mode. Enough
+     * for six hosts at {@link HostFairBlockingQueue#DEFAULT_MAX_REQUESTS_PER_HOST} each, so the
+     * per-host limits rather than this one bound a typical burst.
+     */
+    private static final int DEFAULT_MAX_ELASTIC_REQUESTS = 32;
+
+    /**
+     * How requests taken from the network queue are run.
+     */
+    public enum DispatchMode {
+        /** A fixed number of {@link NetworkDispatcher} threads, one request each. */
+        FIXED,
+        /**
+         * An {@link ElasticNetworkDispatcher}: one worker per request, growing with the
+         * number of requests waiting on I/O up to a maximum.
+         */
+        ELASTIC
+    }
+
     /** Cache interface for retrieving and storing responses. */
     private final Cache mCache;
 
@@ -84,6 +117,12 @@ public class RequestQueue {
     /** The network dispatchers. */
     private NetworkDispatcher[] mDispatchers;
 
+    /** How network requests are dispatched. */
+    private final DispatchMode mDispatchMode;
+
+    /** Maximum number of concurrent requests in {@link DispatchMode#ELASTIC} mode. */
+    private final int mMaxConcurrentRequests;
+
     /** The cache dispatcher. */
     private CacheDispatcher mCacheDispatcher;
 
@@ -100,9 +139,28 @@ public class RequestQueue {
      */
     public RequestQueue(Cache cache, Network network, int threadPoolSize,
             ResponseDelivery delivery) {
+        this(cache, network, threadPoolSize, delivery, DispatchMode.FIXED);
+    }
+
+    /**
+     * Creates the worker pool. Processing will not begin until {@link #start()} is called.
+     *
+     * @param cache A Cache to use for persisting responses to disk
+     * @param network A Network interface for performing HTTP requests
+     * @param threadPoolSize Number of network dispatcher threads to create in
+     *     {@link DispatchMode#FIXED} mode, or the maximum number of concurrent requests in
+     *     {@link DispatchMode#ELASTIC} mode
+     * @param delivery A ResponseDelivery interface for posting responses and errors
+     * @param dispatchMode How network requests are dispatched
+     */
+    public RequestQueue(Cache cache, Network network, int threadPoolSize,
+            ResponseDelivery delivery, DispatchMode dispatchMode) {
         mCache = cache;
         mNetwork = network;
-        mDispatchers = new NetworkDispatcher[threadPoolSize];
+        mDispatchMode = dispatchMode;
+        mMaxConcurrentRequests = threadPoolSize;
+        mDispatchers = new NetworkDispatcher[dispatchMode == DispatchMode.ELASTIC
+                ? 1 : threadPoolSize];
         mDelivery = delivery;
     }
 
@@ -128,6 +186,30 @@ public class RequestQueue {
         this(cache, network, DEFAULT_NETWORK_THREAD_POOL_SIZE);
     }
 
+    /**
+     * Creates the worker pool. Processing will not begin until {@link #start()} is called.
+     *
+     * @param cache A Cache to use for persisting responses to disk
+     * @param network A Network interface for performing HTTP requests
+     * @param delivery A ResponseDelivery interface for posting responses and errors
+     */
+    public RequestQueue(Cache cache, Network network, ResponseDelivery delivery) {
+        this(cache, network, DEFAULT_NETWORK_THREAD_POOL_SIZE, delivery);
+    }
+
+    /**
+     * Creates the worker pool. Processing will not begin until {@link #start()} is called.
+     *
+     * @param cache A Cache to use for persisting responses to disk
+     * @param network A Network interface for performing HTTP requests
+     * @param dispatchMode How network requests are dispatched
+     */
+    public RequestQueue(Cache cache, Network network, DispatchMode dispatchMode) {
+        this(cache, network, dispatchMode == DispatchMode.ELASTIC
+                        ? DEFAULT_MAX_ELASTIC_REQUESTS : DEFAULT_NETWORK_THREAD_POOL_SIZE,
+                new ExecutorDelivery(new Handler(Looper.getMainLooper())), dispatchMode);
+    }
+
     public void setPriority(int priority){
         mPriority = priority;
     }
@@ -143,8 +225,14 @@ public class RequestQueue {
 
         // Create network dispatchers (and corresponding threads) up to the pool size.
         for (int i = 0; i < mDispatchers.length; i++) {
-            NetworkDispatcher networkDispatcher = new NetworkDispatcher(mNetworkQueue, mNetwork,
-                    mCache, mDelivery);
+            NetworkDispatcher networkDispatcher;
+            if (mDispatchMode == DispatchMode.ELASTIC) {
+                networkDispatcher = new ElasticNetworkDispatcher(mNetworkQueue, mNetwork,
+                        mCache, mDelivery, mMaxConcurrentRequests);
+            } else {
+                networkDispatcher = new NetworkDispatcher(mNetworkQueue, mNetwork,
+                        mCache, mDelivery);
+            }
             mDispatchers[i] = networkDispatcher;
             networkDispatcher.setThreadPriority(mPriority);
             networkDispatcher.start();
@@ -172,6 +260,13 @@ public class RequestQueue {
         return mSequenceGenerator.incrementAndGet();
     }
 
+    /**
+     * Gets the network queue, to configure per-host limits or read per-host queue depth.
+     */
+    public HostFairBlockingQueue getNetworkQueue() {
+        return mNetworkQueue;
+    }
+
     /**
      * Gets the {@link Cache} instance being used.
      */
@@ -192,12 +287,12 @@ public class RequestQueue {
      * @param filter The filtering function to use
      */
     public void cancelAll(RequestFilter filter) {
-        synchronized (mCurrentRequests) {
-            for (Request<?> request : mCurrentRequests) {
-                if (filter.apply(request)) {
-                    VolleyLog.d("RequestQueue cancel: %s", request.getUrl());
-                    request.cancel();
-                }
+        // The set is concurrent; requests added while iterating may or may not be seen, just
+        // as if they had been added right after this call.
+        for (Request<?> request : mCurrentRequests) {
+            if (filter.apply(request)) {
+                VolleyLog.d("RequestQueue cancel: %s", request.getUrl());
+                request.cancel();
             }
         }
     }
@@ -218,6 +313,22 @@ public class RequestQueue {
         });
     }
 
+    /**
+     * Changes the priority of a request of this queue. If the request is waiting in the cache
+     * or network queue it is taken out and put back, so that it moves to its new place.
+     */
+    /* package */ void changePriority(Request<?> request, Request.Priority priority) {
+        if (mCacheQueue.remove(request)) {
+            request.setPriorityInternal(priority);
+            mCacheQueue.add(request);
+        } else if (mNetworkQueue.remove(request)) {
+            request.setPriorityInternal(priority);
+            mNetworkQueue.add(request);
+        } else {
+            request.setPriorityInternal(priority);
+        }
+    }
+
     /**
      * Adds a Request to the dispatch queue.
      * @param request The request to service
@@ -227,42 +338,126 @@ public class RequestQueue {
         request.beforeInvoke();
         // Tag the request as belonging to this queue and add it to the set of current requests.
         request.setRequestQueue(this);
-        synchronized (mCurrentRequests) {
-            mCurrentRequests.add(request);
-        }
+        mCurrentRequests.add(request);
 
         // Process requests in the order they are added.
         request.setSequence(getSequenceNumber());
         request.addMarker("add-to-queue");
 
+        enqueue(request);
+        return request;
+    }
+
+    /**
+     * Sends a request that is in the set of current requests on its way: onto a request it
+     * can be coalesced with, or into the cache or network queue.
+     */
+    private void enqueue(Request<?> request) {
+        if (request.shouldCoalesce()) {
+            String key = request.getCoalescingKey();
+            if (key != null && coalesce(key, request)) {
+                return;
+            }
+        }
+
         // If the request is uncacheable, skip the cache queue and go straight to the network.
         if (!request.shouldCache()) {
             mNetworkQueue.add(request);
-            return request;
+            return;
         }
 
         // Insert request into stage if there's already a request with the same cache key in flight.
-        synchronized (mWaitingRequests) {
-            String cacheKey = request.getCacheKey();
-            if (mWaitingRequests.containsKey(cacheKey)) {
-                // There is already a request in flight. Queue up.
-                Queue<Request<?>> stagedRequests = mWaitingRequests.get(cacheKey);
-                if (stagedRequests == null) {
-                    stagedRequests = new LinkedList<>();
+        String cacheKey = request.getCacheKey();
+        while (true) {
+            WaitingList waitingList = mWaitingRequests.get(cacheKey);
+            if (waitingList == null) {
+                // Register this request as in flight for cacheKey.
+                waitingList = mWaitingRequests.putIfAbsent(cacheKey, new WaitingList(request));
+                if (waitingList == null) {
+                    mCacheQueue.add(request);
+                    return;
                 }
-                stagedRequests.add(request);
-                mWaitingRequests.put(cacheKey, stagedRequests);
+            }
+            if (waitingList.offer(request)) {
+                // There is already a request in flight. Queue up.
                 if (VolleyLog.DEBUG) {
                     VolleyLog.v("Request for cacheKey=%s is in flight, putting on hold.", cacheKey);
                 }
+                return;
+            }
+            // The in flight request is finishing and has closed its list; drop it and retry.
+            mWaitingRequests.remove(cacheKey, waitingList);
+        }
+    }
+
+    /**
+     * Puts a request on hold behind an identical one in flight, or registers it as the one in
+     * flight for the key.
+     *
+     * @return true if the request was put on hold, false if it has to be sent itself
+     */
+    private boolean coalesce(String key, Request<?> request) {
+        while (true) {
+            WaitingList waitingList = mCoalescedRequests.get(key);
+            if (waitingList == null) {
+                waitingList = mCoalescedRequests.putIfAbsent(key, new WaitingList(request));
+                if (waitingList == null) {
+                    request.setCoalescedKey(key);
+                    return false;
+                }
+            }
+            if (waitingList.offer(request)) {
+                request.addMarker("coalesced");
+                if (VolleyLog.DEBUG) {
+                    VolleyLog.v("Identical request in flight, coalescing %s", request.getUrl());
+                }
+                return true;
+            }
+            mCoalescedRequests.remove(key, waitingList);
+        }
+    }
+
+    /**
+     * Returns true if a request coalesced onto the given one is waiting and not canceled.
+     */
+    boolean hasLiveCoalescedRequests(Request<?> request) {
+        String key = request.getCoalescedKey();
+        if (key == null) {
+            return false;
+        }
+        WaitingList waitingList = mCoalescedRequests.get(key);
+        return waitingList != null && waitingList.owner == request
+                && waitingList.hasLiveRequest();
+    }
+
+    /**
+     * Takes the requests coalesced onto the given one, in the order they were added. Those
+     * canceled meanwhile are finished instead of returned. Identical requests added from now
+     * on no longer wait on the given one.
+     */
+    List<Request<?>> takeCoalescedRequests(Request<?> request) {
+        String key = request.getCoalescedKey();
+        if (key == null) {
+            return Collections.emptyList();
+        }
+        request.setCoalescedKey(null);
+        WaitingList waitingList = mCoalescedRequests.get(key);
+        if (waitingList == null || waitingList.owner != request) {
+            return Collections.emptyList();
+        }
+        Node waiting = waitingList.close();
+        mCoalescedRequests.remove(key, waitingList);
+
+        List<Request<?>> requests = new ArrayList<>();
+        for (Node node = waiting; node != null; node = node.next) {
+            if (node.request.isCanceled()) {
+                node.request.finish("canceled-while-coalesced");
             } else {
-                // Insert 'null' queue for this cacheKey, indicating there is now a request in
-                // flight.
-                mWaitingRequests.put(cacheKey, null);
-                mCacheQueue.add(request);
+                requests.add(node.request);
             }
-            return request;
         }
+        Collections.reverse(requests);
+        return requests;
     }
 
     /**
@@ -274,24 +469,108 @@ public class RequestQueue {
      */
     void finish(Request<?> request) {
         // Remove from the set of requests currently being processed.
-        synchronized (mCurrentRequests) {
-            mCurrentRequests.remove(request);
+        mCurrentRequests.remove(request);
+        mNetworkQueue.onFinished(request);
+
+        // Requests coalesced onto this one that didn't get its response, e.g. because it was
+        // served from cache or abandoned, go on their own.
+        if (request.getCoalescedKey() != null) {
+            for (Request<?> waitingRequest : takeCoalescedRequests(request)) {
+                enqueue(waitingRequest);
+            }
         }
 
         if (request.shouldCache()) {
-            synchronized (mWaitingRequests) {
-                String cacheKey = request.getCacheKey();
-                Queue<Request<?>> waitingRequests = mWaitingRequests.remove(cacheKey);
-                if (waitingRequests != null) {
-                    if (VolleyLog.DEBUG) {
-                        VolleyLog.v("Releasing %d waiting requests for cacheKey=%s.",
-                                waitingRequests.size(), cacheKey);
-                    }
-                    // Process all queued up requests. They won't be considered as in flight, but
-                    // that's not a problem as the cache has been primed by 'request'.
-                    mCacheQueue.addAll(waitingRequests);
+            String cacheKey = request.getCacheKey();
+            WaitingList waitingList = mWaitingRequests.get(cacheKey);
+            // Requests released from a waiting list are no longer in flight for their key, so
+            // only the request that owns the list may release it.
+            if (waitingList == null || waitingList.owner != request) {
+                return;
+            }
+            Node waiting = waitingList.close();
+            mWaitingRequests.remove(cacheKey, waitingList);
+
+            int released = 0;
+            for (Node node = waiting; node != null; node = node.next) {
+                Request<?> waitingRequest = node.request;
+                if (waitingRequest.isCanceled()) {
+                    waitingRequest.finish("canceled-while-waiting");
+                    continue;
                 }
+                // Process all queued up requests. They won't be considered as in flight, but
+                // that's not a problem as the cache has been primed by 'request'.
+                mCacheQueue.add(waitingRequest);
+                released++;
+            }
+            if (VolleyLog.DEBUG && released > 0) {
+                VolleyLog.v("Releasing %d waiting requests for cacheKey=%s.", released, cacheKey);
             }
         }
     }
+
+    /** Node of a {@link WaitingList}. */
+    private static final class Node {
+        final Request<?> request;
+        final Node next;
+
+        Node(Request<?> request, Node next) {
+            this.request = request;
+            this.next = next;
+        }
+    }
+
+    /**
+     * Requests waiting on the in flight request for one key, kept as a lock-free stack.
+     * Once the owner finishes, the stack is swapped for {@link #CLOSED} so that no waiter can
+     * be added after the owner has released the others.
+     */
+    private static final class WaitingList {
+        private static final Node CLOSED = new Node(null, null);
+
+        /** The in flight request that the waiters are waiting on. */
+        final Request<?> owner;
+
+        private final AtomicReference<Node> mHead = new AtomicReference<>();
+
+        WaitingList(Request<?> owner) {
+            this.owner = owner;
+        }
+
+        /**
+         * Adds a waiting request.
+         *
+         * @return false if the list was closed and the request was not added
+         */
+        boolean offer(Request<?> request) {
+            while (true) {
+                Node head = mHead.get();
+                if (head == CLOSED) {
+                    return false;
+                }
+                if (mHead.compareAndSet(head, new Node(request, head))) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Returns true if a waiting request has not been canceled.
+         */
+        boolean hasLiveRequest() {
+            for (Node node = mHead.get(); node != null && node != CLOSED; node = node.next) {
+                if (!node.request.isCanceled()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Closes the list and returns the waiting requests, most recently added first.
+         */
+        Node close() {
+            return mHead.getAndSet(CLOSED);
+        }
+    }
 }
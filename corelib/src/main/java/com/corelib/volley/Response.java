@@ -33,6 +33,15 @@ public class Response<T> {
         public void onResponseHeadersAndData(Map<String, String> headers, String originalData, int responseCode, boolean isFromNetwork);
     }
 
+    /**
+     * A listener that gets the original data undecoded. Requests that support it call
+     * {@link #onResponseHeadersAndData(Map, OriginalData, int, boolean)} instead of the String
+     * variant, so the text is only built if the listener asks for it.
+     */
+    public interface LazyDataListener<T> extends Listener<T> {
+        public void onResponseHeadersAndData(Map<String, String> headers, OriginalData originalData, int responseCode, boolean isFromNetwork);
+    }
+
     /** Callback interface for delivering error responses. */
     public interface ErrorListener {
         /**
@@ -46,6 +46,7 @@ import java.net.SocketTimeoutException;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * A network performing Volley requests over an {@link HttpStack}.
@@ -67,7 +68,7 @@ public class BasicNetwork implements Network {
     public BasicNetwork(HttpStack httpStack) {
         // If a pool isn't passed in, then build a small default pool that will give us a lot of
         // benefit and not use too much memory.
-        this(httpStack, new ByteArrayPool(DEFAULT_POOL_SIZE));
+        this(httpStack, new SlabByteArrayPool(DEFAULT_POOL_SIZE));
     }
 
     /**
@@ -94,12 +95,43 @@ public class BasicNetwork implements Network {
                 StatusLine statusLine = httpResponse.getStatusLine();
                 int statusCode = statusLine.getStatusCode();
 
-                responseHeaders = convertHeaders(httpResponse.getAllHeaders());
+                if (httpResponse instanceof OkHttpStack.OkHttpResponse) {
+                    responseHeaders = ((OkHttpStack.OkHttpResponse) httpResponse).getHeaderMap();
+                } else {
+                    responseHeaders = convertHeaders(httpResponse.getAllHeaders());
+                }
                 // Handle cache validation.
                 if (statusCode == HttpStatus.SC_NOT_MODIFIED) {
-                    return new NetworkResponse(HttpStatus.SC_NOT_MODIFIED,
-                            request.getCacheEntry() == null ? null : request.getCacheEntry().data,
-                            responseHeaders, true);
+                    Cache.Entry entry = request.getCacheEntry();
+                    if (entry == null) {
+                        return new NetworkResponse(HttpStatus.SC_NOT_MODIFIED, null,
+                                responseHeaders, true);
+                    }
+                    return new NetworkResponse(HttpStatus.SC_NOT_MODIFIED, entry.getData(),
+                            combineHeaders(entry.responseHeaders, responseHeaders), true);
+                }
+
+                // Hand successful bodies to streaming requests unread; they are consumed
+                // and closed by NetworkDispatcher.
+                if (request.shouldStreamResponse() && statusCode >= 200 && statusCode <= 299
+                        && httpResponse.getEntity() != null) {
+                    InputStream in = httpResponse.getEntity().getContent();
+                    if (in != null) {
+                        return new NetworkResponse(statusCode, in, responseHeaders);
+                    }
+                }
+
+                // Let subclasses keep successful bodies off the heap for requests that can
+                // read them from a buffer.
+                if (request.acceptsBufferResponse() && statusCode >= 200 && statusCode <= 299
+                        && httpResponse.getEntity() != null) {
+                    NetworkResponse bufferResponse = entityToBufferResponse(statusCode,
+                            httpResponse.getEntity(), responseHeaders);
+                    if (bufferResponse != null) {
+                        logSlowRequests(SystemClock.elapsedRealtime() - requestStart, request,
+                                null, statusLine);
+                        return bufferResponse;
+                    }
                 }
 
                 // Some responses such as 204s do not have content. We must check.
@@ -205,6 +237,20 @@ public class BasicNetwork implements Network {
 
     }
 
+    /**
+     * Reads the body of a successful response into a buffer, for a request that returns true
+     * from {@link Request#acceptsBufferResponse()}. Returns null to read it into a byte[] as
+     * usual, which is what this implementation does.
+     *
+     * @param statusCode the HTTP status code
+     * @param entity Body of the response
+     * @param headers Headers returned with the response
+     */
+    protected NetworkResponse entityToBufferResponse(int statusCode, HttpEntity entity,
+            Map<String, String> headers) throws IOException, ServerError {
+        return null;
+    }
+
     /** Reads the contents of HttpEntity into a byte[]. */
     private byte[] entityToBytes(HttpEntity entity) throws IOException, ServerError {
         PoolingByteArrayOutputStream bytes = new PoolingByteArrayOutputStream(mPool,
@@ -238,6 +284,21 @@ public class BasicNetwork implements Network {
     /**
      * Converts Headers[] to Map<String, String>.
      */
+    /**
+     * Returns the headers of a cached response updated by those of the 304 that revalidated
+     * it. A 304 usually leaves out Content-Type and the like, which the cached body still
+     * needs to be parsed.
+     */
+    static Map<String, String> combineHeaders(Map<String, String> cachedHeaders,
+            Map<String, String> notModifiedHeaders) {
+        Map<String, String> result = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        if (cachedHeaders != null) {
+            result.putAll(cachedHeaders);
+        }
+        result.putAll(notModifiedHeaders);
+        return result;
+    }
+
     private static Map<String, String> convertHeaders(Header[] headers) {
         Map<String, String> result = new HashMap<>();
         for (Header header : headers) {
@@ -15,12 +15,27 @@ public class BitmapCache implements ImageLoader.ImageCache {
     private LruCache<String, Bitmap> mMemoryCache = null;
     /** Soft-referenced memory cache */
     private static LinkedHashMap<String, WeakReference<Bitmap>> sSoftMemoryCache;
+    /** Whether evicted bitmaps go to the {@link BitmapPool} once no longer displayed */
+    private final boolean mPoolEvictedBitmaps;
 
     public BitmapCache() {
         this(BITMAP_CACHE_MIN_SIZE);
     }
 
     public BitmapCache(int maxSize) {
+        this(maxSize, false);
+    }
+
+    /**
+     * @param maxSize Size of the memory cache
+     * @param poolEvictedBitmaps Whether to hand evicted bitmaps to the {@link BitmapPool} for
+     *     decoding into, once the {@link ImageLoader.ImageContainer}s holding them are released.
+     *     Only safe if the app displays bitmaps through containers it releases, like
+     *     {@link NetworkImageView} does, and not e.g. from
+     *     {@link ImageLoader#getBitmapFromCache(String)}
+     */
+    public BitmapCache(int maxSize, boolean poolEvictedBitmaps) {
+        mPoolEvictedBitmaps = poolEvictedBitmaps;
         if (maxSize < BITMAP_CACHE_MIN_SIZE) {
             maxSize = BITMAP_CACHE_MIN_SIZE;
         }
@@ -35,10 +50,19 @@ public class BitmapCache implements ImageLoader.ImageCache {
             @Override
             protected void entryRemoved(boolean evicted, String key,
                                         Bitmap oldValue, Bitmap newValue) {
-                if (oldValue != null) {
-                    sSoftMemoryCache.put(key, new WeakReference<Bitmap>(
-                            oldValue));
+                if (oldValue == null) {
+                    return;
+                }
+                /*
+                 * 开启复用时，被淘汰的Bitmap在显示它的ImageContainer都释放后交给BitmapPool，
+                 * 其余的放入软引用缓存
+                 */
+                if (evicted && mPoolEvictedBitmaps
+                        && VolleyConfig.getBitmapPool().offerEvicted(oldValue)) {
+                    return;
                 }
+                sSoftMemoryCache.put(key, new WeakReference<Bitmap>(
+                        oldValue));
             }
         };
 
@@ -88,4 +112,9 @@ public class BitmapCache implements ImageLoader.ImageCache {
     public synchronized void putBitmap(String url, Bitmap bitmap) {
         mMemoryCache.put(url, bitmap);
     }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapCache[" + mMemoryCache + ", weak=" + sSoftMemoryCache.size() + "]";
+    }
 }
@@ -0,0 +1,278 @@
+package com.corelib.volley.toolbox;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 可复用Bitmap池，供{@link ImageRequest}解码时通过inBitmap复用，避免每次解码都分配新的Bitmap。
+ *
+ * 池中的Bitmap按config和大小分组。4.4及以上只要求config相同、内存不小于所需且不超过所需的
+ * {@link #MAX_SIZE_MULTIPLE}倍；4.4以下要求宽高和config完全相同。池满时淘汰最早放入的Bitmap。
+ *
+ * 注意：放入池中的Bitmap之后会被覆盖，调用方不能再显示它。所以Cache淘汰的Bitmap通过
+ * {@link #offerEvicted(Bitmap)}放入：显示Bitmap的{@link ImageLoader.ImageContainer}用
+ * {@link #acquire(Bitmap)}和{@link #release(Bitmap)}计数，只有显示过且都已释放的才会放入池中。
+ */
+public class BitmapPool {
+    /** 默认池大小 */
+    private static final int DEFAULT_POOL_SIZE = 4 * 1024 * 1024;
+
+    /** 4.4及以上，复用的Bitmap最多可以是所需内存的几倍 */
+    private static final int MAX_SIZE_MULTIPLE = 2;
+
+    private static final boolean REUSE_BY_SIZE =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+
+    /** 每种config下，按分组键排序的Bitmap */
+    private final Map<Config, TreeMap<Long, ArrayDeque<Bitmap>>> mGroups =
+            new HashMap<Config, TreeMap<Long, ArrayDeque<Bitmap>>>();
+
+    /** 按放入顺序排列的所有Bitmap，用于淘汰 */
+    private final ArrayDeque<Bitmap> mBitmapsByAge = new ArrayDeque<Bitmap>();
+
+    /** 显示过的Bitmap的引用计数 */
+    private final DisplayRefCounts<Bitmap> mRefCounts = new DisplayRefCounts<Bitmap>();
+
+    private final int mMaxSize;
+
+    private int mCurrentSize = 0;
+
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+    private int mPutCount = 0;
+    private int mEvictionCount = 0;
+    private long mReusedBytes = 0;
+    private long mAllocatedBytes = 0;
+
+    public BitmapPool() {
+        this(DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * @param maxSize 池中Bitmap的最大总字节数，为0时不复用
+     */
+    public BitmapPool(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * 取出一个可以作为inBitmap解码出给定宽高和config的Bitmap，没有时返回null。
+     * 取出的Bitmap不再属于池，解码失败时可以用{@link #put(Bitmap)}放回。
+     */
+    public synchronized Bitmap get(int width, int height, Config config) {
+        if (width <= 0 || height <= 0 || config == null) {
+            return null;
+        }
+        TreeMap<Long, ArrayDeque<Bitmap>> group = mGroups.get(config);
+        Bitmap bitmap = null;
+        if (group != null) {
+            Long key;
+            if (REUSE_BY_SIZE) {
+                long needed = DecodeScheduler.estimateBytes(width, height, 1, config);
+                key = group.ceilingKey(needed);
+                if (key != null && key > needed * MAX_SIZE_MULTIPLE) {
+                    key = null;
+                }
+            } else {
+                key = getDimensionKey(width, height);
+            }
+            ArrayDeque<Bitmap> bitmaps = key != null ? group.get(key) : null;
+            if (bitmaps != null) {
+                bitmap = bitmaps.poll();
+                if (bitmaps.isEmpty()) {
+                    group.remove(key);
+                }
+            }
+        }
+        if (bitmap == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        mBitmapsByAge.remove(bitmap);
+        mCurrentSize -= getSize(bitmap);
+        mReusedBytes += getSize(bitmap);
+        return bitmap;
+    }
+
+    /**
+     * 放入一个不再显示的Bitmap。不可变、已回收或比整个池还大的Bitmap不放入。
+     *
+     * @return 是否放入
+     */
+    public synchronized boolean put(Bitmap bitmap) {
+        if (!canPool(bitmap)) {
+            return false;
+        }
+        int size = getSize(bitmap);
+        mPutCount++;
+        TreeMap<Long, ArrayDeque<Bitmap>> group = mGroups.get(bitmap.getConfig());
+        if (group == null) {
+            group = new TreeMap<Long, ArrayDeque<Bitmap>>();
+            mGroups.put(bitmap.getConfig(), group);
+        }
+        long key = getKey(bitmap);
+        ArrayDeque<Bitmap> bitmaps = group.get(key);
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<Bitmap>();
+            group.put(key, bitmaps);
+        }
+        bitmaps.add(bitmap);
+        mBitmapsByAge.add(bitmap);
+        mCurrentSize += size;
+        trimToSize(mMaxSize);
+        return true;
+    }
+
+    /**
+     * 记录Bitmap开始显示，和{@link #release(Bitmap)}成对调用。还在池中的Bitmap会被取出，不再复用。
+     */
+    public synchronized void acquire(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        mRefCounts.acquire(bitmap);
+        // 在Cache淘汰它和显示它之间被放入了池中
+        if (mBitmapsByAge.remove(bitmap)) {
+            removeFromGroup(bitmap);
+            mCurrentSize -= getSize(bitmap);
+        }
+    }
+
+    /**
+     * 记录Bitmap不再显示。最后一个引用释放时，如果Cache已经淘汰了它，放入池中。
+     */
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap != null && mRefCounts.release(bitmap)) {
+            put(bitmap);
+        }
+    }
+
+    /**
+     * 供Cache淘汰Bitmap时调用。显示过且都已释放的Bitmap放入池中，还在显示的在最后一次释放后放入。
+     * 没有通过{@link #acquire(Bitmap)}显示过的不放入，因为不知道还有谁持有它。
+     *
+     * @return 是否放入或将在释放后放入池中，是的话Cache不能再把它交给别人
+     */
+    public synchronized boolean offerEvicted(Bitmap bitmap) {
+        if (!canPool(bitmap)) {
+            return false;
+        }
+        switch (mRefCounts.evict(bitmap)) {
+            case DisplayRefCounts.STILL_DISPLAYED:
+                return true;
+            case DisplayRefCounts.RELEASED:
+                return put(bitmap);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 记录一个没能复用、新分配的Bitmap，计入{@link #getAllocatedBytes()}
+     */
+    public synchronized void recordAllocation(Bitmap bitmap) {
+        if (bitmap != null) {
+            mAllocatedBytes += getSize(bitmap);
+        }
+    }
+
+    /**
+     * 清空池
+     */
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    private void trimToSize(int maxSize) {
+        while (mCurrentSize > maxSize) {
+            Bitmap eldest = mBitmapsByAge.poll();
+            removeFromGroup(eldest);
+            mCurrentSize -= getSize(eldest);
+            mEvictionCount++;
+        }
+    }
+
+    private void removeFromGroup(Bitmap bitmap) {
+        TreeMap<Long, ArrayDeque<Bitmap>> group = mGroups.get(bitmap.getConfig());
+        long key = getKey(bitmap);
+        ArrayDeque<Bitmap> bitmaps = group.get(key);
+        bitmaps.remove(bitmap);
+        if (bitmaps.isEmpty()) {
+            group.remove(key);
+        }
+    }
+
+    private boolean canPool(Bitmap bitmap) {
+        return bitmap != null && bitmap.isMutable() && !bitmap.isRecycled()
+                && bitmap.getConfig() != null && getSize(bitmap) <= mMaxSize;
+    }
+
+    /** 取出时命中的次数 */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /** 取出时没有可用Bitmap的次数 */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /** 放入的次数 */
+    public synchronized int getPutCount() {
+        return mPutCount;
+    }
+
+    /** 因池满被淘汰的次数 */
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /** 复用命中率，还没有取过时为0 */
+    public synchronized float getHitRate() {
+        int requests = mHitCount + mMissCount;
+        return requests == 0 ? 0f : (float) mHitCount / requests;
+    }
+
+    /** 池中Bitmap的总字节数 */
+    public synchronized int getSize() {
+        return mCurrentSize;
+    }
+
+    /** 解码时复用的总字节数 */
+    public synchronized long getReusedBytes() {
+        return mReusedBytes;
+    }
+
+    /** 没能复用、新分配的总字节数，见{@link #recordAllocation(Bitmap)} */
+    public synchronized long getAllocatedBytes() {
+        return mAllocatedBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("BitmapPool[size=%d/%d, hits=%d, misses=%d, hitRate=%d%%, puts=%d, "
+                        + "evictions=%d, reused=%dKB, allocated=%dKB]",
+                mCurrentSize, mMaxSize, mHitCount, mMissCount, (int) (getHitRate() * 100),
+                mPutCount, mEvictionCount, mReusedBytes / 1024, mAllocatedBytes / 1024);
+    }
+
+    private static long getKey(Bitmap bitmap) {
+        return REUSE_BY_SIZE ? getSize(bitmap)
+                : getDimensionKey(bitmap.getWidth(), bitmap.getHeight());
+    }
+
+    private static long getDimensionKey(int width, int height) {
+        return ((long) width << 32) | height;
+    }
+
+    private static int getSize(Bitmap bitmap) {
+        return REUSE_BY_SIZE ? bitmap.getAllocationByteCount() : bitmap.getByteCount();
+    }
+}
@@ -0,0 +1,373 @@
+package com.corelib.volley.toolbox;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import com.corelib.volley.VolleyLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 有容量上限的磁盘文件缓存。
+ *
+ * 与{@link UnlimitedDiskFileCache}共用目录结构，但在内存中维护一份文件索引（文件名到大小，按访问顺序），
+ * 索引建好后{@link #getFile(String)}只查索引，不再访问文件系统。索引在后台线程扫描目录建立，
+ * 建好之前的查找退回到检查文件是否存在。
+ *
+ * 总大小超过上限时，在后台线程按最近最少使用的顺序删除文件，直到降到上限的{@link #HYSTERESIS_FACTOR}以下，
+ * 调用线程不做删除。
+ *
+ * 注意：缓存目录必须只归本缓存使用。目录下的每个文件都会被索引、淘汰，{@link #clear()}时删除，
+ * 早于本缓存创建的.tmp文件也当作上次未写完的文件删除；目录中的文件也只能通过本缓存删除，
+ * 否则索引会返回已不存在的文件。
+ */
+public class BoundedDiskFileCache extends UnlimitedDiskFileCache {
+    /** 默认最大磁盘空间大小 */
+    private static final long DEFAULT_DISK_USAGE_BYTES = 100 * 1024 * 1024;
+    /** 淘汰后的大小占上限的比例，避免每次写入都触发淘汰 */
+    private static final float HYSTERESIS_FACTOR = 0.9f;
+
+    /** 建索引、淘汰和清空都在这个线程执行，单线程保证它们先后有序 */
+    private static final Executor BACKGROUND_EXECUTOR = createBackgroundExecutor();
+
+    /** 文件名到文件大小，按访问顺序，最久未使用的在前 */
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<String, Long>(16, .75f, true);
+    /** 最大缓存空间 */
+    private final long mMaxCacheSizeInBytes;
+    /** 创建时间，之前修改的临时文件是上次未写完留下的 */
+    private final long mCreateTime = System.currentTimeMillis();
+    /** 索引中文件的总大小 */
+    private long mTotalSize = 0;
+    /** 索引是否已建好 */
+    private boolean mIndexLoaded = false;
+    /** 索引建好之前删除的文件，扫描可能已经列出，合并时排除 */
+    private final HashSet<String> mRemovedWhileLoading = new HashSet<String>();
+    /** 每次清空加一，扫描期间被清空时丢弃扫描结果 */
+    private int mGeneration = 0;
+
+    private final AtomicBoolean mLoadStarted = new AtomicBoolean(false);
+    private final AtomicBoolean mTrimScheduled = new AtomicBoolean(false);
+
+    /**
+     * @param rootDirectoryPath 只归本缓存使用的目录，不能是应用的缓存根目录
+     * @param maxSize 最大磁盘空间大小
+     */
+    public BoundedDiskFileCache(String rootDirectoryPath, long maxSize) {
+        super(rootDirectoryPath);
+        mMaxCacheSizeInBytes = maxSize;
+    }
+
+    public BoundedDiskFileCache(String rootDirectoryPath) {
+        this(rootDirectoryPath, DEFAULT_DISK_USAGE_BYTES);
+    }
+
+    /**
+     * 在后台线程开始建索引，不等待完成。
+     */
+    @Override
+    public void init() {
+        loadIndexIfNeeded();
+    }
+
+    /**
+     * 立即清空索引，文件在后台线程删除。下载中的临时文件和未完成文件不删除。
+     */
+    @Override
+    public void clear() {
+        synchronized (this) {
+            mEntries.clear();
+            mTotalSize = 0;
+            mRemovedWhileLoading.clear();
+            mGeneration++;
+        }
+        BACKGROUND_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                deleteUnindexedFiles();
+            }
+        });
+    }
+
+    @Override
+    public String getFile(String fileName) {
+        if (TextUtils.isEmpty(fileName)) {
+            VolleyLog.e("invalid parameter");
+            return null;
+        }
+
+        loadIndexIfNeeded();
+        synchronized (this) {
+            if (mIndexLoaded) {
+                if (null == mEntries.get(fileName)) {
+                    return null;
+                }
+                return new File(mRootDirectory, fileName).getAbsolutePath();
+            }
+        }
+        return super.getFile(fileName);
+    }
+
+    @Override
+    public String putFile(String fileName, byte[] data) {
+        String path = super.putFile(fileName, data);
+        if (null != path) {
+            onFileAdded(fileName, data.length);
+        }
+        return path;
+    }
+
+    @Override
+    public String putFile(String fileName, InputStream in) throws IOException {
+        String path = super.putFile(fileName, in);
+        if (null != path) {
+            onFileAdded(fileName, new File(path).length());
+        }
+        return path;
+    }
+
+    @Override
+    public String commitPartialFile(String fileName) {
+        String path = super.commitPartialFile(fileName);
+        if (null != path) {
+            onFileAdded(fileName, new File(path).length());
+        }
+        return path;
+    }
+
+    @Override
+    public synchronized void remove(String fileName) {
+        if (TextUtils.isEmpty(fileName)) {
+            return;
+        }
+        createRootDirectory();
+        removeEntry(fileName);
+        new File(mRootDirectory, fileName).delete();
+    }
+
+    /** 索引中文件的总大小，索引建好之前只包含新写入的文件 */
+    public synchronized long getSize() {
+        return mTotalSize;
+    }
+
+    public long getMaxSize() {
+        return mMaxCacheSizeInBytes;
+    }
+
+    /** 从索引中去掉一个文件，须持有锁 */
+    private void removeEntry(String fileName) {
+        Long size = mEntries.remove(fileName);
+        if (null != size) {
+            mTotalSize -= size;
+        }
+        if (!mIndexLoaded) {
+            mRemovedWhileLoading.add(fileName);
+        }
+    }
+
+    private void onFileAdded(String fileName, long size) {
+        synchronized (this) {
+            Long old = mEntries.put(fileName, size);
+            mTotalSize += size - (null != old ? old : 0);
+            mRemovedWhileLoading.remove(fileName);
+        }
+        trimIfNeeded();
+    }
+
+    private void loadIndexIfNeeded() {
+        if (!mLoadStarted.compareAndSet(false, true)) {
+            return;
+        }
+        BACKGROUND_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                loadIndex();
+            }
+        });
+    }
+
+    /**
+     * 扫描缓存目录建立索引，按修改时间近似访问顺序。扫描期间写入的文件保留在最近使用的一端。
+     */
+    private void loadIndex() {
+        int generation;
+        synchronized (this) {
+            generation = mGeneration;
+        }
+
+        long startTime = SystemClock.elapsedRealtime();
+        createRootDirectory();
+        File[] files = null != mRootDirectory ? mRootDirectory.listFiles() : null;
+        LinkedHashMap<String, Long> scanned = new LinkedHashMap<String, Long>(16, .75f, true);
+        if (null != files) {
+            final Map<File, Long> lastModified = new LinkedHashMap<File, Long>();
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    continue;
+                }
+                long modified = file.lastModified();
+                if (file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                    /** 上次未写完的临时文件，之后创建的可能正在写入 */
+                    if (modified < mCreateTime) {
+                        file.delete();
+                    }
+                    continue;
+                }
+                lastModified.put(file, modified);
+            }
+            File[] sorted = lastModified.keySet().toArray(new File[lastModified.size()]);
+            Arrays.sort(sorted, new Comparator<File>() {
+                @Override
+                public int compare(File lhs, File rhs) {
+                    long l = lastModified.get(lhs);
+                    long r = lastModified.get(rhs);
+                    return l < r ? -1 : (l == r ? 0 : 1);
+                }
+            });
+            for (File file : sorted) {
+                scanned.put(file.getName(), file.length());
+            }
+        }
+
+        synchronized (this) {
+            if (generation == mGeneration) {
+                // 扫描期间写入或删除的文件以当前索引为准
+                for (String fileName : mRemovedWhileLoading) {
+                    scanned.remove(fileName);
+                }
+                for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                    scanned.remove(entry.getKey());
+                    scanned.put(entry.getKey(), entry.getValue());
+                }
+                mEntries.clear();
+                mEntries.putAll(scanned);
+                mTotalSize = 0;
+                for (Long size : mEntries.values()) {
+                    mTotalSize += size;
+                }
+            }
+            mRemovedWhileLoading.clear();
+            mIndexLoaded = true;
+            if (VolleyLog.DEBUG) {
+                VolleyLog.v("Indexed %d files, %d bytes, %d ms", mEntries.size(), mTotalSize,
+                        SystemClock.elapsedRealtime() - startTime);
+            }
+        }
+        trimIfNeeded();
+    }
+
+    private void trimIfNeeded() {
+        synchronized (this) {
+            if (mTotalSize <= mMaxCacheSizeInBytes) {
+                return;
+            }
+        }
+        if (!mTrimScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        BACKGROUND_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                mTrimScheduled.set(false);
+                trim();
+            }
+        });
+    }
+
+    /**
+     * 删除最久未使用的文件直到低于上限的{@link #HYSTERESIS_FACTOR}。每次只在锁内删一个文件，
+     * 查找最多等待一次删除。
+     */
+    private void trim() {
+        if (VolleyLog.DEBUG) {
+            VolleyLog.v("Pruning old cache entries.");
+        }
+
+        long startTime = SystemClock.elapsedRealtime();
+        long before = getSize();
+        int prunedFiles = 0;
+        long target = (long) (mMaxCacheSizeInBytes * HYSTERESIS_FACTOR);
+        while (true) {
+            synchronized (this) {
+                if (mTotalSize <= target || mEntries.isEmpty()) {
+                    break;
+                }
+                String fileName = mEntries.keySet().iterator().next();
+                removeEntry(fileName);
+                if (!new File(mRootDirectory, fileName).delete()) {
+                    VolleyLog.d("Could not delete cache entry for key=%s", fileName);
+                }
+            }
+            ++prunedFiles;
+        }
+
+        if (VolleyLog.DEBUG) {
+            VolleyLog.v("pruned %d files, %d bytes, %d ms", prunedFiles, before - getSize(),
+                    SystemClock.elapsedRealtime() - startTime);
+        }
+    }
+
+    /**
+     * 删除目录中不在索引里的缓存文件，跳过写入中的临时文件和未完成文件的子目录。
+     */
+    private void deleteUnindexedFiles() {
+        createRootDirectory();
+        File[] files = null != mRootDirectory ? mRootDirectory.listFiles() : null;
+        if (null == files) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory() || file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                continue;
+            }
+            synchronized (this) {
+                // 清空之后又写入的文件不删除
+                if (!mEntries.containsKey(file.getName())) {
+                    file.delete();
+                }
+            }
+        }
+        VolleyLog.d("Cache cleared.");
+    }
+
+    /** 等待已提交到后台线程的建索引、淘汰和清空完成，供测试使用 */
+    static void awaitBackgroundTasks() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        BACKGROUND_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        done.await();
+    }
+
+    private static Executor createBackgroundExecutor() {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "DiskFileCacheBackground");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.corelib.volley.toolbox;
+
+import android.graphics.Bitmap;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admits bitmap decodes so that a bounded number run at the same time and the memory they
+ * are estimated to allocate stays within a budget. Callers estimate a decode with
+ * {@link #estimateBytes(int, int, int, Bitmap.Config)} from the bounds of the image, then
+ * bracket it with {@link #acquire(long)} and {@link #release(long)}.
+ * <p>
+ * A decode larger than the whole budget is still admitted, but only when nothing else is
+ * decoding, so it can't starve.
+ */
+public class DecodeScheduler {
+
+    /** Share of the maximum heap that decodes in progress may use by default. */
+    private static final int DEFAULT_BUDGET_DIVISOR = 8;
+
+    private final ReentrantLock mLock = new ReentrantLock();
+
+    /** Signalled whenever a decode finishes. */
+    private final Condition mReleased = mLock.newCondition();
+
+    private final int mMaxDecodes;
+
+    private final long mBudgetBytes;
+
+    private int mRunning = 0;
+
+    private long mUsedBytes = 0;
+
+    /**
+     * Creates a scheduler allowing one decode per processor and an eighth of the maximum heap.
+     */
+    public DecodeScheduler() {
+        this(Runtime.getRuntime().availableProcessors(),
+                Runtime.getRuntime().maxMemory() / DEFAULT_BUDGET_DIVISOR);
+    }
+
+    /**
+     * @param maxDecodes Maximum number of decodes running at the same time
+     * @param budgetBytes Maximum estimated bytes of the decodes running at the same time
+     */
+    public DecodeScheduler(int maxDecodes, long budgetBytes) {
+        if (maxDecodes < 1) {
+            throw new IllegalArgumentException("maxDecodes < 1: " + maxDecodes);
+        }
+        mMaxDecodes = maxDecodes;
+        mBudgetBytes = budgetBytes;
+    }
+
+    /**
+     * Returns the bytes a decode of an image with the given natural size is estimated to
+     * allocate, when sampled down by the given factor into the given config.
+     */
+    public static long estimateBytes(int width, int height, int sampleSize, Bitmap.Config config) {
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+        int sample = Math.max(sampleSize, 1);
+        long pixels = (long) ((width + sample - 1) / sample) * ((height + sample - 1) / sample);
+        return pixels * getBytesPerPixel(config);
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        return 4;
+    }
+
+    /**
+     * Waits until a decode of the given estimated size may start, and counts it as running.
+     */
+    public void acquire(long bytes) throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            while (mRunning > 0
+                    && (mRunning >= mMaxDecodes || mUsedBytes + bytes > mBudgetBytes)) {
+                mReleased.await();
+            }
+            mRunning++;
+            mUsedBytes += bytes;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Counts a decode started with {@link #acquire(long)} as finished.
+     */
+    public void release(long bytes) {
+        mLock.lock();
+        try {
+            mRunning--;
+            mUsedBytes -= bytes;
+            // Waiters have different sizes; a small one may fit where a large one doesn't.
+            mReleased.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.corelib.volley.toolbox;
+
+import com.corelib.volley.NetworkResponse;
+import com.corelib.volley.Request;
+import com.corelib.volley.ServerError;
+import com.corelib.volley.VolleyLog;
+
+import org.apache.http.HttpEntity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * A {@link BasicNetwork} that reads successful bodies into pooled direct buffers instead of
+ * heap byte arrays, for requests that return true from {@link Request#acceptsBufferResponse()}.
+ * <p>
+ * The request parses a read-only view of the buffer in {@link NetworkResponse#buffer}, and the
+ * buffer goes back to the pool when the dispatcher closes the response, after parsing and
+ * caching. Reading a body therefore allocates no new array once the pool has warmed up,
+ * whereas {@link BasicNetwork} allocates one of the body's size for every response. A body
+ * that is cached is still copied once into the cache entry. Other requests and error
+ * responses are read as usual.
+ */
+public class DirectBufferNetwork extends BasicNetwork {
+    /** Default maximum size of the direct buffer pool. */
+    private static final int DEFAULT_DIRECT_POOL_SIZE = 1024 * 1024;
+
+    /** Capacity to start with when the body length is unknown. */
+    private static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    private final DirectByteBufferPool mDirectPool;
+
+    /**
+     * @param httpStack HTTP stack to be used
+     */
+    public DirectBufferNetwork(HttpStack httpStack) {
+        this(httpStack, new DirectByteBufferPool(DEFAULT_DIRECT_POOL_SIZE));
+    }
+
+    /**
+     * @param httpStack HTTP stack to be used
+     * @param directPool pool of direct buffers to read bodies into
+     */
+    public DirectBufferNetwork(HttpStack httpStack, DirectByteBufferPool directPool) {
+        super(httpStack);
+        mDirectPool = directPool;
+    }
+
+    @Override
+    protected NetworkResponse entityToBufferResponse(int statusCode, HttpEntity entity,
+            Map<String, String> headers) throws IOException, ServerError {
+        long length = entity.getContentLength();
+        ByteBuffer buffer = mDirectPool.getBuffer(length >= 0 && length <= Integer.MAX_VALUE
+                ? (int) length : DEFAULT_BUFFER_SIZE);
+        byte[] transfer = null;
+        boolean success = false;
+        try {
+            InputStream in = entity.getContent();
+            if (in == null) {
+                throw new ServerError();
+            }
+            transfer = mPool.getBuf(4096);
+            int count;
+            while ((count = in.read(transfer)) != -1) {
+                if (buffer.remaining() < count) {
+                    buffer = grow(buffer, count);
+                }
+                buffer.put(transfer, 0, count);
+            }
+            buffer.flip();
+            success = true;
+        } finally {
+            try {
+                // Close the InputStream and release the resources by "consuming the content".
+                entity.consumeContent();
+            } catch (IOException e) {
+                VolleyLog.v("Error occurred when calling consumingContent");
+            }
+            mPool.returnBuf(transfer);
+            if (!success) {
+                mDirectPool.returnBuffer(buffer);
+            }
+        }
+
+        final ByteBuffer pooled = buffer;
+        return new NetworkResponse(statusCode, buffer.asReadOnlyBuffer(), headers,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mDirectPool.returnBuffer(pooled);
+                    }
+                });
+    }
+
+    /** Moves the contents of a buffer into one at least twice as large. */
+    private ByteBuffer grow(ByteBuffer buffer, int needed) {
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + needed);
+        ByteBuffer grown = mDirectPool.getBuffer(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        mDirectPool.returnBuffer(buffer);
+        return grown;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.corelib.volley.toolbox;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of direct {@link ByteBuffer}s, the counterpart of {@link ByteArrayPool}.
+ * <p>
+ * On ART a direct buffer's memory is a non-movable array in the Java heap, so a direct
+ * buffer costs the garbage collector as much as a byte[] of the same size; what the pool
+ * saves is allocating one per response.
+ * <p>
+ * Buffers are pooled in power-of-two size classes without a lock, so a request is served from
+ * the smallest class that fits it and the returned buffer may be up to twice the requested
+ * capacity. Buffers larger than the largest class are still handed out but never pooled.
+ * The total capacity of the pooled buffers never exceeds the size limit; buffers returned to
+ * a full pool are dropped.
+ */
+public class DirectByteBufferPool {
+    /** The smallest size class, in bytes. */
+    private static final int MIN_CLASS_SIZE = 4096;
+
+    /** log2 of {@link #MIN_CLASS_SIZE}. */
+    private static final int MIN_CLASS_SHIFT = 12;
+
+    /** The maximum aggregate capacity of the buffers in the pool. */
+    private final int mSizeLimit;
+
+    /** Pooled buffers per size class. */
+    private final ConcurrentLinkedQueue<ByteBuffer>[] mBuffers;
+
+    /** The total capacity of the pooled buffers. */
+    private final AtomicInteger mCurrentSize = new AtomicInteger();
+
+    /**
+     * @param sizeLimit the maximum size of the pool, in bytes. Also the largest buffer pooled.
+     */
+    @SuppressWarnings("unchecked")
+    public DirectByteBufferPool(int sizeLimit) {
+        mSizeLimit = sizeLimit;
+        int classes = sizeLimit < MIN_CLASS_SIZE ? 0 : floorClass(sizeLimit) + 1;
+        mBuffers = new ConcurrentLinkedQueue[classes];
+        for (int i = 0; i < classes; i++) {
+            mBuffers[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+        }
+    }
+
+    private static int classSize(int sizeClass) {
+        return MIN_CLASS_SIZE << sizeClass;
+    }
+
+    /** Returns the largest size class whose buffers are no larger than len; len >= 4096. */
+    private static int floorClass(int len) {
+        return 31 - Integer.numberOfLeadingZeros(len) - MIN_CLASS_SHIFT;
+    }
+
+    /** Returns the smallest size class whose buffers are at least len long. */
+    private static int ceilClass(int len) {
+        if (len <= MIN_CLASS_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(len - 1) - MIN_CLASS_SHIFT;
+    }
+
+    /**
+     * Returns a cleared direct buffer from the pool if one is available in the requested size
+     * class, or allocates a new one if a pooled one is not available.
+     *
+     * @param capacity the minimum capacity, in bytes, of the requested buffer. The returned
+     *        buffer may be larger.
+     */
+    public ByteBuffer getBuffer(int capacity) {
+        int sizeClass = ceilClass(capacity);
+        if (sizeClass >= mBuffers.length) {
+            return ByteBuffer.allocateDirect(capacity);
+        }
+        ByteBuffer buffer = mBuffers[sizeClass].poll();
+        if (buffer != null) {
+            mCurrentSize.addAndGet(-buffer.capacity());
+            buffer.clear();
+            return buffer;
+        }
+        return ByteBuffer.allocateDirect(classSize(sizeClass));
+    }
+
+    /**
+     * Returns a buffer to the pool. There must be no other lingering references to it,
+     * including views.
+     */
+    public void returnBuffer(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.isReadOnly()
+                || buffer.capacity() < MIN_CLASS_SIZE || buffer.capacity() > mSizeLimit) {
+            return;
+        }
+        while (true) {
+            int size = mCurrentSize.get();
+            if (size + buffer.capacity() > mSizeLimit) {
+                return;
+            }
+            if (mCurrentSize.compareAndSet(size, size + buffer.capacity())) {
+                mBuffers[floorClass(buffer.capacity())].offer(buffer);
+                return;
+            }
+        }
+    }
+}
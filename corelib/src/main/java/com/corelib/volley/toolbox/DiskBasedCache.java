@@ -29,11 +29,14 @@ import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Cache implementation that caches files directly onto the hard disk in the specified
@@ -63,14 +66,38 @@ public class DiskBasedCache implements Cache {
     /** Magic number for current version of cache file format. */
     private static final int CACHE_MAGIC = 0x20120504;
 
+    /**
+     * Files smaller than this are read even in mapped mode; setting up a mapping costs
+     * more than copying a few pages.
+     */
+    static final int MIN_MAPPED_FILE_BYTES = 16 * 1024;
+
+    /** Suffix of the file an entry is written to before being renamed into place. */
+    static final String TMP_FILE_SUFFIX = ".tmp";
+
+    /** Whether get() maps entry files instead of reading them onto the heap. */
+    private final boolean mMapEntries;
+
     /**
      * Constructs an instance of the DiskBasedCache at the specified directory.
      * @param rootDirectory The root directory of the cache.
      * @param maxCacheSizeInBytes The maximum size of the cache in bytes.
+     * @param mapEntries If true, entries are returned as read-only mapped buffers in
+     *     {@link Entry#buffer} rather than copied into {@link Entry#data}.
      */
-    public DiskBasedCache(File rootDirectory, int maxCacheSizeInBytes) {
+    public DiskBasedCache(File rootDirectory, int maxCacheSizeInBytes, boolean mapEntries) {
         mRootDirectory = rootDirectory;
         mMaxCacheSizeInBytes = maxCacheSizeInBytes;
+        mMapEntries = mapEntries;
+    }
+
+    /**
+     * Constructs an instance of the DiskBasedCache at the specified directory.
+     * @param rootDirectory The root directory of the cache.
+     * @param maxCacheSizeInBytes The maximum size of the cache in bytes.
+     */
+    public DiskBasedCache(File rootDirectory, int maxCacheSizeInBytes) {
+        this(rootDirectory, maxCacheSizeInBytes, false);
     }
 
     /**
@@ -110,6 +137,9 @@ public class DiskBasedCache implements Cache {
         }
 
         File file = getFileForKey(key);
+        if (mMapEntries && file.length() >= MIN_MAPPED_FILE_BYTES) {
+            return getMapped(key, entry, file);
+        }
         CountingInputStream cis = null;
         try {
             cis = new CountingInputStream(new FileInputStream(file));
@@ -131,6 +161,45 @@ public class DiskBasedCache implements Cache {
         }
     }
 
+    /**
+     * Maps the file for the given entry and returns an entry whose body is a read-only view
+     * of the mapping, or null if the file can't be read.
+     */
+    private Entry getMapped(String key, CacheHeader entry, File file) {
+        try {
+            return mapEntry(entry, file);
+        } catch (IOException e) {
+            VolleyLog.d("%s: %s", file.getAbsolutePath(), e.toString());
+            remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Maps an entry file and returns an entry whose body is a read-only view of the mapping.
+     * The mapping stays valid after the channel is closed; callers must never rewrite a file
+     * in place, so that the view can't be truncated underneath a reader.
+     */
+    static Entry mapEntry(CacheHeader entry, File file) throws IOException {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CacheHeader.readHeader(new ByteBufferInputStream(mapped)); // eat header
+            Entry e = entry.toCacheEntry(null);
+            e.buffer = mapped.slice().asReadOnlyBuffer();
+            return e;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
     /**
      * Initializes the DiskBasedCache by scanning for all files currently in the
      * specified root directory. Creates the root directory if necessary.
@@ -149,6 +218,11 @@ public class DiskBasedCache implements Cache {
             return;
         }
         for (File file : files) {
+            if (file.getName().endsWith(TMP_FILE_SUFFIX)) {
+                // Left behind by a put() that didn't finish.
+                file.delete();
+                continue;
+            }
             FileInputStream fis = null;
             try {
                 fis = new FileInputStream(file);
@@ -192,21 +266,27 @@ public class DiskBasedCache implements Cache {
      */
     @Override
     public synchronized void put(String key, Entry entry) {
-        pruneIfNeeded(entry.data.length);
+        byte[] data = entry.getData();
+        pruneIfNeeded(data.length);
         File file = getFileForKey(key);
+        // Write next to the target and rename over it, so that a reader still holding a
+        // mapping of the old file keeps seeing the old bytes instead of a truncated file.
+        File tmp = new File(mRootDirectory, file.getName() + TMP_FILE_SUFFIX);
         try {
-            FileOutputStream fos = new FileOutputStream(file);
+            FileOutputStream fos = new FileOutputStream(tmp);
             CacheHeader e = new CacheHeader(key, entry);
             e.writeHeader(fos);
-            fos.write(entry.data);
+            fos.write(data);
             fos.close();
-            putEntry(key, e);
-            return;
+            if (tmp.renameTo(file)) {
+                putEntry(key, e);
+                return;
+            }
         } catch (IOException e) {
         }
-        boolean deleted = file.delete();
+        boolean deleted = tmp.delete();
         if (!deleted) {
-            VolleyLog.d("Could not clean up file %s", file.getAbsolutePath());
+            VolleyLog.d("Could not clean up file %s", tmp.getAbsolutePath());
         }
     }
 
@@ -312,7 +392,7 @@ public class DiskBasedCache implements Cache {
     /**
      * Reads the contents of an InputStream into a byte[].
      * */
-    private static byte[] streamToBytes(InputStream in, int length) throws IOException {
+    static byte[] streamToBytes(InputStream in, int length) throws IOException {
         byte[] bytes = new byte[length];
         int count;
         int pos = 0;
@@ -361,7 +441,7 @@ public class DiskBasedCache implements Cache {
          */
         public CacheHeader(String key, Entry entry) {
             this.key = key;
-            this.size = entry.data.length;
+            this.size = entry.getData().length;
             this.etag = entry.etag;
             this.serverDate = entry.serverDate;
             this.ttl = entry.ttl;
@@ -430,10 +510,10 @@ public class DiskBasedCache implements Cache {
 
     }
 
-    private static class CountingInputStream extends FilterInputStream {
-        private int bytesRead = 0;
+    static class CountingInputStream extends FilterInputStream {
+        int bytesRead = 0;
 
-        private CountingInputStream(InputStream in) {
+        CountingInputStream(InputStream in) {
             super(in);
         }
 
@@ -539,11 +619,16 @@ public class DiskBasedCache implements Cache {
         }
     }
 
+    /**
+     * Reads headers written by {@link #writeStringStringMap}. Names are looked up ignoring
+     * case, as in the map the network gave, since HTTP/2 responses have lowercase names and
+     * {@link HttpHeaderParser} asks for "Content-Type", "ETag" and so on.
+     */
     static Map<String, String> readStringStringMap(InputStream is) throws IOException {
         int size = readInt(is);
         Map<String, String> result = (size == 0)
                 ? Collections.<String, String>emptyMap()
-                : new HashMap<String, String>(size);
+                : new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
         for (int i = 0; i < size; i++) {
             String key = readString(is).intern();
             String value = readString(is).intern();
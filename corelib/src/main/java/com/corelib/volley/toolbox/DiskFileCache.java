@@ -8,6 +8,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -20,6 +21,8 @@ import java.util.Map;
 public class DiskFileCache implements FileLoader.FileCache {
     /** 磁盘空间平衡系数 */
     private static final float HYSTERESIS_FACTOR = 0.8f;
+    /** 未完成下载所在的子目录 */
+    private static final String PARTIAL_DIRECTORY = ".partial";
     /** 默认最大磁盘空间大小 */
     private static final int DEFAULT_DISK_USAGE_BYTES = 100 * 1024 * 1024;
     
@@ -63,6 +66,14 @@ public class DiskFileCache implements FileLoader.FileCache {
         mEntries.clear();
         mTotalSize = 0;
         for (File file : files) {
+            if (file.isDirectory()) {
+                continue;
+            }
+            if (file.getName().endsWith(".tmp")) {
+                /** 上次未写完的临时文件 */
+                file.delete();
+                continue;
+            }
             mEntries.put(file.getName(), file);
             mTotalSize += file.length();
         }
@@ -78,6 +89,14 @@ public class DiskFileCache implements FileLoader.FileCache {
         File[] files = mRootDirectory.listFiles();
         if (files != null) {
             for (File file : files) {
+                if (file.isDirectory()) {
+                    File[] children = file.listFiles();
+                    if (children != null) {
+                        for (File child : children) {
+                            child.delete();
+                        }
+                    }
+                }
                 file.delete();
             }
         }
@@ -143,6 +162,74 @@ public class DiskFileCache implements FileLoader.FileCache {
         return null;
     }
     
+    /**
+     * The download is written to a temporary file without holding the cache lock; only the
+     * final rename and bookkeeping are synchronized.
+     */
+    @Override
+    public String putFile(String fileName, InputStream in) throws IOException {
+        if (null == mRootDirectory) {
+            VolleyLog.e("DiskFileCache's root directory is null");
+            return null;
+        }
+        if (!mRootDirectory.exists()) {
+            mRootDirectory.mkdirs();
+        }
+
+        File tmp = VolleyUtil.writeTempFile(in, mRootDirectory, fileName);
+        String path = commit(fileName, tmp);
+        if (null == path) {
+            tmp.delete();
+        }
+        return path;
+    }
+
+    @Override
+    public File getPartialFile(String fileName) {
+        if (null == mRootDirectory) {
+            VolleyLog.e("DiskFileCache's root directory is null");
+            return null;
+        }
+
+        File dir = new File(mRootDirectory, PARTIAL_DIRECTORY);
+        if (!dir.exists() && !dir.mkdirs()) {
+            VolleyLog.e("Unable to create partial dir %s", dir.getAbsolutePath());
+            return null;
+        }
+        return new File(dir, fileName);
+    }
+
+    @Override
+    public String commitPartialFile(String fileName) {
+        File partial = getPartialFile(fileName);
+        if (null == partial || !partial.exists()) {
+            return null;
+        }
+        return commit(fileName, partial);
+    }
+
+    /**
+     * Renames a finished file into the cache under the given name, replacing any old entry.
+     */
+    private synchronized String commit(String fileName, File source) {
+        long length = source.length();
+        pruneIfNeeded(length);
+        /** 如果缓存存在，则清除 */
+        File oldFile = mEntries.remove(fileName);
+        if (null != oldFile) {
+            mTotalSize -= oldFile.length();
+        }
+
+        File file = new File(mRootDirectory, fileName);
+        if (!source.renameTo(file)) {
+            file.delete();
+            return null;
+        }
+        mEntries.put(fileName, file);
+        mTotalSize += length;
+        return file.getAbsolutePath();
+    }
+
     @Override
     public synchronized void remove(String fileName) {
         File oldFile = mEntries.get(fileName);
@@ -153,7 +240,7 @@ public class DiskFileCache implements FileLoader.FileCache {
         }
     }
 
-    private void pruneIfNeeded(int neededSpace) {
+    private void pruneIfNeeded(long neededSpace) {
         if (mTotalSize + neededSpace < mMaxCacheSizeInBytes) {
             return;
         }
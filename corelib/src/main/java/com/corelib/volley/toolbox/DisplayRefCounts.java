@@ -0,0 +1,72 @@
+package com.corelib.volley.toolbox;
+
+import java.util.WeakHashMap;
+
+/**
+ * 显示过的对象的引用计数，以及Cache是否已经淘汰了它们，供{@link BitmapPool}决定被淘汰的Bitmap
+ * 何时可以放入池中。不依赖Bitmap，可以在JVM上测试。不是线程安全的，由BitmapPool加锁。
+ */
+class DisplayRefCounts<T> {
+    /** {@link #evict(Object)}的结果：没有显示过，不知道还有谁持有它，不能放入池中 */
+    static final int NOT_DISPLAYED = 0;
+    /** {@link #evict(Object)}的结果：还在显示，最后一次{@link #release(Object)}时放入 */
+    static final int STILL_DISPLAYED = 1;
+    /** {@link #evict(Object)}的结果：显示过且都已释放，可以立即放入 */
+    static final int RELEASED = 2;
+
+    /** 对象不再使用后自动移除 */
+    private final WeakHashMap<T, RefCount> mRefCounts = new WeakHashMap<T, RefCount>();
+
+    /**
+     * 记录对象开始显示，和{@link #release(Object)}成对调用
+     */
+    void acquire(T item) {
+        RefCount refCount = mRefCounts.get(item);
+        if (refCount == null) {
+            refCount = new RefCount();
+            mRefCounts.put(item, refCount);
+        }
+        refCount.count++;
+    }
+
+    /**
+     * 记录对象不再显示
+     *
+     * @return 是否是Cache已经淘汰了的对象的最后一次释放，是的话调用方应把它放入池中
+     */
+    boolean release(T item) {
+        RefCount refCount = mRefCounts.get(item);
+        if (refCount == null || refCount.count == 0) {
+            return false;
+        }
+        if (--refCount.count == 0 && refCount.evicted) {
+            mRefCounts.remove(item);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 记录Cache淘汰了对象
+     *
+     * @return {@link #NOT_DISPLAYED}、{@link #STILL_DISPLAYED}或{@link #RELEASED}
+     */
+    int evict(T item) {
+        RefCount refCount = mRefCounts.get(item);
+        if (refCount == null) {
+            return NOT_DISPLAYED;
+        }
+        if (refCount.count > 0) {
+            refCount.evicted = true;
+            return STILL_DISPLAYED;
+        }
+        mRefCounts.remove(item);
+        return RELEASED;
+    }
+
+    /** 一个显示过的对象被几处显示，以及Cache是否已经淘汰了它 */
+    private static class RefCount {
+        int count;
+        boolean evicted;
+    }
+}
@@ -0,0 +1,153 @@
+package com.corelib.volley.toolbox;
+
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An LRU cache of encoded image bytes, between the decoded bitmaps of the
+ * {@link ImageLoader.ImageCache} and the file cache on disk. An image evicted from the bitmap
+ * cache is decoded again from here without a disk read.
+ * <p>
+ * The bytes are kept in pooled direct buffers from a {@link DirectByteBufferPool} that
+ * evicted entries go back to, so caching an image doesn't allocate a new array each time.
+ * They still count against the Java heap on ART, where a direct buffer is a non-movable heap
+ * array. The cache is bounded by the capacity of those buffers. Images larger than an eighth
+ * of the cache are not kept, so that one of them can't flush the rest.
+ * <p>
+ * A hit is decoded straight from the cached buffer through a {@link ByteBufferInputStream};
+ * the buffer is held by the caller from {@link #acquire} until {@link #release}, and an entry
+ * evicted meanwhile goes back to the pool only then.
+ */
+public class EncodedImageCache {
+    /** Default maximum size of the cache. */
+    private static final int DEFAULT_MAX_SIZE = 2 * 1024 * 1024;
+
+    /** Largest share of the cache a single image may take, as a divisor. */
+    private static final int MAX_ENTRY_DIVISOR = 8;
+
+    /** Buffers of evicted entries, reused for new ones. */
+    private final DirectByteBufferPool mPool;
+
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /** Entries of the buffers handed out by {@link #acquire} and not yet released. */
+    private final IdentityHashMap<ByteBuffer, Entry> mAcquired =
+            new IdentityHashMap<ByteBuffer, Entry>();
+
+    private final int mMaxSize;
+
+    /** Total capacity of the buffers of the cached entries. */
+    private int mSize = 0;
+
+    public EncodedImageCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize Maximum total size of the cached images, in bytes; 0 disables the cache
+     */
+    public EncodedImageCache(int maxSize) {
+        mMaxSize = maxSize;
+        mPool = new DirectByteBufferPool(maxSize / MAX_ENTRY_DIVISOR);
+    }
+
+    /**
+     * Returns a read-only view of the encoded bytes cached for the given key, or null. The
+     * bytes stay valid until the view is passed to {@link #release}, which must be called once
+     * the caller is done with them.
+     */
+    public synchronized ByteBuffer acquire(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        ByteBuffer view = entry.buffer.asReadOnlyBuffer();
+        entry.refs++;
+        mAcquired.put(view, entry);
+        return view;
+    }
+
+    /**
+     * Releases a buffer returned by {@link #acquire}.
+     */
+    public synchronized void release(ByteBuffer view) {
+        Entry entry = mAcquired.remove(view);
+        if (entry != null && --entry.refs == 0 && entry.evicted) {
+            mPool.returnBuffer(entry.buffer);
+        }
+    }
+
+    /**
+     * Caches the encoded bytes of an image, unless they are too large.
+     */
+    public void put(String key, byte[] data) {
+        if (key == null || data == null || data.length == 0
+                || data.length > mMaxSize / MAX_ENTRY_DIVISOR) {
+            return;
+        }
+        // Fill the buffer outside of the lock; it isn't shared yet.
+        ByteBuffer buffer = mPool.getBuffer(data.length);
+        buffer.put(data);
+        buffer.flip();
+        synchronized (this) {
+            Entry old = mEntries.put(key, new Entry(buffer));
+            mSize += buffer.capacity();
+            if (old != null) {
+                evict(old);
+            }
+            trimToSize(mMaxSize);
+        }
+    }
+
+    /**
+     * Removes the bytes cached for the given key.
+     */
+    public synchronized void remove(String key) {
+        Entry entry = mEntries.remove(key);
+        if (entry != null) {
+            evict(entry);
+        }
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /** Total capacity of the buffers holding cached images, in bytes. */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    private void trimToSize(int maxSize) {
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mSize > maxSize && iterator.hasNext()) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            evict(eldest);
+        }
+    }
+
+    /** Accounts for an entry that left the map; its buffer is pooled once nobody reads it. */
+    private void evict(Entry entry) {
+        mSize -= entry.buffer.capacity();
+        entry.evicted = true;
+        if (entry.refs == 0) {
+            mPool.returnBuffer(entry.buffer);
+        }
+    }
+
+    private static class Entry {
+        final ByteBuffer buffer;
+        /** Number of views handed out by {@link #acquire} and not yet released. */
+        int refs;
+        boolean evicted;
+
+        Entry(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+}
@@ -1,8 +1,6 @@
 package com.corelib.volley.toolbox;
 
-import android.os.Handler;
-import android.os.Looper;
-
+import com.corelib.volley.FileError;
 import com.corelib.volley.Request;
 import com.corelib.volley.RequestQueue;
 import com.corelib.volley.Response;
@@ -10,9 +8,11 @@ import com.corelib.volley.VolleyError;
 import com.corelib.volley.VolleyLog;
 import com.corelib.volley.toolbox.VolleyConfig.CacheType;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -28,22 +28,20 @@ public class FileLoader {
     private final RequestQueue mRequestQueue;
 
     /** 派发响应的等待时间 */
-    private int mBatchResponseDelayMs = 100;
+    private static final int DEFAULT_BATCH_RESPONSE_DELAY_MS = 100;
 
     /** 缓存器 */
     private final Map<VolleyConfig.CacheType, FileCache> mCacheMap;
 
-    /** 进行中的请求映射表 */
-    private final HashMap<String, BatchedFileRequest> mInFlightRequests = new HashMap<String, BatchedFileRequest>();
-
-    /** 等待派发的响应映射表 */
-    private final HashMap<String, BatchedFileRequest> mBatchedResponses = new HashMap<String, BatchedFileRequest>();
-
-    /** 派发响应Handler */
-    private final Handler mHandler = new Handler(Looper.getMainLooper());
-
-    /** 派发响应的Runnable */
-    private Runnable mRunnable;
+    /** 进行中和等待派发的请求映射表，任意线程都可以访问 */
+    private final InFlightTable<FileContainer, BatchedFileRequest> mInFlightRequests =
+            new InFlightTable<FileContainer, BatchedFileRequest>(
+                    new InFlightTable.Delivery<FileContainer, BatchedFileRequest>() {
+                        @Override
+                        public void deliver(BatchedFileRequest bfr, FileContainer container) {
+                            deliverResponse(bfr, container);
+                        }
+                    }, DEFAULT_BATCH_RESPONSE_DELAY_MS);
 
     public interface FileCache {
         /** 缓存初始化 */
@@ -55,33 +53,61 @@ public class FileLoader {
         /** 查找缓存，返回文件名，或null */
         public String getFile(String key);
 
-        /** 写缓存， 成功返回文件名，失败返回null */
+        /** 写缓存，替换已有的同名文件，成功返回文件名，失败返回null */
         public String putFile(String key, byte[] data);
 
+        /**
+         * 流式写缓存：边读边写入临时文件，完成后原子重命名，替换已有的同名文件，
+         * 成功返回文件名，失败返回null。
+         * 读取输入流失败时抛出IOException，输入流由调用方关闭。
+         */
+        public String putFile(String key, InputStream in) throws IOException;
+
+        /**
+         * 断点续传用的未完成文件，崩溃或取消后仍保留，不计入缓存。
+         * 同目录下以其文件名为前缀的文件也归下载方使用。不支持时返回null。
+         */
+        public File getPartialFile(String key);
+
+        /** 将下载完成的未完成文件移入缓存，成功返回文件名，失败返回null */
+        public String commitPartialFile(String key);
+
         /** 删除缓存 */
         public void remove(String key);
     }
 
-    private class BatchedFileRequest {
+    private static class BatchedFileRequest extends InFlightTable.Batch<FileContainer> {
         /** 真正的网络请求 */
         private final Request<?> mRequest;
+        /** 分段下载，与mRequest二者只有一个不为null */
+        private final RangeDownload mDownload;
         /** 请求成功的文件名 */
         private String mResponseFileName;
         /** 请求失败 */
         private VolleyError mError;
-        /** 同一请求的等待列表 */
-        private final LinkedList<FileContainer> mContainers = new LinkedList<FileContainer>();
 
-        public BatchedFileRequest(Request<?> request, FileContainer container) {
+        public BatchedFileRequest(Request<?> request) {
             mRequest = request;
-            mContainers.add(container);
+            mDownload = null;
         }
 
-        public void setHeaders(HashMap headers) {
-            if (mRequest != null) {
-                mRequest.setHeaders(headers);
-            }
+        public BatchedFileRequest(RangeDownload download) {
+            mRequest = null;
+            mDownload = download;
+        }
+
+        @Override
+        boolean isCanceled() {
+            return null != mRequest ? mRequest.isCanceled() : mDownload.isCanceled();
+        }
 
+        @Override
+        void cancel() {
+            if (null != mRequest) {
+                mRequest.cancel();
+            } else {
+                mDownload.cancel();
+            }
         }
 
         public void setError(VolleyError error) {
@@ -91,19 +117,6 @@ public class FileLoader {
         public VolleyError getError() {
             return mError;
         }
-
-        public void addContainer(FileContainer container) {
-            mContainers.add(container);
-        }
-
-        public boolean removeContainerAndCancelIfNecessary(FileContainer container) {
-            mContainers.remove(container);
-            if (mContainers.size() == 0) {
-                mRequest.cancel();
-                return true;
-            }
-            return false;
-        }
     }
 
     public class FileContainer {
@@ -154,21 +167,7 @@ public class FileLoader {
                 return;
             }
 
-            BatchedFileRequest request = mInFlightRequests.get(mCacheKey);
-            if (request != null) {
-                boolean canceled = request.removeContainerAndCancelIfNecessary(this);
-                if (canceled) {
-                    mInFlightRequests.remove(mCacheKey);
-                }
-            } else {
-                request = mBatchedResponses.get(mCacheKey);
-                if (request != null) {
-                    request.removeContainerAndCancelIfNecessary(this);
-                    if (request.mContainers.size() == 0) {
-                        mBatchedResponses.remove(mCacheKey);
-                    }
-                }
-            }
+            mInFlightRequests.cancel(mCacheKey, this);
         }
 
         public String getFileName() {
@@ -201,8 +200,6 @@ public class FileLoader {
     }
 
     public boolean isCached(VolleyConfig.CacheType cacheType, String requestUrl) {
-        throwIfNotOnMainThread();
-
         String cacheKey = VolleyUtil.uri2CacheKey(requestUrl);
         return mCacheMap.get(cacheType).getFile(cacheKey) != null;
     }
@@ -295,10 +292,6 @@ public class FileLoader {
 
     protected FileContainer getForParameters(String requestUrl, Object requestTag, FileListener fileListener,
                                              boolean onlyCache, CacheType cacheType, boolean checkMainThread, String newsId, String from) {
-        if (!checkMainThread) {
-            throwIfNotOnMainThread();
-        }
-
         final String cacheKey = VolleyUtil.uri2CacheKey(requestUrl);
 
         String cachedFile = mCacheMap.get(cacheType).getFile(cacheKey);
@@ -316,20 +309,8 @@ public class FileLoader {
         final FileContainer fileContainer = new FileContainer(cachedFile, requestUrl, cacheKey,
                 fileListener);
 
-        BatchedFileRequest request = mInFlightRequests.get(cacheKey);
-        if (null != request) {
-            if (request.mRequest.isCanceled()) {
-                VolleyLog.e("cancel: %s", requestUrl);
-                mInFlightRequests.remove(cacheKey);
-            } else {
-
-                HashMap<String, String> headers = new HashMap<>();
-                headers.put(IMAGE_NEWS_ID, newsId);
-                headers.put(IMAGE_FROM, from);
-                request.setHeaders(headers);
-                request.addContainer(fileContainer);
-                return fileContainer;
-            }
+        if (mInFlightRequests.join(cacheKey, fileContainer)) {
+            return fileContainer;
         }
 
         FileRequest newRequest = new FileRequest(requestUrl, new Response.Listener<String>() {
@@ -364,18 +345,16 @@ public class FileLoader {
         newRequest.setFileLoader(this);
         newRequest.setOnlyCache(onlyCache);
         newRequest.setTag(requestTag);
-        mRequestQueue.add(newRequest);
-        mInFlightRequests.put(cacheKey, new BatchedFileRequest(newRequest, fileContainer));
+        /* 先登记再发出请求；其他线程已登记同一请求时，加入它的等待列表 */
+        if (mInFlightRequests.start(cacheKey, new BatchedFileRequest(newRequest), fileContainer)) {
+            mRequestQueue.add(newRequest);
+        }
         return fileContainer;
     }
 
 
     protected FileContainer get(String requestUrl, Object requestTag, FileListener fileListener,
                                 boolean onlyCache, CacheType cacheType, boolean checkMainThread) {
-        if (!checkMainThread) {
-            throwIfNotOnMainThread();
-        }
-
         final String cacheKey = VolleyUtil.uri2CacheKey(requestUrl);
 
         String cachedFile = mCacheMap.get(cacheType).getFile(cacheKey);
@@ -393,15 +372,8 @@ public class FileLoader {
         final FileContainer fileContainer = new FileContainer(cachedFile, requestUrl, cacheKey,
                 fileListener);
 
-        BatchedFileRequest request = mInFlightRequests.get(cacheKey);
-        if (null != request) {
-            if (request.mRequest.isCanceled()) {
-                VolleyLog.e("cancel: %s", requestUrl);
-                mInFlightRequests.remove(cacheKey);
-            } else {
-                request.addContainer(fileContainer);
-                return fileContainer;
-            }
+        if (mInFlightRequests.join(cacheKey, fileContainer)) {
+            return fileContainer;
         }
 
         FileRequest newRequest = new FileRequest(requestUrl, new Response.Listener<String>() {
@@ -432,64 +404,131 @@ public class FileLoader {
         newRequest.setFileLoader(this);
         newRequest.setOnlyCache(onlyCache);
         newRequest.setTag(requestTag);
-        mRequestQueue.add(newRequest);
-        mInFlightRequests.put(cacheKey, new BatchedFileRequest(newRequest, fileContainer));
+        /* 先登记再发出请求；其他线程已登记同一请求时，加入它的等待列表 */
+        if (mInFlightRequests.start(cacheKey, new BatchedFileRequest(newRequest), fileContainer)) {
+            mRequestQueue.add(newRequest);
+        }
+        return fileContainer;
+    }
+
+    /**
+     * Issues a resumable download of the given URL using HTTP Range requests, if the file is
+     * not available in the cache. Progress is kept in a partial file of the cache, so after a
+     * failure, cancel or crash the next call continues where the last one stopped. The first
+     * request asks for the whole file; if its response tells the file size and the server
+     * accepts ranges, files of 1MB or more are split into <code>parallelism</code> ranges
+     * that are fetched concurrently by the network dispatchers and written into place on
+     * disk. Caches without partial files fall back to a plain download.
+     *
+     * @param requestUrl The url of the remote file
+     * @param requestTag The tag that can be used to cancel this download
+     * @param fileListener The listener to call when the remote file is loaded
+     * @param cacheType cache type: normal or uncleanable
+     * @param parallelism Maximum number of ranges fetched at the same time
+     * @return A container object that contains all of the properties of the request, as well as
+     *         the currently available file.
+     */
+    public FileContainer getResumable(String requestUrl, Object requestTag,
+                                      FileListener fileListener, CacheType cacheType,
+                                      int parallelism) {
+        final String cacheKey = VolleyUtil.uri2CacheKey(requestUrl);
+        FileCache fileCache = mCacheMap.get(cacheType);
+
+        String cachedFile = fileCache.getFile(cacheKey);
+        if (null != cachedFile) {
+            FileContainer container = new FileContainer(cachedFile, requestUrl, null, null);
+            fileListener.onResponse(container, true);
+            return container;
+        }
+
+        File partialFile = fileCache.getPartialFile(cacheKey);
+        if (null == partialFile) {
+            return get(requestUrl, requestTag, fileListener, false, cacheType, false);
+        }
+
+        final FileContainer fileContainer = new FileContainer(cachedFile, requestUrl, cacheKey,
+                fileListener);
+
+        if (mInFlightRequests.join(cacheKey, fileContainer)) {
+            return fileContainer;
+        }
+
+        RangeDownload download = new RangeDownload(mRequestQueue, fileCache, partialFile,
+                requestUrl, cacheKey, parallelism, requestTag, new Response.Listener<String>() {
+
+            @Override
+            public void onResponse(String response) {
+                onGetFileSuccess(cacheKey, response);
+            }
+
+            @Override
+            public void onResponseHeadersAndData(Map<String, String> headers, String originalData, int responseCode, boolean isFromNetWork) {
+                if (isFromNetWork) {
+                    fileContainer.mHeaders = headers;
+                    fileContainer.mResponseCode = responseCode;
+                }
+            }
+        }, new Response.ErrorListener() {
+
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                onGetFileError(cacheKey, error);
+            }
+        });
+        fileContainer.seReqStartTime(System.currentTimeMillis());
+        BatchedFileRequest batch = new BatchedFileRequest(download);
+        if (!mInFlightRequests.start(cacheKey, batch, fileContainer)) {
+            return fileContainer;
+        }
+        if (!download.start()) {
+            /* 上次已全部下载完成，直接移入了缓存 */
+            mInFlightRequests.remove(cacheKey, batch);
+            cachedFile = fileCache.getFile(cacheKey);
+            if (null == cachedFile) {
+                fileListener.onErrorResponse(new FileError("Cache file error: " + requestUrl), fileContainer);
+                return fileContainer;
+            }
+            fileContainer.mFileName = cachedFile;
+            fileListener.onResponse(fileContainer, true);
+        }
         return fileContainer;
     }
 
     public void setBatchedResponseDelay(int newBatchedResponseDelayMs) {
-        mBatchResponseDelayMs = newBatchedResponseDelayMs;
+        mInFlightRequests.setBatchResponseDelay(newBatchedResponseDelayMs);
     }
 
     private void onGetFileSuccess(String cacheKey, String response) {
-        BatchedFileRequest request = mInFlightRequests.remove(cacheKey);
+        BatchedFileRequest request = mInFlightRequests.complete(cacheKey);
         if (null != request) {
             request.mResponseFileName = response;
-            batchResponse(cacheKey, request);
+            mInFlightRequests.batchResponse(cacheKey, request);
         } else {
             VolleyLog.e("no batched file request found: %s", cacheKey);
         }
     }
 
     private void onGetFileError(String cacheKey, VolleyError error) {
-        BatchedFileRequest request = mInFlightRequests.remove(cacheKey);
+        BatchedFileRequest request = mInFlightRequests.complete(cacheKey);
         if (null != request) {
             request.setError(error);
-            batchResponse(cacheKey, request);
+            mInFlightRequests.batchResponse(cacheKey, request);
         } else {
             VolleyLog.e("no batched file request found: %s", cacheKey);
         }
     }
 
-    private void batchResponse(String cacheKey, BatchedFileRequest request) {
-        mBatchedResponses.put(cacheKey, request);
-
-        if (null == mRunnable) {
-            mRunnable = new Runnable() {
-
-                @Override
-                public void run() {
-                    for (BatchedFileRequest bfr : mBatchedResponses.values()) {
-                        for (FileContainer container : bfr.mContainers) {
-                            if (null == container.mListener) {
-                                continue;
-                            }
-
-                            if (null == bfr.getError()) {
-                                container.mFileName = bfr.mResponseFileName;
-                                container.mListener.onResponse(container, false);
-                            } else {
-                                container.mListener.onErrorResponse(bfr.getError(),container);
-                            }
-                        }
-                    }
-
-                    mBatchedResponses.clear();
-                    mRunnable = null;
-                }
-            };
+    /** 在主线程把请求结果派发给一个等待者 */
+    private void deliverResponse(BatchedFileRequest bfr, FileContainer container) {
+        if (null == container.mListener) {
+            return;
+        }
 
-            mHandler.postDelayed(mRunnable, mBatchResponseDelayMs);
+        if (null == bfr.getError()) {
+            container.mFileName = bfr.mResponseFileName;
+            container.mListener.onResponse(container, false);
+        } else {
+            container.mListener.onErrorResponse(bfr.getError(),container);
         }
     }
 
@@ -498,9 +537,9 @@ public class FileLoader {
         return mCacheMap.get(cacheType).putFile(cachedKey, data);
     }
 
-    private void throwIfNotOnMainThread() {
-        if (Looper.myLooper() != Looper.getMainLooper()) {
-            throw new IllegalStateException("FileLoader must be invoked from the main thread.");
-        }
+    /* package */String saveFile(String requestUrl, InputStream in, VolleyConfig.CacheType cacheType)
+            throws IOException {
+        final String cachedKey = VolleyUtil.uri2CacheKey(requestUrl);
+        return mCacheMap.get(cacheType).putFile(cachedKey, in);
     }
 }
@@ -6,11 +6,14 @@ import com.corelib.volley.NetworkResponse;
 import com.corelib.volley.Request;
 import com.corelib.volley.Response;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 /**
  * 文件下载
  *
  * 不建议直接使用本请求。应该使用FileLoader
- * 同样，本请求只适合下载较小的文件，如图片。
+ * 响应体直接从网络流写入文件缓存，不会整体读入内存。
  *
  *
  */
@@ -50,6 +53,29 @@ public class FileRequest extends Request<String> {
         }
     }
 
+    @Override
+    public boolean shouldStreamResponse() {
+        return true;
+    }
+
+    @Override
+    protected Response<String> parseNetworkResponse(NetworkResponse response, InputStream body)
+            throws IOException {
+        if(mListener!=null&&response!=null){
+            mListener.onResponseHeadersAndData(response.headers,null,response.statusCode,response.isFroNetwork());
+        }
+        if (null == mFileLoader) {
+            return Response.error(new FileError("FileLoader not set"));
+        }
+
+        String fileName = mFileLoader.saveFile(mRequestUrl, body, mCacheType);
+        if (null != fileName) {
+            return Response.success(fileName, HttpHeaderParser.parseCacheHeaders(response));
+        } else {
+            return Response.error(new FileError("Cache file error: " + mRequestUrl));
+        }
+    }
+
     @Override
     protected void deliverResponse(String response) {
         mListener.onResponse(response);
@@ -0,0 +1,22 @@
+package com.corelib.volley.toolbox;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记需要在编译时生成Gson TypeAdapter的响应类。
+ *
+ * corelib-compiler中的注解处理器为被标记的类生成名为“类的二进制名_TypeAdapter”的流式
+ * TypeAdapter，直接读写字段，不再通过反射。{@link GsonAdapterRegistry}自动使用生成的
+ * adapter；无法生成时（如有private字段、没有无参构造函数）处理器给出警告，运行时仍使用反射。
+ *
+ * 被标记的类不能是非静态内部类。
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface GenerateTypeAdapter {
+}
@@ -0,0 +1,160 @@
+package com.corelib.volley.toolbox;
+
+import android.os.Process;
+
+import com.corelib.volley.VolleyLog;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 所有GsonRequest共用的Gson和TypeAdapter缓存。
+ *
+ * 每个响应类的TypeAdapter只通过反射解析一次，之后各线程直接复用。可以在应用启动时调用
+ * {@link #warmUp(Class[])}在后台线程提前解析，避免首个请求的解析变慢。
+ *
+ * 标记了{@link GenerateTypeAdapter}的类优先使用编译时生成的adapter，包括作为其他类字段时。
+ */
+public final class GsonAdapterRegistry {
+
+    /** 编译时生成的adapter的类名后缀，见{@link GenerateTypeAdapter}。 */
+    private static final String GENERATED_ADAPTER_SUFFIX = "_TypeAdapter";
+
+    private static final Gson sGson = new GsonBuilder()
+            .registerTypeAdapterFactory(new GeneratedAdapterFactory())
+            .create();
+
+    private static final ConcurrentMap<Class<?>, TypeAdapter<?>> sAdapters =
+            new ConcurrentHashMap<Class<?>, TypeAdapter<?>>();
+
+    private GsonAdapterRegistry() {
+    }
+
+    /**
+     * 返回共用的Gson实例。
+     */
+    public static Gson getGson() {
+        return sGson;
+    }
+
+    /**
+     * 返回响应类的TypeAdapter，第一次调用时解析并缓存。
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> TypeAdapter<T> getAdapter(Class<T> clazz) {
+        TypeAdapter<T> adapter = (TypeAdapter<T>) sAdapters.get(clazz);
+        if (adapter == null) {
+            adapter = sGson.getAdapter(clazz);
+            TypeAdapter<T> existing = (TypeAdapter<T>) sAdapters.putIfAbsent(clazz, adapter);
+            if (existing != null) {
+                adapter = existing;
+            }
+        }
+        return adapter;
+    }
+
+    /**
+     * 用缓存的TypeAdapter解析JSON，行为与{@link Gson#fromJson(Reader, Class)}相同：
+     * 宽松模式，空文档返回null，文档后还有内容时抛出异常。
+     */
+    public static <T> T fromJson(Reader json, Class<T> clazz)
+            throws JsonIOException, JsonSyntaxException {
+        JsonReader reader = new JsonReader(json);
+        reader.setLenient(true);
+        try {
+            reader.peek();
+        } catch (EOFException e) {
+            // 空文档
+            return null;
+        } catch (MalformedJsonException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            // 读取失败，不是格式错误
+            throw new JsonIOException(e);
+        }
+        T result;
+        try {
+            result = getAdapter(clazz).read(reader);
+        } catch (IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        } catch (EOFException e) {
+            // 文档不完整
+            throw new JsonSyntaxException(e);
+        } catch (MalformedJsonException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+        try {
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonSyntaxException("JSON document was not fully consumed.");
+            }
+        } catch (MalformedJsonException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+        return result;
+    }
+
+    /**
+     * 在后台线程解析并缓存给定响应类的TypeAdapter。
+     */
+    public static void warmUp(final Class<?>... classes) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                for (Class<?> clazz : classes) {
+                    try {
+                        getAdapter(clazz);
+                    } catch (RuntimeException e) {
+                        VolleyLog.e("Failed to resolve adapter for %s: %s", clazz.getName(), e);
+                    }
+                }
+            }
+        }, "GsonAdapterWarmUp");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 为标记了{@link GenerateTypeAdapter}的类加载生成的adapter，没有生成时返回null交给反射处理。
+     */
+    private static class GeneratedAdapterFactory implements TypeAdapterFactory {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            Class<? super T> rawType = type.getRawType();
+            if (!rawType.isAnnotationPresent(GenerateTypeAdapter.class)) {
+                return null;
+            }
+            Class<?> adapterClass;
+            try {
+                adapterClass = Class.forName(rawType.getName() + GENERATED_ADAPTER_SUFFIX,
+                        true, rawType.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                VolleyLog.d("No generated adapter for %s", rawType.getName());
+                return null;
+            }
+            try {
+                return (TypeAdapter<T>) adapterClass.getConstructor(Gson.class).newInstance(gson);
+            } catch (Exception e) {
+                throw new RuntimeException("Cannot create " + adapterClass.getName(), e);
+            }
+        }
+    }
+}
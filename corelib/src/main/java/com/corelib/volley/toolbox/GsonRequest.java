@@ -3,6 +3,7 @@ package com.corelib.volley.toolbox;
 
 import com.corelib.volley.AuthFailureError;
 import com.corelib.volley.NetworkResponse;
+import com.corelib.volley.OriginalData;
 import com.corelib.volley.ParseError;
 import com.corelib.volley.Request;
 import com.corelib.volley.Response;
@@ -10,25 +11,31 @@ import com.corelib.volley.Response.ErrorListener;
 import com.corelib.volley.Response.Listener;
 import com.corelib.volley.VolleyError;
 import com.corelib.volley.VolleyLog;
-import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
 
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.util.Map;
 
 public class GsonRequest<T> extends Request<T> {
     private Response.Listener<T> mListener;
     private Class<T> mClazz;
-    private Gson mGson;
     private Map<String, String> mPostParams;
     private Map<String, String> mResponseHeaders = null;
-    private String mOriginalData = null;
+    private boolean mStreamResponse = false;
 
     public GsonRequest(int method, String url, Class<T> clazz, Listener<T> listener,
                        ErrorListener errorListener) {
         super(method, url, errorListener);
         mListener = listener;
         mClazz = clazz;
-        mGson = new Gson();
     }
 
     /**
@@ -61,32 +68,77 @@ public class GsonRequest<T> extends Request<T> {
         mPostParams = params;
     }
 
+    /**
+     * Parses the body straight from its bytes. Gson reads it through a decoding Reader, so the
+     * body is never turned into one big String; the original data is only decoded if the
+     * listener asks for it.
+     */
     @Override
     protected Response<T> parseNetworkResponse(NetworkResponse response) {
         if (ignoreResponse()) {
             return Response.error(new ParseError(response));
         }
 
-        String data;
         try {
-            data = new String(response.data, HttpHeaderParser.parseCharset(response.headers));
-        } catch (UnsupportedEncodingException e) {
-            data = new String(response.data);
+            notifyHeadersAndData(response);
+            return Response.success(GsonAdapterRegistry.fromJson(newBodyReader(response), mClazz),
+                    HttpHeaderParser.parseCacheHeaders(response));
+        } catch (Exception e) {
+            e.printStackTrace();
+            VolleyLog.e("ParseError url: %s", getUrl());
+            VolleyLog.e("ParseError json: %s", decodeBody(response));
+            if (mClazz != null) {
+                VolleyLog.e("ParseError: %s", mClazz.getSimpleName());
+            }
+            return Response.error(new ParseError(response));
+        }
+    }
+
+    /**
+     * Parses the body straight off the network instead of buffering it first. The listener
+     * then gets null as original data in onResponseHeadersAndData, since the raw text is
+     * never held in memory.
+     */
+    public GsonRequest<T> setStreamResponse(boolean streamResponse) {
+        mStreamResponse = streamResponse;
+        return this;
+    }
+
+    @Override
+    public boolean shouldStreamResponse() {
+        return mStreamResponse;
+    }
+
+    @Override
+    protected Response<T> parseNetworkResponse(NetworkResponse response, InputStream body)
+            throws IOException {
+        if (ignoreResponse()) {
+            return Response.error(new ParseError(response));
         }
 
+        notifyHeadersAndData(response);
+
+        FailureRecordingInputStream in = new FailureRecordingInputStream(body);
+        Reader reader;
         try {
-            mResponseHeaders = response.headers;
-            mOriginalData = new String(response.data);
-            if (mResponseHeaders != null && response.headers.size() > 0 && mListener != null) {
-                //只有图片监控需要改volley，所以其他请求默认在volley监控
-                mListener.onResponseHeadersAndData(mResponseHeaders, mOriginalData,response.statusCode,false);
-            }
-            return Response.success(mGson.fromJson(data, mClazz),
+            reader = new InputStreamReader(in, HttpHeaderParser.parseCharset(response.headers));
+        } catch (UnsupportedEncodingException e) {
+            reader = new InputStreamReader(in);
+        }
+        try {
+            return Response.success(GsonAdapterRegistry.fromJson(reader, mClazz),
                     HttpHeaderParser.parseCacheHeaders(response));
-        } catch (Exception e) {
+        } catch (JsonParseException e) {
+            // Gson may report a failed read as a syntax error, e.g. a connection closed
+            // mid-document as an unexpected end of input; it is a network failure all the same.
+            if (in.mFailure != null) {
+                throw in.mFailure;
+            }
+            if (e instanceof JsonIOException) {
+                throw new IOException(e);
+            }
             e.printStackTrace();
             VolleyLog.e("ParseError url: %s", getUrl());
-            VolleyLog.e("ParseError json: %s", data);
             if (mClazz != null) {
                 VolleyLog.e("ParseError: %s", mClazz.getSimpleName());
             }
@@ -94,6 +146,116 @@ public class GsonRequest<T> extends Request<T> {
         }
     }
 
+    /**
+     * Remembers the last IOException reading the body threw, whatever Gson turns it into.
+     */
+    private static class FailureRecordingInputStream extends FilterInputStream {
+        IOException mFailure;
+
+        FailureRecordingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException e) {
+                mFailure = e;
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            try {
+                return super.read(buffer, offset, count);
+            } catch (IOException e) {
+                mFailure = e;
+                throw e;
+            }
+        }
+    }
+
+    private static Charset parseCharset(NetworkResponse response) {
+        try {
+            return Charset.forName(HttpHeaderParser.parseCharset(response.headers));
+        } catch (IllegalArgumentException e) {
+            return Charset.defaultCharset();
+        }
+    }
+
+    /**
+     * Returns a Reader decoding the body from {@link NetworkResponse#data}, or from
+     * {@link NetworkResponse#buffer} if that is where it was handed over.
+     */
+    private static Reader newBodyReader(NetworkResponse response) {
+        InputStream in = response.data != null ? new ByteArrayInputStream(response.data)
+                : new ByteBufferInputStream(response.buffer.duplicate());
+        return new InputStreamReader(in, parseCharset(response));
+    }
+
+    /**
+     * Decodes the whole body into a String; only used to log bodies that fail to parse.
+     */
+    private static String decodeBody(NetworkResponse response) {
+        if (response.data != null) {
+            return new String(response.data, parseCharset(response));
+        }
+        if (response.buffer != null) {
+            return parseCharset(response).decode(response.buffer.duplicate()).toString();
+        }
+        return null;
+    }
+
+    /**
+     * Gives the listener the headers and original data. A {@link Response.LazyDataListener}
+     * gets the data undecoded; other listeners get it as a String, decoded with the platform
+     * charset as before. Streamed responses have no original data.
+     */
+    private void notifyHeadersAndData(NetworkResponse response) {
+        mResponseHeaders = response.headers;
+        if (mResponseHeaders == null || response.headers.size() == 0 || mListener == null) {
+            return;
+        }
+        //只有图片监控需要改volley，所以其他请求默认在volley监控
+        Charset charset = response.data != null ? Charset.defaultCharset()
+                : parseCharset(response);
+        OriginalData originalData = OriginalData.of(response, charset);
+        if (mListener instanceof Response.LazyDataListener) {
+            ((Response.LazyDataListener<T>) mListener).onResponseHeadersAndData(
+                    mResponseHeaders, originalData, response.statusCode, false);
+        } else {
+            mListener.onResponseHeadersAndData(mResponseHeaders,
+                    originalData != null ? originalData.getString() : null,
+                    response.statusCode, false);
+        }
+    }
+
+    /**
+     * Requests for different response classes parse the same body differently, so they don't
+     * share a response.
+     */
+    @Override
+    public String getCoalescingKey() {
+        String key = super.getCoalescingKey();
+        return key == null || mClazz == null ? key : key + '\n' + mClazz.getName();
+    }
+
+    /**
+     * Gives the listener the headers and original data, as if this request had parsed the
+     * response itself.
+     */
+    @Override
+    protected void onCoalescedNetworkResponse(NetworkResponse response) {
+        notifyHeadersAndData(response);
+    }
+
+    @Override
+    public boolean acceptsBufferResponse() {
+        return true;
+    }
+
     private boolean ignoreResponse() {
         return mClazz != null && mClazz.getSimpleName().equals("IgnoreResponse");
     }
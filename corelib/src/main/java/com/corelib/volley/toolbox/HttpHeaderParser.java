@@ -26,6 +26,7 @@ import org.apache.http.protocol.HTTP;
 import org.apache.http.impl.cookie.DateUtils;
 
 
+import java.nio.ByteBuffer;
 import java.util.Map;
 
 /**
@@ -96,6 +97,16 @@ public class HttpHeaderParser {
 
         Cache.Entry entry = new Cache.Entry();
         entry.data = response.data;
+        if (response.data == null && response.buffer != null) {
+            if (response.hasPooledBuffer()) {
+                // The buffer goes back to its pool when the response is closed, but the entry
+                // outlives it in Response.cacheEntry, so it gets its own copy. A cache writing
+                // the entry would have made the same copy.
+                entry.data = copyOf(response.buffer);
+            } else {
+                entry.buffer = response.buffer;
+            }
+        }
         entry.etag = serverEtag;
         entry.softTtl = softExpire;
         entry.ttl = entry.softTtl;
@@ -105,6 +116,13 @@ public class HttpHeaderParser {
         return entry;
     }
 
+    private static byte[] copyOf(ByteBuffer buffer) {
+        ByteBuffer src = buffer.duplicate();
+        byte[] data = new byte[src.remaining()];
+        src.get(data);
+        return data;
+    }
+
     /**
      * Parse date in RFC1123 format, and return its value as epoch
      */
@@ -0,0 +1,69 @@
+package com.corelib.volley.toolbox;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hit and miss counts of each tier images are looked up in, from the decoded bitmaps in memory
+ * down to the file cache on disk. A lookup only reaches a tier after missing the ones above.
+ */
+public final class ImageCacheStats {
+
+    public enum Tier {
+        /** Decoded bitmaps, the {@link ImageLoader.ImageCache} */
+        BITMAP,
+        /** Encoded bytes in memory, the {@link EncodedImageCache} */
+        ENCODED,
+        /** Image files on disk */
+        DISK
+    }
+
+    private static final int TIERS = Tier.values().length;
+
+    private final AtomicLongArray mHits = new AtomicLongArray(TIERS);
+    private final AtomicLongArray mMisses = new AtomicLongArray(TIERS);
+
+    public void recordHit(Tier tier) {
+        mHits.incrementAndGet(tier.ordinal());
+    }
+
+    public void recordMiss(Tier tier) {
+        mMisses.incrementAndGet(tier.ordinal());
+    }
+
+    public long getHitCount(Tier tier) {
+        return mHits.get(tier.ordinal());
+    }
+
+    public long getMissCount(Tier tier) {
+        return mMisses.get(tier.ordinal());
+    }
+
+    /**
+     * Returns the share of the lookups reaching the tier that hit it, or 0 if none did.
+     */
+    public float getHitRate(Tier tier) {
+        long hits = getHitCount(tier);
+        long lookups = hits + getMissCount(tier);
+        return lookups == 0 ? 0f : (float) hits / lookups;
+    }
+
+    public void reset() {
+        for (int i = 0; i < TIERS; i++) {
+            mHits.set(i, 0);
+            mMisses.set(i, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("ImageCacheStats[");
+        for (Tier tier : Tier.values()) {
+            if (tier.ordinal() > 0) {
+                builder.append(", ");
+            }
+            builder.append(tier).append('=').append(getHitCount(tier)).append('/')
+                    .append(getHitCount(tier) + getMissCount(tier));
+        }
+        return builder.append(']').toString();
+    }
+}
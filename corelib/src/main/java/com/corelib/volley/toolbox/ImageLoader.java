@@ -17,19 +17,18 @@ package com.corelib.volley.toolbox;
 
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
-import android.os.Handler;
-import android.os.Looper;
 import android.text.TextUtils;
 import android.widget.ImageView;
 
 import com.corelib.volley.Request;
+import com.corelib.volley.Request.Priority;
 import com.corelib.volley.RequestQueue;
 import com.corelib.volley.Response.ErrorListener;
 import com.corelib.volley.Response.Listener;
 import com.corelib.volley.VolleyError;
 
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -37,9 +36,9 @@ import java.util.Map;
  *
  * The simple way to use this class is to call {@link ImageLoader#get(String, ImageListener, String, String)} )} and to
  * pass in the default image listener provided by
- * {@link ImageLoader#getImageListener(ImageView, int, int)}. Note that all function calls to
- * this class must be made from the main thead, and all responses will be delivered to the main
- * thread as well.
+ * {@link ImageLoader#getImageListener(ImageView, int, int)}. Requests can be made from any
+ * thread and join any in-flight request for the same image, but all responses other than
+ * immediate cache hits will be delivered to the main thread.
  */
 public class ImageLoader {
     private final String IMAGE_NEWS_ID = "id";
@@ -48,25 +47,33 @@ public class ImageLoader {
     private final RequestQueue mRequestQueue;
 
     /** Amount of time to wait after first response arrives before delivering all responses. */
-    private int mBatchResponseDelayMs = 100;
-
-    /** The cache implementation to be used as an L1 cache before calling into volley. */
-    private final ImageCache mCache;
+    private static final int DEFAULT_BATCH_RESPONSE_DELAY_MS = 100;
 
     /**
-     * HashMap of Cache keys -> BatchedImageRequest used to track in-flight requests so
-     * that we can coalesce multiple requests to the same URL into a single network request.
+     * Size buckets per power of two. Finer buckets waste less memory on decodes larger than
+     * requested, coarser ones let more of the slightly different sizes share a decode.
      */
-    private final HashMap<String, BatchedImageRequest> mInFlightRequests = new HashMap<String, BatchedImageRequest>();
+    private static final int SIZE_BUCKETS_PER_OCTAVE = 8;
 
-    /** HashMap of the currently pending responses (waiting to be delivered). */
-    private final HashMap<String, BatchedImageRequest> mBatchedResponses = new HashMap<String, BatchedImageRequest>();
+    /** Largest size bucket looked up for a larger decode before falling back to the full size. */
+    private static final int MAX_SIZE_BUCKET = 4096;
 
-    /** Handler to the main thread. */
-    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    /** The cache implementation to be used as an L1 cache before calling into volley. */
+    private final ImageCache mCache;
 
-    /** Runnable for in-flight response delivery. */
-    private Runnable mRunnable;
+    /**
+     * Cache keys -> BatchedImageRequest used to track in-flight requests so that we can
+     * coalesce multiple requests to the same URL into a single network request, and the
+     * responses waiting to be delivered.
+     */
+    private final InFlightTable<ImageContainer, BatchedImageRequest> mInFlightRequests =
+            new InFlightTable<ImageContainer, BatchedImageRequest>(
+                    new InFlightTable.Delivery<ImageContainer, BatchedImageRequest>() {
+                        @Override
+                        public void deliver(BatchedImageRequest bir, ImageContainer container) {
+                            deliverResponse(bir, container);
+                        }
+                    }, DEFAULT_BATCH_RESPONSE_DELAY_MS);
 
     /**
      * Simple cache adapter interface. If provided to the ImageLoader, it
@@ -156,8 +163,6 @@ public class ImageLoader {
      * @return True if the item exists in cache, false otherwise.
      */
     public boolean isCached(String requestUrl) {
-        throwIfNotOnMainThread();
-
         String cacheKey = VolleyUtil.uri2CacheKey(requestUrl);
         return mCache.getBitmap(cacheKey) != null;
     }
@@ -189,25 +194,30 @@ public class ImageLoader {
      * relating to the request (as well as the default image if the requested
      * image is not available).
      *
+     * The image is decoded to the size bucket of the requested width and height (see
+     * {@link #getSizeBucket(int)}) and cached under it, so requests of similar sizes share a
+     * decode. A cached decode of a larger bucket or of the full size serves the request as well,
+     * scaled down to the bucket.
+     *
      * @param requestUrl The url of the remote image
      * @param imageListener The listener to call when the remote image is loaded
-     * @param maxWidth The maximum width of the returned image.
-     * @param maxHeight The maximum height of the returned image.
+     * @param requestedWidth The maximum width of the returned image.
+     * @param requestedHeight The maximum height of the returned image.
      * @param onlyCache Only get image from cache
      * @param cacheType cache type
      * @return A container object that contains all of the properties of the request, as well as
      *         the currently available image (default if remote is not loaded).
      */
-    protected ImageContainer get(final String requestUrl, final ImageListener imageListener, final int maxWidth,
-                                 final  int maxHeight, final boolean onlyCache, final VolleyConfig.CacheType cacheType, final String newsId, final String from) {
-        // only fulfill requests that were initiated from the main thread.
-        throwIfNotOnMainThread();
-
-        final String cacheKey = requestUrl;
+    protected ImageContainer get(final String requestUrl, final ImageListener imageListener, int requestedWidth,
+                                 int requestedHeight, final boolean onlyCache, final VolleyConfig.CacheType cacheType, final String newsId, final String from) {
+        final int maxWidth = getSizeBucket(requestedWidth);
+        final int maxHeight = getSizeBucket(requestedHeight);
+        final String cacheKey = getCacheKey(requestUrl, maxWidth, maxHeight);
 
         // Try to look up the request in the cache of remote images.
-        Bitmap cachedBitmap = mCache.getBitmap(cacheKey);
+        Bitmap cachedBitmap = getCachedBitmap(mCache, requestUrl, maxWidth, maxHeight);
         if (cachedBitmap != null) {
+            VolleyConfig.getImageCacheStats().recordHit(ImageCacheStats.Tier.BITMAP);
             // Return the cached bitmap.
             ImageContainer container = new ImageContainer(cachedBitmap, requestUrl, null, null);
             imageListener.onResponse(container, true);
@@ -215,21 +225,16 @@ public class ImageLoader {
         }
 
         // The bitmap did not exist in the cache, fetch it!
+        VolleyConfig.getImageCacheStats().recordMiss(ImageCacheStats.Tier.BITMAP);
         final ImageContainer imageContainer = new ImageContainer(null, requestUrl, cacheKey,
                 imageListener);
 
         // Update the caller to let them know that they should use the default bitmap.
         // imageListener.onResponse(imageContainer, true);
 
-        // Check to see if a request is already in-flight.
-        BatchedImageRequest request = mInFlightRequests.get(cacheKey);
-        if (request != null) {
-            HashMap<String, String> headers = new HashMap<>();
-            headers.put(IMAGE_NEWS_ID, newsId);
-            headers.put(IMAGE_FROM, from);
-            request.setHeaders(headers);
-            // If it is, add this request to the list of listeners.
-            request.addContainer(imageContainer);
+        // Check to see if a request is already in-flight, and if it is, add this request to
+        // the list of listeners.
+        if (mInFlightRequests.join(cacheKey, imageContainer)) {
             return imageContainer;
         }
 
@@ -260,19 +265,237 @@ public class ImageLoader {
             }
         }, cacheType);
         newRequest.setOnlyCache(onlyCache);
-        HashMap<String, String> headers = new HashMap<>();
-        headers.put(IMAGE_NEWS_ID, newsId);
-        headers.put(IMAGE_FROM, from);
-        newRequest.setHeaders(headers);
+        setImageHeaders(newRequest, newsId, from);
+        // Track the request before issuing it, so that a fast response can find it. If another
+        // thread got there first, join its request instead.
+        if (!mInFlightRequests.start(cacheKey, new BatchedImageRequest(newRequest), imageContainer)) {
+            return imageContainer;
+        }
         mRequestQueue.add(newRequest);
         if(imageContainer!=null){
             imageContainer.seReqStartTime(System.currentTimeMillis());
         }
-        mInFlightRequests.put(cacheKey, new BatchedImageRequest(newRequest, imageContainer));
         return imageContainer;
     }
 
 
+    /**
+     * Returns the size bucket of a requested maximum width or height: the size rounded up to
+     * the next of {@link #SIZE_BUCKETS_PER_OCTAVE} steps between powers of two, or 0 (no limit)
+     * for 0. Images are decoded to the bucket, which is never smaller than the request and at
+     * most an eighth larger.
+     */
+    /* package */ static int getSizeBucket(int size) {
+        if (size <= 0) {
+            return 0;
+        }
+        int step = Math.max(Integer.highestOneBit(size) / SIZE_BUCKETS_PER_OCTAVE, 1);
+        return (size + step - 1) / step * step;
+    }
+
+    /**
+     * Returns the memory cache key of an image decoded to the given maximum size. A decode
+     * to the full size is keyed by the URL alone.
+     */
+    /* package */ static String getCacheKey(String url, int maxWidth, int maxHeight) {
+        if (maxWidth == 0 && maxHeight == 0) {
+            return url;
+        }
+        return new StringBuilder(url.length() + 16).append("#W").append(maxWidth)
+                .append("#H").append(maxHeight).append(url).toString();
+    }
+
+    /**
+     * Looks up a cached decode of the image at least as large as the given size bucket: the
+     * bucket itself, then the larger buckets of the same shape (twice a bucket is a bucket
+     * again), then the full size. A larger decode is scaled down to the bucket and cached under
+     * it, so the next lookup finds it at once.
+     */
+    /* package */ static Bitmap getCachedBitmap(ImageCache cache, String url, int maxWidth,
+            int maxHeight) {
+        String cacheKey = getCacheKey(url, maxWidth, maxHeight);
+        Bitmap bitmap = cache.getBitmap(cacheKey);
+        if (bitmap != null || (maxWidth == 0 && maxHeight == 0)) {
+            return bitmap;
+        }
+        int width = maxWidth * 2;
+        int height = maxHeight * 2;
+        while (bitmap == null && width <= MAX_SIZE_BUCKET && height <= MAX_SIZE_BUCKET) {
+            bitmap = cache.getBitmap(getCacheKey(url, width, height));
+            width *= 2;
+            height *= 2;
+        }
+        if (bitmap == null) {
+            bitmap = cache.getBitmap(url);
+            if (bitmap == null) {
+                return null;
+            }
+        }
+        int[] scaledSize = getScaledSize(maxWidth, maxHeight, bitmap.getWidth(),
+                bitmap.getHeight());
+        if (scaledSize == null) {
+            return bitmap;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, scaledSize[0], scaledSize[1], true);
+        cache.putBitmap(cacheKey, scaled);
+        return scaled;
+    }
+
+    /**
+     * Returns the width and height to scale an image of the given size down to so that it
+     * fits the given maximum size, as {@link ImageRequest} would decode it, or null if it
+     * already fits.
+     */
+    /* package */ static int[] getScaledSize(int maxWidth, int maxHeight, int width,
+            int height) {
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        int scaledWidth = ImageRequest.getResizedDimension(maxWidth, maxHeight, width, height);
+        int scaledHeight = ImageRequest.getResizedDimension(maxHeight, maxWidth, height, width);
+        if (scaledWidth >= width && scaledHeight >= height) {
+            return null;
+        }
+        return new int[] {Math.max(scaledWidth, 1), Math.max(scaledHeight, 1)};
+    }
+
+    /**
+     * Starts loading the given images into the cache in the background, so that they are
+     * already there when views bind them. Images are fetched and decoded at
+     * {@link Priority#LOW}, behind images already in the cache; use
+     * {@link Prefetch#setVisibleRange(int, int)} to move the ones coming into view ahead of the
+     * rest. Prefetches join in-flight requests for the same image, and vice versa.
+     * <p>
+     * May be called from any thread.
+     *
+     * @param requestUrls The URLs of the images, in display order
+     * @param maxWidth The maximum width to decode the images to, or zero for none
+     * @param maxHeight The maximum height to decode the images to, or zero for none
+     * @return A handle to reprioritize or cancel the prefetch
+     */
+    public Prefetch prefetch(List<String> requestUrls, int maxWidth, int maxHeight) {
+        Prefetch prefetch = new Prefetch(requestUrls.size());
+        for (int i = 0; i < requestUrls.size(); i++) {
+            String requestUrl = requestUrls.get(i);
+            if (TextUtils.isEmpty(requestUrl) || getCachedBitmap(mCache, requestUrl,
+                    getSizeBucket(maxWidth), getSizeBucket(maxHeight)) != null) {
+                continue;
+            }
+            prefetch.start(i, get(requestUrl, prefetch.newListener(i), maxWidth, maxHeight, false,
+                    VolleyConfig.CacheType.NORMAL_CACHE, null, null));
+        }
+        return prefetch;
+    }
+
+    /**
+     * The images of one {@link #prefetch(List, int, int)} call that are still loading.
+     */
+    public class Prefetch {
+        /** Containers of the images still loading, by index; null once loaded. */
+        private final ImageContainer[] mContainers;
+
+        /** First and last index of the visible range; empty initially. */
+        private int mFirstVisible = 0;
+        private int mLastVisible = -1;
+
+        private Prefetch(int size) {
+            mContainers = new ImageContainer[size];
+        }
+
+        private synchronized void start(int index, ImageContainer container) {
+            // A cache hit is delivered during get(), before the container gets here.
+            if (container.getBitmap() == null) {
+                mContainers[index] = container;
+                if (isVisible(index)) {
+                    setPriority(container, Priority.NORMAL);
+                }
+            }
+        }
+
+        private ImageListener newListener(final int index) {
+            return new ImageListener() {
+                @Override
+                public void onResponse(ImageContainer response, boolean isImmediate) {
+                    if (response.getBitmap() != null) {
+                        // Only loaded into the cache, not displayed.
+                        response.release();
+                        onDone(index);
+                    }
+                }
+
+                @Override
+                public void onErrorResponse(VolleyError error, ImageContainer response, boolean isImmediate) {
+                    onDone(index);
+                }
+            };
+        }
+
+        private synchronized void onDone(int index) {
+            mContainers[index] = null;
+        }
+
+        private boolean isVisible(int index) {
+            return index >= mFirstVisible && index <= mLastVisible;
+        }
+
+        /**
+         * Moves the images in the given range ahead of the other prefetches, and the ones that
+         * left the range back behind them. Call as the visible items change, e.g. on scroll.
+         *
+         * @param first Index of the first visible image
+         * @param last Index of the last visible image
+         */
+        public synchronized void setVisibleRange(int first, int last) {
+            int oldFirst = mFirstVisible;
+            int oldLast = mLastVisible;
+            mFirstVisible = first;
+            mLastVisible = last;
+            for (int i = 0; i < mContainers.length; i++) {
+                boolean wasVisible = i >= oldFirst && i <= oldLast;
+                if (mContainers[i] != null && wasVisible != isVisible(i)) {
+                    setPriority(mContainers[i], wasVisible ? Priority.LOW : Priority.NORMAL);
+                }
+            }
+        }
+
+        /**
+         * Releases interest in the images still loading, canceling the requests no one else
+         * is waiting for.
+         */
+        public synchronized void cancel() {
+            for (int i = 0; i < mContainers.length; i++) {
+                if (mContainers[i] != null) {
+                    mContainers[i].cancelRequest();
+                    mContainers[i] = null;
+                }
+            }
+        }
+
+        private void setPriority(ImageContainer container, Priority priority) {
+            BatchedImageRequest request = mInFlightRequests.get(container.mCacheKey);
+            if (request != null) {
+                request.mRequest.setPriority(priority);
+            }
+        }
+    }
+
+    /**
+     * 设置统计用的id和from请求头，为null的不加（prefetch等没有这两个值）
+     */
+    private void setImageHeaders(Request<?> request, String newsId, String from) {
+        if (newsId == null && from == null) {
+            return;
+        }
+        HashMap<String, String> headers = new HashMap<>();
+        if (newsId != null) {
+            headers.put(IMAGE_NEWS_ID, newsId);
+        }
+        if (from != null) {
+            headers.put(IMAGE_FROM, from);
+        }
+        request.setHeaders(headers);
+    }
+
     private boolean isServerError(VolleyError error) {
 
         if (error == null || error.networkResponse == null) {
@@ -290,19 +513,18 @@ public class ImageLoader {
         requestUrl = restoreOriginalPicUrl(requestUrl);
         Request<?> newRequest = createImageRequest(requestUrl, imageListener, maxWidth,
                 maxHeight, onlyCache, cacheType, imageContainer);
-        HashMap<String, String> headers = new HashMap<>();
-        headers.put(IMAGE_NEWS_ID, newsId);
-        headers.put(IMAGE_FROM, from);
-        newRequest.setHeaders(headers);
-        final String cacheKey = requestUrl;
-        mInFlightRequests.remove(cacheKey);
-        if (newRequest != null && mRequestQueue != null && mInFlightRequests != null) {
+        setImageHeaders(newRequest, newsId, from);
+        final String cacheKey = getCacheKey(requestUrl, maxWidth, maxHeight);
+        mInFlightRequests.complete(cacheKey);
+        if (newRequest != null && mRequestQueue != null) {
             newRequest.setOnlyCache(onlyCache);
+            if (!mInFlightRequests.start(cacheKey, new BatchedImageRequest(newRequest), imageContainer)) {
+                return;
+            }
             mRequestQueue.add(newRequest);
             if (imageContainer != null) {
                 imageContainer.seReqStartTime(System.currentTimeMillis());
             }
-            mInFlightRequests.put(cacheKey, new BatchedImageRequest(newRequest, imageContainer));
         } else {
             onGetImageError(cacheKey, error);
         }
@@ -311,7 +533,7 @@ public class ImageLoader {
     private Request<?> createImageRequest(final String requestUrl, final ImageListener imageListener, int maxWidth,
                                           int maxHeight, boolean onlyCache, final VolleyConfig.CacheType cacheType, final ImageContainer
                                                   imageContainer) {
-        final String cacheKey = requestUrl;
+        final String cacheKey = getCacheKey(requestUrl, maxWidth, maxHeight);
         final Request<?> newRequest = new ImageRequest(requestUrl, new Listener<Bitmap>() {
             @Override
             public void onResponse(Bitmap response) {
@@ -363,7 +585,7 @@ public class ImageLoader {
      * @param newBatchedResponseDelayMs The time in milliseconds to wait.
      */
     public void setBatchedResponseDelay(int newBatchedResponseDelayMs) {
-        mBatchResponseDelayMs = newBatchedResponseDelayMs;
+        mInFlightRequests.setBatchResponseDelay(newBatchedResponseDelayMs);
     }
 
     /**
@@ -377,14 +599,14 @@ public class ImageLoader {
         mCache.putBitmap(cacheKey, response);
 
         // remove the request from the list of in-flight requests.
-        BatchedImageRequest request = mInFlightRequests.remove(cacheKey);
+        BatchedImageRequest request = mInFlightRequests.complete(cacheKey);
 
         if (request != null) {
             // Update the response bitmap.
             request.mResponseBitmap = response;
 
             // Send the batched response
-            batchResponse(cacheKey, request);
+            mInFlightRequests.batchResponse(cacheKey, request);
         }
     }
 
@@ -396,14 +618,14 @@ public class ImageLoader {
     private void onGetImageError(String cacheKey, VolleyError error) {
         // Notify the requesters that something failed via a null result.
         // Remove this request from the list of in-flight requests.
-        BatchedImageRequest request = mInFlightRequests.remove(cacheKey);
+        BatchedImageRequest request = mInFlightRequests.complete(cacheKey);
 
         if (request != null) {
             // Set the error for this request
             request.setError(error);
 
             // Send the batched response
-            batchResponse(cacheKey, request);
+            mInFlightRequests.batchResponse(cacheKey, request);
         }
     }
 
@@ -417,6 +639,9 @@ public class ImageLoader {
          */
         private Bitmap mBitmap;
 
+        /** Whether mBitmap is counted as displayed in the {@link BitmapPool} */
+        private boolean mAcquired;
+
         private final ImageListener mListener;
 
         /** The cache key that was associated with the request */
@@ -447,7 +672,7 @@ public class ImageLoader {
          */
         public ImageContainer(Bitmap bitmap, String requestUrl, String cacheKey,
                               ImageListener listener) {
-            mBitmap = bitmap;
+            setBitmap(bitmap);
             mRequestUrl = requestUrl;
             mCacheKey = cacheKey;
             mListener = listener;
@@ -461,21 +686,27 @@ public class ImageLoader {
                 return;
             }
 
-            BatchedImageRequest request = mInFlightRequests.get(mCacheKey);
-            if (request != null) {
-                boolean canceled = request.removeContainerAndCancelIfNecessary(this);
-                if (canceled) {
-                    mInFlightRequests.remove(mCacheKey);
-                }
-            } else {
-                // check to see if it is already batched for delivery.
-                request = mBatchedResponses.get(mCacheKey);
-                if (request != null) {
-                    request.removeContainerAndCancelIfNecessary(this);
-                    if (request.mContainers.size() == 0) {
-                        mBatchedResponses.remove(mCacheKey);
-                    }
-                }
+            mInFlightRequests.cancel(mCacheKey, this);
+        }
+
+        /**
+         * Releases interest in the request, like {@link #cancelRequest()}, and in the bitmap,
+         * which must no longer be displayed: once the cache evicts it and every container
+         * holding it is released, it may be decoded into.
+         */
+        public void release() {
+            cancelRequest();
+            if (mAcquired) {
+                mAcquired = false;
+                VolleyConfig.getBitmapPool().release(mBitmap);
+            }
+        }
+
+        private void setBitmap(Bitmap bitmap) {
+            mBitmap = bitmap;
+            if (bitmap != null) {
+                VolleyConfig.getBitmapPool().acquire(bitmap);
+                mAcquired = true;
             }
         }
 
@@ -519,7 +750,7 @@ public class ImageLoader {
      * Wrapper class used to map a Request to the set of active ImageContainer objects that are
      * interested in its results.
      */
-    private class BatchedImageRequest {
+    private static class BatchedImageRequest extends InFlightTable.Batch<ImageContainer> {
         /** The request being tracked */
         private final Request<?> mRequest;
 
@@ -529,25 +760,13 @@ public class ImageLoader {
         /** Error if one occurred for this response */
         private VolleyError mError;
 
-        /** List of all of the active ImageContainers that are interested in the request */
-        private final LinkedList<ImageContainer> mContainers = new LinkedList<ImageContainer>();
-
-        private void setHeaders(HashMap parameters) {
-            if (mRequest != null) {
-                mRequest.setHeaders(parameters);
-            }
-        }
-
-
         /**
          * Constructs a new BatchedImageRequest object
          *
          * @param request The request being tracked
-         * @param container The ImageContainer of the person who initiated the request.
          */
-        public BatchedImageRequest(Request<?> request, ImageContainer container) {
+        public BatchedImageRequest(Request<?> request) {
             mRequest = request;
-            mContainers.add(container);
         }
 
         /**
@@ -564,75 +783,32 @@ public class ImageLoader {
             return mError;
         }
 
-        /**
-         * Adds another ImageContainer to the list of those interested in the results of
-         * the request.
-         */
-        public void addContainer(ImageContainer container) {
-            mContainers.add(container);
+        @Override
+        boolean isCanceled() {
+            return mRequest.isCanceled();
         }
 
-        /**
-         * Detatches the bitmap container from the request and cancels the request if no one is
-         * left listening.
-         *
-         * @param container The container to remove from the list
-         * @return True if the request was canceled, false otherwise.
-         */
-        public boolean removeContainerAndCancelIfNecessary(ImageContainer container) {
-            mContainers.remove(container);
-            if (mContainers.size() == 0) {
-                mRequest.cancel();
-                return true;
-            }
-            return false;
+        @Override
+        void cancel() {
+            mRequest.cancel();
         }
     }
 
     /**
-     * Starts the runnable for batched delivery of responses if it is not already started.
-     *
-     * @param cacheKey The cacheKey of the response being delivered.
-     * @param request The BatchedImageRequest to be delivered.
-     * @param error The volley error associated with the request (if applicable).
+     * Delivers the result of a batched request to one of its containers on the main thread.
      */
-    private void batchResponse(String cacheKey, BatchedImageRequest request) {
-        mBatchedResponses.put(cacheKey, request);
-        // If we don't already have a batch delivery runnable in flight, make a new one.
-        // Note that this will be used to deliver responses to all callers in mBatchedResponses.
-        if (mRunnable == null) {
-            mRunnable = new Runnable() {
-                @Override
-                public void run() {
-                    for (BatchedImageRequest bir : mBatchedResponses.values()) {
-                        for (ImageContainer container : bir.mContainers) {
-                            // If one of the callers in the batched request canceled the request
-                            // after the response was received but before it was delivered,
-                            // skip them.
-                            if (container.mListener == null) {
-                                continue;
-                            }
-                            if (bir.getError() == null) {
-                                container.mBitmap = bir.mResponseBitmap;
-                                container.mListener.onResponse(container, false);
-                            } else {
-                                container.mListener.onErrorResponse(bir.getError(),container, false);
-                            }
-                        }
-                    }
-                    mBatchedResponses.clear();
-                    mRunnable = null;
-                }
-
-            };
-            // Post the runnable.
-            mHandler.postDelayed(mRunnable, mBatchResponseDelayMs);
+    private void deliverResponse(BatchedImageRequest bir, ImageContainer container) {
+        // If one of the callers in the batched request canceled the request
+        // after the response was received but before it was delivered,
+        // skip them.
+        if (container.mListener == null) {
+            return;
         }
-    }
-
-    private void throwIfNotOnMainThread() {
-        if (Looper.myLooper() != Looper.getMainLooper()) {
-            throw new IllegalStateException("ImageLoader must be invoked from the main thread.");
+        if (bir.getError() == null) {
+            container.setBitmap(bir.mResponseBitmap);
+            container.mListener.onResponse(container, false);
+        } else {
+            container.mListener.onErrorResponse(bir.getError(),container, false);
         }
     }
 
@@ -19,6 +19,7 @@ package com.corelib.volley.toolbox;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
 import android.graphics.BitmapFactory;
+import android.os.Build;
 import android.text.TextUtils;
 
 import com.corelib.volley.DefaultRetryPolicy;
@@ -33,6 +34,9 @@ import com.corelib.volley.toolbox.ImageLoader.*;
 import com.corelib.volley.toolbox.FileLoader.*;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * A canned request for getting an image at a given URL and calling back with a
@@ -53,11 +57,6 @@ public class ImageRequest extends Request<Bitmap> {
     private final int mMaxWidth;
     private final int mMaxHeight;
 
-    /**
-     * Decoding lock so that we don't decode more than one image at a time (to
-     * avoid OOM's)
-     */
-    private static final Object sDecodeLock = new Object();
     private final CacheType mCacheType;
 
     /**
@@ -93,6 +92,7 @@ public class ImageRequest extends Request<Bitmap> {
         mMaxWidth = maxWidth;
         mMaxHeight = maxHeight;
         mCacheType = cacheType;
+        setPriority(Priority.LOW);
     }
 
     public ImageRequest(String url, Response.Listener<Bitmap> listener, int maxWidth,
@@ -100,11 +100,6 @@ public class ImageRequest extends Request<Bitmap> {
         this(url, listener, maxWidth, maxHeight, decodeConfig, errorListener, CacheType.NORMAL_CACHE);
     }
 
-    @Override
-    public Priority getPriority() {
-        return Priority.LOW;
-    }
-
     /**
      * Scales one side of a rectangle to fit aspect ratio.
      *
@@ -120,8 +115,8 @@ public class ImageRequest extends Request<Bitmap> {
      * @param actualSecondary
      *            Actual size of the secondary dimension
      */
-    private static int getResizedDimension(int maxPrimary, int maxSecondary, int actualPrimary,
-            int actualSecondary) {
+    /* package */ static int getResizedDimension(int maxPrimary, int maxSecondary,
+            int actualPrimary, int actualSecondary) {
         // If no dominant value at all, just return the actual.
         if (maxPrimary == 0 && maxSecondary == 0) {
             return actualPrimary;
@@ -148,113 +143,279 @@ public class ImageRequest extends Request<Bitmap> {
 
     @Override
     protected Response<Bitmap> parseCache() {
-        synchronized (sDecodeLock) {
-            File dir;
-            if (mCacheType == CacheType.UNCLEANABLE_CACHE) {
-                dir = VolleyConfig.getLocalUncleanableDirectory();
-            } else {
-                dir = VolleyConfig.getLocalImageDirectory();
-            }
-            File file = new File(dir, VolleyUtil.uri2CacheKey(getUrl()));
-            if (!file.exists()) {
+        String cacheKey = VolleyUtil.uri2CacheKey(getUrl());
+        ImageCacheStats stats = VolleyConfig.getImageCacheStats();
+        /* 先查内存中的编码数据，没有再读文件Cache */
+        EncodedImageCache encodedCache = VolleyConfig.getEncodedImageCache();
+        ByteBuffer encoded = encodedCache.acquire(cacheKey);
+        byte[] data = null;
+        if (null != encoded) {
+            stats.recordHit(ImageCacheStats.Tier.ENCODED);
+        } else {
+            stats.recordMiss(ImageCacheStats.Tier.ENCODED);
+            File file = getCachedFile(cacheKey);
+            if (null == file) {
+                stats.recordMiss(ImageCacheStats.Tier.DISK);
                 if (VolleyLog.DEBUG) {
                     VolleyLog.d("No Cache: %s", getUrl());
                 }
                 return Response.error(new VolleyError("No Cache"));
             }
 
-            byte[] data = VolleyUtil.readFile(file);
+            data = VolleyUtil.readFile(file);
             if (null == data) {
+                stats.recordMiss(ImageCacheStats.Tier.DISK);
                 VolleyLog.e("Failed to read file: %s", file.getAbsoluteFile());
                 return Response.error(new VolleyError("Read Cache Failed"));
             }
+            stats.recordHit(ImageCacheStats.Tier.DISK);
+            encodedCache.put(cacheKey, data);
+        }
 
-            try {
-                Bitmap bitmap = doParse(data);
-                if (null == bitmap) {
-                    VolleyLog.e("Failed to decode Bitmap");
-                    return Response.error(new VolleyError("Decode Cache Failed"));
-                }
-                /* 从文件Cache来的response，需要更新到内存Cache */
-                updateMemoryCache(bitmap);
-                return Response.success(bitmap,
-                        HttpHeaderParser.parseCacheHeaders(new NetworkResponse(data)));
-            } catch (OutOfMemoryError e) {
-                e.printStackTrace();
-                VolleyLog.e("Failed to decode Bitmap from Cache");
-                return Response.error(new VolleyError("Decode Cache Bitmap Failed"));
+        try {
+            Bitmap bitmap = doParse(data, encoded, null);
+            if (null == bitmap) {
+                VolleyLog.e("Failed to decode Bitmap");
+                return Response.error(new VolleyError("Decode Cache Failed"));
+            }
+            /* 从文件Cache来的response，需要更新到内存Cache */
+            updateMemoryCache(bitmap);
+            return Response.success(bitmap,
+                    HttpHeaderParser.parseCacheHeaders(new NetworkResponse(data)));
+        } catch (OutOfMemoryError e) {
+            e.printStackTrace();
+            VolleyLog.e("Failed to decode Bitmap from Cache");
+            return Response.error(new VolleyError("Decode Cache Bitmap Failed"));
+        } finally {
+            if (null != encoded) {
+                encodedCache.release(encoded);
             }
         }
     }
 
+    /**
+     * Returns the cached file for the key, or null. The file cache of the request's cache type
+     * answers from its index, which also marks the file as recently used; without one, the
+     * directory of the cache type is checked.
+     */
+    private File getCachedFile(String cacheKey) {
+        CacheType cacheType = null != mCacheType ? mCacheType : CacheType.NORMAL_CACHE;
+        FileCache fileCache = VolleyConfig.getFileCache(cacheType);
+        if (null != fileCache) {
+            String fileName = fileCache.getFile(cacheKey);
+            return null != fileName ? new File(fileName) : null;
+        }
+        File dir;
+        if (cacheType == CacheType.UNCLEANABLE_CACHE) {
+            dir = VolleyConfig.getLocalUncleanableDirectory();
+        } else {
+            dir = VolleyConfig.getLocalImageDirectory();
+        }
+        File file = new File(dir, cacheKey);
+        return file.exists() ? file : null;
+    }
+
     @Override
     protected Response<Bitmap> parseNetworkResponse(NetworkResponse response) {
-        // Serialize all decode on a global lock to reduce concurrent heap
+        // Decodes are admitted by the DecodeScheduler in doParse to bound concurrent heap
         // usage.
-        synchronized (sDecodeLock) {
-            try {
-                if(mListener!=null&&response!=null){
-                    mListener.onResponseHeadersAndData(response.headers,null,response.statusCode,response.isFroNetwork());
-                }
-                Bitmap bitmap = doParse(response.data);
-                if (bitmap == null) {
-                    VolleyLog.e("ParseError");
-                    return Response.error(new ParseError(response));
+        try {
+            if(mListener!=null&&response!=null){
+                mListener.onResponseHeadersAndData(response.headers,null,response.statusCode,response.isFroNetwork());
+            }
+            Bitmap bitmap = doParse(response.data, null, null);
+            if (bitmap == null) {
+                VolleyLog.e("ParseError");
+                return Response.error(new ParseError(response));
+            }
+            /* 从网络来的response，需要更新到文件Cache和内存Cache */
+            updateFileCache(response.data);
+            VolleyConfig.getEncodedImageCache().put(VolleyUtil.uri2CacheKey(getUrl()), response.data);
+            updateMemoryCache(bitmap);
+            return Response.success(bitmap, HttpHeaderParser.parseCacheHeaders(response));
+        } catch (OutOfMemoryError e) {
+            VolleyLog.e("Caught OOM for %d byte image, url=%s", response.data.length, getUrl());
+            return Response.error(new ParseError(e));
+        }
+    }
+
+    /**
+     * Only stream when the body can go straight into the file cache; the bitmap is then
+     * decoded from that file, so the encoded image is never held on the heap.
+     */
+    @Override
+    public boolean shouldStreamResponse() {
+        return VolleyConfig.getFileCache(CacheType.NORMAL_CACHE) != null;
+    }
+
+    @Override
+    protected Response<Bitmap> parseNetworkResponse(NetworkResponse response, InputStream body)
+            throws IOException {
+        if (mListener != null && response != null) {
+            mListener.onResponseHeadersAndData(response.headers, null, response.statusCode, response.isFroNetwork());
+        }
+        /* 从网络来的response，先写入文件Cache，再从文件解码 */
+        String cacheKey = VolleyUtil.uri2CacheKey(getUrl());
+        FileCache fileCache = VolleyConfig.getFileCache(CacheType.NORMAL_CACHE);
+        String fileName = fileCache.putFile(cacheKey, body);
+        if (null == fileName) {
+            VolleyLog.e("Failed to cache image: %s", getUrl());
+            return Response.error(new ParseError(response));
+        }
+
+        try {
+            Bitmap bitmap = doParse(null, null, fileName);
+            if (bitmap == null) {
+                VolleyLog.e("ParseError");
+                if (!Thread.currentThread().isInterrupted()) {
+                    /* 无法解码的内容（如错误页面）不能留在文件Cache里，否则以后一直命中 */
+                    fileCache.remove(cacheKey);
                 }
-                /* 从网络来的response，需要更新到文件Cache和内存Cache */
-                updateFileCache(response.data);
-                updateMemoryCache(bitmap);
-                return Response.success(bitmap, HttpHeaderParser.parseCacheHeaders(response));
-            } catch (OutOfMemoryError e) {
-                VolleyLog.e("Caught OOM for %d byte image, url=%s", response.data.length, getUrl());
-                return Response.error(new ParseError(e));
+                return Response.error(new ParseError(response));
             }
+            updateMemoryCache(bitmap);
+            return Response.success(bitmap, HttpHeaderParser.parseCacheHeaders(response));
+        } catch (OutOfMemoryError e) {
+            VolleyLog.e("Caught OOM for %d byte image, url=%s", new File(fileName).length(), getUrl());
+            return Response.error(new ParseError(e));
         }
     }
 
+    /**
+     * Decodes from data if it is not null, otherwise from the encoded buffer if that is not
+     * null, otherwise from the named file. The buffer is read through a duplicate, so that it
+     * can be decoded again.
+     */
+    private static Bitmap decode(byte[] data, ByteBuffer encoded, String fileName,
+            BitmapFactory.Options options) {
+        if (data != null) {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+        if (encoded != null) {
+            return BitmapFactory.decodeStream(new ByteBufferInputStream(encoded.duplicate()),
+                    null, options);
+        }
+        return BitmapFactory.decodeFile(fileName, options);
+    }
+
     /**
      * The real guts of parseNetworkResponse. Broken out for readability.
+     * <p>
+     * The natural bounds are read first, to size the decode and estimate the memory it
+     * allocates; the decode itself then waits for the {@link DecodeScheduler} to admit it.
+     * Where the dimensions allow, it decodes into a bitmap from the {@link BitmapPool}.
      */
-    private Bitmap doParse(byte[] data) {
+    private Bitmap doParse(byte[] data, ByteBuffer encoded, String fileName) {
         BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
-        Bitmap bitmap = null;
+        decodeOptions.inJustDecodeBounds = true;
+        decode(data, encoded, fileName, decodeOptions);
+        int actualWidth = decodeOptions.outWidth;
+        int actualHeight = decodeOptions.outHeight;
+        if (actualWidth <= 0 || actualHeight <= 0) {
+            // Not an image we can decode.
+            return null;
+        }
+        decodeOptions.inJustDecodeBounds = false;
+
         if (mMaxWidth == 0 && mMaxHeight == 0) {
             decodeOptions.inPreferredConfig = mDecodeConfig;
-            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, decodeOptions);
         } else {
-            // If we have to resize this image, first get the natural bounds.
-            decodeOptions.inJustDecodeBounds = true;
-            BitmapFactory.decodeByteArray(data, 0, data.length, decodeOptions);
-            int actualWidth = decodeOptions.outWidth;
-            int actualHeight = decodeOptions.outHeight;
-
-            // Then compute the dimensions we would ideally like to decode to.
+            // Compute the dimensions we would ideally like to decode to.
             int desiredWidth = getResizedDimension(mMaxWidth, mMaxHeight, actualWidth, actualHeight);
             int desiredHeight = getResizedDimension(mMaxHeight, mMaxWidth, actualHeight,
                     actualWidth);
 
             // Decode to the nearest power of two scaling factor.
-            decodeOptions.inJustDecodeBounds = false;
             // TODO(ficus): Do we need this or is it okay since API 8 doesn't
             // support it?
             // decodeOptions.inPreferQualityOverSpeed =
             // PREFER_QUALITY_OVER_SPEED;
             decodeOptions.inSampleSize = findBestSampleSize(actualWidth, actualHeight,
                     desiredWidth, desiredHeight);
-            Bitmap tempBitmap = BitmapFactory.decodeByteArray(data, 0, data.length, decodeOptions);
-            // TODO(xuegang): 缩放操作对内存和时间消耗太大，没必要进行此操作，对UI没什么影响。
-            // If necessary, scale down to the maximal acceptable size.
-            // if (tempBitmap != null && (tempBitmap.getWidth() > desiredWidth
-            // ||
-            // tempBitmap.getHeight() > desiredHeight)) {
-            // bitmap = Bitmap.createScaledBitmap(tempBitmap,
-            // desiredWidth, desiredHeight, true);
-            // tempBitmap.recycle();
-            // } else {
-            bitmap = tempBitmap;
-            // }
+            // 采样后最多还有所需宽高的两倍。不用createScaledBitmap另外分配一个Bitmap，
+            // 而是让解码器按density直接缩放到所需大小。
+            int sampledWidth = (actualWidth + decodeOptions.inSampleSize - 1)
+                    / decodeOptions.inSampleSize;
+            if (desiredWidth > 0 && sampledWidth > desiredWidth) {
+                decodeOptions.inScaled = true;
+                decodeOptions.inDensity = sampledWidth;
+                decodeOptions.inTargetDensity = desiredWidth;
+            }
         }
 
+        DecodeScheduler scheduler = VolleyConfig.getDecodeScheduler();
+        long bytes = DecodeScheduler.estimateBytes(actualWidth, actualHeight,
+                decodeOptions.inSampleSize, decodeOptions.inPreferredConfig);
+        try {
+            scheduler.acquire(bytes);
+        } catch (InterruptedException e) {
+            // The dispatcher is quitting.
+            Thread.currentThread().interrupt();
+            VolleyLog.d("Interrupted while waiting to decode %s", getUrl());
+            return null;
+        }
+        Bitmap bitmap;
+        try {
+            bitmap = decodeReusing(data, encoded, fileName, decodeOptions, actualWidth,
+                    actualHeight);
+        } finally {
+            scheduler.release(bytes);
+        }
+        if (bitmap != null && decodeOptions.inDensity != 0) {
+            // 缩放用的density不是屏幕的，不能让View按它再缩放一次
+            bitmap.setDensity(Bitmap.DENSITY_NONE);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decodes into a pooled bitmap if there is one that fits, otherwise into a new one. The
+     * result is mutable either way, so that it can go back to the pool once the cache evicts it.
+     */
+    private static Bitmap decodeReusing(byte[] data, ByteBuffer encoded, String fileName,
+            BitmapFactory.Options options, int actualWidth, int actualHeight) {
+        options.inMutable = true;
+        BitmapPool pool = VolleyConfig.getBitmapPool();
+        int sampleSize = Math.max(options.inSampleSize, 1);
+        // Round up as the decoder may.
+        int width = (actualWidth + sampleSize - 1) / sampleSize;
+        int height = (actualHeight + sampleSize - 1) / sampleSize;
+        boolean scaled = options.inDensity != 0 && options.inTargetDensity != 0
+                && options.inDensity != options.inTargetDensity;
+        if (scaled) {
+            height = (int) Math.ceil((double) height * options.inTargetDensity / options.inDensity);
+            width = options.inTargetDensity;
+        }
+        Bitmap reusable = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // Any bitmap with enough memory will do.
+            reusable = pool.get(width, height, options.inPreferredConfig);
+        } else if (sampleSize == 1 && !scaled) {
+            // Before KitKat only unsampled decodes into a bitmap of the very same size work.
+            reusable = pool.get(actualWidth, actualHeight, options.inPreferredConfig);
+        }
+        if (reusable == null) {
+            Bitmap bitmap = decode(data, encoded, fileName, options);
+            pool.recordAllocation(bitmap);
+            return bitmap;
+        }
+
+        options.inBitmap = reusable;
+        Bitmap bitmap = null;
+        try {
+            bitmap = decode(data, encoded, fileName, options);
+        } catch (IllegalArgumentException e) {
+            // The decoder can't reuse this bitmap after all, e.g. for an unsupported format.
+            VolleyLog.d("Cannot decode into pooled bitmap: %s", e.getMessage());
+        }
+        if (bitmap != null) {
+            return bitmap;
+        }
+        // decodeFile swallows the failure and returns null; either way, retry without reuse.
+        options.inBitmap = null;
+        pool.put(reusable);
+        bitmap = decode(data, encoded, fileName, options);
+        pool.recordAllocation(bitmap);
         return bitmap;
     }
 
@@ -331,6 +492,6 @@ public class ImageRequest extends Request<Bitmap> {
             return;
         }
 
-        imageCache.putBitmap(url, bitmap);
+        imageCache.putBitmap(ImageLoader.getCacheKey(url, mMaxWidth, mMaxHeight), bitmap);
     }
 }
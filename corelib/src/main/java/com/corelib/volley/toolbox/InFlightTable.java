@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.corelib.volley.toolbox;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Thread-safe bookkeeping of the in-flight and batched requests of {@link ImageLoader} and
+ * {@link FileLoader}, so that callers on any thread can join a fetch of the same key.
+ * <p>
+ * A {@link Batch} is registered with {@link #start} before its request is queued and leaves the
+ * in-flight table in {@link #complete}, after which nobody can join it any more. Completed
+ * batches are delivered to their containers together on the main thread, a short while after
+ * the first one completes.
+ *
+ * @param <C> Type of the containers interested in a request
+ * @param <B> Type of the batches tracking a request
+ */
+/* package */ class InFlightTable<C, B extends InFlightTable.Batch<C>> {
+
+    /**
+     * Delivers the result of a completed batch to one of its containers, on the main thread.
+     */
+    interface Delivery<C, B> {
+        void deliver(B batch, C container);
+    }
+
+    /**
+     * A request and the containers interested in its result.
+     */
+    abstract static class Batch<C> {
+        /** Containers interested in the request, in the order they joined. */
+        private final List<C> mContainers = new ArrayList<C>(2);
+
+        /** Whether the batch completed or was canceled, after which it can't be joined. */
+        private boolean mClosed;
+
+        /** Returns true if the request behind this batch was canceled. */
+        abstract boolean isCanceled();
+
+        /** Cancels the request behind this batch. */
+        abstract void cancel();
+
+        /**
+         * Adds a container to the batch, unless it is already closed or canceled.
+         *
+         * @return True if the container was added
+         */
+        synchronized boolean addContainer(C container) {
+            if (mClosed || isCanceled()) {
+                return false;
+            }
+            mContainers.add(container);
+            return true;
+        }
+
+        /**
+         * Removes a container from the batch and, if the batch is still in flight and no one
+         * is left listening, closes it and cancels its request.
+         *
+         * @return True if the request was canceled
+         */
+        synchronized boolean removeContainerAndCancelIfNecessary(C container) {
+            mContainers.remove(container);
+            if (mContainers.isEmpty() && !mClosed) {
+                mClosed = true;
+                cancel();
+                return true;
+            }
+            return false;
+        }
+
+        synchronized boolean isEmpty() {
+            return mContainers.isEmpty();
+        }
+
+        synchronized List<C> getContainers() {
+            return new ArrayList<C>(mContainers);
+        }
+
+        synchronized void close() {
+            mClosed = true;
+        }
+    }
+
+    private final ConcurrentMap<String, B> mInFlightRequests = new ConcurrentHashMap<String, B>();
+
+    /**
+     * Completed batches waiting to be delivered, in the order they completed. A key can have
+     * more than one: a new request for it may start and complete before the delivery runs.
+     */
+    private final ConcurrentLinkedQueue<BatchedResponse<B>> mBatchedResponses =
+            new ConcurrentLinkedQueue<BatchedResponse<B>>();
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** Whether a delivery of the batched responses has been posted and not started yet. */
+    private final AtomicBoolean mDeliveryPosted = new AtomicBoolean();
+
+    private final Delivery<C, B> mDelivery;
+
+    private volatile int mBatchResponseDelayMs;
+
+    private final Runnable mDeliverRunnable = new Runnable() {
+        @Override
+        public void run() {
+            deliverBatchedResponses();
+        }
+    };
+
+    /**
+     * @param delivery Delivers completed batches to their containers
+     * @param batchResponseDelayMs Time to wait after a batch completes before delivering it
+     */
+    InFlightTable(Delivery<C, B> delivery, int batchResponseDelayMs) {
+        mDelivery = delivery;
+        mBatchResponseDelayMs = batchResponseDelayMs;
+    }
+
+    void setBatchResponseDelay(int batchResponseDelayMs) {
+        mBatchResponseDelayMs = batchResponseDelayMs;
+    }
+
+    /**
+     * Returns the in-flight batch of the given key, or null if there is none.
+     */
+    B get(String key) {
+        return mInFlightRequests.get(key);
+    }
+
+    /**
+     * Adds a container to the in-flight batch of the given key, if there is one that can still
+     * be joined.
+     *
+     * @return True if the container joined a batch
+     */
+    boolean join(String key, C container) {
+        B batch = mInFlightRequests.get(key);
+        if (batch == null) {
+            return false;
+        }
+        if (batch.addContainer(container)) {
+            return true;
+        }
+        // Canceled or completing; make room for a new request.
+        mInFlightRequests.remove(key, batch);
+        return false;
+    }
+
+    /**
+     * Registers a new batch for the given key with the container as its first listener. If
+     * another thread registered a batch for the key first, the container joins that one
+     * instead and the new batch's request must not be issued.
+     *
+     * @return True if the new batch was registered
+     */
+    boolean start(String key, B batch, C container) {
+        batch.addContainer(container);
+        while (true) {
+            B existing = mInFlightRequests.putIfAbsent(key, batch);
+            if (existing == null) {
+                return true;
+            }
+            if (existing.addContainer(container)) {
+                return false;
+            }
+            mInFlightRequests.remove(key, existing);
+        }
+    }
+
+    /**
+     * Removes a batch that will never complete, e.g. because its request could not be issued.
+     */
+    void remove(String key, B batch) {
+        batch.close();
+        mInFlightRequests.remove(key, batch);
+    }
+
+    /**
+     * Removes the in-flight batch of the given key and closes it to new containers. The caller
+     * then records its result and hands it to {@link #batchResponse}.
+     *
+     * @return The completed batch, or null if there was none
+     */
+    B complete(String key) {
+        B batch = mInFlightRequests.remove(key);
+        if (batch != null) {
+            batch.close();
+        }
+        return batch;
+    }
+
+    /**
+     * Queues a completed batch for delivery, posting a delivery if none is pending.
+     */
+    void batchResponse(String key, B batch) {
+        mBatchedResponses.add(new BatchedResponse<B>(key, batch));
+        if (mDeliveryPosted.compareAndSet(false, true)) {
+            mHandler.postDelayed(mDeliverRunnable, mBatchResponseDelayMs);
+        }
+    }
+
+    /**
+     * Releases the container's interest in the request of the given key, canceling the
+     * request if no one else is listening.
+     */
+    void cancel(String key, C container) {
+        B batch = mInFlightRequests.get(key);
+        if (batch != null) {
+            if (batch.removeContainerAndCancelIfNecessary(container)) {
+                mInFlightRequests.remove(key, batch);
+            }
+            return;
+        }
+        // Check to see if it is already batched for delivery.
+        for (BatchedResponse<B> response : mBatchedResponses) {
+            if (response.mKey.equals(key)) {
+                response.mBatch.removeContainerAndCancelIfNecessary(container);
+                if (response.mBatch.isEmpty()) {
+                    mBatchedResponses.remove(response);
+                }
+            }
+        }
+    }
+
+    /**
+     * Delivers the batched responses to their containers; runs on the main thread.
+     */
+    void deliverBatchedResponses() {
+        // Let batches completing from now on post another delivery.
+        mDeliveryPosted.set(false);
+        BatchedResponse<B> response;
+        while ((response = mBatchedResponses.poll()) != null) {
+            for (C container : response.mBatch.getContainers()) {
+                mDelivery.deliver(response.mBatch, container);
+            }
+        }
+    }
+
+    /**
+     * A completed batch and the key it was requested under.
+     */
+    private static class BatchedResponse<B> {
+        final String mKey;
+        final B mBatch;
+
+        BatchedResponse(String key, B batch) {
+            mKey = key;
+            mBatch = batch;
+        }
+    }
+}
@@ -218,11 +218,11 @@ public class NetworkImageView extends ImageView {
         // requests and clear the
         // currently loaded image.
         if (TextUtils.isEmpty(mUrl)) {
+            setDefaultImageOrNull();
             if (mImageContainer != null) {
-                mImageContainer.cancelRequest();
+                mImageContainer.release();
                 mImageContainer = null;
             }
-            setDefaultImageOrNull();
             return;
         }
 
@@ -303,8 +303,13 @@ public class NetworkImageView extends ImageView {
             }
         }, maxWidth, maxHeight, mOnlyCache,newsId,from);
 
-        // update the ImageContainer to be the new bitmap container.
+        // update the ImageContainer to be the new bitmap container, and release the old one,
+        // whose bitmap is no longer displayed.
+        ImageContainer oldContainer = mImageContainer;
         mImageContainer = newContainer;
+        if (oldContainer != null) {
+            oldContainer.release();
+        }
     }
 
     private void setDefaultImageOrNull() {
@@ -325,10 +330,10 @@ public class NetworkImageView extends ImageView {
     protected void onDetachedFromWindow() {
         if (!mIsUsedInRecyclerView) {
             if (mImageContainer != null) {
-                // If the view was bound to an image request, cancel it and clear
-                // out the image from the view.
-                mImageContainer.cancelRequest();
+                // If the view was bound to an image request, clear out the image from the
+                // view, then cancel the request and release the bitmap.
                 setImageBitmap(null);
+                mImageContainer.release();
 
                 // also clear out the container so we can reload the image if
                 // necessary.
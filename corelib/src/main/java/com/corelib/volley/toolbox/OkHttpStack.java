@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.corelib.volley.toolbox;
+
+import android.text.TextUtils;
+
+import com.corelib.volley.AuthFailureError;
+import com.corelib.volley.Request.Method;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.StatusLine;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.protocol.HTTP;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * An {@link HttpStack} based on OkHttp.
+ *
+ * <p>Unless a client is passed in, every instance shares one {@link OkHttpClient}, and with
+ * it one {@link ConnectionPool} and {@link Dispatcher}, so separate request queues reuse the
+ * same keep-alive connections and multiplex over HTTP/2 where the server supports it.</p>
+ */
+public class OkHttpStack implements HttpStack {
+
+    /** Idle connections kept alive; two queues of four network dispatchers each. */
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+
+    /** How long an idle connection is kept around, in minutes. */
+    private static final long KEEP_ALIVE_DURATION_MINUTES = 5;
+
+    private static final byte[] EMPTY_BODY = new byte[0];
+
+    private static final ProtocolVersion HTTP_1_0 = new ProtocolVersion("HTTP", 1, 0);
+    private static final ProtocolVersion HTTP_1_1 = new ProtocolVersion("HTTP", 1, 1);
+    private static final ProtocolVersion HTTP_2 = new ProtocolVersion("HTTP", 2, 0);
+
+    private static OkHttpClient sSharedClient;
+
+    private final OkHttpClient mClient;
+    private final String mUserAgent;
+
+    /**
+     * Clients derived from {@link #mClient} for a given timeout. They share its pool and
+     * dispatcher; only the timeouts differ.
+     */
+    private final Map<Integer, OkHttpClient> mClientsByTimeout =
+            new HashMap<Integer, OkHttpClient>();
+
+    public OkHttpStack(String userAgent) {
+        this(getSharedClient(), userAgent);
+    }
+
+    /**
+     * @param client Client to issue requests with; its pool and dispatcher are reused
+     */
+    public OkHttpStack(OkHttpClient client, String userAgent) {
+        mClient = client;
+        mUserAgent = userAgent;
+    }
+
+    /**
+     * Returns the client shared by all stacks created without one.
+     */
+    public static synchronized OkHttpClient getSharedClient() {
+        if (sSharedClient == null) {
+            sSharedClient = new OkHttpClient.Builder()
+                    .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS,
+                            KEEP_ALIVE_DURATION_MINUTES, TimeUnit.MINUTES))
+                    .dispatcher(new Dispatcher())
+                    .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                    .build();
+        }
+        return sSharedClient;
+    }
+
+    @Override
+    public HttpResponse performRequest(com.corelib.volley.Request<?> request,
+            Map<String, String> additionalHeaders) throws IOException, AuthFailureError {
+        Request.Builder builder = new Request.Builder().url(request.getUrl());
+        addHeaders(builder, request.getHeaders());
+        addHeaders(builder, additionalHeaders);
+        builder.header(HTTP.USER_AGENT, mUserAgent);
+        //V6.0处理dns异常 指定host访问ip
+        if (!TextUtils.isEmpty(request.getDnsRequestHost())) {
+            builder.header("Host", request.getDnsRequestHost());
+        }
+        setConnectionParametersForRequest(builder, request);
+
+        Response okResponse = getClient(request.getTimeoutMs())
+                .newCall(builder.build()).execute();
+
+        StatusLine responseStatus = new BasicStatusLine(toProtocolVersion(okResponse.protocol()),
+                okResponse.code(), okResponse.message());
+        OkHttpResponse response = new OkHttpResponse(responseStatus, okResponse.headers());
+        ResponseBody body = okResponse.body();
+        if (body != null) {
+            BasicHttpEntity entity = new BasicHttpEntity();
+            entity.setContent(body.byteStream());
+            entity.setContentLength(body.contentLength());
+            entity.setContentEncoding(okResponse.header(HTTP.CONTENT_ENCODING));
+            MediaType contentType = body.contentType();
+            if (contentType != null) {
+                entity.setContentType(contentType.toString());
+            }
+            response.setEntity(entity);
+        }
+        return response;
+    }
+
+    /**
+     * Returns a client with the given connect/read/write timeout. Derived clients are cached
+     * since a queue normally only sees a handful of distinct timeouts.
+     */
+    private OkHttpClient getClient(int timeoutMs) {
+        synchronized (mClientsByTimeout) {
+            OkHttpClient client = mClientsByTimeout.get(timeoutMs);
+            if (client == null) {
+                client = mClient.newBuilder()
+                        .connectTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                        .readTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                        .writeTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                        .build();
+                mClientsByTimeout.put(timeoutMs, client);
+            }
+            return client;
+        }
+    }
+
+    private static ProtocolVersion toProtocolVersion(Protocol protocol) {
+        if (protocol == Protocol.HTTP_1_0) {
+            return HTTP_1_0;
+        } else if (protocol == Protocol.HTTP_2) {
+            return HTTP_2;
+        }
+        return HTTP_1_1;
+    }
+
+    @SuppressWarnings("deprecation")
+    /* package */ static void setConnectionParametersForRequest(Request.Builder builder,
+            com.corelib.volley.Request<?> request) throws AuthFailureError {
+        switch (request.getMethod()) {
+            case Method.DEPRECATED_GET_OR_POST:
+                // This is the deprecated way that needs to be handled for backwards compatibility.
+                // If the request's post body is null, then the assumption is that the request is
+                // GET.  Otherwise, it is assumed that the request is a POST.
+                byte[] postBody = request.getPostBody();
+                if (postBody != null) {
+                    builder.post(RequestBody.create(
+                            MediaType.parse(request.getPostBodyContentType()), postBody));
+                } else {
+                    builder.get();
+                }
+                break;
+            case Method.GET:
+                builder.get();
+                break;
+            case Method.DELETE:
+                builder.delete();
+                break;
+            case Method.POST:
+                builder.post(createRequestBody(request));
+                break;
+            case Method.PUT:
+                builder.put(createRequestBody(request));
+                break;
+            case Method.HEAD:
+                builder.head();
+                break;
+            case Method.OPTIONS:
+                builder.method("OPTIONS", null);
+                break;
+            case Method.TRACE:
+                builder.method("TRACE", null);
+                break;
+            case Method.PATCH:
+                builder.patch(createRequestBody(request));
+                break;
+            default:
+                throw new IllegalStateException("Unknown method type.");
+        }
+    }
+
+    /**
+     * OkHttp requires a body for POST, PUT and PATCH, so send an empty one if the request
+     * has none.
+     */
+    private static RequestBody createRequestBody(com.corelib.volley.Request<?> request)
+            throws AuthFailureError {
+        byte[] body = request.getBody();
+        if (body == null) {
+            body = EMPTY_BODY;
+        }
+        return RequestBody.create(MediaType.parse(request.getBodyContentType()), body);
+    }
+
+    /**
+     * Adds the given headers to the request. Headers with a null value are skipped, as
+     * HttpURLConnection did; OkHttp rejects them.
+     */
+    private static void addHeaders(Request.Builder builder, Map<String, String> headers) {
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey() != null && header.getValue() != null) {
+                builder.header(header.getKey(), header.getValue());
+            }
+        }
+    }
+
+    /**
+     * An {@link HttpResponse} that keeps OkHttp's headers as they are. {@link BasicNetwork}
+     * reads them through {@link #getHeaderMap()}; Apache {@link Header}s are only built if
+     * someone asks for them.
+     */
+    public static class OkHttpResponse extends BasicHttpResponse {
+        private final Headers mHeaders;
+        private boolean mApacheHeadersAdded = false;
+
+        OkHttpResponse(StatusLine statusLine, Headers headers) {
+            super(statusLine);
+            mHeaders = headers;
+        }
+
+        /**
+         * Returns the response headers as a map. If a header is repeated, the last value wins,
+         * as with {@link BasicNetwork}'s conversion of Apache headers.
+         * <p>
+         * Names are looked up ignoring case: OkHttp lowercases them over HTTP/2, while
+         * {@link HttpHeaderParser} asks for "Cache-Control", "ETag" and so on.
+         */
+        public Map<String, String> getHeaderMap() {
+            Map<String, String> result =
+                    new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = 0, size = mHeaders.size(); i < size; i++) {
+                result.put(mHeaders.name(i), mHeaders.value(i));
+            }
+            return result;
+        }
+
+        private void addApacheHeaders() {
+            if (mApacheHeadersAdded) {
+                return;
+            }
+            mApacheHeadersAdded = true;
+            for (int i = 0, size = mHeaders.size(); i < size; i++) {
+                super.addHeader(new BasicHeader(mHeaders.name(i), mHeaders.value(i)));
+            }
+        }
+
+        @Override
+        public boolean containsHeader(String name) {
+            return mHeaders.get(name) != null || super.containsHeader(name);
+        }
+
+        @Override
+        public Header[] getHeaders(String name) {
+            addApacheHeaders();
+            return super.getHeaders(name);
+        }
+
+        @Override
+        public Header getFirstHeader(String name) {
+            addApacheHeaders();
+            return super.getFirstHeader(name);
+        }
+
+        @Override
+        public Header getLastHeader(String name) {
+            addApacheHeaders();
+            return super.getLastHeader(name);
+        }
+
+        @Override
+        public Header[] getAllHeaders() {
+            addApacheHeaders();
+            return super.getAllHeaders();
+        }
+    }
+}
@@ -0,0 +1,449 @@
+package com.corelib.volley.toolbox;
+
+import com.corelib.volley.FileError;
+import com.corelib.volley.NetworkResponse;
+import com.corelib.volley.RequestQueue;
+import com.corelib.volley.Response;
+import com.corelib.volley.VolleyError;
+import com.corelib.volley.VolleyLog;
+import com.corelib.volley.toolbox.FileLoader.FileCache;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 可断点续传的分段下载。
+ *
+ * 数据写入FileCache提供的未完成文件，各段进度保存在同名的.meta文件中，崩溃或取消后
+ * 可从上次的位置继续。首个请求不带Range；响应带回文件总长度且服务器支持Range时，较大的
+ * 文件按段拆分，由多个NetworkDispatcher线程并行下载，全部完成后移入缓存。
+ */
+/* package */class RangeDownload {
+    /** 进度文件格式的魔数 */
+    private static final int META_MAGIC = 0x20171229;
+    /** 进度文件后缀 */
+    private static final String META_SUFFIX = ".meta";
+    /** 小于该长度的文件不拆分 */
+    private static final long MIN_SPLIT_BYTES = 1024 * 1024;
+    /** 每写入该长度保存一次进度 */
+    private static final long SAVE_INTERVAL_BYTES = 256 * 1024;
+    /** 读写缓冲区大小 */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final RequestQueue mQueue;
+    private final FileCache mCache;
+    private final String mUrl;
+    private final String mCacheKey;
+    private final File mPartialFile;
+    private final File mMetaFile;
+    private final int mParallelism;
+    private final Object mTag;
+    private final Response.Listener<String> mListener;
+    private final Response.ErrorListener mErrorListener;
+
+    /** 文件总长度，未知时为-1 */
+    private long mTotal = -1;
+    /** ETag或Last-Modified，用于If-Range；为null时不保存进度 */
+    private String mValidator;
+    /** 各段起始位置 */
+    private long[] mStarts = {0};
+    /** 各段结束位置（含），-1表示直到响应结束 */
+    private long[] mEnds = {-1};
+    /** 各段已写入的长度 */
+    private long[] mWritten = {0};
+    /** 未完成的段数 */
+    private int mRemaining = 1;
+    /** 已派发结果或错误 */
+    private boolean mDone = false;
+    /** 未完成文件已失效并被删除，不再保存进度 */
+    private boolean mDiscarded = false;
+    private boolean mCanceled = false;
+    private final List<RangeFileRequest> mRequests = new ArrayList<RangeFileRequest>();
+
+    /* package */RangeDownload(RequestQueue queue, FileCache cache, File partialFile, String url,
+                               String cacheKey, int parallelism, Object tag,
+                               Response.Listener<String> listener,
+                               Response.ErrorListener errorListener) {
+        mQueue = queue;
+        mCache = cache;
+        mPartialFile = partialFile;
+        mMetaFile = new File(partialFile.getParentFile(), partialFile.getName() + META_SUFFIX);
+        mUrl = url;
+        mCacheKey = cacheKey;
+        mParallelism = Math.max(1, parallelism);
+        mTag = tag;
+        mListener = listener;
+        mErrorListener = errorListener;
+    }
+
+    /**
+     * 开始或继续下载。
+     *
+     * @return 已发出请求返回true；上次已全部下载、本次直接移入缓存时返回false
+     */
+    /* package */boolean start() {
+        if (loadMeta()) {
+            if (mRemaining == 0) {
+                mMetaFile.delete();
+                mCache.commitPartialFile(mCacheKey);
+                return false;
+            }
+            VolleyLog.d("Resuming %s, %d of %d ranges left", mUrl, mRemaining, mStarts.length);
+            for (int i = 0; i < mStarts.length; i++) {
+                if (!isRangeComplete(i)) {
+                    enqueue(i);
+                }
+            }
+        } else {
+            mPartialFile.delete();
+            mMetaFile.delete();
+            enqueue(0);
+        }
+        return true;
+    }
+
+    /* package */synchronized boolean isCanceled() {
+        return mCanceled;
+    }
+
+    /**
+     * 取消所有分段请求，已下载的部分保留以便续传。
+     */
+    /* package */void cancel() {
+        List<RangeFileRequest> requests;
+        synchronized (this) {
+            mCanceled = true;
+            requests = new ArrayList<RangeFileRequest>(mRequests);
+        }
+        for (RangeFileRequest request : requests) {
+            request.cancel();
+        }
+    }
+
+    /* package */synchronized void addRangeHeaders(int index, Map<String, String> headers) {
+        long start = mStarts[index] + mWritten[index];
+        if (start == 0 && mEnds[index] < 0) {
+            // 从头下载整个文件时不发Range，不支持Range或不缓存Range请求的服务器和代理照常处理；
+            // 是否支持分段由响应的Accept-Ranges判断
+            return;
+        }
+        headers.put("Range", "bytes=" + start + "-" + (mEnds[index] < 0 ? "" : mEnds[index]));
+        if (null != mValidator) {
+            headers.put("If-Range", mValidator);
+        }
+    }
+
+    /**
+     * 在工作线程中处理一段的响应，把响应体写入未完成文件。
+     */
+    /* package */Response<String> onRangeResponse(RangeFileRequest request,
+                                                  NetworkResponse response, InputStream body)
+            throws IOException {
+        int index = request.getIndex();
+        synchronized (this) {
+            if (mDone || mDiscarded) {
+                return Response.success(null, null);
+            }
+            long start = mStarts[index] + mWritten[index];
+            boolean fresh = mTotal < 0 && mStarts.length == 1 && start == 0;
+            if (response.statusCode == 206) {
+                long[] range = parseContentRange(getHeader(response.headers, "Content-Range"));
+                if (null == range || range[0] != start
+                        || (mTotal >= 0 && range[2] != mTotal)) {
+                    return discard("Unexpected Content-Range");
+                }
+                if (fresh && range[2] > 0) {
+                    split(range[2], getValidator(response.headers));
+                }
+            } else if (!fresh) {
+                // If-Range不匹配时服务器返回整个文件：已下载的部分失效
+                return discard("Partial file is stale");
+            } else {
+                long total = getContentLength(response.headers);
+                if (total > 0 && "bytes".equalsIgnoreCase(
+                        getHeader(response.headers, "Accept-Ranges"))) {
+                    split(total, getValidator(response.headers));
+                }
+            }
+        }
+
+        writeRange(request, body);
+
+        synchronized (this) {
+            if (mDone || mDiscarded || mCanceled) {
+                return Response.success(null, null);
+            }
+            if (!isRangeComplete(index) && mEnds[index] >= 0) {
+                throw new IOException("Range " + index + " ended early");
+            }
+            mRemaining--;
+            if (mRemaining > 0) {
+                return Response.success(null, null);
+            }
+            mDone = true;
+        }
+
+        mMetaFile.delete();
+        String fileName = mCache.commitPartialFile(mCacheKey);
+        if (null == fileName) {
+            return Response.error(new FileError("Cache file error: " + mUrl));
+        }
+        return Response.success(fileName, HttpHeaderParser.parseCacheHeaders(response));
+    }
+
+    /**
+     * 在主线程派发第一个错误，并取消其余分段。
+     */
+    /* package */void onError(VolleyError error) {
+        synchronized (this) {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+        }
+        cancel();
+        if (null != mErrorListener) {
+            mErrorListener.onErrorResponse(error);
+        }
+    }
+
+    /**
+     * 根据文件总长度拆分各段，并发出除第0段外的其余请求。第0段就是当前的请求。
+     */
+    private void split(long total, String validator) {
+        mTotal = total;
+        mValidator = validator;
+        int count = total >= MIN_SPLIT_BYTES ? mParallelism : 1;
+        long chunk = total / count;
+        mStarts = new long[count];
+        mEnds = new long[count];
+        mWritten = new long[count];
+        for (int i = 0; i < count; i++) {
+            mStarts[i] = i * chunk;
+            mEnds[i] = i == count - 1 ? total - 1 : (i + 1) * chunk - 1;
+        }
+        mRemaining = count;
+        saveMeta();
+        for (int i = 1; i < count; i++) {
+            enqueue(i);
+        }
+    }
+
+    private void enqueue(int index) {
+        RangeFileRequest request = new RangeFileRequest(mUrl, this, index, mListener);
+        request.setTag(mTag);
+        synchronized (this) {
+            if (mDone || mCanceled) {
+                return;
+            }
+            mRequests.add(request);
+        }
+        mQueue.add(request);
+    }
+
+    private void writeRange(RangeFileRequest request, InputStream body) throws IOException {
+        int index = request.getIndex();
+        long position;
+        long end;
+        synchronized (this) {
+            position = mStarts[index] + mWritten[index];
+            end = mEnds[index];
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(mPartialFile, "rw");
+        try {
+            raf.seek(position);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long unsaved = 0;
+            while (end < 0 || position <= end) {
+                int want = end < 0 ? buffer.length : (int) Math.min(buffer.length, end - position + 1);
+                int count = body.read(buffer, 0, want);
+                if (count == -1) {
+                    break;
+                }
+                raf.write(buffer, 0, count);
+                position += count;
+                unsaved += count;
+                if (unsaved >= SAVE_INTERVAL_BYTES) {
+                    unsaved = 0;
+                    if (!onProgress(index, position) || request.isCanceled()) {
+                        return;
+                    }
+                }
+            }
+        } finally {
+            raf.close();
+            onProgress(index, position);
+        }
+    }
+
+    /**
+     * 记录一段的写入位置。
+     *
+     * @return 下载仍在进行时返回true
+     */
+    private synchronized boolean onProgress(int index, long position) {
+        if (mDiscarded) {
+            return false;
+        }
+        mWritten[index] = position - mStarts[index];
+        if (mEnds[index] < 0 && mTotal < 0) {
+            // 总长度未知的单段下载无法续传
+            return !mDone && !mCanceled;
+        }
+        saveMeta();
+        return !mDone && !mCanceled;
+    }
+
+    private boolean isRangeComplete(int index) {
+        return mEnds[index] >= 0 && mStarts[index] + mWritten[index] > mEnds[index];
+    }
+
+    private Response<String> discard(String reason) {
+        VolleyLog.e("%s: %s", reason, mUrl);
+        mDiscarded = true;
+        mPartialFile.delete();
+        mMetaFile.delete();
+        return Response.error(new FileError(reason + ": " + mUrl));
+    }
+
+    private void saveMeta() {
+        if (null == mValidator) {
+            return;
+        }
+        File tmp = new File(mMetaFile.getParentFile(), mMetaFile.getName() + ".tmp");
+        DataOutputStream dos = null;
+        try {
+            dos = new DataOutputStream(new FileOutputStream(tmp));
+            dos.writeInt(META_MAGIC);
+            dos.writeLong(mTotal);
+            dos.writeUTF(mValidator);
+            dos.writeInt(mStarts.length);
+            for (int i = 0; i < mStarts.length; i++) {
+                dos.writeLong(mStarts[i]);
+                dos.writeLong(mEnds[i]);
+                dos.writeLong(mWritten[i]);
+            }
+            dos.close();
+            dos = null;
+            if (!tmp.renameTo(mMetaFile)) {
+                VolleyLog.d("Could not save progress of %s", mUrl);
+            }
+        } catch (IOException e) {
+            VolleyLog.d("Could not save progress of %s: %s", mUrl, e.toString());
+        } finally {
+            VolleyUtil.safeClose(dos);
+        }
+    }
+
+    private boolean loadMeta() {
+        if (!mMetaFile.exists() || !mPartialFile.exists()) {
+            return false;
+        }
+        DataInputStream dis = null;
+        try {
+            dis = new DataInputStream(new FileInputStream(mMetaFile));
+            if (dis.readInt() != META_MAGIC) {
+                return false;
+            }
+            long total = dis.readLong();
+            String validator = dis.readUTF();
+            int count = dis.readInt();
+            if (total <= 0 || count <= 0 || count > total) {
+                return false;
+            }
+            long[] starts = new long[count];
+            long[] ends = new long[count];
+            long[] written = new long[count];
+            for (int i = 0; i < count; i++) {
+                starts[i] = dis.readLong();
+                ends[i] = dis.readLong();
+                written[i] = dis.readLong();
+            }
+            synchronized (this) {
+                mTotal = total;
+                mValidator = validator;
+                mStarts = starts;
+                mEnds = ends;
+                mWritten = written;
+                mRemaining = 0;
+                for (int i = 0; i < count; i++) {
+                    if (!isRangeComplete(i)) {
+                        mRemaining++;
+                    }
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            VolleyLog.d("Could not read progress of %s: %s", mUrl, e.toString());
+            return false;
+        } finally {
+            VolleyUtil.safeClose(dis);
+        }
+    }
+
+    private static String getValidator(Map<String, String> headers) {
+        String etag = getHeader(headers, "ETag");
+        // 弱ETag不能用于If-Range
+        if (null != etag && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return getHeader(headers, "Last-Modified");
+    }
+
+    /** 返回Content-Length，没有或格式错误时返回-1 */
+    private static long getContentLength(Map<String, String> headers) {
+        String value = getHeader(headers, "Content-Length");
+        if (null == value) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String getHeader(Map<String, String> headers, String name) {
+        if (null == headers) {
+            return null;
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey())) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 解析"bytes first-last/total"，返回{first, last, total}，total未知时为-1，格式错误返回null。
+     */
+    private static long[] parseContentRange(String value) {
+        if (null == value || !value.startsWith("bytes ")) {
+            return null;
+        }
+        try {
+            int dash = value.indexOf('-');
+            int slash = value.indexOf('/');
+            if (dash < 0 || slash < dash) {
+                return null;
+            }
+            long first = Long.parseLong(value.substring(6, dash).trim());
+            long last = Long.parseLong(value.substring(dash + 1, slash).trim());
+            String total = value.substring(slash + 1).trim();
+            return new long[] {first, last, "*".equals(total) ? -1 : Long.parseLong(total)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
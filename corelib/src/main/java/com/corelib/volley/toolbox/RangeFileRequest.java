@@ -0,0 +1,77 @@
+package com.corelib.volley.toolbox;
+
+import com.corelib.volley.AuthFailureError;
+import com.corelib.volley.NetworkResponse;
+import com.corelib.volley.Request;
+import com.corelib.volley.Response;
+import com.corelib.volley.VolleyError;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 分段下载中的一段，通过HTTP Range请求写入未完成文件的对应位置。
+ *
+ * 不要直接使用本请求，应该使用FileLoader。最后完成的一段返回缓存文件名，其余各段返回null。
+ */
+public class RangeFileRequest extends Request<String> {
+
+    private final RangeDownload mDownload;
+    private final int mIndex;
+    private final Response.Listener<String> mListener;
+
+    /* package */RangeFileRequest(String url, RangeDownload download, int index,
+                                  Response.Listener<String> listener) {
+        super(Method.GET, url, null);
+        mDownload = download;
+        mIndex = index;
+        mListener = listener;
+        // 各段URL相同，不能按缓存键排队等待
+        setShouldCache(false);
+    }
+
+    /* package */int getIndex() {
+        return mIndex;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() throws AuthFailureError {
+        Map<String, String> headers = new HashMap<String, String>(super.getHeaders());
+        mDownload.addRangeHeaders(mIndex, headers);
+        return headers;
+    }
+
+    @Override
+    public boolean shouldStreamResponse() {
+        return true;
+    }
+
+    @Override
+    protected Response<String> parseNetworkResponse(NetworkResponse response) {
+        // 只有非2xx响应才会走到这里，而它们已在BasicNetwork中作为错误处理
+        return Response.error(new VolleyError("Range response was not streamed"));
+    }
+
+    @Override
+    protected Response<String> parseNetworkResponse(NetworkResponse response, InputStream body)
+            throws IOException {
+        if (mListener != null && response != null) {
+            mListener.onResponseHeadersAndData(response.headers, null, response.statusCode, response.isFroNetwork());
+        }
+        return mDownload.onRangeResponse(this, response, body);
+    }
+
+    @Override
+    protected void deliverResponse(String response) {
+        if (null != response) {
+            mListener.onResponse(response);
+        }
+    }
+
+    @Override
+    public void deliverError(VolleyError error) {
+        mDownload.onError(error);
+    }
+}
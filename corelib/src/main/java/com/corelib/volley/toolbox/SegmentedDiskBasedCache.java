@@ -0,0 +1,946 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.corelib.volley.toolbox;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.corelib.volley.Cache;
+import com.corelib.volley.VolleyLog;
+import com.corelib.volley.toolbox.DiskBasedCache.CacheHeader;
+import com.corelib.volley.toolbox.DiskBasedCache.CountingInputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache implementation that caches files directly onto the hard disk in the specified
+ * directory, using the same file format as {@link DiskBasedCache}.
+ * <p>
+ * The key space is split into independently locked segments, so lookups and writes for
+ * different keys do not contend with each other. Every change to the index is also appended
+ * to a journal of {@link CacheHeader} records, which lets {@link #initialize()} rebuild the
+ * index from one sequential file instead of opening every cache file. The journal is replayed
+ * on a background thread; until it is done, keys it hasn't reached yet are looked up by
+ * reading their file directly.
+ * <p>
+ * Like {@link DiskBasedCache}, the cache can return large entries as read-only mapped
+ * buffers instead of copying them onto the heap.
+ */
+public class SegmentedDiskBasedCache implements Cache {
+
+    /** Default maximum disk usage in bytes. */
+    private static final int DEFAULT_DISK_USAGE_BYTES = 5 * 1024 * 1024;
+
+    /** Default number of independently locked segments. */
+    private static final int DEFAULT_SEGMENT_COUNT = 8;
+
+    /** High water mark percentage for each segment. */
+    private static final float HYSTERESIS_FACTOR = 0.9f;
+
+    /** Name of the journal file inside the root directory. */
+    private static final String JOURNAL_FILE = "journal";
+
+    /** Name of the journal file while it is being rebuilt. */
+    private static final String JOURNAL_FILE_TMP = "journal.tmp";
+
+    /** Magic number for current version of the journal format. */
+    private static final int JOURNAL_MAGIC = 0x20171228;
+
+    /** Journal record: a {@link CacheHeader} followed by the entry size. */
+    private static final int OP_PUT = 1;
+
+    /** Journal record: the key of a removed entry. */
+    private static final int OP_REMOVE = 2;
+
+    /** Number of superseded journal records after which the journal is rebuilt. */
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    /** The root directory to use for the cache. */
+    private final File mRootDirectory;
+
+    /** The maximum size of each segment in bytes. */
+    private final long mMaxSegmentSizeInBytes;
+
+    /** Whether get() maps entry files instead of reading them onto the heap. */
+    private final boolean mMapEntries;
+
+    /** The segments; their number is always a power of two. */
+    private final Segment[] mSegments;
+
+    /** Guards the journal writer and the counters below. */
+    private final Object mJournalLock = new Object();
+
+    /** Appends records to the journal, or null if the journal is not open. */
+    private OutputStream mJournalWriter;
+
+    /** Number of journal records that no longer describe a live entry. */
+    private int mRedundantOpCount = 0;
+
+    /** True if a change could not be written to the journal and it must be rebuilt. */
+    private boolean mJournalDirty = false;
+
+    /** True while the journal is being replayed. */
+    private volatile boolean mReplaying = false;
+
+    /** Released once the background part of {@link #initialize()} has ended. */
+    private final CountDownLatch mReplayDone = new CountDownLatch(1);
+
+    /** Wall clock time of {@link #initialize()}; older temp files are leftovers. */
+    private volatile long mInitTime;
+
+    /** Set by the first call to {@link #initialize()}; later calls are no-ops. */
+    private final AtomicBoolean mInitialized = new AtomicBoolean(false);
+
+    /**
+     * Incremented by {@link #clear()} while holding every segment lock, so that a replay in
+     * progress stops instead of restoring cleared entries.
+     */
+    private int mGeneration = 0;
+
+    /**
+     * Constructs an instance of the SegmentedDiskBasedCache at the specified directory.
+     * @param rootDirectory The root directory of the cache.
+     * @param maxCacheSizeInBytes The maximum size of the cache in bytes.
+     * @param segmentCount The number of independently locked segments; rounded up to a
+     *        power of two.
+     * @param mapEntries If true, entries are returned as read-only mapped buffers in
+     *     {@link Entry#buffer} rather than copied into {@link Entry#data}.
+     */
+    public SegmentedDiskBasedCache(File rootDirectory, int maxCacheSizeInBytes,
+            int segmentCount, boolean mapEntries) {
+        int count = 1;
+        while (count < segmentCount) {
+            count <<= 1;
+        }
+        mRootDirectory = rootDirectory;
+        mMapEntries = mapEntries;
+        mMaxSegmentSizeInBytes = maxCacheSizeInBytes / count;
+        mSegments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            mSegments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Constructs an instance of the SegmentedDiskBasedCache at the specified directory.
+     * @param rootDirectory The root directory of the cache.
+     * @param maxCacheSizeInBytes The maximum size of the cache in bytes.
+     * @param segmentCount The number of independently locked segments; rounded up to a
+     *        power of two.
+     */
+    public SegmentedDiskBasedCache(File rootDirectory, int maxCacheSizeInBytes,
+            int segmentCount) {
+        this(rootDirectory, maxCacheSizeInBytes, segmentCount, false);
+    }
+
+    /**
+     * Constructs an instance of the SegmentedDiskBasedCache at the specified directory
+     * using the default number of segments.
+     * @param rootDirectory The root directory of the cache.
+     * @param maxCacheSizeInBytes The maximum size of the cache in bytes.
+     * @param mapEntries If true, entries are returned as read-only mapped buffers in
+     *     {@link Entry#buffer} rather than copied into {@link Entry#data}.
+     */
+    public SegmentedDiskBasedCache(File rootDirectory, int maxCacheSizeInBytes,
+            boolean mapEntries) {
+        this(rootDirectory, maxCacheSizeInBytes, DEFAULT_SEGMENT_COUNT, mapEntries);
+    }
+
+    /**
+     * Constructs an instance of the SegmentedDiskBasedCache at the specified directory
+     * using the default number of segments.
+     * @param rootDirectory The root directory of the cache.
+     * @param maxCacheSizeInBytes The maximum size of the cache in bytes.
+     */
+    public SegmentedDiskBasedCache(File rootDirectory, int maxCacheSizeInBytes) {
+        this(rootDirectory, maxCacheSizeInBytes, false);
+    }
+
+    /**
+     * Constructs an instance of the SegmentedDiskBasedCache at the specified directory
+     * using the default maximum cache size of 5MB.
+     * @param rootDirectory The root directory of the cache.
+     */
+    public SegmentedDiskBasedCache(File rootDirectory) {
+        this(rootDirectory, DEFAULT_DISK_USAGE_BYTES);
+    }
+
+    /**
+     * Clears the cache. Deletes all cached files from disk.
+     */
+    @Override
+    public void clear() {
+        lockAll();
+        try {
+            synchronized (mJournalLock) {
+                closeJournalWriter();
+                File[] files = mRootDirectory.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+                for (Segment segment : mSegments) {
+                    segment.entries.clear();
+                    segment.totalSize = 0;
+                }
+                mGeneration++;
+                writeJournal();
+            }
+        } finally {
+            unlockAll();
+        }
+        VolleyLog.d("Cache cleared.");
+    }
+
+    /**
+     * Returns the cache entry with the specified key if it exists, null otherwise.
+     */
+    @Override
+    public Entry get(String key) {
+        Segment segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            return getLocked(segment, key);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Initializes the cache by replaying the journal, or by scanning all files in the root
+     * directory if there is no journal yet. Creates the root directory if necessary.
+     * <p>
+     * The replay runs on a background thread and this method returns right away, so that
+     * the cache dispatcher can serve requests meanwhile. Only the first call has an effect;
+     * queues may share one instance.
+     */
+    @Override
+    public void initialize() {
+        if (!mInitialized.compareAndSet(false, true)) {
+            return;
+        }
+        mInitTime = System.currentTimeMillis();
+        if (!mRootDirectory.exists()) {
+            if (!mRootDirectory.mkdirs()) {
+                VolleyLog.e("Unable to create cache dir %s", mRootDirectory.getAbsolutePath());
+                mReplayDone.countDown();
+                return;
+            }
+            rebuildJournal();
+            mReplayDone.countDown();
+            return;
+        }
+
+        final File journal = new File(mRootDirectory, JOURNAL_FILE);
+        final boolean hasJournal = journal.exists();
+        // Changes made during the replay are appended after the records being replayed; the
+        // replay stops where the journal ended before them, so it never reads a record that
+        // is still being written.
+        final long journalLength = hasJournal ? journal.length() : 0;
+        if (hasJournal) {
+            synchronized (mJournalLock) {
+                openJournalWriter();
+            }
+        }
+        mReplaying = true;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    replay(hasJournal ? journal : null, journalLength);
+                } finally {
+                    mReplayDone.countDown();
+                }
+            }
+        }, "SegmentedDiskBasedCacheReplay");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Rebuilds the index from the first journalLength bytes of the journal, or from the files
+     * if journal is null, then compacts the journal if needed.
+     */
+    private void replay(File journal, long journalLength) {
+        long startTime = SystemClock.elapsedRealtime();
+        int generation = currentGeneration();
+        boolean rebuild;
+        try {
+            if (journal != null) {
+                rebuild = !replayJournal(journal, journalLength, generation);
+            } else {
+                scanFiles(generation);
+                rebuild = true;
+            }
+        } finally {
+            mReplaying = false;
+            for (Segment segment : mSegments) {
+                segment.lock.lock();
+                try {
+                    segment.touched.clear();
+                } finally {
+                    segment.lock.unlock();
+                }
+            }
+        }
+
+        synchronized (mJournalLock) {
+            rebuild |= mJournalDirty || mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD;
+        }
+        if (rebuild) {
+            rebuildJournal();
+        }
+
+        if (VolleyLog.DEBUG) {
+            VolleyLog.v("cache initialized from %s, %d ms", rebuild ? "scan" : "journal",
+                    SystemClock.elapsedRealtime() - startTime);
+        }
+    }
+
+    /**
+     * Waits for the replay started by {@link #initialize()}, including the journal compaction
+     * after it, to end.
+     * @return false if it is still running after the timeout
+     */
+    boolean awaitInitialized(long timeoutMs) throws InterruptedException {
+        return mInitialized.get() && mReplayDone.await(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private int currentGeneration() {
+        Segment segment = mSegments[0];
+        segment.lock.lock();
+        try {
+            return mGeneration;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Invalidates an entry in the cache.
+     * @param key Cache key
+     * @param fullExpire True to fully expire the entry, false to soft expire
+     */
+    @Override
+    public void invalidate(String key, boolean fullExpire) {
+        Segment segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            Entry entry = getLocked(segment, key);
+            if (entry != null) {
+                entry.softTtl = 0;
+                if (fullExpire) {
+                    entry.ttl = 0;
+                }
+                putLocked(segment, key, entry);
+            }
+        } finally {
+            segment.lock.unlock();
+        }
+        compactJournalIfNeeded();
+    }
+
+    /**
+     * Puts the entry with the specified key into the cache.
+     */
+    @Override
+    public void put(String key, Entry entry) {
+        Segment segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            putLocked(segment, key, entry);
+        } finally {
+            segment.lock.unlock();
+        }
+        compactJournalIfNeeded();
+    }
+
+    /**
+     * Removes the specified key from the cache if it exists.
+     */
+    @Override
+    public void remove(String key) {
+        Segment segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            removeLocked(segment, key);
+        } finally {
+            segment.lock.unlock();
+        }
+        compactJournalIfNeeded();
+    }
+
+    /**
+     * Returns a file object for the given cache key.
+     */
+    public File getFileForKey(String key) {
+        return new File(mRootDirectory, getFilenameForKey(key));
+    }
+
+    /**
+     * Creates a pseudo-unique filename for the specified cache key. Matches
+     * {@link DiskBasedCache} so that an existing cache directory can be adopted.
+     * @param key The key to generate a file name for.
+     * @return A pseudo-unique filename.
+     */
+    private String getFilenameForKey(String key) {
+        int firstHalfLength = key.length() / 2;
+        String localFilename = String.valueOf(key.substring(0, firstHalfLength).hashCode());
+        localFilename += String.valueOf(key.substring(firstHalfLength).hashCode());
+        return localFilename;
+    }
+
+    private Segment segmentFor(String key) {
+        int h = key.hashCode();
+        // Spread the high bits down, the low bits of String hashes are poorly distributed.
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return mSegments[h & (mSegments.length - 1)];
+    }
+
+    private void lockAll() {
+        for (Segment segment : mSegments) {
+            segment.lock.lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (int i = mSegments.length - 1; i >= 0; i--) {
+            mSegments[i].lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the entry back from disk. Caller must hold the segment lock.
+     */
+    private Entry getLocked(Segment segment, String key) {
+        CacheHeader entry = segment.entries.get(key);
+        if (entry == null) {
+            // The replay may not have reached this key yet.
+            if (mReplaying && !segment.touched.contains(key)) {
+                return getUnindexedLocked(segment, key);
+            }
+            return null;
+        }
+
+        File file = getFileForKey(key);
+        CountingInputStream cis = null;
+        try {
+            if (mMapEntries && entry.size >= DiskBasedCache.MIN_MAPPED_FILE_BYTES) {
+                return DiskBasedCache.mapEntry(entry, file);
+            }
+            cis = new CountingInputStream(new FileInputStream(file));
+            CacheHeader.readHeader(cis); // eat header
+            byte[] data = DiskBasedCache.streamToBytes(cis,
+                    (int) (file.length() - cis.bytesRead));
+            return entry.toCacheEntry(data);
+        } catch (IOException e) {
+            VolleyLog.d("%s: %s", file.getAbsolutePath(), e.toString());
+            removeLocked(segment, key);
+            return null;
+        } finally {
+            VolleyUtil.safeClose(cis);
+        }
+    }
+
+    /**
+     * Reads an entry the replay hasn't indexed yet straight from its file, and indexes it.
+     * Caller must hold the segment lock.
+     */
+    private Entry getUnindexedLocked(Segment segment, String key) {
+        File file = getFileForKey(key);
+        if (!file.exists()) {
+            return null;
+        }
+        CountingInputStream cis = null;
+        try {
+            cis = new CountingInputStream(new FileInputStream(file));
+            CacheHeader entry = CacheHeader.readHeader(cis);
+            if (!key.equals(entry.key)) {
+                // Another key with the same file name.
+                return null;
+            }
+            entry.size = file.length();
+            byte[] data = DiskBasedCache.streamToBytes(cis,
+                    (int) (file.length() - cis.bytesRead));
+            // The file is newer than anything the journal still holds for this key.
+            putEntry(segment, entry);
+            return entry.toCacheEntry(data);
+        } catch (IOException e) {
+            VolleyLog.d("%s: %s", file.getAbsolutePath(), e.toString());
+            return null;
+        } finally {
+            VolleyUtil.safeClose(cis);
+        }
+    }
+
+    /**
+     * Writes the entry to disk and records it in the journal. Caller must hold the
+     * segment lock.
+     * <p>
+     * The entry is written to a temp file and renamed over the old one, so that a mapped
+     * buffer handed out for the old entry is never truncated.
+     */
+    private void putLocked(Segment segment, String key, Entry entry) {
+        byte[] data = entry.getData();
+        pruneIfNeeded(segment, data.length);
+        File file = getFileForKey(key);
+        File tmp = new File(mRootDirectory, file.getName() + DiskBasedCache.TMP_FILE_SUFFIX);
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(tmp);
+            CacheHeader e = new CacheHeader(key, entry);
+            e.writeHeader(fos);
+            fos.write(data);
+            fos.close();
+            fos = null;
+            if (tmp.renameTo(file)) {
+                boolean replaced = putEntry(segment, e);
+                appendPut(e, replaced);
+                return;
+            }
+        } catch (IOException e) {
+            VolleyUtil.safeClose(fos);
+        }
+        boolean deleted = tmp.delete();
+        if (!deleted) {
+            VolleyLog.d("Could not clean up file %s", tmp.getAbsolutePath());
+        }
+        // Whatever was there before is stale now.
+        file.delete();
+        if (segment.entries.containsKey(key)) {
+            removeEntry(segment, key);
+            appendRemove(key);
+        }
+    }
+
+    /**
+     * Removes the entry and its file. Caller must hold the segment lock.
+     */
+    private void removeLocked(Segment segment, String key) {
+        boolean deleted = getFileForKey(key).delete();
+        if (segment.entries.containsKey(key)) {
+            removeEntry(segment, key);
+            appendRemove(key);
+        } else if (mReplaying) {
+            segment.touched.add(key);
+        }
+        if (!deleted) {
+            VolleyLog.d("Could not delete cache entry for key=%s, filename=%s",
+                    key, getFilenameForKey(key));
+        }
+    }
+
+    /**
+     * Prunes a segment to fit the amount of bytes specified. Caller must hold the
+     * segment lock.
+     * @param neededSpace The amount of bytes we are trying to fit into the segment.
+     */
+    private void pruneIfNeeded(Segment segment, int neededSpace) {
+        if ((segment.totalSize + neededSpace) < mMaxSegmentSizeInBytes) {
+            return;
+        }
+        if (VolleyLog.DEBUG) {
+            VolleyLog.v("Pruning old cache entries.");
+        }
+
+        long before = segment.totalSize;
+        int prunedFiles = 0;
+        long startTime = SystemClock.elapsedRealtime();
+
+        Iterator<Map.Entry<String, CacheHeader>> iterator =
+                segment.entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, CacheHeader> entry = iterator.next();
+            CacheHeader e = entry.getValue();
+            boolean deleted = getFileForKey(e.key).delete();
+            if (deleted) {
+                segment.totalSize -= e.size;
+            } else {
+                VolleyLog.d("Could not delete cache entry for key=%s, filename=%s",
+                        e.key, getFilenameForKey(e.key));
+            }
+            iterator.remove();
+            appendRemove(e.key);
+            prunedFiles++;
+
+            if ((segment.totalSize + neededSpace)
+                    < mMaxSegmentSizeInBytes * HYSTERESIS_FACTOR) {
+                break;
+            }
+        }
+
+        if (VolleyLog.DEBUG) {
+            VolleyLog.v("pruned %d files, %d bytes, %d ms", prunedFiles,
+                    (segment.totalSize - before), SystemClock.elapsedRealtime() - startTime);
+        }
+    }
+
+    /**
+     * Puts the entry into the segment index. Caller must hold the segment lock.
+     * @return true if an existing entry was replaced.
+     */
+    private boolean putEntry(Segment segment, CacheHeader entry) {
+        CacheHeader oldEntry = segment.entries.put(entry.key, entry);
+        if (oldEntry == null) {
+            segment.totalSize += entry.size;
+        } else {
+            segment.totalSize += (entry.size - oldEntry.size);
+        }
+        if (mReplaying) {
+            segment.touched.add(entry.key);
+        }
+        return oldEntry != null;
+    }
+
+    /**
+     * Removes the entry from the segment index. Caller must hold the segment lock.
+     */
+    private void removeEntry(Segment segment, String key) {
+        CacheHeader entry = segment.entries.remove(key);
+        if (entry != null) {
+            segment.totalSize -= entry.size;
+        }
+        if (mReplaying) {
+            segment.touched.add(key);
+        }
+    }
+
+    /**
+     * Rebuilds the index from the records in the first length bytes of the journal.
+     * @return false if the journal is unreadable or has a truncated tail and must be rebuilt.
+     */
+    private boolean replayJournal(File journal, long length, int generation) {
+        FileInputStream fis = null;
+        int records = 0;
+        try {
+            fis = new FileInputStream(journal);
+            // Records appended after length end up past the mapping, so a torn record at the
+            // old tail reads as truncated rather than running into them.
+            InputStream is = new ByteBufferInputStream(
+                    fis.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length));
+            if (DiskBasedCache.readInt(is) != JOURNAL_MAGIC) {
+                return false;
+            }
+            while (true) {
+                int op = is.read();
+                if (op == -1) {
+                    break;
+                }
+                if (op == OP_PUT) {
+                    CacheHeader entry = CacheHeader.readHeader(is);
+                    entry.size = DiskBasedCache.readLong(is);
+                    if (!replayPut(entry, generation)) {
+                        // Cleared meanwhile; the journal was rewritten.
+                        return true;
+                    }
+                } else if (op == OP_REMOVE) {
+                    if (!replayRemove(DiskBasedCache.readString(is), generation)) {
+                        return true;
+                    }
+                } else {
+                    throw new IOException("Unknown journal op " + op);
+                }
+                records++;
+            }
+            synchronized (mJournalLock) {
+                mRedundantOpCount += Math.max(0, records - entryCount());
+            }
+            return true;
+        } catch (EOFException e) {
+            VolleyLog.d("Truncated cache journal after %d records", records);
+            return false;
+        } catch (IOException e) {
+            VolleyLog.d("Unreadable cache journal: %s", e.toString());
+            return false;
+        } finally {
+            VolleyUtil.safeClose(fis);
+        }
+    }
+
+    /**
+     * @return false if the cache has been cleared since the replay started
+     */
+    private boolean replayPut(CacheHeader entry, int generation) {
+        Segment segment = segmentFor(entry.key);
+        segment.lock.lock();
+        try {
+            if (generation != mGeneration) {
+                return false;
+            }
+            // A live put or remove for this key is newer than anything in the journal.
+            if (!segment.touched.contains(entry.key)) {
+                CacheHeader oldEntry = segment.entries.put(entry.key, entry);
+                segment.totalSize += entry.size - (oldEntry == null ? 0 : oldEntry.size);
+            }
+            return true;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * @return false if the cache has been cleared since the replay started
+     */
+    private boolean replayRemove(String key, int generation) {
+        Segment segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            if (generation != mGeneration) {
+                return false;
+            }
+            if (!segment.touched.contains(key)) {
+                CacheHeader oldEntry = segment.entries.remove(key);
+                if (oldEntry != null) {
+                    segment.totalSize -= oldEntry.size;
+                }
+            }
+            return true;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Rebuilds the index by reading the header of every file in the root directory. Only
+     * used when there is no journal yet, e.g. for a directory written by
+     * {@link DiskBasedCache}.
+     */
+    private void scanFiles(int generation) {
+        File[] files = mRootDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (JOURNAL_FILE.equals(name) || JOURNAL_FILE_TMP.equals(name)) {
+                continue;
+            }
+            if (name.endsWith(DiskBasedCache.TMP_FILE_SUFFIX)) {
+                // Left over from a put that didn't finish, unless a put is writing it now.
+                if (file.lastModified() < mInitTime) {
+                    file.delete();
+                }
+                continue;
+            }
+            FileInputStream fis = null;
+            try {
+                fis = new FileInputStream(file);
+                CacheHeader entry = CacheHeader.readHeader(fis);
+                entry.size = file.length();
+                if (!replayPut(entry, generation)) {
+                    return;
+                }
+            } catch (IOException e) {
+                file.delete();
+            } finally {
+                VolleyUtil.safeClose(fis);
+            }
+        }
+    }
+
+    private int entryCount() {
+        int count = 0;
+        for (Segment segment : mSegments) {
+            segment.lock.lock();
+            try {
+                count += segment.entries.size();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return count;
+    }
+
+    private void appendPut(CacheHeader entry, boolean replaced) {
+        synchronized (mJournalLock) {
+            if (mJournalWriter == null) {
+                mJournalDirty = true;
+                return;
+            }
+            try {
+                mJournalWriter.write(OP_PUT);
+                if (!entry.writeHeader(mJournalWriter)) {
+                    throw new IOException("Could not write header for " + entry.key);
+                }
+                DiskBasedCache.writeLong(mJournalWriter, entry.size);
+                mJournalWriter.flush();
+                if (replaced) {
+                    mRedundantOpCount++;
+                }
+            } catch (IOException e) {
+                onJournalWriteFailed(e);
+            }
+        }
+    }
+
+    private void appendRemove(String key) {
+        synchronized (mJournalLock) {
+            if (mJournalWriter == null) {
+                mJournalDirty = true;
+                return;
+            }
+            try {
+                mJournalWriter.write(OP_REMOVE);
+                DiskBasedCache.writeString(mJournalWriter, key);
+                mJournalWriter.flush();
+                mRedundantOpCount++;
+            } catch (IOException e) {
+                onJournalWriteFailed(e);
+            }
+        }
+    }
+
+    /**
+     * Caller must hold the journal lock.
+     */
+    private void onJournalWriteFailed(IOException e) {
+        VolleyLog.d("Cache journal write failed: %s", e.toString());
+        closeJournalWriter();
+        mJournalDirty = true;
+    }
+
+    /**
+     * Rewrites the journal if enough of its records have been superseded. Must not be
+     * called while holding a segment lock.
+     */
+    private void compactJournalIfNeeded() {
+        if (mReplaying) {
+            return;
+        }
+        synchronized (mJournalLock) {
+            if (!mJournalDirty && mRedundantOpCount < REDUNDANT_OP_COMPACT_THRESHOLD) {
+                return;
+            }
+        }
+        rebuildJournal();
+    }
+
+    /**
+     * Replaces the journal with one PUT record per live entry.
+     */
+    private void rebuildJournal() {
+        lockAll();
+        try {
+            synchronized (mJournalLock) {
+                closeJournalWriter();
+                writeJournal();
+            }
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Writes a fresh journal from the index and reopens the writer. Caller must hold all
+     * segment locks and the journal lock.
+     */
+    private void writeJournal() {
+        File tmp = new File(mRootDirectory, JOURNAL_FILE_TMP);
+        OutputStream os = null;
+        try {
+            os = new BufferedOutputStream(new FileOutputStream(tmp));
+            DiskBasedCache.writeInt(os, JOURNAL_MAGIC);
+            int live = 0;
+            for (Segment segment : mSegments) {
+                for (CacheHeader entry : segment.entries.values()) {
+                    os.write(OP_PUT);
+                    entry.writeHeader(os);
+                    DiskBasedCache.writeLong(os, entry.size);
+                    live++;
+                }
+            }
+            os.close();
+            os = null;
+            if (!tmp.renameTo(new File(mRootDirectory, JOURNAL_FILE))) {
+                throw new IOException("Could not rename " + tmp.getAbsolutePath());
+            }
+            mRedundantOpCount = 0;
+            mJournalDirty = false;
+            openJournalWriter();
+            if (VolleyLog.DEBUG) {
+                VolleyLog.v("Rebuilt cache journal with %d entries", live);
+            }
+        } catch (IOException e) {
+            VolleyUtil.safeClose(os);
+            tmp.delete();
+            VolleyLog.d("Could not rebuild cache journal: %s", e.toString());
+            mJournalDirty = true;
+        }
+    }
+
+    /**
+     * Caller must hold the journal lock.
+     */
+    private void openJournalWriter() {
+        if (mJournalWriter != null) {
+            return;
+        }
+        try {
+            mJournalWriter = new BufferedOutputStream(
+                    new FileOutputStream(new File(mRootDirectory, JOURNAL_FILE), true));
+        } catch (IOException e) {
+            VolleyLog.d("Could not open cache journal: %s", e.toString());
+            mJournalDirty = true;
+        }
+    }
+
+    /**
+     * Caller must hold the journal lock.
+     */
+    private void closeJournalWriter() {
+        VolleyUtil.safeClose(mJournalWriter);
+        mJournalWriter = null;
+    }
+
+    /**
+     * A lock-protected slice of the index.
+     */
+    private static class Segment {
+        /** Guards every field of this segment. */
+        final ReentrantLock lock = new ReentrantLock();
+
+        /** Map of the Key, CacheHeader pairs, in access order. */
+        final Map<String, CacheHeader> entries =
+                new LinkedHashMap<String, CacheHeader>(16, .75f, true);
+
+        /** Keys changed by callers while the journal is being replayed. */
+        final Set<String> touched = new HashSet<String>();
+
+        /** Total amount of space currently used by this segment in bytes. */
+        long totalSize = 0;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.corelib.volley.toolbox;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link ByteArrayPool} that takes and returns buffers in constant time, without a lock on
+ * the paths that reuse a buffer.
+ * <p>
+ * Buffers are pooled in power-of-two size classes, so a request is served from the smallest
+ * class that fits it and the returned buffer may be up to twice the requested size. Each thread
+ * keeps a few buffers of each class for itself (its magazine) and only goes to a lock-free
+ * depot shared by all threads when its magazine is empty or full. Dispatcher threads that each
+ * take and return their own buffers therefore don't contend at all.
+ * <p>
+ * The size limit bounds all pooled buffers, those in the magazines as well as those in the
+ * depot. Instead of disposing of the least recently used buffers, buffers returned to a full
+ * pool are dropped. The buffers in the magazine of a thread that has died are moved to the
+ * depot the next time the pool runs short after the thread has been garbage collected, so they
+ * aren't lost to the limit. Dead threads are found through a {@link ReferenceQueue}, so a miss
+ * costs the same however many threads use the pool.
+ */
+public class SlabByteArrayPool extends ByteArrayPool {
+    /** The smallest size class, in bytes; smaller requests get a buffer of this size. */
+    private static final int MIN_CLASS_SIZE = 256;
+
+    /** log2 of {@link #MIN_CLASS_SIZE}. */
+    private static final int MIN_CLASS_SHIFT = 8;
+
+    /** Maximum number of buffers per size class kept by each thread. */
+    private static final int MAGAZINE_SIZE = 4;
+
+    /** The maximum aggregate size of the pooled buffers. */
+    private final int mSizeLimit;
+
+    /** Buffers shared by all threads, per size class. */
+    private final ConcurrentLinkedQueue<byte[]>[] mDepots;
+
+    /** Number of buffers each thread keeps, per size class. */
+    private final int[] mMagazineSizes;
+
+    /** The total size of the pooled buffers, in the magazines and in the depots. */
+    private final AtomicInteger mPooledSize = new AtomicInteger();
+
+    /** The magazines of every thread that has used the pool and not yet been collected. */
+    private final Set<Owner> mOwners =
+            Collections.newSetFromMap(new ConcurrentHashMap<Owner, Boolean>());
+
+    /** The owners whose thread has been garbage collected. */
+    private final ReferenceQueue<Thread> mDeadThreads = new ReferenceQueue<Thread>();
+
+    /** Each thread's own buffers, per size class. */
+    private final ThreadLocal<Magazine[]> mMagazines = new ThreadLocal<Magazine[]>() {
+        @Override
+        protected Magazine[] initialValue() {
+            Magazine[] magazines = new Magazine[mDepots.length];
+            for (int i = 0; i < magazines.length; i++) {
+                magazines[i] = new Magazine(mMagazineSizes[i]);
+            }
+            mOwners.add(new Owner(Thread.currentThread(), magazines, mDeadThreads));
+            return magazines;
+        }
+    };
+
+    /**
+     * @param sizeLimit the maximum size of the shared pool, in bytes. Buffers larger than this
+     *        are never pooled.
+     */
+    @SuppressWarnings("unchecked")
+    public SlabByteArrayPool(int sizeLimit) {
+        super(sizeLimit);
+        mSizeLimit = sizeLimit;
+        int classes = sizeLimit < MIN_CLASS_SIZE ? 0 : floorClass(sizeLimit) + 1;
+        mDepots = new ConcurrentLinkedQueue[classes];
+        mMagazineSizes = new int[classes];
+        for (int i = 0; i < classes; i++) {
+            mDepots[i] = new ConcurrentLinkedQueue<byte[]>();
+            mMagazineSizes[i] = Math.max(1, Math.min(MAGAZINE_SIZE, sizeLimit / classSize(i)));
+        }
+    }
+
+    private static int classSize(int sizeClass) {
+        return MIN_CLASS_SIZE << sizeClass;
+    }
+
+    /** Returns the largest size class whose buffers are no larger than len; len >= 256. */
+    private static int floorClass(int len) {
+        return 31 - Integer.numberOfLeadingZeros(len) - MIN_CLASS_SHIFT;
+    }
+
+    /** Returns the smallest size class whose buffers are at least len long. */
+    private static int ceilClass(int len) {
+        if (len <= MIN_CLASS_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(len - 1) - MIN_CLASS_SHIFT;
+    }
+
+    /**
+     * Returns a buffer from the pool if one is available in the requested size class, or
+     * allocates a new one if a pooled one is not available.
+     *
+     * @param len the minimum size, in bytes, of the requested buffer. The returned buffer may be
+     *        larger.
+     * @return a byte[] buffer is always returned.
+     */
+    @Override
+    public byte[] getBuf(int len) {
+        int sizeClass = ceilClass(len);
+        if (sizeClass >= mDepots.length) {
+            return new byte[len];
+        }
+        byte[] buf = mMagazines.get()[sizeClass].pop();
+        if (buf == null) {
+            buf = mDepots[sizeClass].poll();
+        }
+        if (buf == null && reclaimDeadMagazines()) {
+            buf = mDepots[sizeClass].poll();
+        }
+        if (buf != null) {
+            mPooledSize.addAndGet(-buf.length);
+            return buf;
+        }
+        return new byte[classSize(sizeClass)];
+    }
+
+    /**
+     * Returns a buffer to the pool. It is dropped if that would exceed the size limit,
+     * otherwise kept by the calling thread if its magazine has room, or put in the depot.
+     *
+     * @param buf the buffer to return to the pool.
+     */
+    @Override
+    public void returnBuf(byte[] buf) {
+        if (buf == null || buf.length < MIN_CLASS_SIZE || buf.length > mSizeLimit) {
+            return;
+        }
+        if (!reserve(buf.length)) {
+            return;
+        }
+        // A buffer allocated elsewhere may fall between classes; it still serves its floor.
+        int sizeClass = floorClass(buf.length);
+        if (!mMagazines.get()[sizeClass].push(buf)) {
+            mDepots[sizeClass].offer(buf);
+        }
+    }
+
+    /** Returns the total size of the pooled buffers. */
+    int getPooledSize() {
+        return mPooledSize.get();
+    }
+
+    /** Counts len more bytes as pooled, unless that would exceed the size limit. */
+    private boolean reserve(int len) {
+        while (true) {
+            int size = mPooledSize.get();
+            if (size + len > mSizeLimit) {
+                return false;
+            }
+            if (mPooledSize.compareAndSet(size, size + len)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Moves the buffers in the magazines of threads that have been collected to the depot. They
+     * stay counted as pooled.
+     *
+     * @return true if any buffer was moved
+     */
+    private boolean reclaimDeadMagazines() {
+        boolean reclaimed = false;
+        Owner owner;
+        // Once a thread has been collected its magazines no longer change. Each owner is
+        // polled from the queue by one thread only.
+        while ((owner = (Owner) mDeadThreads.poll()) != null) {
+            mOwners.remove(owner);
+            for (int i = 0; i < owner.mMagazines.length; i++) {
+                byte[] buf;
+                while ((buf = owner.mMagazines[i].pop()) != null) {
+                    mDepots[i].offer(buf);
+                    reclaimed = true;
+                }
+            }
+        }
+        return reclaimed;
+    }
+
+    /** The magazines of one thread, queued once the thread has been collected. */
+    private static class Owner extends WeakReference<Thread> {
+        final Magazine[] mMagazines;
+
+        Owner(Thread thread, Magazine[] magazines, ReferenceQueue<Thread> queue) {
+            super(thread, queue);
+            mMagazines = magazines;
+        }
+    }
+
+    /** A thread's own stack of buffers of one size class. */
+    private static class Magazine {
+        private final byte[][] mBuffers;
+        private int mCount = 0;
+
+        Magazine(int capacity) {
+            mBuffers = new byte[capacity][];
+        }
+
+        byte[] pop() {
+            if (mCount == 0) {
+                return null;
+            }
+            byte[] buf = mBuffers[--mCount];
+            mBuffers[mCount] = null;
+            return buf;
+        }
+
+        boolean push(byte[] buf) {
+            if (mCount == mBuffers.length) {
+                return false;
+            }
+            mBuffers[mCount++] = buf;
+            return true;
+        }
+    }
+}
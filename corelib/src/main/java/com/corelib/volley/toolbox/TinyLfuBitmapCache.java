@@ -0,0 +1,79 @@
+package com.corelib.volley.toolbox;
+
+import android.graphics.Bitmap;
+
+/**
+ * An {@link ImageLoader.ImageCache} that keeps frequently used images through scans of
+ * images seen once, following W-TinyLFU.
+ * <p>
+ * New images enter a small LRU admission window. Images falling out of the window compete
+ * for the main region with its least recently used image, and only get in if a count-min
+ * sketch of recent requests says they are asked for more often. The main region is a
+ * segmented LRU: images hit again while on probation move to the protected segment. One
+ * pass through a long gallery thus can't flush the avatars and logos every screen shows.
+ * <p>
+ * The cache is bounded by the sum of {@link #sizeOf(String, Bitmap)}, like
+ * {@link BitmapCache}. Lookups don't lock: the accesses they record are buffered and applied
+ * to the policy by whichever thread next gets the lock, and dropped if the buffer is full.
+ * If asked, evicted bitmaps go to the {@link BitmapPool} once no longer displayed.
+ * The policy itself is in {@link TinyLfuCache}.
+ */
+public class TinyLfuBitmapCache extends TinyLfuCache<Bitmap> implements ImageLoader.ImageCache {
+    /** Default size of the cache */
+    private static final int DEFAULT_MAX_SIZE = 4 * 1024 * 1024;
+
+    /** Whether evicted bitmaps go to the {@link BitmapPool} once no longer displayed */
+    private final boolean mPoolEvictedBitmaps;
+
+    public TinyLfuBitmapCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize Maximum sum of the sizes of the cached bitmaps
+     */
+    public TinyLfuBitmapCache(int maxSize) {
+        this(maxSize, false);
+    }
+
+    /**
+     * @param maxSize Maximum sum of the sizes of the cached bitmaps
+     * @param poolEvictedBitmaps Whether to hand evicted bitmaps to the {@link BitmapPool}, see
+     *     {@link BitmapCache#BitmapCache(int, boolean)}
+     */
+    public TinyLfuBitmapCache(int maxSize, boolean poolEvictedBitmaps) {
+        super(maxSize);
+        mPoolEvictedBitmaps = poolEvictedBitmaps;
+    }
+
+    /**
+     * Returns the size of an entry, in the units of the maximum size. The default is the
+     * bitmap's size in bytes.
+     */
+    @Override
+    protected int sizeOf(String key, Bitmap value) {
+        return value.getRowBytes() * value.getHeight();
+    }
+
+    @Override
+    public Bitmap getBitmap(String url) {
+        return get(url);
+    }
+
+    @Override
+    public void putBitmap(String url, Bitmap bitmap) {
+        put(url, bitmap);
+    }
+
+    /**
+     * Called for images leaving the cache. If pooling was asked for, evicted bitmaps are
+     * offered to the {@link BitmapPool}, which takes them once no container displays them;
+     * removed or replaced ones are left alone, as they may still be displayed.
+     */
+    @Override
+    protected void entryRemoved(boolean evicted, String key, Bitmap oldValue) {
+        if (evicted && mPoolEvictedBitmaps && oldValue != null) {
+            VolleyConfig.getBitmapPool().offerEvicted(oldValue);
+        }
+    }
+}
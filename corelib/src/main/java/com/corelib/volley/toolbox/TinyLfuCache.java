@@ -0,0 +1,412 @@
+package com.corelib.volley.toolbox;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A cache bounded by the sum of {@link #sizeOf(String, Object)} that keeps frequently used
+ * entries through scans of entries seen once, following W-TinyLFU. See
+ * {@link TinyLfuBitmapCache}, which caches bitmaps with it.
+ * <p>
+ * New entries enter a small LRU admission window. Entries falling out of the window compete
+ * for the main region with its least recently used entry, and only get in if a count-min
+ * sketch of recent requests says they are asked for more often. The main region is a
+ * segmented LRU: entries hit again while on probation move to the protected segment.
+ * <p>
+ * Lookups don't lock: the accesses they record are buffered and applied to the policy by
+ * whichever thread next gets the lock, and dropped if the buffer is full.
+ */
+class TinyLfuCache<V> {
+    /**
+     * Share of the size given to the admission window, in percent. Larger than the usual 1%,
+     * as a single image takes up a good part of an image cache.
+     */
+    private static final int WINDOW_PERCENT = 10;
+
+    /** Share of the main region given to the protected segment, in percent */
+    private static final int PROTECTED_PERCENT = 80;
+
+    /** Typical entry size, an image in bytes, used to size the frequency sketch */
+    private static final int AVERAGE_ENTRY_SIZE = 16 * 1024;
+
+    /** Maximum number of recorded accesses waiting to be applied */
+    private static final int READ_BUFFER_SIZE = 128;
+
+    /* package */ static final int WINDOW = 0;
+    /* package */ static final int PROBATION = 1;
+    /* package */ static final int PROTECTED = 2;
+
+    private final ConcurrentMap<String, Node<V>> mMap =
+            new ConcurrentHashMap<String, Node<V>>();
+
+    /** Guards the policy: the queues, their sizes and the sketch */
+    private final ReentrantLock mLock = new ReentrantLock();
+
+    /** Keys looked up, to be counted in the sketch and, if cached, marked as used */
+    private final Queue<String> mReadBuffer = new ConcurrentLinkedQueue<String>();
+    private final AtomicInteger mReadBufferSize = new AtomicInteger();
+
+    private final FrequencySketch mSketch;
+
+    /** LRU queues of each region, least recently used first */
+    private final Node<V>[] mQueues = newQueues();
+    private final int[] mQueueSizes = new int[3];
+
+    private final int mMaxSize;
+    private final int mMaxWindowSize;
+    private final int mMaxProtectedSize;
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    /**
+     * @param maxSize Maximum sum of the sizes of the cached entries
+     */
+    TinyLfuCache(int maxSize) {
+        mMaxSize = maxSize;
+        mMaxWindowSize = maxSize / 100 * WINDOW_PERCENT;
+        mMaxProtectedSize = (maxSize - mMaxWindowSize) / 100 * PROTECTED_PERCENT;
+        mSketch = new FrequencySketch(Math.max(maxSize / AVERAGE_ENTRY_SIZE, 64));
+    }
+
+    /**
+     * Returns the size of an entry, in the units of the maximum size. The default is 1.
+     */
+    protected int sizeOf(String key, V value) {
+        return 1;
+    }
+
+    /**
+     * Returns the entry of the given key, or null if not cached.
+     */
+    public V get(String key) {
+        Node<V> node = mMap.get(key);
+        if (node == null) {
+            mMissCount.incrementAndGet();
+        } else {
+            mHitCount.incrementAndGet();
+        }
+        recordRead(key);
+        return node != null ? node.value : null;
+    }
+
+    /**
+     * Caches the given entry under the given key, replacing any entry cached under it.
+     */
+    public void put(String key, V value) {
+        if (key == null || value == null) {
+            return;
+        }
+        int size = sizeOf(key, value);
+        mLock.lock();
+        try {
+            // The lookup that missed before this put has counted the request already.
+            drainReadBuffer();
+            Node<V> node = mMap.get(key);
+            if (node != null) {
+                V old = node.value;
+                node.value = value;
+                mQueueSizes[node.queue] += size - node.size;
+                node.size = size;
+                onAccess(node);
+                if (old != value) {
+                    // Replaced, not evicted; it may well still be in use.
+                    entryRemoved(false, key, old);
+                }
+            } else if (size <= mMaxSize) {
+                node = new Node<V>(key, value, size);
+                mMap.put(key, node);
+                append(WINDOW, node);
+            }
+            evict();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Removes the entry of the given key, if cached.
+     */
+    public void remove(String key) {
+        mLock.lock();
+        try {
+            Node<V> node = mMap.remove(key);
+            if (node != null) {
+                unlink(node);
+                entryRemoved(false, key, node.value);
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Called for entries leaving the cache, evicted to make room or removed or replaced.
+     */
+    protected void entryRemoved(boolean evicted, String key, V oldValue) {
+    }
+
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /** Share of lookups that were hits, or 0 before the first lookup */
+    public float getHitRate() {
+        long hits = mHitCount.get();
+        long requests = hits + mMissCount.get();
+        return requests == 0 ? 0f : (float) hits / requests;
+    }
+
+    /** Sum of the sizes of the cached entries */
+    public int size() {
+        mLock.lock();
+        try {
+            return mQueueSizes[WINDOW] + mQueueSizes[PROBATION] + mQueueSizes[PROTECTED];
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the region the entry of the given key is in, {@link #WINDOW},
+     * {@link #PROBATION} or {@link #PROTECTED}, or -1 if not cached.
+     */
+    /* package */ int getRegion(String key) {
+        mLock.lock();
+        try {
+            drainReadBuffer();
+            Node<V> node = mMap.get(key);
+            return node != null ? node.queue : -1;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[size=%d/%d, hits=%d, misses=%d]", getClass().getSimpleName(),
+                size(), mMaxSize, mHitCount.get(), mMissCount.get());
+    }
+
+    private void recordRead(String key) {
+        if (mReadBufferSize.get() < READ_BUFFER_SIZE) {
+            mReadBufferSize.incrementAndGet();
+            mReadBuffer.add(key);
+        }
+        if (mLock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                mLock.unlock();
+            }
+        }
+    }
+
+    /** Applies the buffered reads to the policy. Must hold the lock. */
+    private void drainReadBuffer() {
+        String key;
+        while ((key = mReadBuffer.poll()) != null) {
+            mReadBufferSize.decrementAndGet();
+            mSketch.increment(key);
+            Node<V> node = mMap.get(key);
+            if (node != null) {
+                onAccess(node);
+            }
+        }
+    }
+
+    /** Moves a used entry to where the policy keeps it. Must hold the lock. */
+    private void onAccess(Node<V> node) {
+        switch (node.queue) {
+            case WINDOW:
+            case PROTECTED:
+                unlink(node);
+                append(node.queue, node);
+                break;
+            case PROBATION:
+                unlink(node);
+                append(PROTECTED, node);
+                // Make room by demoting the least recently used protected entries.
+                while (mQueueSizes[PROTECTED] > mMaxProtectedSize) {
+                    Node<V> demoted = mQueues[PROTECTED].next;
+                    unlink(demoted);
+                    append(PROBATION, demoted);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Moves entries over the window's size into the main region if they are used more often
+     * than the entries they would push out. Must hold the lock.
+     */
+    private void evict() {
+        while (mQueueSizes[WINDOW] > mMaxWindowSize) {
+            Node<V> candidate = mQueues[WINDOW].next;
+            unlink(candidate);
+            append(PROBATION, candidate);
+            int candidateFrequency = mSketch.frequency(candidate.key);
+            while (mQueueSizes[WINDOW] + mQueueSizes[PROBATION] + mQueueSizes[PROTECTED]
+                    > mMaxSize) {
+                Node<V> victim = mQueues[PROBATION].next;
+                if (victim == candidate) {
+                    // Probation holds nothing older; compete with the protected segment.
+                    victim = mQueues[PROTECTED].next != mQueues[PROTECTED]
+                            ? mQueues[PROTECTED].next : candidate;
+                }
+                if (victim != candidate
+                        && candidateFrequency <= mSketch.frequency(victim.key)) {
+                    victim = candidate;
+                }
+                evictEntry(victim);
+                if (victim == candidate) {
+                    break;
+                }
+            }
+        }
+        // A replaced entry may have grown.
+        while (mQueueSizes[WINDOW] + mQueueSizes[PROBATION] + mQueueSizes[PROTECTED] > mMaxSize) {
+            for (Node<V> sentinel : mQueues) {
+                if (sentinel.next != sentinel) {
+                    evictEntry(sentinel.next);
+                    break;
+                }
+            }
+        }
+    }
+
+    private void evictEntry(Node<V> node) {
+        unlink(node);
+        mMap.remove(node.key, node);
+        entryRemoved(true, node.key, node.value);
+    }
+
+    private void append(int queue, Node<V> node) {
+        Node<V> sentinel = mQueues[queue];
+        node.queue = queue;
+        node.prev = sentinel.prev;
+        node.next = sentinel;
+        sentinel.prev.next = node;
+        sentinel.prev = node;
+        mQueueSizes[queue] += node.size;
+    }
+
+    private void unlink(Node<V> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+        mQueueSizes[node.queue] -= node.size;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Node<V>[] newQueues() {
+        Node<V>[] queues = new Node[3];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new Node<V>(null, null, 0);
+            queues[i].prev = queues[i];
+            queues[i].next = queues[i];
+        }
+        return queues;
+    }
+
+    private static class Node<V> {
+        final String key;
+        volatile V value;
+        int size;
+        int queue;
+        Node<V> prev;
+        Node<V> next;
+
+        Node(String key, V value, int size) {
+            this.key = key;
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A count-min sketch of 4-bit counters estimating how often each key was requested. All
+     * counters are halved once the number of increments reaches ten times the number of
+     * entries, so that the estimates follow recent popularity.
+     */
+    private static class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = { 0x97cb3127, 0x8b3aa2b5, 0xc2b2ae35, 0x27d4eb2f };
+
+        /**
+         * Counters per row for each entry the cache holds. Requests also count keys that are
+         * never cached, so with one counter per entry most counters are shared and images seen
+         * once look as frequent as the ones they would push out.
+         */
+        private static final int COUNTERS_PER_ENTRY = 4;
+
+        /** Counters, one byte each, DEPTH rows of mWidth */
+        private final byte[] mTable;
+        private final int mMask;
+        private final int mSampleSize;
+        private int mIncrements = 0;
+
+        FrequencySketch(int expectedEntries) {
+            int entries = Math.max(expectedEntries, 16);
+            int width = Integer.highestOneBit(entries * COUNTERS_PER_ENTRY - 1) << 1;
+            mTable = new byte[width * DEPTH];
+            mMask = width - 1;
+            mSampleSize = entries * 10;
+        }
+
+        int frequency(String key) {
+            int hash = spread(key.hashCode());
+            int min = MAX_COUNT;
+            for (int i = 0; i < DEPTH; i++) {
+                min = Math.min(min, mTable[indexOf(hash, i)]);
+            }
+            return min;
+        }
+
+        void increment(String key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < DEPTH; i++) {
+                int index = indexOf(hash, i);
+                if (mTable[index] < MAX_COUNT) {
+                    mTable[index]++;
+                    added = true;
+                }
+            }
+            if (added && ++mIncrements >= mSampleSize) {
+                reset();
+            }
+        }
+
+        private void reset() {
+            for (int i = 0; i < mTable.length; i++) {
+                mTable[i] = (byte) (mTable[i] >> 1);
+            }
+            mIncrements /= 2;
+        }
+
+        private int indexOf(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * SEEDS[row];
+            h ^= h >>> 16;
+            return row * (mMask + 1) + (h & mMask);
+        }
+
+        private static int spread(int hash) {
+            hash *= 0x9e3779b9;
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
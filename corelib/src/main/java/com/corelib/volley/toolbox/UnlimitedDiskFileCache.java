@@ -1,32 +1,69 @@
 package com.corelib.volley.toolbox;
 
+import android.os.Process;
 import android.text.TextUtils;
 
 import com.corelib.volley.VolleyLog;
 import com.corelib.volley.toolbox.FileLoader.FileCache;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * 
- * @Description
+ * @Description 没有容量上限的磁盘文件缓存。文件先写入同目录的临时文件再改名，已有的同名文件被替换，
+ *              读到的文件总是完整的；崩溃留下的临时文件在{@link #init()}时删除。
  * @author xuegang
  * @version Created: 2014年11月13日 下午2:57:10
  */
 public class UnlimitedDiskFileCache implements FileCache {
+    /** 未完成下载所在的子目录 */
+    private static final String PARTIAL_DIRECTORY = ".partial";
+    /** 写入中的临时文件后缀，见{@link VolleyUtil#writeTempFile} */
+    protected static final String TEMP_FILE_SUFFIX = ".tmp";
+
     protected String mRootDirectoryPath;
     protected File mRootDirectory;
+    /** 创建时间，之前修改的临时文件是上次未写完留下的 */
+    private final long mCreateTime = System.currentTimeMillis();
 
     public UnlimitedDiskFileCache(String rootDirectoryPath) {
         mRootDirectoryPath = rootDirectoryPath;
     }
 
+    /**
+     * 在后台线程删除上次崩溃等未写完留下的临时文件，不等待完成。
+     */
     @Override
     public void init() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                deleteStaleTempFiles();
+            }
+        }, "FileCacheCleanup");
+        thread.setDaemon(true);
+        thread.start();
+    }
 
+    /**
+     * 删除根目录中早于本缓存创建的临时文件。之后创建的可能正在写入，不删除。
+     */
+    /* package */ void deleteStaleTempFiles() {
+        createRootDirectory();
+        File[] files = mRootDirectory.listFiles();
+        if (null == files) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isFile() && file.getName().endsWith(TEMP_FILE_SUFFIX)
+                    && file.lastModified() < mCreateTime && !file.delete()) {
+                VolleyLog.e("Could not delete temp file %s", file.getAbsolutePath());
+            }
+        }
     }
 
     @Override
@@ -88,37 +125,83 @@ public class UnlimitedDiskFileCache implements FileCache {
             return null;
         }
 
+        try {
+            return writeFile(fileName, new ByteArrayInputStream(data));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    @Override
+    public String putFile(String fileName, InputStream in) throws IOException {
+        if (null == mRootDirectory || !mRootDirectory.exists()) {
+            createRootDirectory();
+            if (null == mRootDirectory || !mRootDirectory.exists()) {
+                VolleyLog.e("DiskFileCache's root directory is null");
+                return null;
+            }
+        }
+
+        if (TextUtils.isEmpty(fileName) || null == in) {
+            VolleyLog.e("invalid parameter");
+            return null;
+        }
+
+        return writeFile(fileName, in);
+    }
+
+    /**
+     * 写入临时文件后改名为fileName。已有的同名文件被替换，改名是原子的，正在读旧文件的不受影响。
+     */
+    private String writeFile(String fileName, InputStream in) throws IOException {
         File file = new File(mRootDirectory, fileName);
-        if (file.exists()) {
-            return file.getAbsolutePath();
+        File tmp = VolleyUtil.writeTempFile(in, mRootDirectory, fileName);
+        if (tmp.length() == 0 || !tmp.renameTo(file)) {
+            tmp.delete();
+            return null;
         }
+        return file.getAbsolutePath();
+    }
 
-        try {
-            file.createNewFile();
-        } catch (IOException e1) {
-            e1.printStackTrace();
+    @Override
+    public File getPartialFile(String fileName) {
+        createRootDirectory();
+        if (null == mRootDirectory || TextUtils.isEmpty(fileName)) {
+            VolleyLog.e("invalid parameter");
             return null;
         }
 
-        try {
-            FileOutputStream fos = new FileOutputStream(file);
-            fos.write(data);
-            fos.flush();
-            fos.close();
-            return file.getAbsolutePath();
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (Exception e) {
-            e.printStackTrace();
+        File dir = new File(mRootDirectory, PARTIAL_DIRECTORY);
+        if (!dir.exists() && !dir.mkdirs()) {
+            VolleyLog.e("Unable to create partial dir %s", dir.getAbsolutePath());
+            return null;
         }
-        return null;
+        return new File(dir, fileName);
     }
 
     @Override
-    public void remove(String key) {
+    public String commitPartialFile(String fileName) {
+        File partial = getPartialFile(fileName);
+        if (null == partial || !partial.exists()) {
+            return null;
+        }
 
+        File file = new File(mRootDirectory, fileName);
+        if (!partial.renameTo(file)) {
+            VolleyLog.e("Could not commit partial file %s", partial.getAbsolutePath());
+            return null;
+        }
+        return file.getAbsolutePath();
+    }
+
+    @Override
+    public void remove(String key) {
+        createRootDirectory();
+        if (null == mRootDirectory || TextUtils.isEmpty(key)) {
+            return;
+        }
+        new File(mRootDirectory, key).delete();
     }
 
 }
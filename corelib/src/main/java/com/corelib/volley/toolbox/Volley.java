@@ -19,7 +19,10 @@ package com.corelib.volley.toolbox;
 import android.content.Context;
 import android.net.http.AndroidHttpClient;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 
+import com.corelib.volley.ExecutorDelivery;
 import com.corelib.volley.Network;
 import com.corelib.volley.RequestQueue;
 
@@ -40,7 +43,10 @@ public class Volley {
         // File cacheDir = new File(context.getCacheDir(), DEFAULT_CACHE_DIR);
         Network network = getDefaultNetwork(userAgent);
         // RequestQueue queue = new RequestQueue(new DiskBasedCache(cacheDir), network);
-        RequestQueue queue = new RequestQueue(new NoCache(), network);
+        // Responses are posted right away; those arriving before the main thread gets to the
+        // message are delivered from it too.
+        RequestQueue queue = new RequestQueue(new NoCache(), network,
+                new ExecutorDelivery(new Handler(Looper.getMainLooper()), 0));
         queue.start();
 
         return queue;
@@ -66,7 +72,8 @@ public class Volley {
         
         HttpStack stack = null;
         if (Build.VERSION.SDK_INT >= 9) {
-            stack = new HurlStack(userAgent);
+            // OkHttpStack shares one connection pool across every queue using this network.
+            stack = new OkHttpStack(userAgent);
         } else {
             // Prior to Gingerbread, HttpUrlConnection was unreliable.
             // See: http://android-developers.blogspot.com/2011/09/androids-http-clients.html
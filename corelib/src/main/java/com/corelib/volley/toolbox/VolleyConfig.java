@@ -15,10 +15,8 @@ public final class VolleyConfig {
         NORMAL_CACHE, UNCLEANABLE_CACHE;
     }
 
-    private static final String DEFAULT_IMAGE_PATH = Environment.getExternalStorageDirectory()
-            .getAbsolutePath() + "/Android/data/com.architect/cache";
-    private static final String DEFAULT_UNCLEANABLE_PATH = Environment.getExternalStorageDirectory()
-            .getAbsolutePath() + "/Android/data/com.architect/uncleanable";
+    private static final String DEFAULT_IMAGE_DIRECTORY = "cache";
+    private static final String DEFAULT_UNCLEANABLE_DIRECTORY = "uncleanable";
 
     private static String mLocalImageDirectoryPath = null;
     private static String mLocalUncleanableDirectoryPath = null;
@@ -35,10 +33,26 @@ public final class VolleyConfig {
      * file cache
      */
     private static Map<CacheType, FileCache> mFileCacheMap = new HashMap<>();
+    /**
+     * 控制图片并行解码的数量和内存
+     */
+    private static DecodeScheduler mDecodeScheduler = null;
+    /**
+     * 解码时复用的Bitmap池，由开启复用的图片Cache淘汰、且已不再显示的Bitmap填充
+     */
+    private static BitmapPool mBitmapPool = null;
+    /**
+     * 内存中的图片编码数据缓存，位于Bitmap缓存和文件缓存之间
+     */
+    private static EncodedImageCache mEncodedImageCache = null;
+    /**
+     * 各级图片缓存的命中统计
+     */
+    private static final ImageCacheStats mImageCacheStats = new ImageCacheStats();
 
     public static String getLocalImageDirectoryPath() {
         if (null == mLocalImageDirectoryPath) {
-            mLocalImageDirectoryPath = DEFAULT_IMAGE_PATH;
+            mLocalImageDirectoryPath = getDefaultPath(DEFAULT_IMAGE_DIRECTORY);
         }
 
         return mLocalImageDirectoryPath;
@@ -46,12 +60,20 @@ public final class VolleyConfig {
 
     public static String getLocalUncleanableDirectoryPath() {
         if (null == mLocalUncleanableDirectoryPath) {
-            mLocalUncleanableDirectoryPath = DEFAULT_UNCLEANABLE_PATH;
+            mLocalUncleanableDirectoryPath = getDefaultPath(DEFAULT_UNCLEANABLE_DIRECTORY);
         }
 
         return mLocalUncleanableDirectoryPath;
     }
 
+    /**
+     * 外部存储上的默认目录，用到时才取，加载这个类时不访问外部存储
+     */
+    private static String getDefaultPath(String directory) {
+        return Environment.getExternalStorageDirectory().getAbsolutePath()
+                + "/Android/data/com.architect/" + directory;
+    }
+
     public static void setLocalImageDirectory(String localImageDirectory) {
         mLocalImageDirectoryPath = localImageDirectory;
     }
@@ -62,10 +84,7 @@ public final class VolleyConfig {
 
     public static File getLocalImageDirectory() {
         if (null == mLocalImageDirectory) {
-            if (mLocalImageDirectoryPath == null) {
-                mLocalImageDirectoryPath = DEFAULT_IMAGE_PATH;
-            }
-            mLocalImageDirectory = new File(mLocalImageDirectoryPath);
+            mLocalImageDirectory = new File(getLocalImageDirectoryPath());
             if (!mLocalImageDirectory.exists()) {
                 mLocalImageDirectory.mkdirs();
             }
@@ -94,6 +113,65 @@ public final class VolleyConfig {
         mImageCache = imageCache;
     }
 
+    public static synchronized DecodeScheduler getDecodeScheduler() {
+        if (mDecodeScheduler == null) {
+            mDecodeScheduler = new DecodeScheduler();
+        }
+        return mDecodeScheduler;
+    }
+
+    public static synchronized void setDecodeScheduler(DecodeScheduler decodeScheduler) {
+        mDecodeScheduler = decodeScheduler;
+    }
+
+    public static synchronized BitmapPool getBitmapPool() {
+        if (mBitmapPool == null) {
+            mBitmapPool = new BitmapPool();
+        }
+        return mBitmapPool;
+    }
+
+    /**
+     * 设置Bitmap池，传入大小为0的池可关闭复用
+     */
+    public static synchronized void setBitmapPool(BitmapPool bitmapPool) {
+        mBitmapPool = bitmapPool;
+    }
+
+    public static synchronized EncodedImageCache getEncodedImageCache() {
+        if (mEncodedImageCache == null) {
+            mEncodedImageCache = new EncodedImageCache();
+        }
+        return mEncodedImageCache;
+    }
+
+    /**
+     * 设置编码数据缓存，传入大小为0的缓存可关闭
+     */
+    public static synchronized void setEncodedImageCache(EncodedImageCache encodedImageCache) {
+        mEncodedImageCache = encodedImageCache;
+    }
+
+    public static ImageCacheStats getImageCacheStats() {
+        return mImageCacheStats;
+    }
+
+    /**
+     * 图片各级缓存的命中率和Bitmap池的复用情况，用于日志和调试
+     */
+    public static String getImageMetricsReport() {
+        StringBuilder report = new StringBuilder();
+        for (ImageCacheStats.Tier tier : ImageCacheStats.Tier.values()) {
+            report.append(String.format("%s hit rate %d%% (%d/%d)\n", tier,
+                    (int) (mImageCacheStats.getHitRate(tier) * 100),
+                    mImageCacheStats.getHitCount(tier),
+                    mImageCacheStats.getHitCount(tier) + mImageCacheStats.getMissCount(tier)));
+        }
+        report.append(getImageCache()).append('\n');
+        report.append(getBitmapPool());
+        return report.toString();
+    }
+
     public static Map<CacheType, FileCache> getFileCacheMap() {
         return mFileCacheMap;
     }
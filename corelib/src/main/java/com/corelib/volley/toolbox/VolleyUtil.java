@@ -11,6 +11,7 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
@@ -90,6 +91,44 @@ public final class VolleyUtil {
         return null;
     }
     
+    /** Buffer size used when copying a stream to disk */
+    private static final int STREAM_COPY_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Copy a stream into a new temporary file in the given directory. The caller renames the
+     * file into place once it is complete, so a half written file is never visible under its
+     * final name. The temporary file is deleted if copying fails.
+     *
+     * @param inputStream stream to copy, not closed by this method
+     * @param directory directory to create the file in; must be on the same volume as the
+     *            final location so the rename is atomic
+     * @param prefix prefix of the temporary file name
+     * @return the temporary file
+     */
+    public static File writeTempFile(InputStream inputStream, File directory, String prefix)
+            throws IOException {
+        File tmp = File.createTempFile(prefix, ".tmp", directory);
+        FileOutputStream fos = null;
+        boolean success = false;
+        try {
+            fos = new FileOutputStream(tmp);
+            byte[] buffer = new byte[STREAM_COPY_BUFFER_SIZE];
+            int cnt;
+            while ((cnt = inputStream.read(buffer)) != -1) {
+                fos.write(buffer, 0, cnt);
+            }
+            fos.close();
+            fos = null;
+            success = true;
+            return tmp;
+        } finally {
+            safeClose(fos);
+            if (!success) {
+                tmp.delete();
+            }
+        }
+    }
+
     /**
      * Close a Closeable object safely
      * 
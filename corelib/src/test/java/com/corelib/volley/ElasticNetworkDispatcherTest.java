@@ -0,0 +1,179 @@
+package com.corelib.volley;
+
+import com.corelib.volley.toolbox.NoCache;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ElasticNetworkDispatcherTest {
+
+    @Test
+    public void requestsInFlightStayWithinTheLimit() throws Exception {
+        SleepingNetwork network = new SleepingNetwork();
+        RequestQueue queue = newQueue(network, 3, RequestQueue.DispatchMode.ELASTIC);
+        queue.start();
+        try {
+            CountDownLatch delivered = new CountDownLatch(20);
+            for (int i = 0; i < 20; i++) {
+                queue.add(new TestRequest("host" + i % 4 + ".example.com", 20, delivered));
+            }
+            assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        } finally {
+            queue.stop();
+        }
+        assertEquals(3, network.mPeakInFlight.get());
+    }
+
+    /**
+     * Sends a burst of 240 requests, 40 to each of 6 hosts, and prints the time until all are
+     * delivered, the median and 90th percentile latency of the requests that don't stall, and
+     * the threads the queue runs at the peak and after 31s idle. 90% of the requests take
+     * 50-150ms and 10% stall for 2s. Hosts keep the default limit of 5 requests in flight.
+     * The fixed dispatchers with 4 and 32 threads are compared with the elastic dispatcher at
+     * 8 to 64 permits.
+     */
+    @Ignore("Benchmark; run by hand")
+    @Test
+    public void benchmarkBurstAgainstFixedDispatchers() throws Exception {
+        // Warm up.
+        runBurst(RequestQueue.DispatchMode.FIXED, 4, false);
+        runBurst(RequestQueue.DispatchMode.ELASTIC, 32, false);
+        runBurst(RequestQueue.DispatchMode.FIXED, 4, true);
+        runBurst(RequestQueue.DispatchMode.FIXED, 32, true);
+        for (int permits : new int[] {8, 16, 32, 64}) {
+            runBurst(RequestQueue.DispatchMode.ELASTIC, permits, true);
+        }
+    }
+
+    private static void runBurst(RequestQueue.DispatchMode mode, int size, boolean print)
+            throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int baseline = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+        SleepingNetwork network = new SleepingNetwork();
+        RequestQueue queue = newQueue(network, size, mode);
+        queue.start();
+        int hosts = 6;
+        int perHost = 40;
+        Random random = new Random(1);
+        CountDownLatch delivered = new CountDownLatch(hosts * perHost);
+        List<TestRequest> requests = new ArrayList<TestRequest>();
+        long start = System.nanoTime();
+        for (int i = 0; i < hosts * perHost; i++) {
+            int latencyMs = random.nextInt(10) == 0 ? 2000 : 50 + random.nextInt(101);
+            TestRequest request = new TestRequest("host" + i % hosts + ".example.com",
+                    latencyMs, delivered);
+            requests.add(request);
+            queue.add(request);
+        }
+        assertTrue(delivered.await(120, TimeUnit.SECONDS));
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        int peakThreads = threads.getPeakThreadCount() - baseline;
+        int idleThreads = -1;
+        if (print) {
+            Thread.sleep(31000);
+            idleThreads = threads.getThreadCount() - baseline;
+        }
+        queue.stop();
+
+        List<Long> latencies = new ArrayList<Long>();
+        for (TestRequest request : requests) {
+            if (request.mNetworkLatencyMs < 2000) {
+                latencies.add(request.mLatencyMs);
+            }
+        }
+        Collections.sort(latencies);
+        if (print) {
+            System.out.println(String.format(
+                    "%-7s %2d: all in %5dms, p50 %5dms, p90 %5dms, %2d threads at peak, %2d idle",
+                    mode, size, elapsedMs, latencies.get(latencies.size() / 2),
+                    latencies.get(latencies.size() * 9 / 10), peakThreads, idleThreads));
+        }
+        // Let the stopped threads exit before the next run counts its own.
+        long deadline = System.currentTimeMillis() + 5000;
+        while (threads.getThreadCount() > baseline && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static RequestQueue newQueue(Network network, int size,
+            RequestQueue.DispatchMode mode) {
+        // Deliver on the dispatcher threads.
+        return new RequestQueue(new NoCache(), network, size,
+                new ExecutorDelivery(new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                }), mode);
+    }
+
+    private static class TestRequest extends Request<String> {
+        final int mNetworkLatencyMs;
+        private final CountDownLatch mDeliveredLatch;
+        private final long mAddedAt = System.nanoTime();
+        volatile long mLatencyMs;
+
+        TestRequest(String host, int networkLatencyMs, CountDownLatch delivered) {
+            super(Method.GET, "http://" + host + "/", null);
+            // Spares the network queue parsing the URL, which android.net.Uri can't here.
+            setDnsRequestHost(host);
+            setShouldCache(false);
+            mNetworkLatencyMs = networkLatencyMs;
+            mDeliveredLatch = delivered;
+        }
+
+        @Override
+        protected Response<String> parseNetworkResponse(NetworkResponse response) {
+            return Response.success(getUrl(), null);
+        }
+
+        @Override
+        protected void deliverResponse(String response) {
+            mLatencyMs = (System.nanoTime() - mAddedAt) / 1000000;
+            mDeliveredLatch.countDown();
+        }
+
+        @Override
+        public void deliverError(VolleyError error) {
+            fail("Unexpected error " + error);
+        }
+    }
+
+    /** Waits as long as each request asks, and tracks the peak number in flight. */
+    private static class SleepingNetwork implements Network {
+        private final AtomicInteger mInFlight = new AtomicInteger();
+        final AtomicInteger mPeakInFlight = new AtomicInteger();
+
+        @Override
+        public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+            int inFlight = mInFlight.incrementAndGet();
+            while (inFlight > mPeakInFlight.get()) {
+                mPeakInFlight.compareAndSet(mPeakInFlight.get(), inFlight);
+            }
+            try {
+                Thread.sleep(((TestRequest) request).mNetworkLatencyMs);
+            } catch (InterruptedException e) {
+                throw new VolleyError(e);
+            } finally {
+                mInFlight.decrementAndGet();
+            }
+            return new NetworkResponse(200, new byte[0],
+                    Collections.<String, String>emptyMap(), false);
+        }
+    }
+}
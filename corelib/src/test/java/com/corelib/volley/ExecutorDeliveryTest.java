@@ -0,0 +1,309 @@
+package com.corelib.volley;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class ExecutorDeliveryTest {
+
+    @Test
+    public void coalescesDeliveriesPostedBeforeTheMessageRuns() {
+        MessageQueue queue = new MessageQueue();
+        ExecutorDelivery delivery = new ExecutorDelivery(queue, true);
+        List<Integer> delivered = new ArrayList<Integer>();
+        for (int i = 0; i < 10; i++) {
+            delivery.postResponse(new TestRequest(i, delivered), Response.success("", null));
+        }
+
+        assertEquals(1, queue.mMessages.size());
+        queue.runPending();
+        assertEquals(10, delivered.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, (int) delivered.get(i));
+        }
+    }
+
+    @Test
+    public void postsRightAwayWhenIdle() {
+        MessageQueue queue = new MessageQueue();
+        ExecutorDelivery delivery = new ExecutorDelivery(queue, true);
+        List<Integer> delivered = new ArrayList<Integer>();
+        for (int i = 0; i < 3; i++) {
+            delivery.postResponse(new TestRequest(i, delivered), Response.success("", null));
+            assertEquals(1, queue.mMessages.size());
+            queue.runPending();
+            assertEquals(i + 1, delivered.size());
+        }
+        assertEquals(3, queue.mRun);
+    }
+
+    @Test
+    public void largeBatchesAreSplit() {
+        MessageQueue queue = new MessageQueue();
+        ExecutorDelivery delivery = new ExecutorDelivery(queue, true);
+        List<Integer> delivered = new ArrayList<Integer>();
+        for (int i = 0; i < 100; i++) {
+            delivery.postResponse(new TestRequest(i, delivered), Response.success("", null));
+        }
+
+        queue.runPending();
+        assertEquals(100, delivered.size());
+        assertEquals(2, queue.mRun);
+    }
+
+    @Test
+    public void canceledRequestInBatchIsNotDelivered() {
+        MessageQueue queue = new MessageQueue();
+        ExecutorDelivery delivery = new ExecutorDelivery(queue, true);
+        List<Integer> delivered = new ArrayList<Integer>();
+        TestRequest canceled = new TestRequest(1, delivered);
+        delivery.postResponse(new TestRequest(0, delivered), Response.success("", null));
+        delivery.postResponse(canceled, Response.success("", null));
+        delivery.postResponse(new TestRequest(2, delivered), Response.success("", null));
+        canceled.cancel();
+
+        queue.runPending();
+        assertEquals(2, delivered.size());
+        assertFalse(delivered.contains(1));
+    }
+
+    @Test
+    public void requestWithItsOwnExecutorBypassesThePoster() {
+        for (boolean coalesce : new boolean[] { false, true }) {
+            MessageQueue mainThread = new MessageQueue();
+            MessageQueue background = new MessageQueue();
+            ExecutorDelivery delivery = new ExecutorDelivery(mainThread, coalesce);
+            List<Integer> delivered = new ArrayList<Integer>();
+            TestRequest own = new TestRequest(0, delivered);
+            own.setDeliveryExecutor(background);
+            TestRequest plain = new TestRequest(1, delivered);
+
+            delivery.postResponse(own, Response.success("", null));
+            delivery.postError(own, new VolleyError());
+            assertTrue(mainThread.mMessages.isEmpty());
+            assertEquals(2, background.mMessages.size());
+
+            delivery.postResponse(plain, Response.success("", null));
+            assertEquals(1, mainThread.mMessages.size());
+            assertEquals(2, background.mMessages.size());
+
+            background.runPending();
+            assertEquals(Arrays.asList(0), delivered);
+            mainThread.runPending();
+            assertEquals(Arrays.asList(0, 1), delivered);
+        }
+    }
+
+    /**
+     * Prints the main thread messages, dropped frames and mean delivery latency for responses
+     * delivered one message each and coalesced. A thread stands in for the main looper: it
+     * draws a frame every 16ms, which takes 4ms, and a frame is dropped when it starts more
+     * than 16ms late. Four dispatchers deliver responses whose listeners take 0.2ms, in bursts.
+     */
+    @Ignore("Benchmark; run by hand")
+    @Test
+    public void benchmarkMessagesAndFrameDrops() throws Exception {
+        for (int round = 0; round < 2; round++) {
+            for (boolean coalesce : new boolean[] { false, true }) {
+                long[] result = measure(coalesce);
+                System.out.println(String.format(
+                        "ExecutorDelivery %-9s: %5d messages for %d responses, "
+                                + "%3d of %3d frames dropped, %5dus mean latency",
+                        coalesce ? "coalesced" : "plain", result[0], result[1], result[2],
+                        result[3], result[4]));
+            }
+        }
+    }
+
+    /**
+     * Returns {messages, responses, dropped frames, frames, mean delivery latency in us}.
+     */
+    private static long[] measure(boolean coalesce) throws Exception {
+        final int dispatchers = 4;
+        final int perDispatcher = 250;
+        final LooperThread looper = new LooperThread();
+        looper.start();
+        final ExecutorDelivery delivery = new ExecutorDelivery(looper, coalesce);
+        final CountDownLatch done = new CountDownLatch(dispatchers * perDispatcher);
+        final AtomicLong latency = new AtomicLong();
+        final AtomicInteger frames = new AtomicInteger();
+        final AtomicInteger dropped = new AtomicInteger();
+        final long frameNanos = TimeUnit.MILLISECONDS.toNanos(16);
+
+        Thread vsync = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (done.getCount() > 0) {
+                    final long vsyncTime = System.nanoTime();
+                    looper.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            frames.incrementAndGet();
+                            if (System.nanoTime() - vsyncTime > frameNanos) {
+                                dropped.incrementAndGet();
+                            }
+                            spin(4000);
+                        }
+                    });
+                    sleep(16);
+                }
+            }
+        });
+        vsync.start();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < dispatchers; t++) {
+            final Random random = new Random(t);
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perDispatcher; i++) {
+                        TimedRequest request = new TimedRequest(done, latency);
+                        delivery.postResponse(request, Response.success("", null));
+                        if (random.nextInt(4) == 0) {
+                            // End of a burst.
+                            sleep(random.nextInt(8));
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        vsync.join();
+        looper.quit();
+        long responses = dispatchers * perDispatcher;
+        // The rest of the messages drew the frames.
+        return new long[] { looper.mRun.get() - frames.get(), responses, dropped.get(),
+                frames.get(), latency.get() / 1000 / responses };
+    }
+
+    private static void spin(long micros) {
+        long end = System.nanoTime() + micros * 1000;
+        while (System.nanoTime() < end) {
+            // Busy, like a listener or a frame on the main thread.
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Holds posted messages until told to run them. */
+    private static class MessageQueue implements Executor {
+        final List<Runnable> mMessages = new ArrayList<Runnable>();
+        int mRun;
+
+        @Override
+        public void execute(Runnable command) {
+            mMessages.add(command);
+        }
+
+        void runPending() {
+            while (!mMessages.isEmpty()) {
+                mMessages.remove(0).run();
+                mRun++;
+            }
+        }
+    }
+
+    /** Runs posted messages in order on its own thread, like a Looper. */
+    private static class LooperThread extends Thread implements Executor {
+        private static final Runnable QUIT = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        final LinkedBlockingQueue<Runnable> mMessages = new LinkedBlockingQueue<Runnable>();
+        final AtomicLong mRun = new AtomicLong();
+
+        @Override
+        public void execute(Runnable command) {
+            mMessages.add(command);
+        }
+
+        @Override
+        public void run() {
+            try {
+                Runnable message;
+                while ((message = mMessages.take()) != QUIT) {
+                    message.run();
+                    mRun.incrementAndGet();
+                }
+            } catch (InterruptedException e) {
+                // Quit.
+            }
+        }
+
+        void quit() throws InterruptedException {
+            mMessages.add(QUIT);
+            join();
+        }
+    }
+
+    private static class TestRequest extends Request<String> {
+        private final int mId;
+        private final List<Integer> mDelivered;
+
+        TestRequest(int id, List<Integer> delivered) {
+            super(Method.GET, "http://example.com/" + id, null);
+            mId = id;
+            mDelivered = delivered;
+        }
+
+        @Override
+        protected Response<String> parseNetworkResponse(NetworkResponse response) {
+            return null;
+        }
+
+        @Override
+        protected void deliverResponse(String response) {
+            mDelivered.add(mId);
+        }
+    }
+
+    private static class TimedRequest extends Request<String> {
+        private final long mPosted = System.nanoTime();
+        private final CountDownLatch mDone;
+        private final AtomicLong mLatency;
+
+        TimedRequest(CountDownLatch done, AtomicLong latency) {
+            super(Method.GET, "http://example.com/", null);
+            mDone = done;
+            mLatency = latency;
+        }
+
+        @Override
+        protected Response<String> parseNetworkResponse(NetworkResponse response) {
+            return null;
+        }
+
+        @Override
+        protected void deliverResponse(String response) {
+            mLatency.addAndGet(System.nanoTime() - mPosted);
+            spin(200);
+            mDone.countDown();
+        }
+    }
+}
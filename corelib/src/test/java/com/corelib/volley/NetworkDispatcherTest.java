@@ -0,0 +1,130 @@
+package com.corelib.volley;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class NetworkDispatcherTest {
+    private static final String HOST = "example.com";
+
+    private HostFairBlockingQueue mQueue;
+    private RecordingDelivery mDelivery;
+
+    @Before
+    public void setUp() {
+        mQueue = new HostFairBlockingQueue();
+        mQueue.setMaxRequestsForHost(HOST, 1);
+        mDelivery = new RecordingDelivery();
+    }
+
+    @Test
+    public void cacheHitFreesHostSlotBeforeDelivery() throws Exception {
+        TestRequest cached = new TestRequest(true);
+        TestRequest next = new TestRequest(false);
+        mQueue.add(cached);
+        mQueue.add(next);
+
+        assertSame(cached, mQueue.take());
+        assertNull(mQueue.poll());
+        newDispatcher(new CountingNetwork()).processRequest(cached);
+
+        // The response hasn't been delivered, so the request hasn't finished.
+        assertSame(cached, mDelivery.mLastRequest);
+        assertEquals(0, mQueue.getInFlightCount(HOST));
+        assertSame(next, mQueue.poll());
+    }
+
+    @Test
+    public void networkResponseFreesHostSlotBeforeDelivery() throws Exception {
+        TestRequest request = new TestRequest(false);
+        mQueue.add(request);
+        CountingNetwork network = new CountingNetwork();
+
+        assertSame(request, mQueue.take());
+        assertEquals(1, mQueue.getInFlightCount(HOST));
+        newDispatcher(network).processRequest(request);
+
+        assertEquals(1, network.mCount);
+        assertSame(request, mDelivery.mLastRequest);
+        assertEquals(0, mQueue.getInFlightCount(HOST));
+    }
+
+    @Test
+    public void hostIsWorkedOutOncePerRequest() throws Exception {
+        TestRequest request = new TestRequest(false);
+        mQueue.add(request);
+        assertEquals(HOST, request.getSchedulingHost());
+
+        // A later change of the host to send as doesn't move a request already scheduled.
+        request.setDnsRequestHost("other.example.com");
+        mQueue.remove(request);
+        mQueue.add(request);
+        assertEquals(Collections.singletonMap(HOST, 1), mQueue.getQueueDepthByHost());
+    }
+
+    private NetworkDispatcher newDispatcher(Network network) {
+        return new NetworkDispatcher(mQueue, network, null, mDelivery);
+    }
+
+    private static class TestRequest extends Request<String> {
+        private final boolean mCached;
+
+        TestRequest(boolean cached) {
+            super(Method.GET, "http://" + HOST + "/", null);
+            setDnsRequestHost(HOST);
+            setShouldCache(false);
+            mCached = cached;
+        }
+
+        @Override
+        protected Response<String> parseCache() {
+            if (mCached) {
+                return Response.success("cached", null);
+            }
+            return super.parseCache();
+        }
+
+        @Override
+        protected Response<String> parseNetworkResponse(NetworkResponse response) {
+            return Response.success("network", null);
+        }
+
+        @Override
+        protected void deliverResponse(String response) {
+        }
+    }
+
+    private static class CountingNetwork implements Network {
+        int mCount;
+
+        @Override
+        public NetworkResponse performRequest(Request<?> request) {
+            mCount++;
+            return new NetworkResponse(200, new byte[0],
+                    Collections.<String, String>emptyMap(), false);
+        }
+    }
+
+    /** Records what would be posted, without delivering it. */
+    private static class RecordingDelivery implements ResponseDelivery {
+        Request<?> mLastRequest;
+
+        @Override
+        public void postResponse(Request<?> request, Response<?> response) {
+            mLastRequest = request;
+        }
+
+        @Override
+        public void postResponse(Request<?> request, Response<?> response, Runnable runnable) {
+            mLastRequest = request;
+        }
+
+        @Override
+        public void postError(Request<?> request, VolleyError error) {
+            mLastRequest = request;
+        }
+    }
+}
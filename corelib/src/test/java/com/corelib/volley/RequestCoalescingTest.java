@@ -0,0 +1,260 @@
+package com.corelib.volley;
+
+import com.corelib.volley.toolbox.NoCache;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that identical GETs set to coalesce share the network call of the one in flight.
+ */
+public class RequestCoalescingTest {
+    private static final String URL = "http://example.com/a";
+    private static final String BLOCKER_URL = "http://example.com/blocker";
+
+    private final GatedNetwork mNetwork = new GatedNetwork();
+    private RequestQueue mQueue;
+
+    @After
+    public void tearDown() {
+        mNetwork.openAll();
+        if (mQueue != null) {
+            mQueue.stop();
+        }
+    }
+
+    @Test
+    public void networkResponseIsHandedToEveryWaiter() throws Exception {
+        startQueue(4);
+        CountDownLatch delivered = new CountDownLatch(5);
+        mNetwork.close(URL);
+        TestRequest[] requests = new TestRequest[5];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = new TestRequest(URL, delivered);
+            mQueue.add(requests[i]);
+        }
+        mNetwork.awaitRequests(URL, 1);
+        mNetwork.open(URL);
+
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertEquals(1, mNetwork.count(URL));
+        assertEquals(0, requests[0].mCoalescedResponses.get());
+        for (int i = 1; i < requests.length; i++) {
+            assertEquals("network " + URL, requests[i].mResult);
+            assertEquals(1, requests[i].mCoalescedResponses.get());
+        }
+    }
+
+    @Test
+    public void canceledWaiterDoesNotGetTheResponse() throws Exception {
+        startQueue(4);
+        CountDownLatch delivered = new CountDownLatch(2);
+        mNetwork.close(URL);
+        TestRequest owner = new TestRequest(URL, delivered);
+        TestRequest canceled = new TestRequest(URL, delivered);
+        TestRequest waiter = new TestRequest(URL, delivered);
+        mQueue.add(owner);
+        mQueue.add(canceled);
+        mQueue.add(waiter);
+        mNetwork.awaitRequests(URL, 1);
+        canceled.cancel();
+        mNetwork.open(URL);
+
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertNotNull(owner.mResult);
+        assertNull(canceled.mResult);
+        assertNotNull(waiter.mResult);
+        assertEquals(1, mNetwork.count(URL));
+    }
+
+    @Test
+    public void cancelingTheOwnerKeepsTheFetchForLiveWaiters() throws Exception {
+        // One dispatcher, held up by another request, so the owner is canceled while queued.
+        startQueue(1);
+        CountDownLatch delivered = new CountDownLatch(2);
+        occupyDispatcher(delivered);
+        TestRequest owner = new TestRequest(URL, delivered);
+        TestRequest waiter = new TestRequest(URL, delivered);
+        mQueue.add(owner);
+        mQueue.add(waiter);
+        owner.cancel();
+        mNetwork.open(BLOCKER_URL);
+
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertEquals(1, mNetwork.count(URL));
+        assertNull(owner.mResult);
+        assertEquals("network " + URL, waiter.mResult);
+    }
+
+    @Test
+    public void ownerIsDroppedOnceEveryWaiterIsCanceled() throws Exception {
+        startQueue(1);
+        CountDownLatch blockerDelivered = new CountDownLatch(1);
+        occupyDispatcher(blockerDelivered);
+        CountDownLatch never = new CountDownLatch(1);
+        TestRequest owner = new TestRequest(URL, never);
+        TestRequest waiter = new TestRequest(URL, never);
+        mQueue.add(owner);
+        mQueue.add(waiter);
+        owner.cancel();
+        waiter.cancel();
+        // Queued behind the owner on the one dispatcher, so it runs after the owner is dropped.
+        CountDownLatch afterOwner = new CountDownLatch(1);
+        mQueue.add(new TestRequest("http://example.com/after", afterOwner));
+        mNetwork.open(BLOCKER_URL);
+
+        assertTrue(afterOwner.await(5, TimeUnit.SECONDS));
+        assertEquals(0, mNetwork.count(URL));
+        assertNull(owner.mResult);
+        assertNull(waiter.mResult);
+    }
+
+    @Test
+    public void waitersGoOnTheirOwnWhenTheOwnerGetsNoNetworkResponse() throws Exception {
+        startQueue(1);
+        CountDownLatch delivered = new CountDownLatch(3);
+        occupyDispatcher(delivered);
+        TestRequest owner = new TestRequest(URL, delivered);
+        owner.mServeFromCache = true;
+        TestRequest waiter = new TestRequest(URL, delivered);
+        mQueue.add(owner);
+        mQueue.add(waiter);
+        mNetwork.open(BLOCKER_URL);
+
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertEquals("cached " + URL, owner.mResult);
+        // Re-enqueued when the owner finished, then sent by itself.
+        assertEquals("network " + URL, waiter.mResult);
+        assertEquals(0, waiter.mCoalescedResponses.get());
+        assertEquals(1, mNetwork.count(URL));
+    }
+
+    private void startQueue(int dispatchers) {
+        // Deliver on the dispatcher threads.
+        mQueue = new RequestQueue(new NoCache(), mNetwork, dispatchers,
+                new ExecutorDelivery(new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                }));
+        mQueue.start();
+    }
+
+    /** Keeps the only dispatcher busy until {@link #BLOCKER_URL} is opened. */
+    private void occupyDispatcher(CountDownLatch delivered) throws Exception {
+        mNetwork.close(BLOCKER_URL);
+        mQueue.add(new TestRequest(BLOCKER_URL, delivered));
+        mNetwork.awaitRequests(BLOCKER_URL, 1);
+    }
+
+    private static class TestRequest extends Request<String> {
+        private final CountDownLatch mDelivered;
+        final AtomicInteger mCoalescedResponses = new AtomicInteger();
+        volatile boolean mServeFromCache;
+        volatile String mResult;
+
+        TestRequest(String url, CountDownLatch delivered) {
+            super(Method.GET, url, null);
+            // Spares the network queue parsing the URL, which android.net.Uri can't here.
+            setDnsRequestHost("example.com");
+            setShouldCache(false);
+            setShouldCoalesce(true);
+            mDelivered = delivered;
+        }
+
+        @Override
+        protected Response<String> parseCache() {
+            if (mServeFromCache) {
+                return Response.success("cached " + getUrl(), null);
+            }
+            return super.parseCache();
+        }
+
+        @Override
+        protected Response<String> parseNetworkResponse(NetworkResponse response) {
+            return Response.success("network " + getUrl(), null);
+        }
+
+        @Override
+        protected void onCoalescedNetworkResponse(NetworkResponse response) {
+            mCoalescedResponses.incrementAndGet();
+        }
+
+        @Override
+        protected void deliverResponse(String response) {
+            mResult = response;
+            mDelivered.countDown();
+        }
+
+        @Override
+        public void deliverError(VolleyError error) {
+            fail("Unexpected error " + error);
+        }
+    }
+
+    /** Counts requests per URL and holds those whose URL is closed until it is opened. */
+    private static class GatedNetwork implements Network {
+        private final ConcurrentHashMap<String, AtomicInteger> mCounts =
+                new ConcurrentHashMap<String, AtomicInteger>();
+        private final Map<String, CountDownLatch> mGates =
+                new ConcurrentHashMap<String, CountDownLatch>();
+
+        void close(String url) {
+            mGates.put(url, new CountDownLatch(1));
+        }
+
+        void open(String url) {
+            CountDownLatch gate = mGates.remove(url);
+            if (gate != null) {
+                gate.countDown();
+            }
+        }
+
+        void openAll() {
+            for (String url : mGates.keySet()) {
+                open(url);
+            }
+        }
+
+        int count(String url) {
+            AtomicInteger count = mCounts.get(url);
+            return count == null ? 0 : count.get();
+        }
+
+        void awaitRequests(String url, int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (count(url) < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(count, count(url));
+        }
+
+        @Override
+        public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+            String url = request.getUrl();
+            mCounts.putIfAbsent(url, new AtomicInteger());
+            mCounts.get(url).incrementAndGet();
+            CountDownLatch gate = mGates.get(url);
+            if (gate != null) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    throw new VolleyError(e);
+                }
+            }
+            return new NetworkResponse(200, new byte[0],
+                    Collections.<String, String>emptyMap(), false);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.corelib.volley;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that identical cacheable requests wait on the one in flight and are then served
+ * from the cache it primed.
+ */
+public class RequestQueueWaitingListTest {
+    private MemoryCache mCache;
+    private BlockingNetwork mNetwork;
+    private RequestQueue mQueue;
+
+    @Before
+    public void setUp() {
+        mCache = new MemoryCache();
+        mNetwork = new BlockingNetwork();
+        // Deliver on the dispatcher threads.
+        mQueue = new RequestQueue(mCache, mNetwork, 4, new ExecutorDelivery(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }));
+        mQueue.start();
+    }
+
+    @After
+    public void tearDown() {
+        mQueue.stop();
+    }
+
+    @Test
+    public void identicalRequestsWaitOnTheOneInFlight() throws Exception {
+        int count = 10;
+        CountDownLatch delivered = new CountDownLatch(count);
+        mNetwork.block();
+        for (int i = 0; i < count; i++) {
+            mQueue.add(new TestRequest("http://example.com/a", delivered));
+        }
+        mNetwork.awaitRequests(1);
+        mNetwork.unblock();
+
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertEquals(1, mNetwork.mRequests.get());
+    }
+
+    @Test
+    public void canceledWaitingRequestIsNotDelivered() throws Exception {
+        CountDownLatch delivered = new CountDownLatch(2);
+        mNetwork.block();
+        TestRequest first = new TestRequest("http://example.com/a", delivered);
+        TestRequest canceled = new TestRequest("http://example.com/a", delivered);
+        TestRequest last = new TestRequest("http://example.com/a", delivered);
+        mQueue.add(first);
+        mQueue.add(canceled);
+        mQueue.add(last);
+        mNetwork.awaitRequests(1);
+        canceled.cancel();
+        mNetwork.unblock();
+
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertTrue(first.mDelivered);
+        assertFalse(canceled.mDelivered);
+        assertTrue(last.mDelivered);
+        assertEquals(1, mNetwork.mRequests.get());
+    }
+
+    @Test
+    public void concurrentAddsSendEachKeyOnce() throws Exception {
+        final int threads = 8;
+        final int perThread = 2000;
+        final int keys = 50;
+        final CountDownLatch delivered = new CountDownLatch(threads * perThread);
+        List<Thread> producers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            producers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        mQueue.add(new TestRequest("http://example.com/" + (i + offset) % keys,
+                                delivered));
+                    }
+                }
+            }));
+        }
+        for (Thread producer : producers) {
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        assertTrue(delivered.await(30, TimeUnit.SECONDS));
+        assertEquals(keys, mNetwork.mRequests.get());
+    }
+
+    /**
+     * Adds a million cacheable requests for 1000 URLs from four threads and prints how many
+     * per second the queue takes through the waiting lists, the cache and delivery.
+     */
+    @Ignore("Benchmark; run by hand")
+    @Test
+    public void benchmarkMillionRequests() throws Exception {
+        final int threads = 4;
+        final int perThread = 250000;
+        final int keys = 1000;
+        for (int round = 0; round < 3; round++) {
+            mCache.clear();
+            mNetwork.mRequests.set(0);
+            final CountDownLatch delivered = new CountDownLatch(threads * perThread);
+            List<Thread> producers = new ArrayList<Thread>();
+            for (int t = 0; t < threads; t++) {
+                final int offset = t * 7;
+                producers.add(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < perThread; i++) {
+                            mQueue.add(new TestRequest(
+                                    "http://example.com/" + (i + offset) % keys, delivered));
+                        }
+                    }
+                }));
+            }
+            long start = System.nanoTime();
+            for (Thread producer : producers) {
+                producer.start();
+            }
+            assertTrue(delivered.await(300, TimeUnit.SECONDS));
+            long elapsedMs = (System.nanoTime() - start) / 1000000;
+            System.out.println(String.format(
+                    "1M requests, %d URLs, %d threads: %dms, %.0f requests/s, %d sent",
+                    keys, threads, elapsedMs, threads * perThread * 1000.0 / elapsedMs,
+                    mNetwork.mRequests.get()));
+        }
+    }
+
+    private static class TestRequest extends Request<String> {
+        private final CountDownLatch mDeliveredLatch;
+        volatile boolean mDelivered;
+
+        TestRequest(String url, CountDownLatch delivered) {
+            super(Method.GET, url, null);
+            // Spares the network queue parsing the URL, which android.net.Uri can't here.
+            setDnsRequestHost("example.com");
+            mDeliveredLatch = delivered;
+        }
+
+        @Override
+        protected Response<String> parseNetworkResponse(NetworkResponse response) {
+            Cache.Entry entry = new Cache.Entry();
+            entry.data = response.data;
+            entry.ttl = Long.MAX_VALUE;
+            entry.softTtl = Long.MAX_VALUE;
+            return Response.success(getUrl(), entry);
+        }
+
+        @Override
+        protected void deliverResponse(String response) {
+            mDelivered = true;
+            mDeliveredLatch.countDown();
+        }
+
+        @Override
+        public void deliverError(VolleyError error) {
+            fail("Unexpected error " + error);
+        }
+    }
+
+    /** Counts requests and holds them until unblocked. */
+    private static class BlockingNetwork implements Network {
+        final AtomicInteger mRequests = new AtomicInteger();
+        private volatile CountDownLatch mGate = new CountDownLatch(0);
+
+        void block() {
+            mGate = new CountDownLatch(1);
+        }
+
+        void unblock() {
+            mGate.countDown();
+        }
+
+        void awaitRequests(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (mRequests.get() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(count, mRequests.get());
+        }
+
+        @Override
+        public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+            mRequests.incrementAndGet();
+            try {
+                mGate.await();
+            } catch (InterruptedException e) {
+                throw new VolleyError(e);
+            }
+            return new NetworkResponse(200, new byte[0],
+                    Collections.<String, String>emptyMap(), false);
+        }
+    }
+
+    private static class MemoryCache implements Cache {
+        private final Map<String, Entry> mEntries = new ConcurrentHashMap<String, Entry>();
+
+        @Override
+        public Entry get(String key) {
+            return mEntries.get(key);
+        }
+
+        @Override
+        public void put(String key, Entry entry) {
+            mEntries.put(key, entry);
+        }
+
+        @Override
+        public void initialize() {
+        }
+
+        @Override
+        public void invalidate(String key, boolean fullExpire) {
+        }
+
+        @Override
+        public void remove(String key) {
+            mEntries.remove(key);
+        }
+
+        @Override
+        public void clear() {
+            mEntries.clear();
+        }
+    }
+}
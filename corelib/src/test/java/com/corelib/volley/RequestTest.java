@@ -0,0 +1,71 @@
+package com.corelib.volley;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RequestTest {
+
+    @Test
+    public void streamedResponseFallsBackToBufferedParse() throws Exception {
+        StringRequest request = new StringRequest();
+        Map<String, String> headers = Collections.singletonMap("X-Test", "1");
+        byte[] body = "streamed body".getBytes("UTF-8");
+        NetworkResponse response = new NetworkResponse(200, new ByteArrayInputStream(body),
+                headers);
+        response.setIsFromNetwork(true);
+
+        Response<String> parsed = request.parseNetworkResponse(response, response.stream);
+
+        assertEquals("streamed body", parsed.result);
+        assertEquals(200, request.mParsed.statusCode);
+        assertEquals("1", request.mParsed.headers.get("X-Test"));
+        assertTrue(request.mParsed.isFroNetwork());
+    }
+
+    @Test
+    public void onlyGetResponsesAreCached() {
+        assertTrue(new StringRequest().shouldCache());
+        Request<String> post = new Request<String>(Request.Method.POST, "http://example.com/",
+                null) {
+            @Override
+            protected Response<String> parseNetworkResponse(NetworkResponse response) {
+                return null;
+            }
+
+            @Override
+            protected void deliverResponse(String response) {
+            }
+        };
+        // Keyed by URL alone, a cached POST response would be served for another body.
+        assertFalse(post.shouldCache());
+    }
+
+    /** Parses the body as UTF-8 and only implements the buffered parse. */
+    private static class StringRequest extends Request<String> {
+        NetworkResponse mParsed;
+
+        StringRequest() {
+            super(Method.GET, "http://example.com/", null);
+        }
+
+        @Override
+        protected Response<String> parseNetworkResponse(NetworkResponse response) {
+            mParsed = response;
+            try {
+                return Response.success(new String(response.data, "UTF-8"), null);
+            } catch (UnsupportedEncodingException e) {
+                return Response.error(new ParseError(e));
+            }
+        }
+
+        @Override
+        protected void deliverResponse(String response) {
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.corelib.volley.toolbox;
+
+import com.corelib.volley.Cache;
+import com.corelib.volley.NetworkResponse;
+import com.corelib.volley.Request;
+import com.corelib.volley.Response;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class BasicNetworkTest {
+
+    @Test
+    public void notModifiedKeepsTheCachedHeaders() throws Exception {
+        final BasicHttpResponse notModified = new BasicHttpResponse(
+                new BasicStatusLine(HttpVersion.HTTP_1_1, 304, "Not Modified"));
+        notModified.addHeader("ETag", "\"v2\"");
+        notModified.addHeader("Cache-Control", "max-age=60");
+        BasicNetwork network = new BasicNetwork(new HttpStack() {
+            @Override
+            public HttpResponse performRequest(Request<?> request,
+                    Map<String, String> additionalHeaders) {
+                return notModified;
+            }
+        });
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = "{\"title\":\"标题\"}".getBytes("UTF-8");
+        entry.etag = "\"v1\"";
+        entry.responseHeaders = new HashMap<String, String>();
+        entry.responseHeaders.put("Content-Type", "application/json; charset=UTF-8");
+        entry.responseHeaders.put("ETag", "\"v1\"");
+        TestRequest request = new TestRequest();
+        request.setCacheEntry(entry);
+
+        NetworkResponse response = network.performRequest(request);
+
+        assertEquals(304, response.statusCode);
+        assertTrue(response.notModified);
+        assertArrayEquals(entry.data, response.data);
+        assertEquals("UTF-8", HttpHeaderParser.parseCharset(response.headers));
+        // The 304's headers are newer.
+        assertEquals("\"v2\"", response.headers.get("etag"));
+        assertEquals("max-age=60", response.headers.get("Cache-Control"));
+    }
+
+    private static class TestRequest extends Request<String> {
+        TestRequest() {
+            super(Method.GET, "http://example.com/", null);
+        }
+
+        @Override
+        protected Response<String> parseNetworkResponse(NetworkResponse response) {
+            return null;
+        }
+
+        @Override
+        protected void deliverResponse(String response) {
+        }
+    }
+}
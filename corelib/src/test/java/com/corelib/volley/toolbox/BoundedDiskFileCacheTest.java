@@ -0,0 +1,125 @@
+package com.corelib.volley.toolbox;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.*;
+
+public class BoundedDiskFileCacheTest {
+    private File mDir;
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = File.createTempFile("files", "");
+        mDir.delete();
+        mDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        BoundedDiskFileCache.awaitBackgroundTasks();
+        deleteRecursively(mDir);
+    }
+
+    @Test
+    public void lookupsAreAnsweredFromTheIndex() throws Exception {
+        write("cached", 10, 0);
+        BoundedDiskFileCache cache = newCache(1000);
+
+        assertEquals(new File(mDir, "cached").getAbsolutePath(), cache.getFile("cached"));
+        assertNull(cache.getFile("missing"));
+        assertEquals(10, cache.getSize());
+        // Only files that went through the cache are known to it.
+        write("bypassed", 10, 0);
+        assertNull(cache.getFile("bypassed"));
+    }
+
+    @Test
+    public void trimsLeastRecentlyUsedFilesBelowTheHysteresis() throws Exception {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            // Oldest first, as the scan orders by modification time.
+            write("file" + i, 100, now - (10 - i) * 60000L);
+        }
+        BoundedDiskFileCache cache = newCache(1000);
+        assertEquals(1000, cache.getSize());
+        // Recently used, so it outlives newer files.
+        assertNotNull(cache.getFile("file0"));
+
+        cache.putFile("new", new byte[100]);
+        BoundedDiskFileCache.awaitBackgroundTasks();
+
+        // 1100 bytes were trimmed to 90% of the limit, not just under it.
+        assertEquals(900, cache.getSize());
+        assertNotNull(cache.getFile("file0"));
+        assertNull(cache.getFile("file1"));
+        assertNull(cache.getFile("file2"));
+        assertFalse(new File(mDir, "file1").exists());
+        assertFalse(new File(mDir, "file2").exists());
+        assertNotNull(cache.getFile("file3"));
+        assertNotNull(cache.getFile("new"));
+    }
+
+    @Test
+    public void tempFilesLeftByAnEarlierRunAreDeleted() throws Exception {
+        File stale = write("stale.tmp", 10, System.currentTimeMillis() - 60000);
+        BoundedDiskFileCache cache = new BoundedDiskFileCache(mDir.getAbsolutePath(), 1000);
+        // Written after the cache was created; may still be in progress.
+        File fresh = write("fresh.tmp", 10, System.currentTimeMillis() + 60000);
+        cache.init();
+        BoundedDiskFileCache.awaitBackgroundTasks();
+
+        assertFalse(stale.exists());
+        assertTrue(fresh.exists());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void clearDeletesCachedFilesButNotPartialDownloads() throws Exception {
+        write("cached", 10, 0);
+        File partial = new File(new File(mDir, ".partial"), "download");
+        partial.getParentFile().mkdirs();
+        new FileOutputStream(partial).close();
+        BoundedDiskFileCache cache = newCache(1000);
+
+        cache.clear();
+        BoundedDiskFileCache.awaitBackgroundTasks();
+
+        assertNull(cache.getFile("cached"));
+        assertFalse(new File(mDir, "cached").exists());
+        assertTrue(partial.exists());
+        assertEquals(0, cache.getSize());
+    }
+
+    private BoundedDiskFileCache newCache(long maxSize) throws Exception {
+        BoundedDiskFileCache cache = new BoundedDiskFileCache(mDir.getAbsolutePath(), maxSize);
+        cache.init();
+        BoundedDiskFileCache.awaitBackgroundTasks();
+        return cache;
+    }
+
+    private File write(String name, int size, long lastModified) throws Exception {
+        File file = new File(mDir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[size]);
+        out.close();
+        if (lastModified != 0) {
+            assertTrue(file.setLastModified(lastModified));
+        }
+        return file;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
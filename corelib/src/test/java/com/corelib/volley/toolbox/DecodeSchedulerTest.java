@@ -0,0 +1,200 @@
+package com.corelib.volley.toolbox;
+
+import android.graphics.Bitmap;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.*;
+
+public class DecodeSchedulerTest {
+    /** Dispatcher threads handing decodes to the scheduler, as many as the network pool. */
+    private static final int DISPATCHERS = 8;
+
+    @Test
+    public void estimateCountsSampledPixels() {
+        assertEquals(1000L * 500 * 4,
+                DecodeScheduler.estimateBytes(1000, 500, 1, Bitmap.Config.ARGB_8888));
+        // Sampling rounds up, as the decoder does.
+        assertEquals(334L * 167 * 2,
+                DecodeScheduler.estimateBytes(1001, 501, 3, Bitmap.Config.RGB_565));
+        assertEquals(0, DecodeScheduler.estimateBytes(0, 500, 1, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void decodesStayWithinTheCountAndTheBudget() throws Exception {
+        final DecodeScheduler scheduler = new DecodeScheduler(2, 1000);
+        final Tracker tracker = new Tracker();
+        runDecodes(DISPATCHERS, 40, new Decode() {
+            @Override
+            public void run(int index) throws Exception {
+                long bytes = index % 2 == 0 ? 400 : 700;
+                scheduler.acquire(bytes);
+                tracker.started(bytes);
+                Thread.sleep(1);
+                tracker.finished(bytes);
+                scheduler.release(bytes);
+            }
+        });
+        assertTrue(tracker.mPeakDecodes.get() <= 2);
+        assertTrue(tracker.mPeakBytes.get() <= 1000);
+    }
+
+    @Test
+    public void decodeLargerThanTheBudgetRunsAlone() throws Exception {
+        final DecodeScheduler scheduler = new DecodeScheduler(4, 1000);
+        scheduler.acquire(100);
+        final CountDownLatch admitted = new CountDownLatch(1);
+        Thread large = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    scheduler.acquire(5000);
+                    admitted.countDown();
+                } catch (InterruptedException e) {
+                    // Test is over.
+                }
+            }
+        });
+        large.start();
+        assertFalse(admitted.await(100, TimeUnit.MILLISECONDS));
+        scheduler.release(100);
+        assertTrue(admitted.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Decodes 96 images of 1024x768 ARGB_8888 from {@link #DISPATCHERS} threads with 1, 2, 4 and
+     * 8 decode workers, and prints the decodes per second and the peak bytes decoding at once.
+     * One worker is what the global decode lock allowed. A decode is simulated by inflating a
+     * deflated image into a new buffer of the estimated size, which is CPU and allocation
+     * bound like BitmapFactory.
+     */
+    @Ignore("Benchmark; run by hand")
+    @Test
+    public void benchmarkDecodeWorkers() throws Exception {
+        int width = 1024;
+        int height = 768;
+        final long bytes = DecodeScheduler.estimateBytes(width, height, 1,
+                Bitmap.Config.ARGB_8888);
+        final byte[] encoded = encodeImage((int) bytes);
+        for (int workers : new int[] {1, 2, 4, 8, 1, 2, 4, 8}) {
+            final DecodeScheduler scheduler = new DecodeScheduler(workers, bytes * 8);
+            final Tracker tracker = new Tracker();
+            long start = System.nanoTime();
+            runDecodes(DISPATCHERS, 96, new Decode() {
+                @Override
+                public void run(int index) throws Exception {
+                    scheduler.acquire(bytes);
+                    try {
+                        tracker.started(bytes);
+                        decode(encoded, (int) bytes);
+                        tracker.finished(bytes);
+                    } finally {
+                        scheduler.release(bytes);
+                    }
+                }
+            });
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format(
+                    "%d workers on %d cpus: %.0f decodes/s, peak %.1fMB decoding",
+                    workers, Runtime.getRuntime().availableProcessors(), 96 / seconds,
+                    tracker.mPeakBytes.get() / 1048576.0));
+        }
+    }
+
+    private interface Decode {
+        void run(int index) throws Exception;
+    }
+
+    /** Runs the given number of decodes spread over the given number of threads. */
+    private static void runDecodes(int threads, int count, final Decode decode)
+            throws Exception {
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger total = new AtomicInteger(count);
+        final Throwable[] failure = new Throwable[1];
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int index;
+                    while ((index = next.getAndIncrement()) < total.get()) {
+                        try {
+                            decode.run(index);
+                        } catch (Throwable e) {
+                            failure[0] = e;
+                            return;
+                        }
+                    }
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (failure[0] != null) {
+            throw new AssertionError(failure[0]);
+        }
+    }
+
+    /** Returns a deflated image of the given size with some noise, so it doesn't inflate free. */
+    private static byte[] encodeImage(int size) {
+        byte[] pixels = new byte[size];
+        Random random = new Random(1);
+        for (int i = 0; i < size; i++) {
+            pixels[i] = (byte) ((i / 4) % 251 + (random.nextInt(8) == 0 ? random.nextInt(16) : 0));
+        }
+        Deflater deflater = new Deflater();
+        deflater.setInput(pixels);
+        deflater.finish();
+        byte[] buffer = new byte[size];
+        int length = deflater.deflate(buffer);
+        deflater.end();
+        byte[] encoded = new byte[length];
+        System.arraycopy(buffer, 0, encoded, 0, length);
+        return encoded;
+    }
+
+    private static byte[] decode(byte[] encoded, int size) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(encoded);
+        byte[] pixels = new byte[size];
+        inflater.inflate(pixels);
+        inflater.end();
+        return pixels;
+    }
+
+    /** Tracks the peak number and bytes of decodes running at the same time. */
+    private static class Tracker {
+        private final AtomicInteger mDecodes = new AtomicInteger();
+        private final AtomicLong mBytes = new AtomicLong();
+        final AtomicInteger mPeakDecodes = new AtomicInteger();
+        final AtomicLong mPeakBytes = new AtomicLong();
+
+        void started(long bytes) {
+            int decodes = mDecodes.incrementAndGet();
+            long total = mBytes.addAndGet(bytes);
+            while (decodes > mPeakDecodes.get()) {
+                mPeakDecodes.compareAndSet(mPeakDecodes.get(), decodes);
+            }
+            while (total > mPeakBytes.get()) {
+                mPeakBytes.compareAndSet(mPeakBytes.get(), total);
+            }
+        }
+
+        void finished(long bytes) {
+            mDecodes.decrementAndGet();
+            mBytes.addAndGet(-bytes);
+        }
+    }
+}
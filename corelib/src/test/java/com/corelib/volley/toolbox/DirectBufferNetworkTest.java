@@ -0,0 +1,157 @@
+package com.corelib.volley.toolbox;
+
+import com.corelib.volley.AuthFailureError;
+import com.corelib.volley.NetworkResponse;
+import com.corelib.volley.Request;
+import com.corelib.volley.Response;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class DirectBufferNetworkTest {
+    private static final int REQUESTS = 200;
+
+    @Test
+    public void cacheEntryOutlivesPooledBuffer() throws Exception {
+        byte[] body = buildJson(32 * 1024);
+        DirectByteBufferPool pool = new DirectByteBufferPool(1024 * 1024);
+        DirectBufferNetwork network = new DirectBufferNetwork(new StubStack(body), pool);
+
+        NetworkResponse networkResponse = network.performRequest(newRequest());
+        assertTrue(networkResponse.hasPooledBuffer());
+        Response<Items> response = newRequest().parseNetworkResponse(networkResponse);
+        networkResponse.close();
+        // Reuse the buffer for another body, as the next request would.
+        pool.getBuffer(body.length).put(new byte[body.length]);
+
+        assertNull(response.cacheEntry.buffer);
+        assertArrayEquals(body, response.cacheEntry.data);
+    }
+
+    /**
+     * Prints the bytes allocated per request to read and parse a JSON body with BasicNetwork
+     * and with DirectBufferNetwork, including the copy of the body for the cache entry. Heap
+     * bytes come from HotSpot's per-thread counter. Direct bytes are the growth in direct
+     * buffer capacity; HotSpot keeps that memory off the heap, but ART allocates it in the
+     * Java heap, so on a device the two add up.
+     */
+    @Ignore("Benchmark; run by hand")
+    @Test
+    public void benchmarkAllocationPerRequest() throws Exception {
+        for (int size : new int[] { 8 * 1024, 64 * 1024, 256 * 1024 }) {
+            byte[] body = buildJson(size);
+            long[] basic = measure(new BasicNetwork(new StubStack(body)));
+            long[] direct = measure(new DirectBufferNetwork(new StubStack(body)));
+            System.out.println(String.format(
+                    "%4dKB body: BasicNetwork heap %8d direct %6d bytes/request, "
+                            + "DirectBufferNetwork heap %8d direct %6d bytes/request",
+                    size / 1024, basic[0], basic[1], direct[0], direct[1]));
+        }
+    }
+
+    /** Returns {heap bytes per request, direct bytes per request}. */
+    private static long[] measure(BasicNetwork network) throws Exception {
+        // Warm up, which also fills the pools.
+        run(network, REQUESTS);
+        long heap = allocatedBytes();
+        long direct = directCapacity();
+        run(network, REQUESTS);
+        // Direct capacity also drops as unreferenced buffers are collected.
+        return new long[] { (allocatedBytes() - heap) / REQUESTS,
+                Math.max(0, directCapacity() - direct) / REQUESTS };
+    }
+
+    private static void run(BasicNetwork network, int requests) throws Exception {
+        for (int i = 0; i < requests; i++) {
+            GsonRequest<Items> request = newRequest();
+            NetworkResponse networkResponse = network.performRequest(request);
+            try {
+                assertTrue(request.parseNetworkResponse(networkResponse).isSuccess());
+            } finally {
+                networkResponse.close();
+            }
+        }
+    }
+
+    private static GsonRequest<Items> newRequest() {
+        return new GsonRequest<Items>("http://example.com/items", Items.class, null, null);
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static long directCapacity() {
+        List<BufferPoolMXBean> pools =
+                ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class);
+        for (BufferPoolMXBean pool : pools) {
+            if ("direct".equals(pool.getName())) {
+                return pool.getTotalCapacity();
+            }
+        }
+        return 0;
+    }
+
+    private static byte[] buildJson(int size) throws Exception {
+        StringBuilder builder = new StringBuilder("{\"items\":[");
+        int i = 0;
+        while (builder.length() < size) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"id\":").append(i).append(",\"title\":\"title ").append(i)
+                    .append("\"}");
+            i++;
+        }
+        return builder.append("]}").toString().getBytes("UTF-8");
+    }
+
+    /** Answers every request with the same 200 JSON body. */
+    private static class StubStack implements HttpStack {
+        private final byte[] mBody;
+
+        StubStack(byte[] body) {
+            mBody = body;
+        }
+
+        @Override
+        public HttpResponse performRequest(Request<?> request,
+                Map<String, String> additionalHeaders) throws IOException, AuthFailureError {
+            BasicHttpResponse response = new BasicHttpResponse(
+                    new BasicStatusLine(new ProtocolVersion("HTTP", 1, 1), 200, "OK"));
+            ByteArrayEntity entity = new ByteArrayEntity(mBody);
+            entity.setContentType("application/json; charset=UTF-8");
+            response.setEntity(entity);
+            response.addHeader("Content-Type", "application/json; charset=UTF-8");
+            return response;
+        }
+    }
+
+    static class Items {
+        List<Item> items;
+    }
+
+    static class Item {
+        int id;
+        String title;
+    }
+}
@@ -0,0 +1,65 @@
+package com.corelib.volley.toolbox;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * The rules deciding when {@link BitmapPool} may pool an evicted bitmap. The pool itself needs
+ * real bitmaps, see BitmapPoolTest under androidTest.
+ */
+public class DisplayRefCountsTest {
+    private final DisplayRefCounts<Object> mRefCounts = new DisplayRefCounts<Object>();
+    private final Object mBitmap = new Object();
+
+    @Test
+    public void neverDisplayedIsNotPooled() {
+        // Whoever got it from the cache may still hold it.
+        assertEquals(DisplayRefCounts.NOT_DISPLAYED, mRefCounts.evict(mBitmap));
+    }
+
+    @Test
+    public void evictedWhileDisplayedIsPooledOnTheLastRelease() {
+        mRefCounts.acquire(mBitmap);
+        mRefCounts.acquire(mBitmap);
+        assertEquals(DisplayRefCounts.STILL_DISPLAYED, mRefCounts.evict(mBitmap));
+
+        assertFalse(mRefCounts.release(mBitmap));
+        assertTrue(mRefCounts.release(mBitmap));
+        // Handed to the pool once; it is forgotten after that.
+        assertFalse(mRefCounts.release(mBitmap));
+        assertEquals(DisplayRefCounts.NOT_DISPLAYED, mRefCounts.evict(mBitmap));
+    }
+
+    @Test
+    public void releasedIsPooledOnEviction() {
+        mRefCounts.acquire(mBitmap);
+        assertFalse(mRefCounts.release(mBitmap));
+
+        assertEquals(DisplayRefCounts.RELEASED, mRefCounts.evict(mBitmap));
+        assertEquals(DisplayRefCounts.NOT_DISPLAYED, mRefCounts.evict(mBitmap));
+    }
+
+    @Test
+    public void unmatchedReleaseIsIgnored() {
+        assertFalse(mRefCounts.release(mBitmap));
+        mRefCounts.acquire(mBitmap);
+        mRefCounts.release(mBitmap);
+        assertFalse(mRefCounts.release(mBitmap));
+
+        // The extra release didn't take the count below zero.
+        mRefCounts.acquire(mBitmap);
+        assertEquals(DisplayRefCounts.STILL_DISPLAYED, mRefCounts.evict(mBitmap));
+        assertTrue(mRefCounts.release(mBitmap));
+    }
+
+    @Test
+    public void displayedAgainBeforeEvictionWaitsForTheNewRelease() {
+        mRefCounts.acquire(mBitmap);
+        mRefCounts.release(mBitmap);
+        mRefCounts.acquire(mBitmap);
+
+        assertEquals(DisplayRefCounts.STILL_DISPLAYED, mRefCounts.evict(mBitmap));
+        assertTrue(mRefCounts.release(mBitmap));
+    }
+}
@@ -0,0 +1,66 @@
+package com.corelib.volley.toolbox;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class EncodedImageCacheTest {
+    private static final int ENTRY_SIZE = 8 * 1024;
+
+    private final EncodedImageCache mCache = new EncodedImageCache(8 * ENTRY_SIZE);
+
+    @Test
+    public void acquiredBufferHoldsTheCachedBytes() throws Exception {
+        mCache.put("a", fill(1));
+        ByteBuffer view = mCache.acquire("a");
+        assertTrue(view.isReadOnly());
+        assertArrayEquals(fill(1), read(view));
+        // Reading through a stream leaves the view as it was.
+        assertArrayEquals(fill(1), read(view));
+        mCache.release(view);
+        assertNull(mCache.acquire("b"));
+    }
+
+    @Test
+    public void evictedBufferIsNotReusedUntilReleased() throws Exception {
+        mCache.put("a", fill(1));
+        ByteBuffer view = mCache.acquire("a");
+        // Evict "a" and keep putting entries that could take its buffer from the pool.
+        for (int i = 2; i < 20; i++) {
+            mCache.put("key" + i, fill(i));
+        }
+        assertNull(mCache.acquire("a"));
+        assertArrayEquals(fill(1), read(view));
+        mCache.release(view);
+        mCache.release(view);
+        assertTrue(mCache.size() <= 8 * ENTRY_SIZE);
+    }
+
+    @Test
+    public void removedBufferStaysValidWhileAcquired() throws Exception {
+        mCache.put("a", fill(1));
+        ByteBuffer view = mCache.acquire("a");
+        mCache.remove("a");
+        mCache.put("b", fill(2));
+        assertArrayEquals(fill(1), read(view));
+        mCache.release(view);
+        assertEquals(ENTRY_SIZE, mCache.size());
+    }
+
+    private static byte[] fill(int value) {
+        byte[] data = new byte[ENTRY_SIZE];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    private static byte[] read(ByteBuffer view) throws Exception {
+        ByteBufferInputStream stream = new ByteBufferInputStream(view.duplicate());
+        byte[] data = new byte[stream.available()];
+        assertEquals(data.length, stream.read(data, 0, data.length));
+        assertEquals(-1, stream.read());
+        return data;
+    }
+}
@@ -0,0 +1,256 @@
+package com.corelib.volley.toolbox;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GsonAdapterRegistryTest {
+
+    @Test
+    public void parsesLikeGson() {
+        String json = "{\"id\":7,\"title\":\"a\",\"tags\":[\"x\",\"y\"],\"child\":{\"id\":8}}";
+        Bean expected = new Gson().fromJson(json, Bean.class);
+        Bean actual = GsonAdapterRegistry.fromJson(new StringReader(json), Bean.class);
+        assertEquals(expected.id, actual.id);
+        assertEquals(expected.title, actual.title);
+        assertEquals(expected.tags, actual.tags);
+        assertEquals(expected.child.id, actual.child.id);
+    }
+
+    @Test
+    public void acceptsLenientJson() {
+        Bean bean = GsonAdapterRegistry.fromJson(new StringReader("{id:7,'title':'a'}"),
+                Bean.class);
+        assertEquals(7, bean.id);
+        assertEquals("a", bean.title);
+    }
+
+    @Test
+    public void emptyDocumentIsNull() {
+        assertNull(GsonAdapterRegistry.fromJson(new StringReader(""), Bean.class));
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void malformedDocumentIsSyntaxError() {
+        GsonAdapterRegistry.fromJson(new StringReader("{\"id\":}"), Bean.class);
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void truncatedDocumentIsSyntaxError() {
+        GsonAdapterRegistry.fromJson(new StringReader("{\"id\":7,"), Bean.class);
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void trailingContentIsSyntaxError() {
+        GsonAdapterRegistry.fromJson(new StringReader("{\"id\":7} {\"id\":8}"), Bean.class);
+    }
+
+    @Test
+    public void readFailureIsIoError() {
+        final IOException failure = new IOException("connection reset");
+        Reader reader = new Reader() {
+            @Override
+            public int read(char[] buf, int off, int len) throws IOException {
+                throw failure;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        try {
+            GsonAdapterRegistry.fromJson(reader, Bean.class);
+            fail();
+        } catch (JsonIOException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    @Test
+    public void adapterIsResolvedOnce() {
+        assertSame(GsonAdapterRegistry.getAdapter(Bean.class),
+                GsonAdapterRegistry.getAdapter(Bean.class));
+    }
+
+    @Test
+    public void usesGeneratedAdapter() {
+        TaggedBean bean = GsonAdapterRegistry.fromJson(new StringReader("{\"id\":7}"),
+                TaggedBean.class);
+        assertTrue(bean.generated);
+        // Also as a field of a class parsed reflectively.
+        Holder holder = GsonAdapterRegistry.fromJson(
+                new StringReader("{\"tagged\":{\"id\":7}}"), Holder.class);
+        assertTrue(holder.tagged.generated);
+    }
+
+    /**
+     * Prints the median time of the first parse of a response class with nothing resolved, the
+     * first parse after {@link GsonAdapterRegistry#warmUp} resolved it, a later parse, and a
+     * parse with a new Gson per request as GsonRequest used to do. Each round loads the
+     * response classes in a new class loader, so they are as cold as on the first request
+     * after the app starts.
+     */
+    @Ignore("Benchmark; run by hand")
+    @Test
+    public void benchmarkFirstRequestLatency() throws Exception {
+        String json = new Gson().toJson(newFeed(20));
+        int rounds = 25;
+        long[] cold = new long[rounds];
+        long[] later = new long[rounds];
+        long[] warmedUp = new long[rounds];
+        long[] perRequestGson = new long[rounds];
+        for (int i = 0; i < rounds; i++) {
+            Class<?> coldClass = loadFresh(Feed.class);
+            cold[i] = parseMicros(json, coldClass);
+            later[i] = parseMicros(json, coldClass);
+            Class<?> warmClass = loadFresh(Feed.class);
+            // What warmUp does on its thread.
+            GsonAdapterRegistry.getAdapter(warmClass);
+            warmedUp[i] = parseMicros(json, warmClass);
+            long start = System.nanoTime();
+            assertNotNull(new Gson().fromJson(json, Feed.class));
+            perRequestGson[i] = (System.nanoTime() - start) / 1000;
+        }
+        System.out.println(String.format("First request %dus, after warm-up %dus, "
+                + "later requests %dus, new Gson per request %dus (%dKB response)",
+                median(cold), median(warmedUp), median(later), median(perRequestGson),
+                json.length() / 1024));
+    }
+
+    private static long parseMicros(String json, Class<?> clazz) {
+        long start = System.nanoTime();
+        assertNotNull(GsonAdapterRegistry.fromJson(new StringReader(json), clazz));
+        return (System.nanoTime() - start) / 1000;
+    }
+
+    /** Loads the class and the classes it uses again, unresolved and uninitialized. */
+    private static Class<?> loadFresh(Class<?> clazz) throws Exception {
+        URL classes = clazz.getProtectionDomain().getCodeSource().getLocation();
+        ClassLoader loader = new URLClassLoader(new URL[] {classes},
+                ClassLoader.getSystemClassLoader().getParent());
+        return Class.forName(clazz.getName(), false, loader);
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static Feed newFeed(int size) {
+        Feed feed = new Feed();
+        feed.next = "/feed?page=2";
+        feed.items = new ArrayList<Item>();
+        for (int i = 0; i < size; i++) {
+            Item item = new Item();
+            item.id = 1000 + i;
+            item.title = "Story " + i;
+            item.summary = "A summary of story " + i + " that runs for a line or two.";
+            item.comments = i * 3;
+            item.top = i < 3;
+            item.author = new Author();
+            item.author.id = i % 5;
+            item.author.name = "Author " + i % 5;
+            item.author.avatar = newImage(i % 5, 96);
+            item.images = Arrays.asList(newImage(i, 640), newImage(i + 1, 320));
+            feed.items.add(item);
+        }
+        return feed;
+    }
+
+    private static Image newImage(int id, int width) {
+        Image image = new Image();
+        image.url = "http://img.example.com/" + id + "_" + width + ".jpg";
+        image.width = width;
+        image.height = width * 3 / 4;
+        return image;
+    }
+
+    static class Bean {
+        int id;
+        String title;
+        List<String> tags;
+        Bean child;
+    }
+
+    static class Holder {
+        TaggedBean tagged;
+    }
+
+    static class Feed {
+        List<Item> items;
+        String next;
+    }
+
+    static class Item {
+        long id;
+        String title;
+        String summary;
+        Author author;
+        List<Image> images;
+        int comments;
+        boolean top;
+    }
+
+    static class Author {
+        long id;
+        String name;
+        Image avatar;
+    }
+
+    static class Image {
+        String url;
+        int width;
+        int height;
+    }
+}
+
+@GenerateTypeAdapter
+class TaggedBean {
+    int id;
+    transient boolean generated;
+}
+
+/** Stands in for what the processor generates for {@link TaggedBean}. */
+class TaggedBean_TypeAdapter extends TypeAdapter<TaggedBean> {
+    public TaggedBean_TypeAdapter(Gson gson) {
+    }
+
+    @Override
+    public void write(JsonWriter out, TaggedBean value) throws IOException {
+        out.beginObject().name("id").value(value.id).endObject();
+    }
+
+    @Override
+    public TaggedBean read(JsonReader in) throws IOException {
+        TaggedBean bean = new TaggedBean();
+        bean.generated = true;
+        in.beginObject();
+        while (in.hasNext()) {
+            if ("id".equals(in.nextName())) {
+                bean.id = in.nextInt();
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return bean;
+    }
+}
@@ -0,0 +1,144 @@
+package com.corelib.volley.toolbox;
+
+import com.corelib.volley.NetworkResponse;
+import com.corelib.volley.OriginalData;
+import com.corelib.volley.Response;
+import com.google.gson.Gson;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the allocation and time of parsing a JSON response the way GsonRequest used to,
+ * through a String for Gson and another for the listener, with parsing it from a Reader for a
+ * plain listener, which still gets a String, and for a lazy listener, which doesn't.
+ */
+public class GsonRequestParseBenchmark {
+    private static final int ROUNDS = 100;
+
+    @Ignore("Benchmark; run by hand")
+    @Test
+    public void benchmarkParse() throws Exception {
+        for (int size : new int[] { 8 * 1024, 64 * 1024, 256 * 1024 }) {
+            final NetworkResponse response = newResponse(buildJson(size));
+            final Gson gson = new Gson();
+            long[] strings = measure(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        String json = new String(response.data, "UTF-8");
+                        String original = new String(response.data);
+                        assertNotNull(original);
+                        assertNotNull(gson.fromJson(json, Items.class));
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            long[] plain = measure(new Runnable() {
+                @Override
+                public void run() {
+                    assertTrue(newRequest(new PlainListener()).parseNetworkResponse(response)
+                            .isSuccess());
+                }
+            });
+            long[] lazy = measure(new Runnable() {
+                @Override
+                public void run() {
+                    assertTrue(newRequest(new LazyListener()).parseNetworkResponse(response)
+                            .isSuccess());
+                }
+            });
+            System.out.println(String.format(
+                    "GsonRequest %4dKB body: via Strings %6dus %8d bytes, "
+                            + "Reader + String listener %6dus %8d bytes, "
+                            + "Reader + lazy listener %6dus %8d bytes",
+                    size / 1024, strings[0], strings[1], plain[0], plain[1], lazy[0], lazy[1]));
+        }
+    }
+
+    /** Returns {microseconds per parse, bytes allocated per parse}. */
+    private static long[] measure(Runnable parse) {
+        // Warm up.
+        for (int i = 0; i < ROUNDS; i++) {
+            parse.run();
+        }
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            parse.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        return new long[] { elapsed / 1000 / ROUNDS, (allocatedBytes() - bytes) / ROUNDS };
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static GsonRequest<Items> newRequest(Response.Listener<Items> listener) {
+        return new GsonRequest<Items>("http://example.com/items", Items.class, listener, null);
+    }
+
+    private static NetworkResponse newResponse(byte[] body) {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Content-Type", "application/json; charset=UTF-8");
+        return new NetworkResponse(200, body, headers, false);
+    }
+
+    private static byte[] buildJson(int size) throws Exception {
+        StringBuilder builder = new StringBuilder("{\"items\":[");
+        int i = 0;
+        while (builder.length() < size) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"id\":").append(i).append(",\"title\":\"title ").append(i)
+                    .append("\",\"url\":\"http://example.com/").append(i).append("\"}");
+            i++;
+        }
+        return builder.append("]}").toString().getBytes("UTF-8");
+    }
+
+    private static class PlainListener implements Response.Listener<Items> {
+        @Override
+        public void onResponse(Items response) {
+        }
+
+        @Override
+        public void onResponseHeadersAndData(Map<String, String> headers, String originalData,
+                int responseCode, boolean isFromNetwork) {
+        }
+    }
+
+    private static class LazyListener extends PlainListener
+            implements Response.LazyDataListener<Items> {
+        @Override
+        public void onResponseHeadersAndData(Map<String, String> headers,
+                OriginalData originalData, int responseCode, boolean isFromNetwork) {
+        }
+    }
+
+    static class Items {
+        List<Item> items;
+    }
+
+    static class Item {
+        int id;
+        String title;
+        String url;
+    }
+}
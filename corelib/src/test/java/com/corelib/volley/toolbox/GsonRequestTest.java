@@ -0,0 +1,96 @@
+package com.corelib.volley.toolbox;
+
+import com.corelib.volley.NetworkResponse;
+import com.corelib.volley.ParseError;
+import com.corelib.volley.Response;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class GsonRequestTest {
+
+    @Test
+    public void streamedBodyIsParsed() throws Exception {
+        Response<Bean> response = parse(new ByteArrayInputStream(
+                "{\"id\":7,\"name\":\"seven\"}".getBytes("UTF-8")));
+        assertTrue(response.isSuccess());
+        assertEquals(7, response.result.id);
+        assertEquals("seven", response.result.name);
+    }
+
+    @Test
+    public void malformedStreamedBodyIsParseError() throws Exception {
+        Response<Bean> response = parse(new ByteArrayInputStream(
+                "{\"id\":".getBytes("UTF-8")));
+        assertFalse(response.isSuccess());
+        assertTrue(response.error instanceof ParseError);
+    }
+
+    @Test
+    public void readFailureMidDocumentIsRethrown() throws Exception {
+        InputStream body = new FailingInputStream("{\"id\":7,\"na".getBytes("UTF-8"),
+                new SocketTimeoutException("read timed out"));
+        try {
+            parse(body);
+            fail("expected the read failure");
+        } catch (SocketTimeoutException e) {
+            assertEquals("read timed out", e.getMessage());
+        }
+    }
+
+    @Test
+    public void connectionClosedMidDocumentIsRethrown() throws Exception {
+        // OkHttp reports a body cut short as an IOException, which Gson may see as an
+        // unexpected end of input.
+        InputStream body = new FailingInputStream("{\"id\":7".getBytes("UTF-8"),
+                new IOException("unexpected end of stream"));
+        try {
+            parse(body);
+            fail("expected the read failure");
+        } catch (IOException e) {
+            assertEquals("unexpected end of stream", e.getMessage());
+        }
+    }
+
+    private static Response<Bean> parse(InputStream body) throws IOException {
+        GsonRequest<Bean> request = new GsonRequest<Bean>("http://example.com/bean", Bean.class,
+                null, null);
+        request.setStreamResponse(true);
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Content-Type", "application/json; charset=UTF-8");
+        return request.parseNetworkResponse(new NetworkResponse(200, body, headers), body);
+    }
+
+    /** Returns the given bytes, then throws the given exception. */
+    private static class FailingInputStream extends InputStream {
+        private final byte[] mData;
+        private final IOException mFailure;
+        private int mPosition = 0;
+
+        FailingInputStream(byte[] data, IOException failure) {
+            mData = data;
+            mFailure = failure;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mPosition < mData.length) {
+                return mData[mPosition++] & 0xff;
+            }
+            throw mFailure;
+        }
+    }
+
+    static class Bean {
+        int id;
+        String name;
+    }
+}
@@ -0,0 +1,98 @@
+package com.corelib.volley.toolbox;
+
+import com.corelib.volley.Request;
+
+import org.apache.http.HttpResponse;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares request latency through {@link HurlStack} and {@link OkHttpStack} against a
+ * {@link LocalHttpServer}. The server speaks plain HTTP/1.1, so this shows the cost of each
+ * stack and of its connection reuse, not HTTP/2 multiplexing, which needs TLS.
+ */
+public class HttpStackLatencyBenchmark {
+    private static final int WARM_UP = 100;
+    private static final int REQUESTS = 500;
+
+    @Ignore("Benchmark; run by hand")
+    @Test
+    public void benchmarkHurlVersusOkHttp() throws Exception {
+        for (int size : new int[] { 1024, 64 * 1024 }) {
+            LocalHttpServer server = newServer(size);
+            try {
+                String url = server.url("/item");
+                HttpStack hurl = new HurlStack("benchmark");
+                HttpStack okHttp = new OkHttpStack("benchmark");
+                measure(hurl, url, WARM_UP);
+                measure(okHttp, url, WARM_UP);
+                long[] viaHurl = measure(hurl, url, REQUESTS);
+                long[] viaOkHttp = measure(okHttp, url, REQUESTS);
+                System.out.println(String.format(
+                        "HttpStack %3dKB body: HurlStack mean %5dus p90 %5dus, "
+                                + "OkHttpStack mean %5dus p90 %5dus",
+                        size / 1024, viaHurl[0], viaHurl[1], viaOkHttp[0], viaOkHttp[1]));
+            } finally {
+                server.shutdown();
+            }
+        }
+    }
+
+    /** Returns {mean, 90th percentile} request latency in microseconds. */
+    private static long[] measure(HttpStack stack, String url, int requests) throws Exception {
+        Map<String, String> noHeaders = Collections.emptyMap();
+        long[] latencies = new long[requests];
+        byte[] buffer = new byte[8192];
+        long total = 0;
+        for (int i = 0; i < requests; i++) {
+            long start = System.nanoTime();
+            HttpResponse response = stack.performRequest(new GetRequest(url), noHeaders);
+            InputStream in = response.getEntity().getContent();
+            while (in.read(buffer) != -1) {
+                // Drain the body, as BasicNetwork does.
+            }
+            in.close();
+            latencies[i] = (System.nanoTime() - start) / 1000;
+            total += latencies[i];
+            assertEquals(200, response.getStatusLine().getStatusCode());
+        }
+        Arrays.sort(latencies);
+        return new long[] { total / requests, latencies[requests * 9 / 10] };
+    }
+
+    private static LocalHttpServer newServer(int size) throws Exception {
+        final byte[] body = new byte[size];
+        Arrays.fill(body, (byte) 'a');
+        return new LocalHttpServer(new LocalHttpServer.Handler() {
+            @Override
+            public LocalHttpServer.Reply handle(String method, String path,
+                    Map<String, String> headers) {
+                return new LocalHttpServer.Reply(200, body)
+                        .header("Content-Type", "text/plain; charset=UTF-8");
+            }
+        });
+    }
+
+    private static class GetRequest extends Request<String> {
+        GetRequest(String url) {
+            super(Method.GET, url, null);
+        }
+
+        @Override
+        protected com.corelib.volley.Response<String> parseNetworkResponse(
+                com.corelib.volley.NetworkResponse response) {
+            return null;
+        }
+
+        @Override
+        protected void deliverResponse(String response) {
+        }
+    }
+}
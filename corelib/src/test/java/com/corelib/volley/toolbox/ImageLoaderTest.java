@@ -0,0 +1,216 @@
+package com.corelib.volley.toolbox;
+
+import android.graphics.Bitmap;
+
+import com.corelib.volley.ExecutorDelivery;
+import com.corelib.volley.Request;
+import com.corelib.volley.Request.Priority;
+import com.corelib.volley.RequestQueue;
+import com.corelib.volley.VolleyError;
+
+import org.junit.After;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class ImageLoaderTest {
+    private static final List<String> URLS = Arrays.asList("http://example.com/0.jpg",
+            "http://example.com/1.jpg", "http://example.com/2.jpg", "http://example.com/3.jpg");
+
+    /** Requests added to the queue, which is never started, so they stay waiting. */
+    private final List<Request<?>> mRequests = new ArrayList<Request<?>>();
+
+    @After
+    public void tearDown() {
+        VolleyConfig.setImageCache(null);
+    }
+
+    @Test
+    public void sizeBucketIsNeverSmallerAndAtMostAnEighthLarger() {
+        assertEquals(0, ImageLoader.getSizeBucket(0));
+        for (int size = 1; size <= 4096; size++) {
+            int bucket = ImageLoader.getSizeBucket(size);
+            assertTrue(size + " -> " + bucket, bucket >= size);
+            assertTrue(size + " -> " + bucket, bucket <= size + size / 8);
+            // A bucket is its own bucket, so a decode's key is stable.
+            assertEquals(bucket, ImageLoader.getSizeBucket(bucket));
+        }
+    }
+
+    @Test
+    public void commonViewSizesShareBuckets() {
+        assertEquals(ImageLoader.getSizeBucket(300), ImageLoader.getSizeBucket(310));
+        assertEquals(ImageLoader.getSizeBucket(1000), ImageLoader.getSizeBucket(1024));
+    }
+
+    @Test
+    public void missLooksUpLargerBucketsOfTheSameShapeThenTheFullSize() {
+        final List<String> keys = new ArrayList<String>();
+        ImageLoader.ImageCache cache = new ImageLoader.ImageCache() {
+            @Override
+            public Bitmap getBitmap(String url) {
+                keys.add(url);
+                return null;
+            }
+
+            @Override
+            public void putBitmap(String url, Bitmap bitmap) {
+                fail("Nothing to cache on a miss");
+            }
+        };
+        assertNull(ImageLoader.getCachedBitmap(cache, "u", 300, 200));
+        assertEquals(Arrays.asList("#W300#H200u", "#W600#H400u", "#W1200#H800u",
+                "#W2400#H1600u", "u"), keys);
+
+        keys.clear();
+        assertNull(ImageLoader.getCachedBitmap(cache, "u", 0, 1500));
+        assertEquals(Arrays.asList("#W0#H1500u", "#W0#H3000u", "u"), keys);
+    }
+
+    @Test
+    public void largerDecodeIsScaledDownToTheBucket() {
+        assertArrayEquals(new int[] {300, 200}, ImageLoader.getScaledSize(300, 200, 1200, 800));
+        assertArrayEquals(new int[] {200, 200}, ImageLoader.getScaledSize(300, 200, 1000, 1000));
+        assertArrayEquals(new int[] {300, 200}, ImageLoader.getScaledSize(0, 200, 1200, 800));
+        assertArrayEquals(new int[] {300, 200}, ImageLoader.getScaledSize(300, 0, 1200, 800));
+        // Already fits.
+        assertNull(ImageLoader.getScaledSize(300, 200, 300, 200));
+        assertNull(ImageLoader.getScaledSize(300, 200, 250, 150));
+    }
+
+    @Test
+    public void prefetchesWaitAtLowPriority() {
+        ImageLoader loader = newLoader();
+        loader.prefetch(URLS, 300, 200);
+
+        assertEquals(URLS.size(), mRequests.size());
+        for (int i = 0; i < URLS.size(); i++) {
+            assertEquals(URLS.get(i), mRequests.get(i).getUrl());
+            assertEquals(Priority.LOW, mRequests.get(i).getPriority());
+        }
+    }
+
+    @Test
+    public void visibleRangeRaisesItsImagesAndLowersTheOnesThatLeftIt() {
+        ImageLoader loader = newLoader();
+        ImageLoader.Prefetch prefetch = loader.prefetch(URLS, 300, 200);
+
+        prefetch.setVisibleRange(1, 2);
+        assertPriorities(Priority.LOW, Priority.NORMAL, Priority.NORMAL, Priority.LOW);
+
+        prefetch.setVisibleRange(2, 3);
+        assertPriorities(Priority.LOW, Priority.LOW, Priority.NORMAL, Priority.NORMAL);
+
+        // Scrolled past them all.
+        prefetch.setVisibleRange(10, 12);
+        assertPriorities(Priority.LOW, Priority.LOW, Priority.LOW, Priority.LOW);
+    }
+
+    @Test
+    public void cancelingAPrefetchCancelsItsRequests() {
+        ImageLoader loader = newLoader();
+        ImageLoader.Prefetch prefetch = loader.prefetch(URLS, 300, 200);
+
+        prefetch.cancel();
+        for (Request<?> request : mRequests) {
+            assertTrue(request.getUrl(), request.isCanceled());
+        }
+        // Nothing left to reprioritize.
+        prefetch.setVisibleRange(0, 3);
+        for (Request<?> request : mRequests) {
+            assertEquals(Priority.LOW, request.getPriority());
+        }
+    }
+
+    @Test
+    public void cancelingAPrefetchKeepsRequestsAViewJoined() {
+        ImageLoader loader = newLoader();
+        ImageLoader.Prefetch prefetch = loader.prefetch(URLS, 300, 200);
+        // A view binds the second image while it is still being prefetched.
+        loader.get(URLS.get(1), new NullImageListener(), 300, 200, false,
+                VolleyConfig.CacheType.NORMAL_CACHE, null, null);
+        assertEquals(URLS.size(), mRequests.size());
+
+        prefetch.cancel();
+        assertTrue(mRequests.get(0).isCanceled());
+        assertFalse(mRequests.get(1).isCanceled());
+        assertTrue(mRequests.get(2).isCanceled());
+    }
+
+    /**
+     * Returns a loader with an empty image cache whose requests go to {@link #mRequests}.
+     */
+    private ImageLoader newLoader() {
+        VolleyConfig.setImageCache(new ImageLoader.ImageCache() {
+            @Override
+            public Bitmap getBitmap(String url) {
+                return null;
+            }
+
+            @Override
+            public void putBitmap(String url, Bitmap bitmap) {
+            }
+        });
+        BasicNetwork network = new BasicNetwork(new HurlStack("test"));
+        RequestQueue queue = new RequestQueue(new NoCache(), network, 1,
+                new ExecutorDelivery(new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                })) {
+            @Override
+            public <T> Request<T> add(Request<T> request) {
+                mRequests.add(request);
+                return super.add(request);
+            }
+        };
+        return new ImageLoader(queue);
+    }
+
+    private void assertPriorities(Priority... priorities) {
+        for (int i = 0; i < priorities.length; i++) {
+            assertEquals(URLS.get(i), priorities[i], mRequests.get(i).getPriority());
+        }
+    }
+
+    private static class NullImageListener implements ImageLoader.ImageListener {
+        @Override
+        public void onResponse(ImageLoader.ImageContainer response, boolean isImmediate) {
+        }
+
+        @Override
+        public void onErrorResponse(VolleyError error, ImageLoader.ImageContainer response,
+                boolean isImmediate) {
+        }
+    }
+
+    /**
+     * Prints the mean pixels of a decode to the size bucket of a square request, relative to
+     * the request, with power-of-two buckets and with the current ones.
+     */
+    @Ignore("Benchmark; run by hand")
+    @Test
+    public void benchmarkBucketPixelOverhead() {
+        double powerOfTwo = 0;
+        double current = 0;
+        int count = 0;
+        for (int size = 64; size <= 2048; size++) {
+            int bucket = Integer.highestOneBit(size);
+            bucket = bucket == size ? size : bucket << 1;
+            powerOfTwo += (double) bucket * bucket / ((double) size * size);
+            int newBucket = ImageLoader.getSizeBucket(size);
+            current += (double) newBucket * newBucket / ((double) size * size);
+            count++;
+        }
+        System.out.println(String.format(
+                "Size buckets, requests of 64-2048px: power of two %.2fx pixels, current %.2fx",
+                powerOfTwo / count, current / count));
+    }
+}
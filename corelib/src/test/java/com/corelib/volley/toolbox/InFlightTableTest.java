@@ -0,0 +1,79 @@
+package com.corelib.volley.toolbox;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class InFlightTableTest {
+    private final List<String> mDelivered = new ArrayList<String>();
+    private final InFlightTable<String, TestBatch> mTable = new InFlightTable<String, TestBatch>(
+            new InFlightTable.Delivery<String, TestBatch>() {
+                @Override
+                public void deliver(TestBatch batch, String container) {
+                    mDelivered.add(container);
+                }
+            }, 100);
+
+    @Test
+    public void completedBatchesOfTheSameKeyAreAllDelivered() {
+        TestBatch first = new TestBatch();
+        assertTrue(mTable.start("key", first, "a"));
+        mTable.batchResponse("key", mTable.complete("key"));
+        // A new request for the key completes before the delivery runs.
+        TestBatch second = new TestBatch();
+        assertTrue(mTable.start("key", second, "b"));
+        mTable.batchResponse("key", mTable.complete("key"));
+
+        mTable.deliverBatchedResponses();
+        assertEquals(2, mDelivered.size());
+        assertEquals("a", mDelivered.get(0));
+        assertEquals("b", mDelivered.get(1));
+    }
+
+    @Test
+    public void canceledContainerOfABatchedResponseIsNotDelivered() {
+        TestBatch first = new TestBatch();
+        mTable.start("key", first, "a");
+        mTable.join("key", "b");
+        mTable.batchResponse("key", mTable.complete("key"));
+        TestBatch second = new TestBatch();
+        mTable.start("key", second, "c");
+        mTable.batchResponse("key", mTable.complete("key"));
+
+        mTable.cancel("key", "a");
+        mTable.cancel("key", "c");
+        mTable.deliverBatchedResponses();
+        assertEquals(1, mDelivered.size());
+        assertEquals("b", mDelivered.get(0));
+        // Already complete; nothing to cancel.
+        assertFalse(first.mCanceled);
+        assertFalse(second.mCanceled);
+    }
+
+    @Test
+    public void responsesAreDeliveredOnce() {
+        mTable.start("key", new TestBatch(), "a");
+        mTable.batchResponse("key", mTable.complete("key"));
+
+        mTable.deliverBatchedResponses();
+        mTable.deliverBatchedResponses();
+        assertEquals(1, mDelivered.size());
+    }
+
+    private static class TestBatch extends InFlightTable.Batch<String> {
+        boolean mCanceled;
+
+        @Override
+        boolean isCanceled() {
+            return mCanceled;
+        }
+
+        @Override
+        void cancel() {
+            mCanceled = true;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.corelib.volley.toolbox;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal HTTP/1.1 server on the loopback interface for tests and benchmarks. Connections
+ * are kept alive, and each response goes out in a single write with Nagle's algorithm off, so
+ * that small responses don't stall on delayed ACKs.
+ */
+class LocalHttpServer {
+    /** Answers a request. */
+    interface Handler {
+        Reply handle(String method, String path, Map<String, String> headers) throws IOException;
+    }
+
+    /** A response to write back. */
+    static class Reply {
+        final int status;
+        final Map<String, String> headers =
+                new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        final byte[] body;
+        int bytesPerMs;
+
+        Reply(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        Reply header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        /** Sends the body at the given rate, in slices, like a connection capped by the CDN. */
+        Reply throttle(int bytesPerMs) {
+            this.bytesPerMs = bytesPerMs;
+            return this;
+        }
+    }
+
+    private final ServerSocket mServerSocket;
+    private final Handler mHandler;
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private volatile boolean mShutdown;
+
+    LocalHttpServer(Handler handler) throws IOException {
+        mHandler = handler;
+        mServerSocket = new ServerSocket(0, 128, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        }, "LocalHttpServer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    String url(String path) {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+    }
+
+    int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    void shutdown() throws IOException {
+        mShutdown = true;
+        mServerSocket.close();
+    }
+
+    private void acceptConnections() {
+        while (!mShutdown) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            mConnectionCount.incrementAndGet();
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            }, "LocalHttpServer connection");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            String requestLine;
+            while ((requestLine = readLine(in)) != null && requestLine.length() > 0) {
+                Map<String, String> headers =
+                        new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+                String line;
+                while ((line = readLine(in)) != null && line.length() > 0) {
+                    int colon = line.indexOf(':');
+                    headers.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+                }
+                String contentLength = headers.get("Content-Length");
+                if (contentLength != null) {
+                    skipFully(in, Long.parseLong(contentLength));
+                }
+                String[] parts = requestLine.split(" ");
+                mRequestCount.incrementAndGet();
+                Reply reply = mHandler.handle(parts[0], parts[1], headers);
+                if (reply.bytesPerMs > 0) {
+                    writeThrottled(out, reply);
+                } else {
+                    out.write(encode(reply));
+                }
+                out.flush();
+                if ("close".equalsIgnoreCase(headers.get("Connection"))) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // The client went away.
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignore.
+            }
+        }
+    }
+
+    private static void writeThrottled(OutputStream out, Reply reply) throws IOException {
+        out.write(encodeHead(reply));
+        int slice = 64 * 1024;
+        for (int offset = 0; offset < reply.body.length; offset += slice) {
+            int count = Math.min(slice, reply.body.length - offset);
+            try {
+                Thread.sleep(count / reply.bytesPerMs);
+            } catch (InterruptedException e) {
+                throw new IOException(e.toString());
+            }
+            // Fails once the client has read what it wants and closed the connection.
+            out.write(reply.body, offset, count);
+        }
+    }
+
+    private static byte[] encode(Reply reply) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(reply.body.length + 256);
+        bytes.write(encodeHead(reply));
+        bytes.write(reply.body);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeHead(Reply reply) throws IOException {
+        StringBuilder head = new StringBuilder("HTTP/1.1 ").append(reply.status).append(' ')
+                .append(reply.status < 300 ? "OK" : "Error").append("\r\n");
+        for (Map.Entry<String, String> header : reply.headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("Content-Length: ").append(reply.body.length).append("\r\n\r\n");
+        return head.toString().getBytes("ISO-8859-1");
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                return length > 0 && line.charAt(length - 1) == '\r'
+                        ? line.substring(0, length - 1) : line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    return;
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+}
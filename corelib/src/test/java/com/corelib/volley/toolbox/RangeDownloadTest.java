@@ -0,0 +1,269 @@
+package com.corelib.volley.toolbox;
+
+import com.corelib.volley.ExecutorDelivery;
+import com.corelib.volley.RequestQueue;
+import com.corelib.volley.Response;
+import com.corelib.volley.VolleyError;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link RangeDownload}s through a real {@link RequestQueue} and {@link HurlStack}
+ * against a {@link LocalHttpServer} that serves byte ranges.
+ */
+public class RangeDownloadTest {
+    private static final String ETAG = "\"v1\"";
+    private static final String KEY = "file";
+
+    private final byte[] mContent = newContent(3 * 1024 * 1024);
+    private final RangeServer mRangeServer = new RangeServer();
+    private File mDirectory;
+    private UnlimitedDiskFileCache mCache;
+    private LocalHttpServer mServer;
+    private RequestQueue mQueue;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = File.createTempFile("range", "test");
+        mDirectory.delete();
+        mDirectory.mkdirs();
+        mCache = new UnlimitedDiskFileCache(mDirectory.getPath());
+        mServer = new LocalHttpServer(mRangeServer);
+        mQueue = new RequestQueue(new NoCache(), new BasicNetwork(new HurlStack("test")), 4,
+                new ExecutorDelivery(new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                }));
+        mQueue.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mQueue.stop();
+        mServer.shutdown();
+        for (File file : mDirectory.listFiles()) {
+            file.delete();
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void firstRequestAsksForTheWholeFileThenTheRestIsSplit() throws Exception {
+        Result result = download(4);
+
+        assertNull(result.mError);
+        assertArrayEquals(mContent, readFile(result.mFileName));
+        List<String> ranges = mRangeServer.getRanges();
+        assertEquals(4, ranges.size());
+        assertEquals("none", ranges.get(0));
+        int chunk = mContent.length / 4;
+        assertEquals(new HashSet<String>(Arrays.asList("bytes=" + chunk + "-" + (2 * chunk - 1),
+                "bytes=" + 2 * chunk + "-" + (3 * chunk - 1),
+                "bytes=" + 3 * chunk + "-" + (mContent.length - 1))),
+                new HashSet<String>(ranges.subList(1, 4)));
+    }
+
+    @Test
+    public void serverWithoutRangesGetsOnePlainRequest() throws Exception {
+        mRangeServer.mAcceptRanges = false;
+        Result result = download(4);
+
+        assertNull(result.mError);
+        assertArrayEquals(mContent, readFile(result.mFileName));
+        assertEquals(Collections.singletonList("none"), mRangeServer.getRanges());
+    }
+
+    @Test
+    public void failedDownloadResumesWhereItStopped() throws Exception {
+        // The second half fails once; the first half stops when the download is canceled.
+        mRangeServer.mFailOffset = mContent.length / 2;
+        Result failed = download(2);
+        assertNotNull(failed.mError);
+        assertTrue(mCache.getPartialFile(KEY).exists());
+        long servedBefore = mRangeServer.getBytesServed();
+
+        mRangeServer.clearRanges();
+        Result resumed = download(2);
+
+        assertNull(resumed.mError);
+        assertArrayEquals(mContent, readFile(resumed.mFileName));
+        for (String range : mRangeServer.getRanges()) {
+            assertTrue(range, range.startsWith("bytes="));
+        }
+        assertEquals(ETAG, mRangeServer.mLastIfRange);
+        // Only the part not written before is fetched again.
+        long servedAfter = mRangeServer.getBytesServed() - servedBefore;
+        assertTrue("served " + servedAfter, servedAfter < mContent.length);
+    }
+
+    /**
+     * Downloads a 16MB file from a server whose connections each carry 8MB/s, as CDNs often
+     * cap them, with 1, 2 and 4 ranges, and prints the wall-clock time of each.
+     */
+    @Ignore("Benchmark; run by hand")
+    @Test
+    public void benchmarkParallelRanges() throws Exception {
+        byte[] content = newContent(16 * 1024 * 1024);
+        mRangeServer.setContent(content);
+        mRangeServer.mBytesPerMs = 8 * 1024;
+        for (int parallelism : new int[] {1, 2, 4, 1, 2, 4}) {
+            long start = System.nanoTime();
+            Result result = download(parallelism);
+            long elapsedMs = (System.nanoTime() - start) / 1000000;
+            assertNull(result.mError);
+            assertArrayEquals(content, readFile(result.mFileName));
+            System.out.println(String.format("16MB at 8MB/s per connection, %d range(s): %dms",
+                    parallelism, elapsedMs));
+            new File(result.mFileName).delete();
+        }
+    }
+
+    private Result download(int parallelism) throws InterruptedException {
+        final Result result = new Result();
+        RangeDownload download = new RangeDownload(mQueue, mCache, mCache.getPartialFile(KEY),
+                mServer.url("/file"), KEY, parallelism, null, new Response.Listener<String>() {
+                    @Override
+                    public void onResponse(String response) {
+                        result.mFileName = response;
+                        result.mDone.countDown();
+                    }
+
+                    @Override
+                    public void onResponseHeadersAndData(Map<String, String> headers,
+                            String originalData, int responseCode, boolean isFromNetwork) {
+                    }
+                }, new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError error) {
+                        result.mError = error;
+                        result.mDone.countDown();
+                    }
+                });
+        if (!download.start()) {
+            result.mFileName = mCache.getFile(KEY);
+            return result;
+        }
+        assertTrue(result.mDone.await(30, TimeUnit.SECONDS));
+        return result;
+    }
+
+    private static byte[] newContent(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i * 31 + (i >> 13));
+        }
+        return content;
+    }
+
+    private static byte[] readFile(String fileName) throws IOException {
+        assertNotNull(fileName);
+        File file = new File(fileName);
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                offset += in.read(data, offset, data.length - offset);
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    private static class Result {
+        final CountDownLatch mDone = new CountDownLatch(1);
+        volatile String mFileName;
+        volatile VolleyError mError;
+    }
+
+    /** Serves the content with an ETag, answering Range and If-Range like a CDN would. */
+    private class RangeServer implements LocalHttpServer.Handler {
+        private final List<String> mRanges = new ArrayList<String>();
+        private byte[] mServed = mContent;
+        private long mBytesServed;
+        volatile boolean mAcceptRanges = true;
+        volatile long mFailOffset = -1;
+        volatile String mLastIfRange;
+        volatile int mBytesPerMs;
+
+        void setContent(byte[] content) {
+            mServed = content;
+        }
+
+        synchronized List<String> getRanges() {
+            return new ArrayList<String>(mRanges);
+        }
+
+        synchronized void clearRanges() {
+            mRanges.clear();
+        }
+
+        synchronized long getBytesServed() {
+            return mBytesServed;
+        }
+
+        @Override
+        public LocalHttpServer.Reply handle(String method, String path,
+                Map<String, String> headers) throws IOException {
+            String range = headers.get("Range");
+            synchronized (this) {
+                mRanges.add(range == null ? "none" : range);
+            }
+            if (headers.get("If-Range") != null) {
+                mLastIfRange = headers.get("If-Range");
+            }
+            byte[] content = mServed;
+            int first = 0;
+            int last = content.length - 1;
+            boolean partial = range != null && mAcceptRanges
+                    && (headers.get("If-Range") == null || ETAG.equals(headers.get("If-Range")));
+            if (partial) {
+                String spec = range.substring("bytes=".length());
+                int dash = spec.indexOf('-');
+                first = Integer.parseInt(spec.substring(0, dash));
+                if (dash < spec.length() - 1) {
+                    last = Integer.parseInt(spec.substring(dash + 1));
+                }
+                if (first == mFailOffset) {
+                    mFailOffset = -1;
+                    return new LocalHttpServer.Reply(503, "unavailable".getBytes("UTF-8"));
+                }
+            }
+            byte[] body = Arrays.copyOfRange(content, first, last + 1);
+            synchronized (this) {
+                mBytesServed += body.length;
+            }
+            LocalHttpServer.Reply reply = new LocalHttpServer.Reply(partial ? 206 : 200, body)
+                    .header("ETag", ETAG).throttle(mBytesPerMs);
+            if (mAcceptRanges) {
+                reply.header("Accept-Ranges", "bytes");
+            }
+            if (partial) {
+                reply.header("Content-Range",
+                        "bytes " + first + "-" + last + "/" + content.length);
+            }
+            return reply;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.corelib.volley.toolbox;
+
+import com.corelib.volley.Cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares reading and parsing JSON bodies cached in {@link SegmentedDiskBasedCache} copied
+ * onto the heap with parsing them from mapped buffers. Prints time and bytes allocated per
+ * entry; the allocation counts come from HotSpot's per-thread counters, so they show the
+ * copies saved rather than ART's exact figures.
+ */
+public class SegmentedDiskBasedCacheMappedBenchmark {
+    private static final int ENTRIES = 16;
+    private static final int ROUNDS = 5;
+
+    private File mCopyDir;
+    private File mMappedDir;
+
+    @Before
+    public void setUp() throws Exception {
+        mCopyDir = createTempDir("copy");
+        mMappedDir = createTempDir("mapped");
+    }
+
+    @After
+    public void tearDown() {
+        deleteDir(mCopyDir);
+        deleteDir(mMappedDir);
+    }
+
+    @Test
+    public void mappedEntriesMatchCopiedEntries() throws Exception {
+        SegmentedDiskBasedCache copy = newCache(mCopyDir, false);
+        SegmentedDiskBasedCache mapped = newCache(mMappedDir, true);
+        byte[] small = "{\"items\":[]}".getBytes("UTF-8");
+        byte[] large = buildJson(64 * 1024);
+        copy.put("small", newEntry(small));
+        copy.put("large", newEntry(large));
+        mapped.put("small", newEntry(small));
+        mapped.put("large", newEntry(large));
+
+        // Files under the mapping threshold are still read.
+        assertArrayEquals(small, mapped.get("small").data);
+        Cache.Entry entry = mapped.get("large");
+        assertNull(entry.data);
+        assertTrue(entry.buffer.isReadOnly());
+        assertArrayEquals(large, entry.getData());
+        assertArrayEquals(copy.get("large").data, entry.getData());
+    }
+
+    @Ignore("Benchmark; run by hand")
+    @Test
+    public void benchmarkCopiedVersusMapped() throws Exception {
+        for (int size : new int[] { 1024, 8 * 1024, 32 * 1024, 256 * 1024, 1024 * 1024,
+                2 * 1024 * 1024 }) {
+            byte[] body = buildJson(size);
+            SegmentedDiskBasedCache copy = newCache(mCopyDir, false);
+            SegmentedDiskBasedCache mapped = newCache(mMappedDir, true);
+            for (int i = 0; i < ENTRIES; i++) {
+                copy.put("key" + i, newEntry(body));
+                mapped.put("key" + i, newEntry(body));
+            }
+            // Warm up both paths before measuring.
+            readAll(copy);
+            readAll(mapped);
+
+            long[] copied = measure(copy);
+            long[] viaMapping = measure(mapped);
+            System.out.println(String.format(
+                    "SegmentedDiskBasedCache %4dKB body: copy %6dus %8d bytes/entry, "
+                            + "mapped %6dus %8d bytes/entry",
+                    size / 1024, copied[0], copied[1], viaMapping[0], viaMapping[1]));
+            copy.clear();
+            mapped.clear();
+        }
+    }
+
+    /** Returns {microseconds per entry, bytes allocated per entry}. */
+    private static long[] measure(SegmentedDiskBasedCache cache) throws Exception {
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            readAll(cache);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - bytes;
+        int reads = ROUNDS * ENTRIES;
+        return new long[] { elapsed / 1000 / reads, allocated < 0 ? -1 : allocated / reads };
+    }
+
+    private static void readAll(SegmentedDiskBasedCache cache) throws Exception {
+        for (int i = 0; i < ENTRIES; i++) {
+            Cache.Entry entry = cache.get("key" + i);
+            Reader reader = entry.data != null
+                    ? new InputStreamReader(new ByteArrayInputStream(entry.data), "UTF-8")
+                    : new InputStreamReader(new ByteBufferInputStream(entry.buffer.duplicate()),
+                            "UTF-8");
+            Items items = GsonAdapterRegistry.fromJson(reader, Items.class);
+            assertTrue(items.items.size() > 0);
+        }
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static SegmentedDiskBasedCache newCache(File dir, boolean mapEntries)
+            throws Exception {
+        // Room for every entry in any one segment, so none is evicted.
+        SegmentedDiskBasedCache cache =
+                new SegmentedDiskBasedCache(dir, 512 * 1024 * 1024, mapEntries);
+        cache.initialize();
+        assertTrue(cache.awaitInitialized(10000));
+        return cache;
+    }
+
+    private static Cache.Entry newEntry(byte[] data) {
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = data;
+        entry.responseHeaders = new HashMap<String, String>();
+        entry.ttl = Long.MAX_VALUE;
+        entry.softTtl = Long.MAX_VALUE;
+        return entry;
+    }
+
+    private static byte[] buildJson(int size) throws Exception {
+        StringBuilder builder = new StringBuilder("{\"items\":[");
+        int i = 0;
+        while (builder.length() < size) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"id\":").append(i).append(",\"title\":\"title ").append(i)
+                    .append("\",\"url\":\"http://example.com/").append(i).append("\"}");
+            i++;
+        }
+        return builder.append("]}").toString().getBytes("UTF-8");
+    }
+
+    private static File createTempDir(String prefix) throws Exception {
+        File dir = File.createTempFile(prefix, "");
+        dir.delete();
+        dir.mkdirs();
+        return dir;
+    }
+
+    private static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    static class Items {
+        List<Item> items;
+    }
+
+    static class Item {
+        int id;
+        String title;
+        String url;
+    }
+}
@@ -0,0 +1,152 @@
+package com.corelib.volley.toolbox;
+
+import com.corelib.volley.Cache;
+import com.corelib.volley.NetworkResponse;
+
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collections;
+import java.util.Map;
+
+import okhttp3.Headers;
+
+import static org.junit.Assert.*;
+
+public class SegmentedDiskBasedCacheTest {
+    private File mDir;
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = File.createTempFile("cache", "");
+        mDir.delete();
+        mDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void http2HeadersSurviveTheCache() throws Exception {
+        // OkHttp hands over HTTP/2 header names in lowercase.
+        Headers headers = new Headers.Builder()
+                .add("content-type", "application/json; charset=UTF-8")
+                .add("cache-control", "max-age=60")
+                .add("etag", "\"v1\"")
+                .add("date", "Sun, 18 Oct 2026 10:00:00 GMT")
+                .build();
+        Map<String, String> headerMap = new OkHttpStack.OkHttpResponse(
+                new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK"), headers).getHeaderMap();
+        byte[] body = "{\"title\":\"标题\"}".getBytes("UTF-8");
+        Cache.Entry entry = HttpHeaderParser.parseCacheHeaders(
+                new NetworkResponse(body, headerMap));
+        assertEquals("\"v1\"", entry.etag);
+
+        SegmentedDiskBasedCache cache = open();
+        awaitReplay(cache);
+        cache.put("key", entry);
+        // A new instance reads the headers back from the file, as after a restart.
+        SegmentedDiskBasedCache reopened = open();
+        Cache.Entry cached = reopened.get("key");
+
+        assertArrayEquals(body, cached.data);
+        assertEquals("UTF-8", HttpHeaderParser.parseCharset(cached.responseHeaders));
+        Cache.Entry reparsed = HttpHeaderParser.parseCacheHeaders(
+                new NetworkResponse(cached.data, cached.responseHeaders));
+        assertEquals("\"v1\"", reparsed.etag);
+        assertTrue(reparsed.serverDate > 0);
+        assertFalse(reparsed.isExpired());
+    }
+
+    @Test
+    public void entriesSurviveAReopen() throws Exception {
+        SegmentedDiskBasedCache cache = open();
+        awaitReplay(cache);
+        cache.put("a", newEntry("first"));
+        cache.put("b", newEntry("second"));
+        cache.remove("b");
+
+        SegmentedDiskBasedCache reopened = open();
+        awaitReplay(reopened);
+        assertEquals("first", new String(reopened.get("a").data, "UTF-8"));
+        assertNull(reopened.get("b"));
+    }
+
+    @Test
+    public void changesDuringTheReplaySurviveTheNextReopen() throws Exception {
+        SegmentedDiskBasedCache cache = open();
+        awaitReplay(cache);
+        for (int i = 0; i < 200; i++) {
+            cache.put("key" + i, newEntry("value" + i));
+        }
+
+        SegmentedDiskBasedCache replaying = open();
+        // Likely still replaying; either way these are newer than the journal.
+        replaying.put("key0", newEntry("changed"));
+        replaying.remove("key1");
+        replaying.put("new", newEntry("added"));
+        awaitReplay(replaying);
+
+        SegmentedDiskBasedCache reopened = open();
+        awaitReplay(reopened);
+        assertEquals("changed", new String(reopened.get("key0").data, "UTF-8"));
+        assertNull(reopened.get("key1"));
+        assertEquals("added", new String(reopened.get("new").data, "UTF-8"));
+        assertEquals("value199", new String(reopened.get("key199").data, "UTF-8"));
+    }
+
+    @Test
+    public void tornJournalTailIsRebuilt() throws Exception {
+        SegmentedDiskBasedCache cache = open();
+        awaitReplay(cache);
+        cache.put("a", newEntry("first"));
+        // A record cut short by a crash.
+        FileOutputStream journal = new FileOutputStream(new File(mDir, "journal"), true);
+        journal.write(new byte[] { 1, 0, 0 });
+        journal.close();
+
+        SegmentedDiskBasedCache reopened = open();
+        reopened.put("b", newEntry("second"));
+        awaitReplay(reopened);
+        SegmentedDiskBasedCache again = open();
+        awaitReplay(again);
+        assertEquals("first", new String(again.get("a").data, "UTF-8"));
+        assertEquals("second", new String(again.get("b").data, "UTF-8"));
+    }
+
+    /**
+     * Opens the cache directory. Two live instances must not share it, so a test waits for an
+     * instance's replay to end before opening the next.
+     */
+    private SegmentedDiskBasedCache open() {
+        SegmentedDiskBasedCache cache = new SegmentedDiskBasedCache(mDir);
+        cache.initialize();
+        return cache;
+    }
+
+    private static void awaitReplay(SegmentedDiskBasedCache cache) throws Exception {
+        assertTrue(cache.awaitInitialized(10000));
+    }
+
+    private static Cache.Entry newEntry(String body) throws Exception {
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = body.getBytes("UTF-8");
+        entry.responseHeaders = Collections.emptyMap();
+        entry.ttl = Long.MAX_VALUE;
+        entry.softTtl = Long.MAX_VALUE;
+        return entry;
+    }
+}
@@ -0,0 +1,204 @@
+package com.corelib.volley.toolbox;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class SlabByteArrayPoolTest {
+
+    @Test
+    public void buffersAreRoundedUpToTheirSizeClass() {
+        SlabByteArrayPool pool = new SlabByteArrayPool(64 * 1024);
+        assertEquals(256, pool.getBuf(1).length);
+        assertEquals(256, pool.getBuf(256).length);
+        assertEquals(512, pool.getBuf(257).length);
+        assertEquals(4096, pool.getBuf(4000).length);
+        // Larger than the pool; never pooled, so not rounded either.
+        assertEquals(100 * 1024, pool.getBuf(100 * 1024).length);
+    }
+
+    @Test
+    public void returnedBufferIsReused() {
+        SlabByteArrayPool pool = new SlabByteArrayPool(64 * 1024);
+        byte[] buf = pool.getBuf(4000);
+        pool.returnBuf(buf);
+        assertEquals(buf.length, pool.getPooledSize());
+        assertSame(buf, pool.getBuf(3000));
+        assertEquals(0, pool.getPooledSize());
+    }
+
+    @Test
+    public void magazinesCountAgainstTheSizeLimit() {
+        SlabByteArrayPool pool = new SlabByteArrayPool(4096);
+        List<byte[]> buffers = new ArrayList<byte[]>();
+        for (int i = 0; i < 8; i++) {
+            buffers.add(pool.getBuf(1024));
+        }
+        for (byte[] buf : buffers) {
+            pool.returnBuf(buf);
+        }
+        // Four fit; the magazine alone would have taken them all before.
+        assertEquals(4096, pool.getPooledSize());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffers.contains(pool.getBuf(1024)));
+        }
+        assertFalse(buffers.contains(pool.getBuf(1024)));
+    }
+
+    @Test
+    public void sizeLimitHoldsAcrossThreads() throws Exception {
+        final SlabByteArrayPool pool = new SlabByteArrayPool(16 * 1024);
+        final int threads = 8;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    List<byte[]> buffers = new ArrayList<byte[]>();
+                    for (int i = 0; i < 16; i++) {
+                        buffers.add(pool.getBuf(1024));
+                    }
+                    for (byte[] buf : buffers) {
+                        pool.returnBuf(buf);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        assertTrue(pool.getPooledSize() <= 16 * 1024);
+    }
+
+    @Test
+    public void buffersOfDeadThreadsAreReclaimed() throws Exception {
+        final SlabByteArrayPool pool = new SlabByteArrayPool(64 * 1024);
+        final byte[][] returned = new byte[1][];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                returned[0] = pool.getBuf(4096);
+                pool.returnBuf(returned[0]);
+            }
+        });
+        thread.start();
+        thread.join();
+        thread = null;
+
+        // It went into the dead thread's magazine and is moved to the depot on a miss once the
+        // thread has been collected.
+        assertEquals(4096, pool.getPooledSize());
+        byte[] buf = null;
+        for (int i = 0; i < 100 && buf != returned[0]; i++) {
+            System.gc();
+            Thread.sleep(10);
+            buf = pool.getBuf(4096);
+        }
+        assertSame(returned[0], buf);
+        assertEquals(0, pool.getPooledSize());
+    }
+
+    /**
+     * Prints the time of a getBuf that misses the magazine and the depot, while 0, 100 and 1000
+     * other threads that have used the pool are alive.
+     */
+    @Ignore("Benchmark; run by hand")
+    @Test
+    public void benchmarkMissWithManyThreads() throws Exception {
+        for (int threads : new int[] { 0, 100, 1000 }) {
+            final SlabByteArrayPool pool = new SlabByteArrayPool(256 * 1024);
+            final CountDownLatch registered = new CountDownLatch(threads);
+            final CountDownLatch release = new CountDownLatch(1);
+            for (int t = 0; t < threads; t++) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        pool.returnBuf(pool.getBuf(1024));
+                        registered.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            // Done either way.
+                        }
+                    }
+                }).start();
+            }
+            registered.await();
+            int misses = 200000;
+            // Kept so the allocations aren't optimized away.
+            byte[][] sink = new byte[64][];
+            // Warm up.
+            for (int i = 0; i < misses; i++) {
+                sink[i & 63] = pool.getBuf(512);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < misses; i++) {
+                // Never returned, so every call misses.
+                sink[i & 63] = pool.getBuf(512);
+            }
+            long elapsed = System.nanoTime() - start;
+            release.countDown();
+            System.out.println(String.format("%4d other threads: %6dns per miss",
+                    threads, elapsed / misses));
+        }
+    }
+
+    /**
+     * Prints the time per round of two getBuf/returnBuf pairs, with one thread per dispatcher,
+     * for the original ByteArrayPool and for SlabByteArrayPool. The time is wall time divided
+     * by the rounds of all threads, so without contention it stays flat as threads are added.
+     * Threads only contend when they run at once, so this needs at least four CPUs, and thread
+     * counts above the number of CPUs are left out.
+     */
+    @Ignore("Benchmark; run by hand")
+    @Test
+    public void benchmarkContendedGetAndReturn() throws Exception {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        assumeTrue("Needs at least 4 CPUs, has " + cpus, cpus >= 4);
+        for (int threads : new int[] { 1, 2, 4, 8 }) {
+            if (threads > cpus) {
+                break;
+            }
+            long legacy = measure(new ByteArrayPool(256 * 1024), threads);
+            long slab = measure(new SlabByteArrayPool(256 * 1024), threads);
+            System.out.println(String.format(
+                    "%d threads: ByteArrayPool %5dns/round, SlabByteArrayPool %5dns/round",
+                    threads, legacy, slab));
+        }
+    }
+
+    private static long measure(final ByteArrayPool pool, int threads) throws Exception {
+        final int ops = 2000000;
+        // Warm up.
+        run(pool, 1, ops);
+        long start = System.nanoTime();
+        run(pool, threads, ops);
+        return (System.nanoTime() - start) / ((long) ops * threads);
+    }
+
+    private static void run(final ByteArrayPool pool, int threads, final int ops)
+            throws Exception {
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // What BasicNetwork.entityToBytes does per response.
+                    for (int i = 0; i < ops; i++) {
+                        byte[] buf = pool.getBuf(1024);
+                        byte[] out = pool.getBuf(4096);
+                        pool.returnBuf(buf);
+                        pool.returnBuf(out);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+    }
+}
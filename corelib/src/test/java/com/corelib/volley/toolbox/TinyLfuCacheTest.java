@@ -0,0 +1,139 @@
+package com.corelib.volley.toolbox;
+
+import android.support.v4.util.LruCache;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays deterministic request traces against {@link TinyLfuCache}, and against the
+ * {@link LruCache} policy of {@link BitmapCache} for comparison. Entries stand in for images
+ * of {@link #ENTRY_SIZE} bytes; the cache holds {@link #CAPACITY} of them.
+ */
+public class TinyLfuCacheTest {
+    private static final int ENTRY_SIZE = 16 * 1024;
+    private static final int CAPACITY = 100;
+
+    @Test
+    public void newEntryMovesFromTheWindowToProbationThenToProtected() {
+        TinyLfuCache<String> cache = newTinyLfu();
+        load(cache, "a");
+        assertEquals(TinyLfuCache.WINDOW, cache.getRegion("a"));
+        // The window holds a tenth of the cache; ten newer entries push "a" out of it.
+        for (int i = 0; i < 10; i++) {
+            load(cache, "new" + i);
+        }
+        assertEquals(TinyLfuCache.PROBATION, cache.getRegion("a"));
+        assertEquals("a", cache.get("a"));
+        assertEquals(TinyLfuCache.PROTECTED, cache.getRegion("a"));
+    }
+
+    @Test
+    public void entriesSeenOnceAreNotAdmittedOverFrequentOnes() {
+        TinyLfuCache<String> cache = newTinyLfu();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 80; i++) {
+                load(cache, "hot" + i);
+            }
+        }
+        // A pass through a long gallery, every image seen once.
+        for (int i = 0; i < 300; i++) {
+            load(cache, "scan" + i);
+        }
+        for (int i = 0; i < 80; i++) {
+            assertNotEquals("hot" + i, -1, cache.getRegion("hot" + i));
+        }
+        int scanned = 0;
+        for (int i = 0; i < 300; i++) {
+            if (cache.getRegion("scan" + i) != -1) {
+                scanned++;
+            }
+        }
+        // Only the window and the room left over hold scanned images.
+        assertTrue("scanned " + scanned, scanned <= CAPACITY - 80);
+    }
+
+    @Test
+    public void lruLosesTheFrequentEntriesToTheSameScan() {
+        LruCache<String, String> cache = newLru();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 80; i++) {
+                load(cache, "hot" + i);
+            }
+        }
+        for (int i = 0; i < 300; i++) {
+            load(cache, "scan" + i);
+        }
+        for (int i = 0; i < 80; i++) {
+            assertNull(cache.get("hot" + i));
+        }
+    }
+
+    /**
+     * A feed: 70% of requests go to 400 images with skewed popularity (avatars, logos, the
+     * top stories), the rest to images seen once while scrolling. Three times the capacity
+     * is popular, so neither policy can hold it all.
+     */
+    @Test
+    public void tinyLfuBeatsLruOnAFeedTrace() {
+        TinyLfuCache<String> tinyLfu = newTinyLfu();
+        LruCache<String, String> lru = newLru();
+        Random random = new Random(42);
+        int lruHits = 0;
+        int requests = 50000;
+        for (int i = 0; i < requests; i++) {
+            String key;
+            if (random.nextInt(10) < 7) {
+                // Roughly Zipfian: small ranks are much more likely.
+                double u = random.nextDouble();
+                key = "popular" + (int) (400 * u * u * u);
+            } else {
+                key = "once" + i;
+            }
+            load(tinyLfu, key);
+            if (lru.get(key) != null) {
+                lruHits++;
+            } else {
+                lru.put(key, key);
+            }
+        }
+        float lruHitRate = (float) lruHits / requests;
+        System.out.println(String.format("Feed trace hit rate: TinyLFU %.1f%%, LRU %.1f%%",
+                tinyLfu.getHitRate() * 100, lruHitRate * 100));
+        assertTrue(tinyLfu.getHitRate() > lruHitRate);
+    }
+
+    /** Looks the key up and caches it on a miss, as {@link ImageLoader} does. */
+    private static void load(TinyLfuCache<String> cache, String key) {
+        if (cache.get(key) == null) {
+            cache.put(key, key);
+        }
+    }
+
+    private static void load(LruCache<String, String> cache, String key) {
+        if (cache.get(key) == null) {
+            cache.put(key, key);
+        }
+    }
+
+    private static TinyLfuCache<String> newTinyLfu() {
+        return new TinyLfuCache<String>(CAPACITY * ENTRY_SIZE) {
+            @Override
+            protected int sizeOf(String key, String value) {
+                return ENTRY_SIZE;
+            }
+        };
+    }
+
+    private static LruCache<String, String> newLru() {
+        return new LruCache<String, String>(CAPACITY * ENTRY_SIZE) {
+            @Override
+            protected int sizeOf(String key, String value) {
+                return ENTRY_SIZE;
+            }
+        };
+    }
+}
@@ -0,0 +1,194 @@
+package com.corelib.volley.toolbox;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.*;
+
+public class UnlimitedDiskFileCacheTest {
+    private File mDir;
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = File.createTempFile("files", "");
+        mDir.delete();
+        mDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void putReplacesTheExistingFile() throws Exception {
+        UnlimitedDiskFileCache cache = new UnlimitedDiskFileCache(mDir.getPath());
+        String path = cache.putFile("key", "old".getBytes("UTF-8"));
+
+        assertEquals(path, cache.putFile("key", "newer".getBytes("UTF-8")));
+        assertEquals("newer", read(path));
+        InputStream newest = new ByteArrayInputStream("newest".getBytes("UTF-8"));
+        assertEquals(path, cache.putFile("key", newest));
+        assertEquals("newest", read(path));
+        assertEquals(1, mDir.listFiles().length);
+    }
+
+    @Test
+    public void failedWriteKeepsTheExistingFile() throws Exception {
+        UnlimitedDiskFileCache cache = new UnlimitedDiskFileCache(mDir.getPath());
+        String path = cache.putFile("key", "old".getBytes("UTF-8"));
+        InputStream broken = new InputStream() {
+            private int mRead;
+
+            @Override
+            public int read() throws IOException {
+                if (++mRead > 100) {
+                    throw new IOException("connection reset");
+                }
+                return 'x';
+            }
+        };
+
+        try {
+            cache.putFile("key", broken);
+            fail();
+        } catch (IOException e) {
+            // Expected.
+        }
+        assertEquals("old", read(path));
+        // The temporary file is gone too.
+        assertEquals(1, mDir.listFiles().length);
+    }
+
+    @Test
+    public void tempFilesLeftBeforeTheCacheWasCreatedAreDeleted() throws Exception {
+        File stale = new File(mDir, "key12345.tmp");
+        write(stale, System.currentTimeMillis() - 60000);
+        File cached = new File(mDir, "cached");
+        write(cached, System.currentTimeMillis() - 60000);
+        UnlimitedDiskFileCache cache = new UnlimitedDiskFileCache(mDir.getPath());
+        // Being written by a download that started after the cache was created.
+        File writing = new File(mDir, "other6789.tmp");
+        write(writing, System.currentTimeMillis() + 60000);
+
+        cache.deleteStaleTempFiles();
+
+        assertFalse(stale.exists());
+        assertTrue(cached.exists());
+        assertTrue(writing.exists());
+    }
+
+    /**
+     * Writes bodies of 1, 8 and 32MB into the cache from a stream, as downloads do now, and by
+     * reading them into one array first, as they did before, and prints the bytes allocated
+     * and the throughput of each. The body is generated as it is read, like a network stream.
+     */
+    @Ignore("Benchmark; run by hand")
+    @Test
+    public void benchmarkStreamedVersusBuffered() throws Exception {
+        UnlimitedDiskFileCache cache = new UnlimitedDiskFileCache(mDir.getPath());
+        for (int round = 0; round < 2; round++) {
+            for (int size : new int[] { 1 << 20, 8 << 20, 32 << 20 }) {
+                long bytes = allocatedBytes();
+                long start = System.nanoTime();
+                assertNotNull(cache.putFile("streamed", new GeneratedStream(size)));
+                long streamedNanos = System.nanoTime() - start;
+                long streamedBytes = allocatedBytes() - bytes;
+
+                bytes = allocatedBytes();
+                start = System.nanoTime();
+                byte[] body = new byte[size];
+                InputStream in = new GeneratedStream(size);
+                int offset = 0;
+                while (offset < size) {
+                    offset += in.read(body, offset, size - offset);
+                }
+                assertNotNull(cache.putFile("buffered", body));
+                long bufferedNanos = System.nanoTime() - start;
+                long bufferedBytes = allocatedBytes() - bytes;
+
+                System.out.println(String.format("%2dMB body: streamed %6dKB allocated %4.0fMB/s, "
+                        + "buffered %6dKB allocated %4.0fMB/s", size >> 20, streamedBytes / 1024,
+                        size * 1e3 / streamedNanos, bufferedBytes / 1024,
+                        size * 1e3 / bufferedNanos));
+            }
+        }
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static void write(File file, long lastModified) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[10]);
+        } finally {
+            out.close();
+        }
+        assertTrue(file.setLastModified(lastModified));
+    }
+
+    private static String read(String path) throws IOException {
+        FileInputStream in = new FileInputStream(path);
+        try {
+            byte[] data = new byte[(int) new File(path).length()];
+            int offset = 0;
+            while (offset < data.length) {
+                offset += in.read(data, offset, data.length - offset);
+            }
+            return new String(data, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Produces size bytes of a pattern without holding them. */
+    private static class GeneratedStream extends InputStream {
+        private final int mSize;
+        private int mPosition;
+
+        GeneratedStream(int size) {
+            mSize = size;
+        }
+
+        @Override
+        public int read() {
+            return mPosition < mSize ? (mPosition++ * 31) & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (mPosition >= mSize) {
+                return -1;
+            }
+            int count = Math.min(length, mSize - mPosition);
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = (byte) (mPosition++ * 31);
+            }
+            return count;
+        }
+    }
+}